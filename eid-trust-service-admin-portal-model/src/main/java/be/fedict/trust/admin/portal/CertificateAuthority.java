@@ -28,6 +28,8 @@ public interface CertificateAuthority {
 	 */
 	void certificateAuthorityListFactory();
 
+	void circuitBreakerListFactory();
+
 	/*
 	 * Lifecycle.
 	 */
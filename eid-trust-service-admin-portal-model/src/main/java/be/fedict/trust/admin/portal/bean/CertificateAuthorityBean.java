@@ -40,6 +40,7 @@ import org.jboss.seam.log.Log;
 
 import be.fedict.trust.admin.portal.AdminConstants;
 import be.fedict.trust.admin.portal.CertificateAuthority;
+import be.fedict.trust.service.CircuitBreakerStatus;
 import be.fedict.trust.service.TrustDomainService;
 import be.fedict.trust.service.entity.CertificateAuthorityEntity;
 
@@ -52,6 +53,9 @@ public class CertificateAuthorityBean implements CertificateAuthority {
 	private static final String CERTIFICATE_AUTHORITY_LIST_NAME = AdminConstants.ADMIN_SEAM_PREFIX
 			+ "caList";
 
+	private static final String CIRCUIT_BREAKER_LIST_NAME = AdminConstants.ADMIN_SEAM_PREFIX
+			+ "circuitBreakerList";
+
 	@Logger
 	private Log log;
 
@@ -74,11 +78,21 @@ public class CertificateAuthorityBean implements CertificateAuthority {
 	@DataModelSelection(CERTIFICATE_AUTHORITY_LIST_NAME)
 	private CertificateAuthorityEntity selectedCA;
 
+	@DataModel(CIRCUIT_BREAKER_LIST_NAME)
+	@SuppressWarnings("unused")
+	private List<CircuitBreakerStatus> circuitBreakerList;
+
 	@Factory(CERTIFICATE_AUTHORITY_LIST_NAME)
 	public void certificateAuthorityListFactory() {
 		this.caList = this.trustDomainService.listCAs();
 	}
 
+	@Factory(CIRCUIT_BREAKER_LIST_NAME)
+	public void circuitBreakerListFactory() {
+		this.circuitBreakerList = this.trustDomainService
+				.listCircuitBreakers();
+	}
+
 	@Remove
 	@Destroy
 	public void destroyCallback() {
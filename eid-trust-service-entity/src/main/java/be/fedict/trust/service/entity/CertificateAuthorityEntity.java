@@ -18,12 +18,9 @@
 
 package be.fedict.trust.service.entity;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.io.Serializable;
+import java.math.BigInteger;
 import java.security.cert.CertificateEncodingException;
-import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Date;
 
@@ -56,7 +53,9 @@ import javax.persistence.Transient;
 		@NamedQuery(name = CertificateAuthorityEntity.QUERY_COUNT_ACTIVE, query = "SELECT COUNT(*) FROM CertificateAuthorityEntity AS ca "
 				+ "WHERE ca.status = 'ACTIVE'"),
 		@NamedQuery(name = CertificateAuthorityEntity.QUERY_ACTIVE, query = "SELECT ca FROM CertificateAuthorityEntity AS ca "
-				+ "WHERE ca.status = 'ACTIVE'") })
+				+ "WHERE ca.status = 'ACTIVE'"),
+		@NamedQuery(name = CertificateAuthorityEntity.QUERY_CRL_VERSIONS, query = "SELECT ca.name, ca.crlNumber, ca.crlHash "
+				+ "FROM CertificateAuthorityEntity AS ca") })
 public class CertificateAuthorityEntity implements Serializable {
 
 	private static final long serialVersionUID = 1L;
@@ -67,6 +66,7 @@ public class CertificateAuthorityEntity implements Serializable {
 	public static final String QUERY_ALL = "ts_ca.q.all";
 	public static final String QUERY_ACTIVE = "ts_ca.q.active";
 	public static final String QUERY_COUNT_ACTIVE = "ts_ca.q.count.active";
+	public static final String QUERY_CRL_VERSIONS = "ts_ca.q.crl.versions";
 
 	private String name;
 
@@ -80,6 +80,16 @@ public class CertificateAuthorityEntity implements Serializable {
 
 	private Date nextUpdate;
 
+	private BigInteger crlNumber;
+
+	private Long harvestDuration;
+
+	private String crlETag;
+
+	private String crlLastModified;
+
+	private String crlHash;
+
 	private TrustPointEntity trustPoint;
 
 	/**
@@ -104,6 +114,11 @@ public class CertificateAuthorityEntity implements Serializable {
 		this.encodedCertificate = certificate.getEncoded();
 		this.thisUpdate = null;
 		this.nextUpdate = null;
+		this.crlNumber = null;
+		this.harvestDuration = null;
+		this.crlETag = null;
+		this.crlLastModified = null;
+		this.crlHash = null;
 		this.trustPoint = null;
 	}
 
@@ -162,6 +177,64 @@ public class CertificateAuthorityEntity implements Serializable {
 		this.nextUpdate = nextUpdate;
 	}
 
+	/**
+	 * The number of the CRL the revoked certificate cache was last built
+	 * from.
+	 */
+	@Column(precision = 38)
+	public BigInteger getCrlNumber() {
+		return this.crlNumber;
+	}
+
+	public void setCrlNumber(BigInteger crlNumber) {
+		this.crlNumber = crlNumber;
+	}
+
+	/**
+	 * Duration in milliseconds of the last harvest of this CA's CRL.
+	 */
+	public Long getHarvestDuration() {
+		return this.harvestDuration;
+	}
+
+	public void setHarvestDuration(Long harvestDuration) {
+		this.harvestDuration = harvestDuration;
+	}
+
+	/**
+	 * HTTP ETag of the last harvested CRL, used for conditional downloads.
+	 */
+	public String getCrlETag() {
+		return this.crlETag;
+	}
+
+	public void setCrlETag(String crlETag) {
+		this.crlETag = crlETag;
+	}
+
+	/**
+	 * HTTP Last-Modified header of the last harvested CRL, used for
+	 * conditional downloads.
+	 */
+	public String getCrlLastModified() {
+		return this.crlLastModified;
+	}
+
+	public void setCrlLastModified(String crlLastModified) {
+		this.crlLastModified = crlLastModified;
+	}
+
+	/**
+	 * Hex encoded SHA-256 hash of the last harvested CRL.
+	 */
+	public String getCrlHash() {
+		return this.crlHash;
+	}
+
+	public void setCrlHash(String crlHash) {
+		this.crlHash = crlHash;
+	}
+
 	@ManyToOne(optional = true)
 	public TrustPointEntity getTrustPoint() {
 		return this.trustPoint;
@@ -171,26 +244,24 @@ public class CertificateAuthorityEntity implements Serializable {
 		this.trustPoint = trustPoint;
 	}
 
+	/**
+	 * Returns the decoded CA certificate, shared with all other entities
+	 * carrying the same certificate.
+	 */
+	@Transient
+	public DecodedCertificate getDecodedCertificate() {
+		return DecodedCertificate.decode(this.encodedCertificate);
+	}
+
 	@Transient
 	public X509Certificate getCertificate() {
-		try {
-			CertificateFactory certificateFactory = CertificateFactory
-					.getInstance("X.509");
-			InputStream certificateStream = new ByteArrayInputStream(
-					this.encodedCertificate);
-			X509Certificate certificate = (X509Certificate) certificateFactory
-					.generateCertificate(certificateStream);
-			return certificate;
-		} catch (CertificateException e) {
-			throw new RuntimeException("cert factory error: " + e.getMessage());
-		}
+		return getDecodedCertificate().getCertificate();
 	}
 
 	@Transient
 	public boolean isExpired() {
-		X509Certificate certificate = getCertificate();
 		Date now = new Date();
-		if (now.after(certificate.getNotAfter())) {
+		if (now.after(getDecodedCertificate().getNotAfter())) {
 			return true;
 		}
 		return false;
@@ -0,0 +1,159 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.entity;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Decoded X509 certificate together with its precomputed derived values.
+ *
+ * Decoded certificates are shared process-wide through a bounded cache keyed
+ * by the SHA-256 hash of the DER encoding, so the same CA certificate is only
+ * parsed once, no matter how many entity instances carry it.
+ */
+public final class DecodedCertificate {
+
+	private static final Log LOG = LogFactory.getLog(DecodedCertificate.class);
+
+	private static final int MAX_ENTRIES = 1000;
+
+	private static final ConcurrentMap<String, DecodedCertificate> cache = new ConcurrentHashMap<String, DecodedCertificate>();
+
+	private final X509Certificate certificate;
+
+	private final String subject;
+
+	private final long notAfter;
+
+	private final String spkiHash;
+
+	private final String nameHash;
+
+	private DecodedCertificate(X509Certificate certificate) {
+		this.certificate = certificate;
+		this.subject = certificate.getSubjectX500Principal().toString();
+		this.notAfter = certificate.getNotAfter().getTime();
+		this.spkiHash = toHex(digest("SHA-256", certificate.getPublicKey()
+				.getEncoded()));
+		this.nameHash = toHex(digest("SHA-1", certificate
+				.getSubjectX500Principal().getEncoded()));
+	}
+
+	/**
+	 * Returns the decoded form of the specified DER encoded certificate,
+	 * decoding it only if not yet cached.
+	 */
+	public static DecodedCertificate decode(byte[] encodedCertificate) {
+
+		String key = toHex(digest("SHA-256", encodedCertificate));
+		DecodedCertificate decodedCertificate = cache.get(key);
+		if (null != decodedCertificate) {
+			return decodedCertificate;
+		}
+
+		X509Certificate certificate;
+		try {
+			CertificateFactory certificateFactory = CertificateFactory
+					.getInstance("X.509");
+			certificate = (X509Certificate) certificateFactory
+					.generateCertificate(new ByteArrayInputStream(
+							encodedCertificate));
+		} catch (CertificateException e) {
+			throw new RuntimeException("cert factory error: " + e.getMessage());
+		}
+		decodedCertificate = new DecodedCertificate(certificate);
+
+		if (cache.size() >= MAX_ENTRIES) {
+			LOG.debug("decoded certificate cache full, clearing");
+			cache.clear();
+		}
+		DecodedCertificate existingDecodedCertificate = cache.putIfAbsent(key,
+				decodedCertificate);
+		if (null != existingDecodedCertificate) {
+			return existingDecodedCertificate;
+		}
+		return decodedCertificate;
+	}
+
+	/**
+	 * Returns the shared decoded certificate. Must not be modified.
+	 */
+	public X509Certificate getCertificate() {
+		return this.certificate;
+	}
+
+	/**
+	 * Returns the subject DN, as returned by
+	 * {@link javax.security.auth.x500.X500Principal#toString()}.
+	 */
+	public String getSubject() {
+		return this.subject;
+	}
+
+	public Date getNotAfter() {
+		return new Date(this.notAfter);
+	}
+
+	/**
+	 * Returns the hex encoded SHA-256 hash of the DER encoded
+	 * SubjectPublicKeyInfo.
+	 */
+	public String getSpkiHash() {
+		return this.spkiHash;
+	}
+
+	/**
+	 * Returns the hex encoded SHA-1 hash of the DER encoded subject name, as
+	 * used for the OCSP issuerNameHash.
+	 */
+	public String getNameHash() {
+		return this.nameHash;
+	}
+
+	private static byte[] digest(String algorithm, byte[] data) {
+
+		try {
+			return MessageDigest.getInstance(algorithm).digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(algorithm + " not supported", e);
+		}
+	}
+
+	private static String toHex(byte[] data) {
+
+		String hex = new BigInteger(1, data).toString(16);
+		StringBuilder stringBuilder = new StringBuilder();
+		for (int idx = hex.length(); idx < data.length * 2; idx++) {
+			stringBuilder.append('0');
+		}
+		return stringBuilder.append(hex).toString();
+	}
+}
@@ -47,6 +47,10 @@ import org.apache.commons.lang.builder.ToStringStyle;
 				+ "WHERE pk.issuer = :issuer"),
 		@NamedQuery(name = RevokedCertificateEntity.QUERY_WHERE_ISSUER, query = "FROM RevokedCertificateEntity "
 				+ "WHERE pk.issuer = :issuer"),
+		@NamedQuery(name = RevokedCertificateEntity.QUERY_REVOCATION_DATES_WHERE_ISSUER_ORDERED, query = "SELECT pk.serialNumber, revocationDate FROM RevokedCertificateEntity "
+				+ "WHERE pk.issuer = :issuer ORDER BY pk.serialNumber"),
+		@NamedQuery(name = RevokedCertificateEntity.QUERY_REVOCATION_DATES_WHERE_ISSUER_AFTER_SERIAL, query = "SELECT pk.serialNumber, revocationDate FROM RevokedCertificateEntity "
+				+ "WHERE pk.issuer = :issuer AND pk.serialNumber > :serialNumber ORDER BY pk.serialNumber"),
 		@NamedQuery(name = RevokedCertificateEntity.DELETE_WHERE_ISSUER_OLDER_CRL_NUMBER, query = "DELETE FROM RevokedCertificateEntity "
 				+ "WHERE crlNumber < :crlNumber AND issuer = :issuer"),
 		@NamedQuery(name = RevokedCertificateEntity.QUERY_COUNT_ALL, query = "SELECT COUNT(*) FROM RevokedCertificateEntity") })
@@ -56,6 +60,8 @@ public class RevokedCertificateEntity implements Serializable {
 
 	public static final String QUERY_WHERE_ISSUER_SERIAL = "ts_rc.q.i.s";
 	public static final String QUERY_WHERE_ISSUER = "ts_rc.q.i";
+	public static final String QUERY_REVOCATION_DATES_WHERE_ISSUER_ORDERED = "ts_rc.q.rd.i.o";
+	public static final String QUERY_REVOCATION_DATES_WHERE_ISSUER_AFTER_SERIAL = "ts_rc.q.rd.i.as";
 	public static final String QUERY_CRL_NUMBER_WHERE_ISSUER = "ts_rc.q.c";
 	public static final String DELETE_WHERE_ISSUER = "ts_rc.d.i";
 	public static final String DELETE_WHERE_ISSUER_OLDER_CRL_NUMBER = "ts_rc.d.i.old.c";
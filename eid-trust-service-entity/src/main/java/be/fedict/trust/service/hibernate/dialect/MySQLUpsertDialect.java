@@ -0,0 +1,40 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.hibernate.dialect;
+
+import org.hibernate.dialect.MySQL5InnoDBDialect;
+
+/**
+ * Custom MySQL 5 InnoDB Dialect adding native upsert support via
+ * <code>INSERT ... ON DUPLICATE KEY UPDATE</code>.
+ */
+public class MySQLUpsertDialect extends MySQL5InnoDBDialect implements
+		UpsertDialect {
+
+	public MySQLUpsertDialect() {
+		super();
+	}
+
+	public String getRevokedCertificateUpsertString() {
+		return "INSERT INTO ts_revoked_certs "
+				+ "(issuer, serialNumber, revocationDate, crlNumber) VALUES (?, ?, ?, ?) "
+				+ "ON DUPLICATE KEY UPDATE revocationDate = VALUES(revocationDate), "
+				+ "crlNumber = VALUES(crlNumber)";
+	}
+}
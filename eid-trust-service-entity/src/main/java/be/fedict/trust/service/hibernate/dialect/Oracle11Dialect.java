@@ -24,15 +24,25 @@ import org.hibernate.dialect.Oracle10gDialect;
 
 /**
  * Custom Oracle Dialect to resolve the issue with Double mapping to Oracle's
- * Double precision
+ * Double precision. Also adds native upsert support via <code>MERGE</code>.
  * 
  * @author wvdhaute
  * 
  */
-public class Oracle11Dialect extends Oracle10gDialect {
+public class Oracle11Dialect extends Oracle10gDialect implements UpsertDialect {
 
 	public Oracle11Dialect() {
 		super();
 		registerColumnType(Types.DOUBLE, "binary_double");
 	}
+
+	public String getRevokedCertificateUpsertString() {
+		return "MERGE INTO ts_revoked_certs target USING (SELECT ? AS issuer, "
+				+ "? AS serialNumber, ? AS revocationDate, ? AS crlNumber FROM dual) source "
+				+ "ON (target.issuer = source.issuer AND target.serialNumber = source.serialNumber) "
+				+ "WHEN MATCHED THEN UPDATE SET target.revocationDate = source.revocationDate, "
+				+ "target.crlNumber = source.crlNumber "
+				+ "WHEN NOT MATCHED THEN INSERT (issuer, serialNumber, revocationDate, crlNumber) "
+				+ "VALUES (source.issuer, source.serialNumber, source.revocationDate, source.crlNumber)";
+	}
 }
@@ -0,0 +1,41 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.hibernate.dialect;
+
+import org.hibernate.dialect.PostgreSQLDialect;
+
+/**
+ * Custom PostgreSQL Dialect adding native upsert support via
+ * <code>INSERT ... ON CONFLICT DO UPDATE</code>, available as of PostgreSQL
+ * 9.5.
+ */
+public class PostgreSQLUpsertDialect extends PostgreSQLDialect implements
+		UpsertDialect {
+
+	public PostgreSQLUpsertDialect() {
+		super();
+	}
+
+	public String getRevokedCertificateUpsertString() {
+		return "INSERT INTO ts_revoked_certs "
+				+ "(issuer, serialNumber, revocationDate, crlNumber) VALUES (?, ?, ?, ?) "
+				+ "ON CONFLICT (issuer, serialNumber) DO UPDATE SET "
+				+ "revocationDate = EXCLUDED.revocationDate, crlNumber = EXCLUDED.crlNumber";
+	}
+}
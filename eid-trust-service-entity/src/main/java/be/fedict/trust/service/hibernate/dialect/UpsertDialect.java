@@ -0,0 +1,34 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.hibernate.dialect;
+
+/**
+ * Implemented by the custom dialects of databases that can insert a row or
+ * update the existing one in a single statement.
+ */
+public interface UpsertDialect {
+
+	/**
+	 * Returns the SQL statement that inserts a revoked certificate, or updates
+	 * the revocation date and CRL number if the revoked certificate already
+	 * exists. The statement parameters are, in order: issuer, serial number,
+	 * revocation date and CRL number.
+	 */
+	String getRevokedCertificateUpsertString();
+}
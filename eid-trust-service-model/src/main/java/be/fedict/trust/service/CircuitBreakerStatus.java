@@ -0,0 +1,89 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Status of the circuit breaker of a single OCSP responder or CRL
+ * distribution point.
+ */
+public class CircuitBreakerStatus implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String url;
+
+	private final String state;
+
+	private final int failureRate;
+
+	private final long lastLatency;
+
+	private final Date openedAt;
+
+	public CircuitBreakerStatus(String url, String state, int failureRate,
+			long lastLatency, Date openedAt) {
+
+		this.url = url;
+		this.state = state;
+		this.failureRate = failureRate;
+		this.lastLatency = lastLatency;
+		this.openedAt = openedAt;
+	}
+
+	public String getUrl() {
+
+		return this.url;
+	}
+
+	/**
+	 * Returns the state: <code>CLOSED</code>, <code>OPEN</code> or
+	 * <code>HALF_OPEN</code>.
+	 */
+	public String getState() {
+
+		return this.state;
+	}
+
+	/**
+	 * Returns the failure rate in % over the recent requests.
+	 */
+	public int getFailureRate() {
+
+		return this.failureRate;
+	}
+
+	/**
+	 * Returns the latency in milliseconds of the last request.
+	 */
+	public long getLastLatency() {
+
+		return this.lastLatency;
+	}
+
+	/**
+	 * Returns when the circuit was last opened, <code>null</code> if never.
+	 */
+	public Date getOpenedAt() {
+
+		return this.openedAt;
+	}
+}
@@ -34,10 +34,38 @@ public interface NotificationService {
 	void notifyDownloader(String issuerName, boolean update)
 			throws JMSException;
 
-	void notifyHarvester(String issuerName, String crlFile, boolean update)
+	/**
+	 * Notifies the harvester of a downloaded CRL. The optional HTTP
+	 * validators and content hash are stored on the CA once harvested, for
+	 * conditional downloads of the next refreshes.
+	 */
+	void notifyHarvester(String issuerName, String crlFile, boolean update,
+			String crlETag, String crlLastModified, String crlHash)
 			throws JMSException;
 
+	/**
+	 * Notifies the harvester of a downloaded CRL, delivered only after the
+	 * given delay in milliseconds.
+	 */
+	void notifyHarvester(String issuerName, String crlFile, boolean update,
+			String crlETag, String crlLastModified, String crlHash,
+			long deliveryDelay) throws JMSException;
+
 	void notifyColdStart(String crlUrl, String certUrl) throws JMSException;
 
 	void notifyRemoveCA(String issuerName) throws JMSException;
+
+	/**
+	 * Notifies the harvester of the removal of a CA, delivered only after the
+	 * given delay in milliseconds.
+	 */
+	void notifyRemoveCA(String issuerName, long deliveryDelay)
+			throws JMSException;
+
+	/**
+	 * Notifies the CA discovery worker of a CA that should be created, or
+	 * whose CRL harvesting should be started.
+	 */
+	void notifyDiscovery(String caName, byte[] encodedCertificate,
+			String crlUrl, boolean activate) throws JMSException;
 }
@@ -39,5 +39,33 @@ public abstract class SnmpConstants {
 	public static final String CACHE_HIT_PERCENTAGE = SNMP_OID_ROOT + "4.0";
 	public static final String CRL_DOWNLOAD_FAILURES = SNMP_OID_ROOT + "5.0";
 	public static final String OCSP_FAILURES = SNMP_OID_ROOT + "6.0";
+	public static final String REVOCATION_FILTER_SIZE = SNMP_OID_ROOT + "7.0";
+	public static final String REVOCATION_FILTER_FPP = SNMP_OID_ROOT + "8.0";
+	public static final String HARVESTER_QUEUE_DEPTH = SNMP_OID_ROOT + "9.0";
+	public static final String DOWNLOADER_QUEUE_DEPTH = SNMP_OID_ROOT + "10.0";
+	public static final String HARVESTS_ACTIVE = SNMP_OID_ROOT + "11.0";
+	public static final String HARVEST_DURATION = SNMP_OID_ROOT + "12.0";
+	public static final String CRL_DOWNLOADS_NOT_MODIFIED = SNMP_OID_ROOT
+			+ "13.0";
+	public static final String CRL_CACHE_HITS = SNMP_OID_ROOT + "14.0";
+	public static final String CRL_CACHE_MISSES = SNMP_OID_ROOT + "15.0";
+	public static final String CRL_CACHE_IN_FLIGHT = SNMP_OID_ROOT + "16.0";
+	public static final String CRL_CACHE_MEMORY = SNMP_OID_ROOT + "17.0";
+	public static final String CRL_CACHE_EVICTIONS = SNMP_OID_ROOT + "18.0";
+	public static final String RESULT_CACHE_HITS = SNMP_OID_ROOT + "19.0";
+	public static final String RESULT_CACHE_MISSES = SNMP_OID_ROOT + "20.0";
+	public static final String RESULT_CACHE_HIT_PERCENTAGE = SNMP_OID_ROOT
+			+ "21.0";
+	public static final String VALIDATIONS_COALESCED = SNMP_OID_ROOT
+			+ "22.0";
+	public static final String REVOCATION_HEDGES = SNMP_OID_ROOT + "23.0";
+	public static final String REVOCATION_HEDGE_WINS_OCSP = SNMP_OID_ROOT
+			+ "24.0";
+	public static final String REVOCATION_HEDGE_WINS_CRL = SNMP_OID_ROOT
+			+ "25.0";
+	public static final String CIRCUIT_BREAKERS_OPEN = SNMP_OID_ROOT + "26.0";
+	public static final String CIRCUIT_BREAKER_TRIPS = SNMP_OID_ROOT + "27.0";
+	public static final String CIRCUIT_BREAKER_REJECTIONS = SNMP_OID_ROOT
+			+ "28.0";
 
 }
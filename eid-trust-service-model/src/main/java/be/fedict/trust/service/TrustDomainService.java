@@ -298,6 +298,12 @@ public interface TrustDomainService {
 
 	long getTotalActiveCachedCAs();
 
+	/**
+	 * Returns the status of the circuit breakers of all OCSP responders and
+	 * CRL distribution points contacted so far.
+	 */
+	List<CircuitBreakerStatus> listCircuitBreakers();
+
 	void coldStart(String crlUrl, String certUrl);
 
 	void coldStart(String crlText);
@@ -0,0 +1,259 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.OCSPException;
+import org.bouncycastle.ocsp.OCSPResp;
+import org.bouncycastle.ocsp.OCSPRespStatus;
+import org.bouncycastle.ocsp.SingleResp;
+
+import be.fedict.trust.ocsp.OcspRepository;
+
+/**
+ * Thread-safe caching {@link OcspRepository}.
+ *
+ * OCSP responses are cached per OCSP CertID. A response is reused until its
+ * nextUpdate, and at most for the configured maximum age counted from its
+ * thisUpdate. Unsuccessful responses are not cached. Concurrent requests for
+ * the same CertID wait for the running OCSP request instead of sending their
+ * own.
+ *
+ * When the maximum number of cached responses is exceeded, the expired
+ * responses are purged first, then the ones expiring soonest.
+ */
+public class CachedOcspRepository implements OcspRepository {
+
+	private static final Log LOG = LogFactory
+			.getLog(CachedOcspRepository.class);
+
+	private final OcspRepository ocspRepository;
+
+	private final long maxAgeMillis;
+
+	private final int maxEntries;
+
+	private volatile ConcurrentMap<String, OcspEntry> entries = new ConcurrentHashMap<String, OcspEntry>();
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param ocspRepository
+	 *            the online OCSP repository used for cache misses.
+	 * @param maxAge
+	 *            the maximum age in seconds of a cached OCSP response,
+	 *            counted from its thisUpdate.
+	 * @param maxEntries
+	 *            the maximum number of cached OCSP responses.
+	 */
+	public CachedOcspRepository(OcspRepository ocspRepository, int maxAge,
+			int maxEntries) {
+		this.ocspRepository = ocspRepository;
+		this.maxAgeMillis = maxAge * 1000L;
+		this.maxEntries = maxEntries;
+	}
+
+	public OCSPResp findOcspResponse(URI ocspUri, X509Certificate certificate,
+			X509Certificate issuerCertificate, Date validationDate) {
+
+		CertificateID certificateId;
+		try {
+			certificateId = new CertificateID(CertificateID.HASH_SHA1,
+					issuerCertificate, certificate.getSerialNumber());
+		} catch (OCSPException e) {
+			LOG.error("OCSP CertID error: " + e.getMessage(), e);
+			return this.ocspRepository.findOcspResponse(ocspUri, certificate,
+					issuerCertificate, validationDate);
+		}
+		String key = getKey(certificateId);
+
+		ConcurrentMap<String, OcspEntry> currentEntries = this.entries;
+		OcspEntry entry = currentEntries.get(key);
+		while (null == entry || entry.isDone() && entry.isExpired()) {
+			OcspEntry newEntry = new OcspEntry(ocspUri, certificate,
+					issuerCertificate, validationDate, certificateId);
+			if (null == entry) {
+				entry = currentEntries.putIfAbsent(key, newEntry);
+			} else if (currentEntries.replace(key, entry, newEntry)) {
+				entry = null;
+			} else {
+				entry = currentEntries.get(key);
+			}
+			if (null == entry) {
+				newEntry.run();
+				if (newEntry.isExpired()) {
+					currentEntries.remove(key, newEntry);
+				} else if (currentEntries.size() > this.maxEntries) {
+					evict(currentEntries);
+				}
+				return newEntry.getOcspResp();
+			}
+		}
+
+		LOG.debug("cached OCSP response for: "
+				+ certificate.getSubjectX500Principal());
+		return entry.getOcspResp();
+	}
+
+	/**
+	 * Drops all cached OCSP responses.
+	 */
+	public void reset() {
+
+		LOG.debug("reset OCSP cache");
+		this.entries = new ConcurrentHashMap<String, OcspEntry>();
+	}
+
+	private void evict(ConcurrentMap<String, OcspEntry> currentEntries) {
+
+		synchronized (currentEntries) {
+			if (currentEntries.size() <= this.maxEntries) {
+				return;
+			}
+			LOG.debug("purge OCSP cache");
+			OcspEntry firstExpiringEntry = null;
+			Iterator<Map.Entry<String, OcspEntry>> iterator = currentEntries
+					.entrySet().iterator();
+			while (iterator.hasNext()) {
+				OcspEntry entry = iterator.next().getValue();
+				if (!entry.isDone()) {
+					continue;
+				}
+				if (entry.isExpired()) {
+					iterator.remove();
+				} else if (null == firstExpiringEntry
+						|| entry.expiry < firstExpiringEntry.expiry) {
+					firstExpiringEntry = entry;
+				}
+			}
+			if (currentEntries.size() > this.maxEntries
+					&& null != firstExpiringEntry) {
+				currentEntries.remove(getKey(firstExpiringEntry.certificateId),
+						firstExpiringEntry);
+			}
+		}
+	}
+
+	private static String getKey(CertificateID certificateId) {
+
+		return Hex.encodeHexString(certificateId.getIssuerNameHash()) + ":"
+				+ Hex.encodeHexString(certificateId.getIssuerKeyHash()) + ":"
+				+ certificateId.getSerialNumber().toString(16);
+	}
+
+	private final class OcspEntry extends FutureTask<OCSPResp> {
+
+		private final CertificateID certificateId;
+
+		private volatile long expiry;
+
+		OcspEntry(final URI ocspUri, final X509Certificate certificate,
+				final X509Certificate issuerCertificate,
+				final Date validationDate, CertificateID certificateId) {
+			super(new Callable<OCSPResp>() {
+
+				public OCSPResp call() throws Exception {
+					return CachedOcspRepository.this.ocspRepository
+							.findOcspResponse(ocspUri, certificate,
+									issuerCertificate, validationDate);
+				}
+			});
+			this.certificateId = certificateId;
+		}
+
+		@Override
+		protected void set(OCSPResp ocspResp) {
+			this.expiry = getExpiry(ocspResp);
+			super.set(ocspResp);
+		}
+
+		boolean isExpired() {
+
+			return System.currentTimeMillis() >= this.expiry;
+		}
+
+		OCSPResp getOcspResp() {
+
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return get();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} catch (ExecutionException e) {
+				LOG.error("OCSP error: " + e.getCause().getMessage(),
+						e.getCause());
+				return null;
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		/**
+		 * Returns the time until which the OCSP response can be cached, or 0
+		 * if it should not be cached at all.
+		 */
+		private long getExpiry(OCSPResp ocspResp) {
+
+			if (null == ocspResp
+					|| OCSPRespStatus.SUCCESSFUL != ocspResp.getStatus()) {
+				return 0;
+			}
+			try {
+				BasicOCSPResp basicOcspResp = (BasicOCSPResp) ocspResp
+						.getResponseObject();
+				for (SingleResp singleResp : basicOcspResp.getResponses()) {
+					if (!this.certificateId.equals(singleResp.getCertID())) {
+						continue;
+					}
+					long expiry = singleResp.getThisUpdate().getTime()
+							+ CachedOcspRepository.this.maxAgeMillis;
+					Date nextUpdate = singleResp.getNextUpdate();
+					if (null != nextUpdate) {
+						expiry = Math.min(expiry, nextUpdate.getTime());
+					}
+					return expiry;
+				}
+			} catch (Exception e) {
+				LOG.error("OCSP response error: " + e.getMessage(), e);
+			}
+			return 0;
+		}
+	}
+}
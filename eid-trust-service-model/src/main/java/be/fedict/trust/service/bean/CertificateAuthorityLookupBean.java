@@ -18,10 +18,6 @@
 
 package be.fedict.trust.service.bean;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.CertificateEncodingException;
-import java.security.cert.X509Certificate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,11 +30,10 @@ import javax.ejb.Singleton;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.bouncycastle.jce.PrincipalUtil;
-import org.bouncycastle.jce.X509Principal;
 
 import be.fedict.trust.service.dao.CertificateAuthorityDAO;
 import be.fedict.trust.service.entity.CertificateAuthorityEntity;
+import be.fedict.trust.service.entity.DecodedCertificate;
 
 @Singleton
 @ConcurrencyManagement(ConcurrencyManagementType.BEAN)
@@ -53,6 +48,21 @@ public class CertificateAuthorityLookupBean {
 	private Map<String, String> lookupMap;
 
 	public CertificateAuthorityEntity lookup(byte[] caNameHash, byte[] caKeyHash) {
+		String caName = lookupName(caNameHash);
+		if (null == caName) {
+			return null;
+		}
+		CertificateAuthorityEntity caEntity = this.certificateAuthorityDAO
+				.findCertificateAuthority(caName);
+		return caEntity;
+	}
+
+	/**
+	 * Returns the name of the active CA matching the specified SHA1 name hash,
+	 * or <code>null</code> if unknown. Only accesses the database when the
+	 * name hash is not yet in the lookup map.
+	 */
+	public String lookupName(byte[] caNameHash) {
 		String caNameHashKey = Hex.encodeHexString(caNameHash);
 		String caName = null;
 		if (null != this.lookupMap) {
@@ -72,34 +82,23 @@ public class CertificateAuthorityLookupBean {
 			LOG.warn("unknown CA");
 			return null;
 		}
-		CertificateAuthorityEntity caEntity = this.certificateAuthorityDAO
-				.findCertificateAuthority(caName);
-		return caEntity;
+		return caName;
 	}
 
-	private void refreshLookupMap() throws CertificateEncodingException,
-			NoSuchAlgorithmException {
+	private void refreshLookupMap() {
 		LOG.debug("refreshing lookup map");
 		List<CertificateAuthorityEntity> activeCertificateAuthorities = this.certificateAuthorityDAO
 				.listActiveCertificateAuthorities();
 		Map<String, String> freshLookupMap = new HashMap<String, String>();
 		for (CertificateAuthorityEntity certificateAuthority : activeCertificateAuthorities) {
-			X509Certificate caCert = certificateAuthority.getCertificate();
-			X509Principal issuerName = PrincipalUtil
-					.getSubjectX509Principal(caCert);
-			byte[] issuerNameHash = getHash(issuerName.getEncoded());
-			String caNameHashKey = Hex.encodeHexString(issuerNameHash);
-			String caName = caCert.getSubjectX500Principal().toString();
+			DecodedCertificate caCert = certificateAuthority
+					.getDecodedCertificate();
+			String caNameHashKey = caCert.getNameHash();
+			String caName = caCert.getSubject();
 			freshLookupMap.put(caNameHashKey, caName);
 			LOG.debug("lookup entry: " + caNameHashKey + " = " + caName);
 
 		}
 		this.lookupMap = freshLookupMap; // concurrency is no problem here
 	}
-
-	private byte[] getHash(byte[] data) throws NoSuchAlgorithmException {
-		MessageDigest messageDigest = MessageDigest.getInstance("SHA1");
-		byte[] hash = messageDigest.digest(data);
-		return hash;
-	}
 }
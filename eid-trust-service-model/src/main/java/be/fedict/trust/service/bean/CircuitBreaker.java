@@ -0,0 +1,202 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.util.Date;
+
+import be.fedict.trust.service.CircuitBreakerStatus;
+
+/**
+ * Circuit breaker of a single OCSP responder or CRL distribution point.
+ *
+ * The outcome of the most recent requests is kept in a sliding window. A
+ * request fails if it got no usable answer, or if it took longer than the
+ * slow call threshold. Once the window holds the minimum number of requests
+ * and the failure rate reaches the threshold, the circuit opens and all
+ * requests are rejected right away. After the open duration a single probe
+ * request is let through. If the probe succeeds the circuit closes again,
+ * otherwise it stays open for another open duration.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String url;
+
+	private final boolean[] failures;
+
+	private final int minimumCalls;
+
+	private final int failureRateThreshold;
+
+	private final long slowCallThreshold;
+
+	private final long openDurationMillis;
+
+	private int count;
+
+	private int next;
+
+	private int failureCount;
+
+	private State state = State.CLOSED;
+
+	private long openedAt;
+
+	private boolean probing;
+
+	private long lastLatency;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param url
+	 *            the responder URL.
+	 * @param windowSize
+	 *            the number of recent requests the failure rate is computed
+	 *            over.
+	 * @param minimumCalls
+	 *            the minimum number of requests before the circuit can open.
+	 * @param failureRateThreshold
+	 *            the failure rate in % at which the circuit opens.
+	 * @param slowCallThreshold
+	 *            the latency in milliseconds from which a request counts as
+	 *            failed.
+	 * @param openDuration
+	 *            the time in seconds the circuit stays open before probing.
+	 */
+	public CircuitBreaker(String url, int windowSize, int minimumCalls,
+			int failureRateThreshold, long slowCallThreshold, int openDuration) {
+		this.url = url;
+		this.failures = new boolean[windowSize];
+		this.minimumCalls = minimumCalls;
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallThreshold = slowCallThreshold;
+		this.openDurationMillis = openDuration * 1000L;
+	}
+
+	/**
+	 * Returns <code>true</code> if a request may be sent. When the open
+	 * duration has passed, exactly one caller gets to send the probe request.
+	 * A caller allowed to send a request must record its outcome via
+	 * {@link #record(boolean, long)}.
+	 */
+	public synchronized boolean allowRequest() {
+
+		switch (this.state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.currentTimeMillis() < this.openedAt
+					+ this.openDurationMillis) {
+				return false;
+			}
+			this.state = State.HALF_OPEN;
+			this.probing = true;
+			return true;
+		default:
+			if (this.probing) {
+				return false;
+			}
+			this.probing = true;
+			return true;
+		}
+	}
+
+	/**
+	 * Records the outcome of a request.
+	 *
+	 * @param success
+	 *            <code>true</code> if the responder gave a usable answer.
+	 * @param latency
+	 *            the latency of the request in milliseconds.
+	 * @return the new state if the circuit changed state, <code>null</code>
+	 *         otherwise.
+	 */
+	public synchronized State record(boolean success, long latency) {
+
+		boolean failure = !success || latency >= this.slowCallThreshold;
+		this.lastLatency = latency;
+
+		switch (this.state) {
+		case HALF_OPEN:
+			this.probing = false;
+			if (failure) {
+				open();
+				return State.OPEN;
+			}
+			this.state = State.CLOSED;
+			this.count = 0;
+			this.next = 0;
+			this.failureCount = 0;
+			return State.CLOSED;
+		case OPEN:
+			// request sent before the circuit opened
+			return null;
+		default:
+			if (this.count == this.failures.length) {
+				if (this.failures[this.next]) {
+					this.failureCount--;
+				}
+			} else {
+				this.count++;
+			}
+			this.failures[this.next] = failure;
+			if (failure) {
+				this.failureCount++;
+			}
+			this.next = (this.next + 1) % this.failures.length;
+
+			if (this.count >= this.minimumCalls
+					&& getFailureRate() >= this.failureRateThreshold) {
+				open();
+				return State.OPEN;
+			}
+			return null;
+		}
+	}
+
+	public synchronized State getState() {
+
+		return this.state;
+	}
+
+	public synchronized CircuitBreakerStatus getStatus() {
+
+		return new CircuitBreakerStatus(this.url, this.state.name(),
+				getFailureRate(), this.lastLatency, 0 == this.openedAt ? null
+						: new Date(this.openedAt));
+	}
+
+	private void open() {
+
+		this.state = State.OPEN;
+		this.openedAt = System.currentTimeMillis();
+	}
+
+	private int getFailureRate() {
+
+		if (0 == this.count) {
+			return 0;
+		}
+		return this.failureCount * 100 / this.count;
+	}
+}
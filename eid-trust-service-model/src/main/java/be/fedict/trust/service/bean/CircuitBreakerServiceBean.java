@@ -0,0 +1,184 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.service.CircuitBreakerStatus;
+import be.fedict.trust.service.SnmpConstants;
+import be.fedict.trust.service.snmp.SNMPInterceptor;
+
+/**
+ * Singleton registry of the {@link CircuitBreaker}'s of the OCSP responders
+ * and CRL distribution points, keyed by URL.
+ *
+ * The online OCSP and CRL repositories consult the circuit breaker of the
+ * responder before every request. A request to a responder with an open
+ * circuit is rejected right away, so the trust linkers fall back to the next
+ * revocation source instead of waiting for the network timeout.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CircuitBreakerServiceBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(CircuitBreakerServiceBean.class);
+
+	private static final int MAX_ENTRIES = 1000;
+
+	@Resource(name = "windowSize")
+	private Integer windowSize = 20;
+
+	@Resource(name = "minimumCalls")
+	private Integer minimumCalls = 10;
+
+	@Resource(name = "failureRateThreshold")
+	private Integer failureRateThreshold = 50;
+
+	@Resource(name = "slowCallThreshold")
+	private Integer slowCallThreshold = 5000;
+
+	@Resource(name = "openDuration")
+	private Integer openDuration = 30;
+
+	private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	/**
+	 * Returns <code>true</code> if a request may be sent to the specified
+	 * responder. If so, the outcome must be recorded via
+	 * {@link #recordResult(String, boolean, long)}.
+	 */
+	public boolean allowRequest(String url) {
+
+		if (getCircuitBreaker(url).allowRequest()) {
+			return true;
+		}
+		LOG.debug("circuit open: " + url);
+		SNMPInterceptor.increment(SnmpConstants.CIRCUIT_BREAKER_REJECTIONS,
+				SnmpConstants.SNMP_SERVICE, 1L);
+		return false;
+	}
+
+	/**
+	 * Records the outcome of a request to the specified responder.
+	 *
+	 * @param success
+	 *            <code>true</code> if the responder gave a usable answer.
+	 * @param latency
+	 *            the latency of the request in milliseconds.
+	 */
+	public void recordResult(String url, boolean success, long latency) {
+
+		CircuitBreaker.State state = getCircuitBreaker(url).record(success,
+				latency);
+		if (null == state) {
+			return;
+		}
+		if (CircuitBreaker.State.OPEN == state) {
+			LOG.warn("circuit opened: " + url);
+			SNMPInterceptor.increment(SnmpConstants.CIRCUIT_BREAKER_TRIPS,
+					SnmpConstants.SNMP_SERVICE, 1L);
+		} else {
+			LOG.info("circuit closed: " + url);
+		}
+		SNMPInterceptor.setValue(SnmpConstants.CIRCUIT_BREAKERS_OPEN,
+				SnmpConstants.SNMP_SERVICE, getOpenCircuitBreakers());
+	}
+
+	/**
+	 * Returns the status of all known circuit breakers, ordered by URL.
+	 */
+	public List<CircuitBreakerStatus> listCircuitBreakers() {
+
+		List<CircuitBreakerStatus> circuitBreakerStatuses = new LinkedList<CircuitBreakerStatus>();
+		for (CircuitBreaker circuitBreaker : this.circuitBreakers.values()) {
+			circuitBreakerStatuses.add(circuitBreaker.getStatus());
+		}
+		Collections.sort(circuitBreakerStatuses,
+				new Comparator<CircuitBreakerStatus>() {
+
+					public int compare(CircuitBreakerStatus o1,
+							CircuitBreakerStatus o2) {
+						return o1.getUrl().compareTo(o2.getUrl());
+					}
+				});
+		return circuitBreakerStatuses;
+	}
+
+	private CircuitBreaker getCircuitBreaker(String url) {
+
+		CircuitBreaker circuitBreaker = this.circuitBreakers.get(url);
+		if (null != circuitBreaker) {
+			return circuitBreaker;
+		}
+		if (this.circuitBreakers.size() >= MAX_ENTRIES) {
+			purge();
+		}
+		CircuitBreaker newCircuitBreaker = new CircuitBreaker(url,
+				this.windowSize, this.minimumCalls, this.failureRateThreshold,
+				this.slowCallThreshold, this.openDuration);
+		circuitBreaker = this.circuitBreakers.putIfAbsent(url,
+				newCircuitBreaker);
+		if (null == circuitBreaker) {
+			circuitBreaker = newCircuitBreaker;
+		}
+		return circuitBreaker;
+	}
+
+	/**
+	 * Drops the closed circuit breakers, the others keep protecting their
+	 * responders.
+	 */
+	private void purge() {
+
+		LOG.debug("purge closed circuit breakers");
+		Iterator<CircuitBreaker> iterator = this.circuitBreakers.values()
+				.iterator();
+		while (iterator.hasNext()) {
+			if (CircuitBreaker.State.CLOSED == iterator.next().getState()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private long getOpenCircuitBreakers() {
+
+		long openCircuitBreakers = 0;
+		for (CircuitBreaker circuitBreaker : this.circuitBreakers.values()) {
+			if (CircuitBreaker.State.CLOSED != circuitBreaker.getState()) {
+				openCircuitBreakers++;
+			}
+		}
+		return openCircuitBreakers;
+	}
+}
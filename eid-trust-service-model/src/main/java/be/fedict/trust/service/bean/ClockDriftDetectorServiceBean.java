@@ -53,6 +53,9 @@ public class ClockDriftDetectorServiceBean implements ClockDriftService {
 	@EJB
 	private AuditDAO auditDAO;
 
+	@EJB
+	private HttpClientServiceBean httpClientService;
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -84,7 +87,7 @@ public class ClockDriftDetectorServiceBean implements ClockDriftService {
 			try {
 				Date now = new Date();
 				offset = ClockDriftUtil.executeTSP(clockDriftConfig,
-						networkConfig).getTime()
+						this.httpClientService).getTime()
 						- now.getTime();
 			} catch (IOException e) {
 				this.auditDAO.logAudit("Error contacting NTP server "
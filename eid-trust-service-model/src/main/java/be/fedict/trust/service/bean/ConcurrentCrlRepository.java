@@ -0,0 +1,377 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.crl.CrlRepository;
+import be.fedict.trust.service.SnmpConstants;
+import be.fedict.trust.service.snmp.SNMPInterceptor;
+
+/**
+ * Thread-safe caching {@link CrlRepository} used if no persistent CRL cache is
+ * available.
+ *
+ * Cache lookups do not take any lock. A missing or expired CRL is fetched only
+ * once per URI: concurrent requests for the same CRL wait for the running
+ * fetch instead of starting their own download. Failed fetches are not
+ * cached.
+ *
+ * A cached CRL expires when the validation date passes its nextUpdate, or
+ * when it has been cached longer than the configured aging time.
+ *
+ * The CRLs are kept as DER encoded bytes in direct buffers, outside of the
+ * Java heap. No parsed {@link X509CRL} is cached: every lookup parses its own
+ * copy, which becomes garbage once the validation is done. When the total
+ * size of the cached CRLs exceeds the configured maximum, the least recently
+ * used CRLs are evicted.
+ *
+ * The direct buffer of an evicted or replaced CRL is only freed once it gets
+ * garbage collected. The CRL cache memory counter reports the size of the
+ * currently cached CRLs, so the direct memory actually in use can be higher
+ * for a while.
+ */
+public class ConcurrentCrlRepository implements CrlRepository {
+
+	private static final Log LOG = LogFactory
+			.getLog(ConcurrentCrlRepository.class);
+
+	private final CrlRepository crlRepository;
+
+	private final long cacheAgingMillis;
+
+	private final long maxCacheSize;
+
+	private final AtomicLong inFlight = new AtomicLong();
+
+	private volatile CrlCache cache = new CrlCache();
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param crlRepository
+	 *            the online CRL repository used to fetch missing CRLs.
+	 * @param cacheAgingHours
+	 *            the maximum time a CRL is cached.
+	 * @param maxCacheSize
+	 *            the maximum total size in bytes of the cached DER encoded
+	 *            CRLs.
+	 */
+	public ConcurrentCrlRepository(CrlRepository crlRepository,
+			int cacheAgingHours, long maxCacheSize) {
+		this.crlRepository = crlRepository;
+		this.cacheAgingMillis = cacheAgingHours * 60L * 60 * 1000;
+		this.maxCacheSize = maxCacheSize;
+	}
+
+	public X509CRL findCrl(URI crlUri, X509Certificate issuerCertificate,
+			Date validationDate) {
+
+		CrlCache currentCache = this.cache;
+		CrlEntry entry = currentCache.entries.get(crlUri);
+		if (null != entry && entry.isDone()
+				&& !entry.isExpired(validationDate)) {
+			SNMPInterceptor.increment(SnmpConstants.CRL_CACHE_HITS,
+					SnmpConstants.SNMP_SERVICE, 1L);
+			return entry.getCrl();
+		}
+
+		while (null == entry || entry.isDone()
+				&& entry.isExpired(validationDate)) {
+			CrlEntry newEntry = new CrlEntry(crlUri, issuerCertificate,
+					validationDate);
+			if (null == entry) {
+				entry = currentCache.entries.putIfAbsent(crlUri, newEntry);
+			} else if (currentCache.entries.replace(crlUri, entry, newEntry)) {
+				currentCache.release(entry);
+				entry = null;
+			} else {
+				entry = currentCache.entries.get(crlUri);
+			}
+			if (null == entry) {
+				SNMPInterceptor.increment(SnmpConstants.CRL_CACHE_MISSES,
+						SnmpConstants.SNMP_SERVICE, 1L);
+				fetch(currentCache, newEntry);
+				return newEntry.getCrl();
+			}
+		}
+
+		LOG.debug("waiting for running CRL fetch: " + crlUri);
+		SNMPInterceptor.increment(SnmpConstants.CRL_CACHE_HITS,
+				SnmpConstants.SNMP_SERVICE, 1L);
+		return entry.getCrl();
+	}
+
+	/**
+	 * Drops all cached CRLs. Fetches running while resetting complete for
+	 * their waiting callers, but their result is not cached.
+	 */
+	public void reset() {
+
+		LOG.debug("reset CRL cache");
+		this.cache = new CrlCache();
+		SNMPInterceptor.setValue(SnmpConstants.CRL_CACHE_MEMORY,
+				SnmpConstants.SNMP_SERVICE, 0L);
+	}
+
+	private void fetch(CrlCache currentCache, CrlEntry entry) {
+
+		SNMPInterceptor.setValue(SnmpConstants.CRL_CACHE_IN_FLIGHT,
+				SnmpConstants.SNMP_SERVICE, this.inFlight.incrementAndGet());
+		try {
+			entry.run();
+		} finally {
+			SNMPInterceptor.setValue(SnmpConstants.CRL_CACHE_IN_FLIGHT,
+					SnmpConstants.SNMP_SERVICE,
+					this.inFlight.decrementAndGet());
+		}
+		if (null == entry.getCachedCrl()) {
+			// don't cache failures, next request retries
+			currentCache.entries.remove(entry.crlUri, entry);
+			return;
+		}
+		currentCache.add(entry);
+		currentCache.evict();
+	}
+
+	/**
+	 * The cached entries together with their memory accounting. Replaced as a
+	 * whole on reset.
+	 */
+	private final class CrlCache {
+
+		private final ConcurrentMap<URI, CrlEntry> entries = new ConcurrentHashMap<URI, CrlEntry>();
+
+		private final AtomicLong size = new AtomicLong();
+
+		void add(CrlEntry entry) {
+
+			if (entry.accounted.compareAndSet(false, true)) {
+				updateSize(entry.getCachedCrl().size);
+			}
+			if (this.entries.get(entry.crlUri) != entry) {
+				// replaced or removed in the meantime
+				release(entry);
+			}
+		}
+
+		void release(CrlEntry entry) {
+
+			if (entry.accounted.compareAndSet(true, false)) {
+				updateSize(-entry.getCachedCrl().size);
+			}
+		}
+
+		/**
+		 * Evicts the least recently used CRLs until the total size fits
+		 * within the maximum cache size.
+		 */
+		synchronized void evict() {
+
+			while (this.size.get() > ConcurrentCrlRepository.this.maxCacheSize) {
+				CrlEntry lruEntry = null;
+				for (CrlEntry entry : this.entries.values()) {
+					if (!entry.accounted.get()) {
+						continue;
+					}
+					if (null == lruEntry
+							|| entry.lastAccess < lruEntry.lastAccess) {
+						lruEntry = entry;
+					}
+				}
+				if (null == lruEntry) {
+					return;
+				}
+				LOG.debug("evict CRL: " + lruEntry.crlUri);
+				this.entries.remove(lruEntry.crlUri, lruEntry);
+				release(lruEntry);
+				SNMPInterceptor.increment(SnmpConstants.CRL_CACHE_EVICTIONS,
+						SnmpConstants.SNMP_SERVICE, 1L);
+			}
+		}
+
+		private void updateSize(long delta) {
+
+			long currentSize = this.size.addAndGet(delta);
+			if (this == ConcurrentCrlRepository.this.cache) {
+				SNMPInterceptor.setValue(SnmpConstants.CRL_CACHE_MEMORY,
+						SnmpConstants.SNMP_SERVICE, currentSize);
+			}
+		}
+	}
+
+	private final class CrlEntry extends FutureTask<CachedCrl> {
+
+		private final URI crlUri;
+
+		private final long cacheTime;
+
+		private final AtomicBoolean accounted = new AtomicBoolean();
+
+		private volatile long lastAccess;
+
+		CrlEntry(final URI crlUri, final X509Certificate issuerCertificate,
+				final Date validationDate) {
+			super(new Callable<CachedCrl>() {
+
+				public CachedCrl call() throws Exception {
+					LOG.debug("fetch CRL: " + crlUri);
+					X509CRL crl = ConcurrentCrlRepository.this.crlRepository
+							.findCrl(crlUri, issuerCertificate, validationDate);
+					if (null == crl) {
+						return null;
+					}
+					return new CachedCrl(crl);
+				}
+			});
+			this.crlUri = crlUri;
+			this.cacheTime = System.currentTimeMillis();
+			this.lastAccess = System.nanoTime();
+		}
+
+		boolean isExpired(Date validationDate) {
+
+			if (System.currentTimeMillis() - this.cacheTime > ConcurrentCrlRepository.this.cacheAgingMillis) {
+				return true;
+			}
+			CachedCrl cachedCrl = getCachedCrl();
+			if (null == cachedCrl) {
+				return true;
+			}
+			return null != cachedCrl.nextUpdate
+					&& validationDate.after(cachedCrl.nextUpdate);
+		}
+
+		X509CRL getCrl() {
+
+			CachedCrl cachedCrl = getCachedCrl();
+			if (null == cachedCrl) {
+				return null;
+			}
+			this.lastAccess = System.nanoTime();
+			return cachedCrl.getCrl();
+		}
+
+		CachedCrl getCachedCrl() {
+
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return get();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} catch (ExecutionException e) {
+				LOG.error("CRL fetch error: " + e.getCause().getMessage(),
+						e.getCause());
+				return null;
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * DER encoded CRL held in a direct buffer, parsed on every access.
+	 */
+	private static final class CachedCrl {
+
+		private final ByteBuffer der;
+
+		private final int size;
+
+		private final Date nextUpdate;
+
+		CachedCrl(X509CRL crl) throws Exception {
+			byte[] encoded = crl.getEncoded();
+			this.der = ByteBuffer.allocateDirect(encoded.length);
+			this.der.put(encoded);
+			this.der.flip();
+			this.size = encoded.length;
+			this.nextUpdate = crl.getNextUpdate();
+		}
+
+		X509CRL getCrl() {
+
+			try {
+				CertificateFactory certificateFactory = CertificateFactory
+						.getInstance("X.509");
+				return (X509CRL) certificateFactory
+						.generateCRL(new ByteBufferInputStream(this.der
+								.duplicate()));
+			} catch (Exception e) {
+				LOG.error("error parsing cached CRL: " + e.getMessage(), e);
+				return null;
+			}
+		}
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!this.buffer.hasRemaining()) {
+				return -1;
+			}
+			return this.buffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (!this.buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return this.buffer.remaining();
+		}
+	}
+}
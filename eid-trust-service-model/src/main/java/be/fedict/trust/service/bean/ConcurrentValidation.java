@@ -0,0 +1,204 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.trust.service.bean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs validations concurrently and gives back the first valid result, for
+ * example the validations of a certificate chain against the member trust
+ * domains of a virtual trust domain.
+ *
+ * The validations are handed over to the executor. The waiting thread runs
+ * the validations that the executor did not pick up yet itself, one at a
+ * time, and checks for a valid result after each one. That way a saturated
+ * executor never blocks a validation, and no further validation is started
+ * once a valid result is known. The remaining validations are then
+ * cancelled, running ones are not interrupted.
+ *
+ * The validations run on other threads than the one that submits them, so
+ * they should not touch the state of the submitting EJB instance. Instances
+ * are per validation and not to be shared.
+ *
+ * @param <K>
+ *            the type identifying a validation.
+ * @param <V>
+ *            the type of the validation result.
+ */
+public abstract class ConcurrentValidation<K, V> {
+
+	private final Executor executor;
+
+	private final List<Validation> validations = new ArrayList<Validation>();
+
+	private final BlockingQueue<Validation> completed = new LinkedBlockingQueue<Validation>();
+
+	private K validKey;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param executor
+	 *            the executor on which the validations are run.
+	 */
+	public ConcurrentValidation(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified validation result is valid.
+	 */
+	protected abstract boolean isValid(V result);
+
+	/**
+	 * Hands over the specified validation to the executor.
+	 *
+	 * @param key
+	 *            identifies the validation, see {@link #getValidKey()}.
+	 */
+	public void submit(K key, Callable<V> validation) {
+
+		Validation task = new Validation(key, validation);
+		this.validations.add(task);
+		this.executor.execute(task);
+	}
+
+	/**
+	 * Waits for the first valid result, running the validations that were not
+	 * picked up by the executor yet on the calling thread.
+	 *
+	 * @return the first valid result, or the result of the last submitted
+	 *         validation if none is valid.
+	 */
+	public V validate() {
+
+		if (this.validations.isEmpty()) {
+			return null;
+		}
+		Validation lastValidation = this.validations.get(this.validations
+				.size() - 1);
+		V lastResult = null;
+		int remaining = this.validations.size();
+		int next = 0;
+		try {
+			while (remaining > 0) {
+				Validation validation = this.completed.poll();
+				if (null == validation) {
+					if (next < this.validations.size()) {
+						// no-op if already picked up by the executor
+						this.validations.get(next++).run();
+						continue;
+					}
+					validation = take(this.completed);
+				}
+				remaining--;
+				V result = getResult(validation);
+				if (isValid(result)) {
+					this.validKey = validation.key;
+					return result;
+				}
+				if (validation == lastValidation) {
+					lastResult = result;
+				}
+			}
+		} finally {
+			for (Validation validation : this.validations) {
+				validation.cancel(false);
+			}
+		}
+		return lastResult;
+	}
+
+	/**
+	 * Returns the key of the valid result given back by {@link #validate()},
+	 * or <code>null</code> if none was valid.
+	 */
+	public K getValidKey() {
+
+		return this.validKey;
+	}
+
+	private Validation take(BlockingQueue<Validation> queue) {
+
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return queue.take();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private V getResult(Validation validation) {
+
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return validation.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new RuntimeException(cause);
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private final class Validation extends FutureTask<V> {
+
+		private final K key;
+
+		Validation(K key, Callable<V> validation) {
+			super(validation);
+			this.key = key;
+		}
+
+		@Override
+		protected void done() {
+			ConcurrentValidation.this.completed.offer(this);
+		}
+	}
+}
@@ -67,6 +67,15 @@ public class ConfigurationServiceBean implements ConfigurationService {
 
 	@EJB
 	private CrlRepositoryServiceBean crlRepositoryServiceBean;
+
+	@EJB
+	private OcspRepositoryServiceBean ocspRepositoryServiceBean;
+
+	@EJB
+	private TrustDomainCacheBean trustDomainCache;
+
+	@EJB
+	private HttpClientServiceBean httpClientService;
 	
 	@EJB
 	private ServiceIdentityManagerBean serviceIdentityManagerBean;
@@ -89,8 +98,11 @@ public class ConfigurationServiceBean implements ConfigurationService {
 		this.configurationDAO.setNetworkConfig(proxyHost, proxyPort);
 		this.configurationDAO.setNetworkConfigEnabled(enabled);
 
-		// reset the CRL cache on new network configuration.
+		// reset the CRL and OCSP caches on new network configuration.
 		crlRepositoryServiceBean.resetCachedCrlRepository();
+		ocspRepositoryServiceBean.resetCachedOcspRepository();
+		this.trustDomainCache.invalidate();
+		this.httpClientService.resetNetworkConfig();
 	}
 
 	/**
@@ -18,57 +18,71 @@
 
 package be.fedict.trust.service.bean;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
 import javax.ejb.Singleton;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import be.fedict.trust.crl.CachedCrlRepository;
+import be.fedict.trust.crl.CrlRepository;
 
 /**
  * Singleton Crl Repository cache bean used if no persistent CRL cache is
  * available.
  * 
+ * Uses bean managed concurrency, so the cache is accessed without taking the
+ * singleton lock. See {@link ConcurrentCrlRepository}.
+ * 
  * @author wvdhaute
  */
 @Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class CrlRepositoryServiceBean {
 
-	private Log LOG = LogFactory.getLog(CrlRepositoryServiceBean.class);
+	private static final Log LOG = LogFactory
+			.getLog(CrlRepositoryServiceBean.class);
 
-	private CachedCrlRepository cachedCrlRepository;
+	@EJB
+	private HttpClientServiceBean httpClientService;
 
-	/**
-	 * Returns the {@link CachedCrlRepository} or <code>null</code> if not yet
-	 * set.
-	 */
-	public CachedCrlRepository getCachedCrlRepository() {
+	@EJB
+	private CircuitBreakerServiceBean circuitBreakerService;
+
+	@Resource(name = "cacheAgingHours")
+	private Integer cacheAgingHours = 24;
+
+	@Resource(name = "maxCacheSize")
+	private Integer maxCacheSize = 128;
+
+	private ConcurrentCrlRepository crlRepository;
+
+	@PostConstruct
+	public void postConstruct() {
 
-		LOG.debug("get cached CRL repository");
-		return this.cachedCrlRepository;
+		this.crlRepository = new ConcurrentCrlRepository(new HttpCrlRepository(
+				this.httpClientService, this.circuitBreakerService), this.cacheAgingHours,
+				this.maxCacheSize * 1024L * 1024);
 	}
 
 	/**
-	 * Sets the {@link CachedCrlRepository}. Different TrustServiceBeans might
-	 * be racing on this setter. But that's not a problem as it's all about
-	 * caching anyway.
-	 * 
-	 * @param cachedCrlRepository
-	 *            the cached CRL repository
+	 * Returns the shared caching {@link CrlRepository}.
 	 */
-	public void setCachedCrlRepository(CachedCrlRepository cachedCrlRepository) {
+	public CrlRepository getCrlRepository() {
 
-		LOG.debug("set cached CRL repository");
-		this.cachedCrlRepository = cachedCrlRepository;
+		return this.crlRepository;
 	}
 
 	/**
-	 * Resets the {@link CachedCrlRepository}.
+	 * Drops all cached CRLs, e.g. on a new network configuration.
 	 */
 	public void resetCachedCrlRepository() {
 
 		LOG.debug("reset cached CRL repository");
-		this.cachedCrlRepository = null;
+		this.crlRepository.reset();
 	}
 
 }
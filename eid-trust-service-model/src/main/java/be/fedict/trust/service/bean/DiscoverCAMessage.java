@@ -0,0 +1,115 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * CA discovery JMS Message marshaller/unmarshaller.
+ */
+public class DiscoverCAMessage implements JMSMessage {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String CA_NAME_PROPERTY = "caName";
+
+	private static final String CERTIFICATE_PROPERTY = "certificate";
+
+	private static final String CRL_URL_PROPERTY = "crlUrl";
+
+	private static final String ACTIVATE_PROPERTY = "activate";
+
+	private String caName;
+
+	private byte[] encodedCertificate;
+
+	private String crlUrl;
+
+	private boolean activate;
+
+	/**
+	 * Main constructor.
+	 * 
+	 * @param caName
+	 *            the name of the discovered CA.
+	 * @param encodedCertificate
+	 *            the DER encoded CA certificate, used to create the CA if not
+	 *            yet known. Can be <code>null</code>.
+	 * @param crlUrl
+	 *            the CRL URL of the CA. Can be <code>null</code>.
+	 * @param activate
+	 *            whether the harvesting of the CA's CRL should be started.
+	 */
+	public DiscoverCAMessage(String caName, byte[] encodedCertificate,
+			String crlUrl, boolean activate) {
+		this.caName = caName;
+		this.encodedCertificate = encodedCertificate;
+		this.crlUrl = crlUrl;
+		this.activate = activate;
+	}
+
+	public DiscoverCAMessage(Message message) throws JMSException {
+		this.caName = message.getStringProperty(CA_NAME_PROPERTY);
+		String certificate = message.getStringProperty(CERTIFICATE_PROPERTY);
+		if (null != certificate) {
+			try {
+				this.encodedCertificate = Hex.decodeHex(certificate
+						.toCharArray());
+			} catch (DecoderException e) {
+				throw new JMSException("certificate decoding error: "
+						+ e.getMessage());
+			}
+		}
+		this.crlUrl = message.getStringProperty(CRL_URL_PROPERTY);
+		this.activate = message.getBooleanProperty(ACTIVATE_PROPERTY);
+	}
+
+	public Message getJMSMessage(Session session) throws JMSException {
+		Message message = session.createMessage();
+		message.setStringProperty(CA_NAME_PROPERTY, this.caName);
+		if (null != this.encodedCertificate) {
+			message.setStringProperty(CERTIFICATE_PROPERTY,
+					Hex.encodeHexString(this.encodedCertificate));
+		}
+		message.setStringProperty(CRL_URL_PROPERTY, this.crlUrl);
+		message.setBooleanProperty(ACTIVATE_PROPERTY, this.activate);
+		return message;
+	}
+
+	public String getCAName() {
+		return this.caName;
+	}
+
+	public byte[] getEncodedCertificate() {
+		return this.encodedCertificate;
+	}
+
+	public String getCrlUrl() {
+		return this.crlUrl;
+	}
+
+	public boolean isActivate() {
+		return this.activate;
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.jms.JMSException;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.service.NotificationService;
+
+/**
+ * Deduplicating front of the CA discovery queue.
+ *
+ * Validations never create or update CA entities themselves. They signal the
+ * CA's that need to be created or whose CRL harvesting needs to be started,
+ * and the {@link DiscoveryMDB} performs the status transitions in the
+ * background. While a signal of a CA is pending, further signals of the same
+ * CA are dropped, unless they start the harvesting while the pending one
+ * does not. A pending signal that did not complete within
+ * {@link #PENDING_TIMEOUT}, for example because the validation transaction
+ * rolled back, no longer blocks new signals.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class DiscoveryCoordinatorBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(DiscoveryCoordinatorBean.class);
+
+	private static final long PENDING_TIMEOUT = 1000 * 60 * 10;
+
+	@EJB
+	private NotificationService notificationService;
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	private final ConcurrentMap<String, Pending> pending = new ConcurrentHashMap<String, Pending>();
+
+	/**
+	 * Signals the discovery of a CA, unless a signal of the same CA is still
+	 * pending that covers this one.
+	 *
+	 * @param caName
+	 *            the name of the CA.
+	 * @param certificate
+	 *            the CA certificate, used to create the CA if not yet known.
+	 *            Can be <code>null</code>.
+	 * @param crlUrl
+	 *            the CRL URL of the CA. Can be <code>null</code>.
+	 * @param activate
+	 *            whether the harvesting of the CA's CRL should be started.
+	 */
+	public void discover(String caName, X509Certificate certificate,
+			String crlUrl, boolean activate) {
+
+		Pending signal = new Pending(System.currentTimeMillis(), activate);
+		while (true) {
+			Pending pendingSignal = this.pending.putIfAbsent(caName, signal);
+			if (null == pendingSignal) {
+				break;
+			}
+			if (signal.since - pendingSignal.since < PENDING_TIMEOUT
+					&& (pendingSignal.activate || !activate)) {
+				LOG.debug("CA discovery already pending: " + caName);
+				return;
+			}
+			if (this.pending.replace(caName, pendingSignal, signal)) {
+				break;
+			}
+		}
+
+		LOG.debug("discover CA: " + caName);
+		try {
+			this.notificationService.notifyDiscovery(caName,
+					null == certificate ? null : certificate.getEncoded(),
+					crlUrl, activate);
+		} catch (CertificateEncodingException e) {
+			LOG.error("certificate encoding error: " + e.getMessage(), e);
+			this.pending.remove(caName, signal);
+		} catch (JMSException e) {
+			LOG.error("JMS error: " + e.getMessage(), e);
+			this.pending.remove(caName, signal);
+		}
+	}
+
+	/**
+	 * Marks the discovery of the specified CA as done. If a transaction is
+	 * active, new signals of the CA are only accepted after completion, so
+	 * they see the committed status.
+	 */
+	public void discovered(final String caName) {
+
+		if (null == this.transactionSynchronizationRegistry
+				.getTransactionKey()) {
+			this.pending.remove(caName);
+			return;
+		}
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new Synchronization() {
+
+					public void beforeCompletion() {
+						// empty
+					}
+
+					public void afterCompletion(int status) {
+						DiscoveryCoordinatorBean.this.pending.remove(caName);
+					}
+				});
+	}
+
+	private static final class Pending {
+
+		private final long since;
+
+		private final boolean activate;
+
+		Pending(long since, boolean activate) {
+			this.since = since;
+			this.activate = activate;
+		}
+	}
+}
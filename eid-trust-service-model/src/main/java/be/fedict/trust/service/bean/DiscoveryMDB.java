@@ -0,0 +1,189 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
+import javax.ejb.MessageDriven;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.service.NotificationService;
+import be.fedict.trust.service.SchedulingService;
+import be.fedict.trust.service.dao.AuditDAO;
+import be.fedict.trust.service.dao.CertificateAuthorityDAO;
+import be.fedict.trust.service.entity.CertificateAuthorityEntity;
+import be.fedict.trust.service.entity.DecodedCertificate;
+import be.fedict.trust.service.entity.Status;
+import be.fedict.trust.service.exception.InvalidCronExpressionException;
+
+/**
+ * CA Discovery Message Driven Bean.
+ * 
+ * Creates the CA's discovered while validating and starts the harvesting of
+ * their CRLs, so the validations themselves stay read-only. Signals are
+ * deduplicated by the {@link DiscoveryCoordinatorBean}.
+ */
+@MessageDriven(activationConfig = {
+		@ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Queue"),
+		@ActivationConfigProperty(propertyName = "destination", propertyValue = DiscoveryMDB.DISCOVERY_QUEUE_LOCATION) })
+public class DiscoveryMDB implements MessageListener {
+
+	private static final Log LOG = LogFactory.getLog(DiscoveryMDB.class);
+
+	public static final String DISCOVERY_QUEUE_NAME = "TrustServiceDiscovery";
+	public static final String DISCOVERY_QUEUE_LOCATION = "queue/trust/discovery";
+
+	@EJB
+	private CertificateAuthorityDAO certificateAuthorityDAO;
+
+	@EJB
+	private AuditDAO auditDAO;
+
+	@EJB
+	private NotificationService notificationService;
+
+	@EJB
+	private SchedulingService schedulingService;
+
+	@EJB
+	private DiscoveryCoordinatorBean discoveryCoordinator;
+
+	public void onMessage(Message message) {
+		LOG.debug("onMessage");
+		DiscoverCAMessage discoverCAMessage;
+		try {
+			discoverCAMessage = new DiscoverCAMessage(message);
+		} catch (JMSException e) {
+			LOG.error("JMS error: " + e.getMessage(), e);
+			return;
+		}
+		try {
+			processDiscoverCAMessage(discoverCAMessage);
+		} finally {
+			this.discoveryCoordinator.discovered(discoverCAMessage
+					.getCAName());
+		}
+	}
+
+	private void processDiscoverCAMessage(DiscoverCAMessage discoverCAMessage) {
+		String caName = discoverCAMessage.getCAName();
+		String crlUrl = discoverCAMessage.getCrlUrl();
+		LOG.debug("discovered CA: " + caName);
+
+		CertificateAuthorityEntity certificateAuthority = this.certificateAuthorityDAO
+				.findCertificateAuthority(caName);
+		if (null == certificateAuthority) {
+			certificateAuthority = addCertificateAuthority(discoverCAMessage);
+			if (null == certificateAuthority) {
+				return;
+			}
+		} else if (null == certificateAuthority.getCrlUrl() && null != crlUrl) {
+			certificateAuthority.setCrlUrl(crlUrl);
+		}
+
+		if (discoverCAMessage.isActivate()) {
+			activate(certificateAuthority);
+		}
+	}
+
+	/**
+	 * Creates the discovered CA, under the trust point of its issuing CA. The
+	 * CA certificate must be signed by the issuing CA.
+	 */
+	private CertificateAuthorityEntity addCertificateAuthority(
+			DiscoverCAMessage discoverCAMessage) {
+		if (null == discoverCAMessage.getEncodedCertificate()) {
+			LOG.debug("unknown CA: " + discoverCAMessage.getCAName());
+			return null;
+		}
+		DecodedCertificate certificate = DecodedCertificate
+				.decode(discoverCAMessage.getEncodedCertificate());
+
+		/*
+		 * Lookup Root CA's trust point via parent certificates' CA entity.
+		 */
+		String parentIssuerName = certificate.getCertificate()
+				.getIssuerX500Principal().toString();
+		CertificateAuthorityEntity parentCertificateAuthority = this.certificateAuthorityDAO
+				.findCertificateAuthority(parentIssuerName);
+		if (null == parentCertificateAuthority) {
+			this.auditDAO.logAudit("CA not found for " + parentIssuerName);
+			LOG.error("CA not found for " + parentIssuerName + " ?!");
+			return null;
+		}
+		try {
+			certificate.getCertificate().verify(
+					parentCertificateAuthority.getCertificate().getPublicKey());
+		} catch (Exception e) {
+			this.auditDAO.logAudit("CA certificate of "
+					+ discoverCAMessage.getCAName() + " not signed by "
+					+ parentIssuerName);
+			LOG.error("CA certificate signature error: " + e.getMessage(), e);
+			return null;
+		}
+
+		CertificateAuthorityEntity certificateAuthority = this.certificateAuthorityDAO
+				.addCertificateAuthority(certificate.getCertificate(),
+						discoverCAMessage.getCrlUrl());
+		if (null != certificateAuthority) {
+			certificateAuthority.setTrustPoint(parentCertificateAuthority
+					.getTrustPoint());
+		}
+		return certificateAuthority;
+	}
+
+	/**
+	 * Starts the harvesting of the CRL of the specified CA, if not yet
+	 * started.
+	 */
+	private void activate(CertificateAuthorityEntity certificateAuthority) {
+		if (!certificateAuthority.getStatus().equals(Status.INACTIVE)
+				&& !certificateAuthority.getStatus().equals(Status.NONE)) {
+			return;
+		}
+		if (null == certificateAuthority.getCrlUrl()) {
+			certificateAuthority.setStatus(Status.NONE);
+			return;
+		}
+		certificateAuthority.setStatus(Status.PROCESSING);
+		try {
+			this.notificationService.notifyDownloader(
+					certificateAuthority.getName(), false);
+			if (null != certificateAuthority.getTrustPoint()
+					&& null == certificateAuthority.getTrustPoint()
+							.getFireDate()) {
+				this.schedulingService.startTimer(certificateAuthority
+						.getTrustPoint());
+			}
+		} catch (JMSException e) {
+			this.auditDAO.logAudit("Failed to notify harvester: "
+					+ e.getMessage());
+			LOG.error(e.getMessage(), e);
+		} catch (InvalidCronExpressionException e) {
+			this.auditDAO.logAudit("Failed to start timer for trust point: "
+					+ certificateAuthority.getTrustPoint().getName());
+			LOG.error(e.getMessage(), e);
+		}
+	}
+}
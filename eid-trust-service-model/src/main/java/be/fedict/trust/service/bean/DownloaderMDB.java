@@ -26,6 +26,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509CRL;
@@ -40,21 +43,19 @@ import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 
-import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.apache.commons.httpclient.params.HttpClientParams;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.bouncycastle.openssl.PEMReader;
 
-import be.fedict.trust.NetworkConfig;
 import be.fedict.trust.service.NotificationService;
 import be.fedict.trust.service.SchedulingService;
 import be.fedict.trust.service.SnmpConstants;
 import be.fedict.trust.service.dao.AuditDAO;
 import be.fedict.trust.service.dao.CertificateAuthorityDAO;
-import be.fedict.trust.service.dao.ConfigurationDAO;
 import be.fedict.trust.service.entity.CertificateAuthorityEntity;
 import be.fedict.trust.service.entity.Status;
 import be.fedict.trust.service.entity.TrustPointEntity;
@@ -65,12 +66,14 @@ import be.fedict.trust.service.snmp.SNMPInterceptor;
 /**
  * Downloader Message Driven Bean.
  * 
+ * The number of concurrent downloader sessions is configured in
+ * <code>ejb-jar.xml</code>.
+ * 
  * @author Frank Cornelis
  * 
  */
 @MessageDriven(activationConfig = {
 		@ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Queue"),
-		@ActivationConfigProperty(propertyName = "maxSession", propertyValue = "1"),
 		@ActivationConfigProperty(propertyName = "destination", propertyValue = DownloaderMDB.DOWNLOADER_QUEUE_LOCATION) })
 @Interceptors(SNMPInterceptor.class)
 public class DownloaderMDB implements MessageListener {
@@ -84,11 +87,14 @@ public class DownloaderMDB implements MessageListener {
 	private CertificateAuthorityDAO certificateAuthorityDAO;
 
 	@EJB
-	private ConfigurationDAO configurationDAO;
+	private HttpClientServiceBean httpClientService;
 
 	@SNMP(oid = SnmpConstants.CRL_DOWNLOAD_FAILURES)
 	private Long failures = 0L;
 
+	@SNMP(oid = SnmpConstants.CRL_DOWNLOADS_NOT_MODIFIED)
+	private Long notModified = 0L;
+
 	@EJB
 	private AuditDAO auditDAO;
 
@@ -98,8 +104,12 @@ public class DownloaderMDB implements MessageListener {
 	@EJB
 	private SchedulingService schedulingService;
 
+	@EJB
+	private HarvestCoordinatorBean harvestCoordinator;
+
 	public void onMessage(Message message) {
 		LOG.debug("onMessage");
+		this.harvestCoordinator.updateQueueDepths();
 		DownloadMessage downloadMessage = null;
 		ColdStartMessage coldStartMessage = null;
 		try {
@@ -130,8 +140,9 @@ public class DownloaderMDB implements MessageListener {
 		LOG.debug("cold start CRL URL: " + crlUrl);
 		LOG.debug("cold start CA URL: " + certUrl);
 
-		File crlFile = download(crlUrl);
-		File certFile = download(certUrl);
+		Download crlDownload = download(crlUrl, null);
+		File crlFile = crlDownload.getFile();
+		File certFile = download(certUrl, null).getFile();
 
 		// parsing
 		CertificateFactory certificateFactory;
@@ -246,7 +257,9 @@ public class DownloaderMDB implements MessageListener {
 		String crlFilePath = crlFile.getAbsolutePath();
 		try {
 			this.notificationService.notifyHarvester(certificate
-					.getSubjectX500Principal().toString(), crlFilePath, false);
+					.getSubjectX500Principal().toString(), crlFilePath, false,
+					crlDownload.getETag(), crlDownload.getLastModified(),
+					crlDownload.getHash());
 		} catch (JMSException e) {
 			crlFile.delete();
 			throw new RuntimeException(e);
@@ -297,69 +310,166 @@ public class DownloaderMDB implements MessageListener {
 			return;
 		}
 
-		File crlFile = download(crlUrl);
+		/*
+		 * Only an active CRL cache can be refreshed conditionally. Otherwise
+		 * the CRL was never harvested successfully.
+		 */
+		boolean conditional = update
+				&& Status.ACTIVE == certificateAuthority.getStatus();
+		Download crlDownload = download(crlUrl,
+				conditional ? certificateAuthority : null);
+		if (null == crlDownload) {
+			LOG.debug("CRL not modified for CA: " + caName);
+			this.notModified++;
+			return;
+		}
+		File crlFile = crlDownload.getFile();
+		if (conditional
+				&& crlDownload.getHash().equals(
+						certificateAuthority.getCrlHash())) {
+			LOG.debug("CRL content unchanged for CA: " + caName);
+			this.notModified++;
+			certificateAuthority.setCrlETag(crlDownload.getETag());
+			certificateAuthority.setCrlLastModified(crlDownload
+					.getLastModified());
+			crlFile.delete();
+			return;
+		}
 		String crlFilePath = crlFile.getAbsolutePath();
 
 		try {
 			this.notificationService.notifyHarvester(caName, crlFilePath,
-					update);
+					update, crlDownload.getETag(),
+					crlDownload.getLastModified(), crlDownload.getHash());
 		} catch (JMSException e) {
 			crlFile.delete();
 			throw new RuntimeException(e);
 		}
 	}
 
-	private File download(String url) {
-		NetworkConfig networkConfig = this.configurationDAO.getNetworkConfig();
-		HttpClient httpClient = new HttpClient();
-		if (null != networkConfig) {
-			httpClient.getHostConfiguration().setProxy(
-					networkConfig.getProxyHost(), networkConfig.getProxyPort());
-		}
-		HttpClientParams httpClientParams = httpClient.getParams();
-		httpClientParams.setParameter("http.socket.timeout", new Integer(
-				1000 * 20));
+	/**
+	 * Downloads the specified URL to a temporary file.
+	 * 
+	 * @param conditionalCertificateAuthority
+	 *            optional CA of which the stored HTTP validators are sent
+	 *            along, making the request conditional.
+	 * @return the download, or <code>null</code> if not modified.
+	 */
+	private Download download(String url,
+			CertificateAuthorityEntity conditionalCertificateAuthority) {
 		LOG.debug("downloading: " + url);
 		GetMethod getMethod = new GetMethod(url);
 		getMethod.addRequestHeader("User-Agent", "eID Trust Service Client");
-		int statusCode;
-		try {
-			statusCode = httpClient.executeMethod(getMethod);
-		} catch (Exception e) {
-			downloadFailed(url);
-			throw new RuntimeException();
-		}
-		if (HttpURLConnection.HTTP_OK != statusCode) {
-			LOG.debug("HTTP status code: " + statusCode);
-			downloadFailed(url);
-			throw new RuntimeException();
+		if (null != conditionalCertificateAuthority) {
+			if (null != conditionalCertificateAuthority.getCrlETag()) {
+				getMethod.addRequestHeader("If-None-Match",
+						conditionalCertificateAuthority.getCrlETag());
+			}
+			if (null != conditionalCertificateAuthority.getCrlLastModified()) {
+				getMethod.addRequestHeader("If-Modified-Since",
+						conditionalCertificateAuthority.getCrlLastModified());
+			}
 		}
-
-		String downloadFilePath;
-		File downloadFile = null;
 		try {
-			downloadFile = File.createTempFile("trust-service-", ".der");
-			InputStream downloadInputStream = getMethod
-					.getResponseBodyAsStream();
-			OutputStream downloadOutputStream = new FileOutputStream(
-					downloadFile);
-			IOUtils.copy(downloadInputStream, downloadOutputStream);
-			IOUtils.closeQuietly(downloadInputStream);
-			IOUtils.closeQuietly(downloadOutputStream);
-			downloadFilePath = downloadFile.getAbsolutePath();
-			LOG.debug("temp file: " + downloadFilePath);
-		} catch (IOException e) {
-			downloadFailed(url);
-			if (null != downloadFile) {
-				downloadFile.delete();
+			int statusCode;
+			try {
+				statusCode = this.httpClientService.executeMethod(getMethod);
+			} catch (Exception e) {
+				downloadFailed(url);
+				throw new RuntimeException();
 			}
-			throw new RuntimeException(e);
+			if (null != conditionalCertificateAuthority
+					&& HttpURLConnection.HTTP_NOT_MODIFIED == statusCode) {
+				return null;
+			}
+			if (HttpURLConnection.HTTP_OK != statusCode) {
+				LOG.debug("HTTP status code: " + statusCode);
+				downloadFailed(url);
+				throw new RuntimeException();
+			}
+
+			String downloadFilePath;
+			File downloadFile = null;
+			MessageDigest messageDigest;
+			try {
+				messageDigest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("SHA-256 not supported", e);
+			}
+			try {
+				downloadFile = File.createTempFile("trust-service-", ".der");
+				InputStream downloadInputStream = getMethod
+						.getResponseBodyAsStream();
+				OutputStream downloadOutputStream = new DigestOutputStream(
+						new FileOutputStream(downloadFile), messageDigest);
+				IOUtils.copy(downloadInputStream, downloadOutputStream);
+				IOUtils.closeQuietly(downloadInputStream);
+				IOUtils.closeQuietly(downloadOutputStream);
+				downloadFilePath = downloadFile.getAbsolutePath();
+				LOG.debug("temp file: " + downloadFilePath);
+			} catch (IOException e) {
+				downloadFailed(url);
+				if (null != downloadFile) {
+					downloadFile.delete();
+				}
+				throw new RuntimeException(e);
+			}
+			return new Download(downloadFile, getHeaderValue(getMethod,
+					"ETag"), getHeaderValue(getMethod, "Last-Modified"),
+					Hex.encodeHexString(messageDigest.digest()));
+		} finally {
+			// return the connection to the shared pool
+			getMethod.releaseConnection();
+		}
+	}
+
+	private String getHeaderValue(GetMethod getMethod, String name) {
+		Header header = getMethod.getResponseHeader(name);
+		if (null == header) {
+			return null;
 		}
-		return downloadFile;
+		return header.getValue();
 	}
 
 	private void downloadFailed(String url) {
 		this.auditDAO.logAudit("Failed to download from: " + url);
 		this.failures++;
 	}
+
+	/**
+	 * Downloaded file together with its HTTP validators and content hash.
+	 */
+	private static class Download {
+
+		private final File file;
+
+		private final String eTag;
+
+		private final String lastModified;
+
+		private final String hash;
+
+		Download(File file, String eTag, String lastModified, String hash) {
+			this.file = file;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		File getFile() {
+			return this.file;
+		}
+
+		String getETag() {
+			return this.eTag;
+		}
+
+		String getLastModified() {
+			return this.lastModified;
+		}
+
+		String getHash() {
+			return this.hash;
+		}
+	}
 }
@@ -0,0 +1,173 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.service.SnmpConstants;
+import be.fedict.trust.service.snmp.SNMPInterceptor;
+
+/**
+ * Coordinates the concurrent harvester and downloader sessions.
+ *
+ * The number of concurrent sessions is configured via the
+ * <code>maxSession</code> activation property of the MDBs in
+ * <code>ejb-jar.xml</code>, so a huge CRL only occupies a single session while
+ * the other CAs keep being refreshed. Harvests of the same CA are mutually
+ * exclusive: the permit of a CA is only released once the harvest transaction
+ * has completed, so a next harvest always sees the committed result of the
+ * previous one. A session never waits for a permit, as waiting could exceed
+ * the transaction timeout and would let duplicate harvests of one CA occupy
+ * all sessions. Instead the session requeues its message with a delay.
+ *
+ * Also keeps the harvester SNMP counters: queue depths, active harvests and
+ * harvest duration.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class HarvestCoordinatorBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(HarvestCoordinatorBean.class);
+
+	private static final String QUEUE_OBJECT_NAME = "org.hornetq:module=JMS,type=Queue,name=\"%s\"";
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	/**
+	 * Names of the CAs currently holding a permit. A CA is removed again on
+	 * release, so only running harvests take up memory.
+	 */
+	private final Set<String> permits = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final AtomicLong activeHarvests = new AtomicLong();
+
+	/**
+	 * Acquires the permit of the specified CA, unless another harvest of the
+	 * CA is running. The permit is released after completion of the current
+	 * transaction, or by {@link #release(String)} if no transaction is active.
+	 *
+	 * @return <code>true</code> if the permit was acquired.
+	 */
+	public boolean tryAcquire(final String caName) {
+
+		if (!this.permits.add(caName)) {
+			LOG.debug("harvest of CA already running: " + caName);
+			return false;
+		}
+		SNMPInterceptor.setValue(SnmpConstants.HARVESTS_ACTIVE,
+				SnmpConstants.SNMP_SERVICE,
+				this.activeHarvests.incrementAndGet());
+
+		if (null == this.transactionSynchronizationRegistry
+				.getTransactionKey()) {
+			return true;
+		}
+		boolean registered = false;
+		try {
+			this.transactionSynchronizationRegistry
+					.registerInterposedSynchronization(new Synchronization() {
+
+						public void beforeCompletion() {
+							// empty
+						}
+
+						public void afterCompletion(int status) {
+							release(caName);
+						}
+					});
+			registered = true;
+		} finally {
+			if (!registered) {
+				// e.g. transaction already timed out
+				release(caName);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Releases the permit of the specified CA. Only to be called if no
+	 * transaction was active while acquiring the permit.
+	 */
+	public void release(String caName) {
+
+		SNMPInterceptor.setValue(SnmpConstants.HARVESTS_ACTIVE,
+				SnmpConstants.SNMP_SERVICE,
+				this.activeHarvests.decrementAndGet());
+		this.permits.remove(caName);
+	}
+
+	/**
+	 * Records the duration of a completed harvest.
+	 */
+	public void harvested(String caName, long duration) {
+
+		LOG.info("harvested CA " + caName + " in " + duration + " ms");
+		SNMPInterceptor.setValue(SnmpConstants.HARVEST_DURATION,
+				SnmpConstants.SNMP_SERVICE, duration);
+	}
+
+	/**
+	 * Updates the queue depth SNMP counters from the HornetQ queue
+	 * management beans.
+	 */
+	public void updateQueueDepths() {
+
+		SNMPInterceptor.setValue(SnmpConstants.HARVESTER_QUEUE_DEPTH,
+				SnmpConstants.SNMP_SERVICE,
+				getMessageCount(HarvesterMDB.HARVESTER_QUEUE_NAME));
+		SNMPInterceptor.setValue(SnmpConstants.DOWNLOADER_QUEUE_DEPTH,
+				SnmpConstants.SNMP_SERVICE,
+				getMessageCount(DownloaderMDB.DOWNLOADER_QUEUE_NAME));
+	}
+
+	private long getMessageCount(String queueName) {
+
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		try {
+			Number messageCount = (Number) mBeanServer.getAttribute(
+					new ObjectName(String.format(QUEUE_OBJECT_NAME, queueName)),
+					"MessageCount");
+			return messageCount.longValue();
+		} catch (Exception e) {
+			LOG.warn("could not read message count of queue " + queueName
+					+ ": " + e.getMessage());
+			return 0;
+		}
+	}
+}
@@ -38,12 +38,24 @@ public class HarvestMessage implements JMSMessage {
 
 	private static final String CRL_FILE_PROPERTY = "crlFile";
 
+	private static final String CRL_ETAG_PROPERTY = "crlETag";
+
+	private static final String CRL_LAST_MODIFIED_PROPERTY = "crlLastModified";
+
+	private static final String CRL_HASH_PROPERTY = "crlHash";
+
 	private String caName;
 
 	private boolean update;
 
 	private String crlFile;
 
+	private String crlETag;
+
+	private String crlLastModified;
+
+	private String crlHash;
+
 	public String getCaName() {
 		return this.caName;
 	}
@@ -56,16 +68,36 @@ public class HarvestMessage implements JMSMessage {
 		return this.crlFile;
 	}
 
-	public HarvestMessage(String caName, String crlFile, boolean update) {
+	public String getCrlETag() {
+		return this.crlETag;
+	}
+
+	public String getCrlLastModified() {
+		return this.crlLastModified;
+	}
+
+	public String getCrlHash() {
+		return this.crlHash;
+	}
+
+	public HarvestMessage(String caName, String crlFile, boolean update,
+			String crlETag, String crlLastModified, String crlHash) {
 		this.caName = caName;
 		this.crlFile = crlFile;
 		this.update = update;
+		this.crlETag = crlETag;
+		this.crlLastModified = crlLastModified;
+		this.crlHash = crlHash;
 	}
 
 	public HarvestMessage(Message message) throws JMSException {
 		this.caName = message.getStringProperty(CA_NAME_PROPERTY);
 		this.crlFile = message.getStringProperty(CRL_FILE_PROPERTY);
 		this.update = message.getBooleanProperty(UPDATE_PROPERTY);
+		this.crlETag = message.getStringProperty(CRL_ETAG_PROPERTY);
+		this.crlLastModified = message
+				.getStringProperty(CRL_LAST_MODIFIED_PROPERTY);
+		this.crlHash = message.getStringProperty(CRL_HASH_PROPERTY);
 	}
 
 	public Message getJMSMessage(Session session) throws JMSException {
@@ -73,6 +105,10 @@ public class HarvestMessage implements JMSMessage {
 		message.setStringProperty(CA_NAME_PROPERTY, this.caName);
 		message.setStringProperty(CRL_FILE_PROPERTY, this.crlFile);
 		message.setBooleanProperty(UPDATE_PROPERTY, this.update);
+		message.setStringProperty(CRL_ETAG_PROPERTY, this.crlETag);
+		message.setStringProperty(CRL_LAST_MODIFIED_PROPERTY,
+				this.crlLastModified);
+		message.setStringProperty(CRL_HASH_PROPERTY, this.crlHash);
 		return message;
 	}
 }
@@ -18,29 +18,21 @@
 
 package be.fedict.trust.service.bean;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.math.BigInteger;
-import java.security.cert.CRLException;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509CRL;
 import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
 import javax.ejb.ActivationConfigProperty;
 import javax.ejb.EJB;
 import javax.ejb.MessageDriven;
+import javax.ejb.MessageDrivenContext;
 import javax.interceptor.Interceptors;
 import javax.jms.JMSException;
 import javax.jms.Message;
@@ -49,35 +41,37 @@ import javax.security.auth.x500.X500Principal;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.bouncycastle.asn1.ASN1InputStream;
-import org.bouncycastle.asn1.ASN1Sequence;
-import org.bouncycastle.asn1.DERInteger;
-import org.bouncycastle.asn1.DEROctetString;
-import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
 import org.bouncycastle.asn1.x509.TBSCertList;
-import org.bouncycastle.asn1.x509.X509Extensions;
 import org.bouncycastle.jce.provider.X509CRLEntryObject;
-import org.bouncycastle.x509.extension.X509ExtensionUtil;
 
-import be.fedict.trust.crl.CrlTrustLinker;
+import be.fedict.trust.service.NotificationService;
 import be.fedict.trust.service.SnmpConstants;
 import be.fedict.trust.service.dao.AuditDAO;
 import be.fedict.trust.service.dao.CertificateAuthorityDAO;
 import be.fedict.trust.service.entity.CertificateAuthorityEntity;
-import be.fedict.trust.service.entity.RevokedCertificateEntity;
 import be.fedict.trust.service.entity.Status;
 import be.fedict.trust.service.snmp.SNMP;
 import be.fedict.trust.service.snmp.SNMPInterceptor;
+import be.fedict.trust.service.util.CrlEntrySorter;
+import be.fedict.trust.service.util.RevocationFilter;
+import be.fedict.trust.service.util.RevocationIndex;
+import be.fedict.trust.service.util.StreamingCrl;
 
 /**
  * Harvester Message Driven Bean.
  * 
+ * The number of concurrent harvester sessions is configured in
+ * <code>ejb-jar.xml</code>. Harvests of the same CA are serialized via the
+ * {@link HarvestCoordinatorBean}. A harvest or remove message of a CA that is
+ * being harvested is sent again to the harvester queue, with a delivery delay
+ * configured in <code>ejb-jar.xml</code>. Unlike a rollback, this neither
+ * counts as a failed delivery nor keeps the session busy redelivering it.
+ * 
  * @author Frank Cornelis
  * 
  */
 @MessageDriven(activationConfig = {
 		@ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Queue"),
-		@ActivationConfigProperty(propertyName = "maxSession", propertyValue = "1"),
 		@ActivationConfigProperty(propertyName = "destination", propertyValue = HarvesterMDB.HARVESTER_QUEUE_LOCATION) })
 @Interceptors(SNMPInterceptor.class)
 public class HarvesterMDB implements MessageListener {
@@ -89,15 +83,43 @@ public class HarvesterMDB implements MessageListener {
 
 	private static final int BATCH_SIZE = 500;
 
+	private static final int SORT_RUN_SIZE = 50000;
+
+	private static final double FILTER_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+	private static final int DEFAULT_REQUEUE_DELAY = 5000;
+
 	@EJB
 	private CertificateAuthorityDAO certificateAuthorityDAO;
 
 	@EJB
 	private AuditDAO auditDAO;
 
+	@EJB
+	private RevocationIndexServiceBean revocationIndexService;
+
+	@EJB
+	private HarvestCoordinatorBean harvestCoordinator;
+
+	@EJB
+	private ValidationResultCacheBean validationResultCache;
+
+	@EJB
+	private NotificationService notificationService;
+
+	@Resource
+	private MessageDrivenContext messageDrivenContext;
+
 	@SNMP(oid = SnmpConstants.CRL_DOWNLOAD_FAILURES)
 	private Long failures = 0L;
 
+	/**
+	 * Delay in milliseconds before a message of a CA that is being harvested
+	 * is delivered again.
+	 */
+	@Resource(name = "requeueDelay")
+	private Integer requeueDelay = DEFAULT_REQUEUE_DELAY;
+
 	@PostConstruct
 	public void postConstructCallback() {
 		LOG.debug("post construct");
@@ -106,6 +128,7 @@ public class HarvesterMDB implements MessageListener {
 	@SNMP(oid = SnmpConstants.CACHE_REFRESH)
 	public void onMessage(Message message) {
 		LOG.debug("onMessage");
+		this.harvestCoordinator.updateQueueDepths();
 		HarvestMessage harvestMessage = null;
 		RemoveCAMessage removeCAMessage = null;
 		try {
@@ -131,6 +154,17 @@ public class HarvesterMDB implements MessageListener {
 		}
 		String issuerName = removeCAMessage.getCAName();
 		LOG.debug("remove CA: " + issuerName);
+		if (!this.harvestCoordinator.tryAcquire(issuerName)) {
+			LOG.debug("CA being harvested, requeue removal: " + issuerName);
+			try {
+				this.notificationService.notifyRemoveCA(issuerName,
+						this.requeueDelay);
+			} catch (JMSException e) {
+				LOG.error("JMS error: " + e.getMessage(), e);
+				this.messageDrivenContext.setRollbackOnly();
+			}
+			return;
+		}
 		CertificateAuthorityEntity certificateAuthority = this.certificateAuthorityDAO
 				.findCertificateAuthority(issuerName);
 		if (null == certificateAuthority) {
@@ -142,6 +176,8 @@ public class HarvesterMDB implements MessageListener {
 		LOG.debug("number of removed CRL cache entries: " + removeCount);
 		this.certificateAuthorityDAO
 				.removeCertificateAuthority(certificateAuthority);
+		this.revocationIndexService.remove(issuerName);
+		this.validationResultCache.crlActivated(issuerName);
 	}
 
 	private void processHarvestMessage(HarvestMessage harvestMessage) {
@@ -154,6 +190,19 @@ public class HarvesterMDB implements MessageListener {
 		File crlFile = new File(crlFilePath);
 
 		LOG.debug("issuer: " + caName);
+		if (!this.harvestCoordinator.tryAcquire(caName)) {
+			LOG.debug("CA being harvested, requeue CRL: " + caName);
+			try {
+				this.notificationService.notifyHarvester(caName, crlFilePath,
+						update, harvestMessage.getCrlETag(),
+						harvestMessage.getCrlLastModified(),
+						harvestMessage.getCrlHash(), this.requeueDelay);
+			} catch (JMSException e) {
+				LOG.error("JMS error: " + e.getMessage(), e);
+				this.messageDrivenContext.setRollbackOnly();
+			}
+			return;
+		}
 		CertificateAuthorityEntity certificateAuthority = this.certificateAuthorityDAO
 				.findCertificateAuthority(caName);
 		if (null == certificateAuthority) {
@@ -184,37 +233,54 @@ public class HarvesterMDB implements MessageListener {
 			return;
 		}
 
-		FileInputStream crlInputStream;
-		try {
-			crlInputStream = new FileInputStream(crlFile);
-		} catch (FileNotFoundException e) {
+		if (!crlFile.exists()) {
 			LOG.error("CRL file does not exist: " + crlFilePath);
 			return;
 		}
-		X509CRL crl;
+		/*
+		 * The CRL file is memory mapped and streamed, as generating an
+		 * X509CRL keeps several copies of huge CRLs on the heap.
+		 */
+		StreamingCrl crl;
 		try {
-			CertificateFactory certificateFactory = CertificateFactory
-					.getInstance("X.509", "BC");
-			crl = (X509CRL) certificateFactory.generateCRL(crlInputStream);
+			crl = StreamingCrl.open(crlFile);
 		} catch (Exception e) {
-			LOG.error("BC error: " + e.getMessage(), e);
+			LOG.error("CRL parsing error: " + e.getMessage(), e);
 			deleteCrlFile(crlFile);
 			return;
 		}
+		try {
+			processCrl(harvestMessage, certificateAuthority, crl,
+					validationDate);
+		} finally {
+			crl.close();
+		}
+		deleteCrlFile(crlFile);
+	}
+
+	private void processCrl(HarvestMessage harvestMessage,
+			CertificateAuthorityEntity certificateAuthority, StreamingCrl crl,
+			Date validationDate) {
+		long harvestStart = System.currentTimeMillis();
+		String caName = harvestMessage.getCaName();
+		X509Certificate issuerCertificate = certificateAuthority
+				.getCertificate();
 
 		LOG.debug("checking integrity CRL...");
-		boolean crlValid = CrlTrustLinker.checkCrlIntegrity(crl,
-				issuerCertificate, validationDate);
+		boolean crlValid = checkCrlIntegrity(crl, issuerCertificate,
+				validationDate);
 		if (!crlValid) {
 			this.auditDAO.logAudit("Invalid CRL for CA=" + caName);
-			deleteCrlFile(crlFile);
 			return;
 		}
-		BigInteger crlNumber = getCrlNumber(crl);
+		BigInteger crlNumber = crl.getCrlNumber();
 		LOG.debug("CRL number: " + crlNumber);
 
-		BigInteger currentCrlNumber = this.certificateAuthorityDAO
-				.findCrlNumber(caName);
+		BigInteger currentCrlNumber = certificateAuthority.getCrlNumber();
+		if (null == currentCrlNumber) {
+			currentCrlNumber = this.certificateAuthorityDAO
+					.findCrlNumber(caName);
+		}
 		if (null != currentCrlNumber) {
 			LOG.debug("CRL number in database: " + currentCrlNumber);
 		}
@@ -223,92 +289,120 @@ public class HarvesterMDB implements MessageListener {
 				&& certificateAuthority.getStatus() == Status.ACTIVE) {
 			// current CRL cache is higher or equal, no update needed
 			LOG.debug("current CA cache is new enough.");
-			deleteCrlFile(crlFile);
+			setCrlValidators(certificateAuthority, harvestMessage);
 			return;
 		}
 
-		List<RevokedCertificateEntity> revokedCertificateEntities = this.certificateAuthorityDAO
-				.getRevokedCertificates(caName);
-		LOG.debug("number of revoked certificates in database: "
-				+ revokedCertificateEntities.size());
-		Map<String, RevokedCertificateEntity> revokedCertificatesMap = new HashMap<String, RevokedCertificateEntity>();
-		for (RevokedCertificateEntity revokedCertificateEntity : revokedCertificateEntities) {
-			String serialNumber = revokedCertificateEntity.getPk()
-					.getSerialNumber();
-			revokedCertificatesMap.put(serialNumber, revokedCertificateEntity);
-		}
-
 		LOG.debug("processing CRL... " + caName);
-		boolean isIndirect;
-		Enumeration revokedCertificatesEnum;
-		try {
-			isIndirect = isIndirectCRL(crl);
-			revokedCertificatesEnum = getRevokedCertificatesEnum(crl);
-		} catch (Exception e) {
-			this.auditDAO.logAudit("Failed to parse CRL for CA=" + caName);
-			this.failures++;
-			throw new RuntimeException(e);
-		}
-
+		boolean isIndirect = crl.isIndirectCRL();
+		Enumeration<TBSCertList.CRLEntry> revokedCertificatesEnum = crl
+				.getRevokedCertificateEnumeration();
+
+		RevocationIndex.Builder revocationIndexBuilder = new RevocationIndex.Builder(
+				caName);
+		RevocationFilter.Builder revocationFilterBuilder = new RevocationFilter.Builder(
+				caName, FILTER_FALSE_POSITIVE_PROBABILITY);
+		/*
+		 * The CRL entries are sorted on disk and merged against the sorted
+		 * cache entries, so only the differences are written. Parsing, sorting
+		 * and merging use bounded memory. The revocation index and filter do
+		 * grow with the CRL, but only by some 30 bytes per entry, instead of
+		 * an entity per entry.
+		 */
+		CrlEntrySorter crlEntrySorter = new CrlEntrySorter(SORT_RUN_SIZE);
 		int entries = 0;
-		if (revokedCertificatesEnum.hasMoreElements()) {
-			/*
-			 * Split up persisting the crl entries to avoid memory issues.
-			 */
-			Set<X509CRLEntry> revokedCertsBatch = new HashSet<X509CRLEntry>();
+		int changes;
+		try {
+			Set<X509CRLEntry> indirectRevokedCertsBatch = new HashSet<X509CRLEntry>();
 			X500Principal previousCertificateIssuer = crl
 					.getIssuerX500Principal();
-			int added = 0;
 			while (revokedCertificatesEnum.hasMoreElements()) {
 
-				TBSCertList.CRLEntry entry = (TBSCertList.CRLEntry) revokedCertificatesEnum
-						.nextElement();
+				TBSCertList.CRLEntry entry;
+				try {
+					entry = revokedCertificatesEnum.nextElement();
+				} catch (RuntimeException e) {
+					this.auditDAO.logAudit("Failed to parse CRL for CA="
+							+ caName);
+					this.failures++;
+					throw e;
+				}
 				X509CRLEntryObject revokedCertificate = new X509CRLEntryObject(
 						entry, isIndirect, previousCertificateIssuer);
 				previousCertificateIssuer = revokedCertificate
 						.getCertificateIssuer();
-
-				revokedCertsBatch.add(revokedCertificate);
-				added++;
-				if (added == BATCH_SIZE) {
+				entries++;
+				if (null != previousCertificateIssuer
+						&& !caName.equals(previousCertificateIssuer.toString())) {
 					/*
-					 * Persist batch
+					 * Entries of other issuers within an indirect CRL are not
+					 * part of this CA's cache. They are persisted in batches
+					 * within this harvest's transaction and indexed when their
+					 * own CA gets loaded.
 					 */
-					this.certificateAuthorityDAO.updateRevokedCertificates(
-							revokedCertsBatch, crlNumber,
-							crl.getIssuerX500Principal(),
-							revokedCertificatesMap);
-					entries += revokedCertsBatch.size();
-					revokedCertsBatch.clear();
-					added = 0;
+					indirectRevokedCertsBatch.add(revokedCertificate);
+					if (indirectRevokedCertsBatch.size() == BATCH_SIZE) {
+						this.certificateAuthorityDAO.updateRevokedCertificates(
+								indirectRevokedCertsBatch, crlNumber,
+								crl.getIssuerX500Principal());
+						indirectRevokedCertsBatch.clear();
+					}
+					continue;
 				}
-			}
-			/*
-			 * Persist final batch
-			 */
-			this.certificateAuthorityDAO.updateRevokedCertificates(
-					revokedCertsBatch, crlNumber, crl.getIssuerX500Principal(),
-					revokedCertificatesMap);
-			entries += revokedCertsBatch.size();
 
-			/*
-			 * Cleanup redundant CRL entries
-			 */
-			if (null != crlNumber) {
-				this.certificateAuthorityDAO.removeOldRevokedCertificates(
-						crlNumber, crl.getIssuerX500Principal().toString());
+				BigInteger serialNumber = revokedCertificate.getSerialNumber();
+				Date revocationDate = revokedCertificate.getRevocationDate();
+				crlEntrySorter.add(serialNumber.toString(), revocationDate);
+				revocationIndexBuilder.add(serialNumber, revocationDate);
+				revocationFilterBuilder.add(serialNumber);
 			}
+			if (!indirectRevokedCertsBatch.isEmpty()) {
+				this.certificateAuthorityDAO.updateRevokedCertificates(
+						indirectRevokedCertsBatch, crlNumber,
+						crl.getIssuerX500Principal());
+			}
+
+			changes = this.certificateAuthorityDAO.mergeRevokedCertificates(
+					caName, crlEntrySorter.sort(), crlNumber);
+		} finally {
+			crlEntrySorter.close();
 		}
 
-		deleteCrlFile(crlFile);
+		/*
+		 * The merge cleared the persistence context.
+		 */
+		certificateAuthority = this.certificateAuthorityDAO
+				.findCertificateAuthority(caName);
 
 		LOG.debug("CRL this update: " + crl.getThisUpdate());
 		LOG.debug("CRL next update: " + crl.getNextUpdate());
 		certificateAuthority.setStatus(Status.ACTIVE);
 		certificateAuthority.setThisUpdate(crl.getThisUpdate());
 		certificateAuthority.setNextUpdate(crl.getNextUpdate());
+		certificateAuthority.setCrlNumber(crlNumber);
+		setCrlValidators(certificateAuthority, harvestMessage);
+		long harvestDuration = System.currentTimeMillis() - harvestStart;
+		certificateAuthority.setHarvestDuration(harvestDuration);
+		this.harvestCoordinator.harvested(caName, harvestDuration);
+		this.revocationIndexService.activate(revocationIndexBuilder.build(
+				crlNumber, crl.getThisUpdate(), crl.getNextUpdate()),
+				revocationFilterBuilder.build(crlNumber, crl.getThisUpdate()));
+		this.validationResultCache.crlActivated(caName);
 		LOG.debug("cache activated for CA: " + crl.getIssuerX500Principal()
-				+ " (entries=" + entries + ")");
+				+ " (entries=" + entries + ", changes=" + changes + ")");
+	}
+
+	/**
+	 * Stores the HTTP validators and content hash of the harvested CRL, so the
+	 * downloader can skip unchanged CRLs next time.
+	 */
+	private void setCrlValidators(
+			CertificateAuthorityEntity certificateAuthority,
+			HarvestMessage harvestMessage) {
+		certificateAuthority.setCrlETag(harvestMessage.getCrlETag());
+		certificateAuthority.setCrlLastModified(harvestMessage
+				.getCrlLastModified());
+		certificateAuthority.setCrlHash(harvestMessage.getCrlHash());
 	}
 
 	private void deleteCrlFile(File crlFile) {
@@ -319,75 +413,47 @@ public class HarvesterMDB implements MessageListener {
 		}
 	}
 
-	private BigInteger getCrlNumber(X509CRL crl) {
-		byte[] crlNumberExtensionValue = crl.getExtensionValue("2.5.29.20");
-		if (null == crlNumberExtensionValue) {
-			return null;
-		}
-		try {
-			DEROctetString octetString = (DEROctetString) (new ASN1InputStream(
-					new ByteArrayInputStream(crlNumberExtensionValue))
-					.readObject());
-			byte[] octets = octetString.getOctets();
-			DERInteger integer = (DERInteger) new ASN1InputStream(octets)
-					.readObject();
-			return integer.getPositiveValue();
-		} catch (IOException e) {
-			throw new RuntimeException("IO error: " + e.getMessage(), e);
-		}
-	}
-
 	/**
-	 * Added for as {@link X509CRL#getRevokedCertificates()} is memory intensive
-	 * because it is returning a complete set, for huge CRL's this can get kinda
-	 * out of hand. So we return an enumeration of the DER
-	 * {@link TBSCertList.CRLEntry} objects.
-	 * 
-	 * @param crl
-	 *            the CRL
-	 * @return {@link Enumeration} of {@link TBSCertList.CRLEntry}'s.
-	 * @throws IOException
-	 *             something went wrong parsing.
-	 * @throws CRLException
-	 *             something went wrong parsing.
+	 * Mirrors <code>CrlTrustLinker.checkCrlIntegrity</code> of jTrust, which
+	 * only accepts a fully parsed {@link java.security.cert.X509CRL}: issuer,
+	 * signature, this and next update, and the cRLSign key usage of the
+	 * issuer. Any check added to jTrust should be added here as well. The CRL
+	 * trust linker still applies its own checks on CRLs it retrieves itself.
 	 */
-	@SuppressWarnings("unchecked")
-	private Enumeration<TBSCertList.CRLEntry> getRevokedCertificatesEnum(
-			X509CRL crl) throws IOException, CRLException {
-		byte[] certList = crl.getTBSCertList();
-		ByteArrayInputStream bais = new ByteArrayInputStream(certList);
-		ASN1InputStream aIn = new ASN1InputStream(bais, Integer.MAX_VALUE, true);
-		ASN1Sequence seq = (ASN1Sequence) aIn.readObject();
-		TBSCertList cl = TBSCertList.getInstance(seq);
-		return cl.getRevokedCertificateEnumeration();
-	}
-
-	/**
-	 * Returns if the specified CRL is indirect.
-	 * 
-	 * @param crl
-	 *            the CRL
-	 * @return true or false
-	 * @throws CRLException
-	 *             something went wrong reading the
-	 *             {@link org.bouncycastle.asn1.x509.IssuingDistributionPoint}.
-	 */
-	private boolean isIndirectCRL(X509CRL crl) throws CRLException {
-		byte[] idp = crl
-				.getExtensionValue(X509Extensions.IssuingDistributionPoint
-						.getId());
-		boolean isIndirect = false;
+	private boolean checkCrlIntegrity(StreamingCrl crl,
+			X509Certificate issuerCertificate, Date validationDate) {
+		if (!crl.getIssuerX500Principal().equals(
+				issuerCertificate.getSubjectX500Principal())) {
+			LOG.debug("CRL issuer mismatch with certificate issuer");
+			return false;
+		}
 		try {
-			if (idp != null) {
-				isIndirect = IssuingDistributionPoint.getInstance(
-						X509ExtensionUtil.fromExtensionValue(idp))
-						.isIndirectCRL();
+			if (!crl.verify(issuerCertificate.getPublicKey())) {
+				LOG.debug("CRL signature invalid");
+				return false;
 			}
 		} catch (Exception e) {
-			throw new CRLException(
-					"Exception reading IssuingDistributionPoint", e);
+			LOG.debug("CRL verification failed: " + e.getMessage());
+			return false;
 		}
-
-		return isIndirect;
+		Date thisUpdate = crl.getThisUpdate();
+		LOG.debug("validation date: " + validationDate);
+		LOG.debug("CRL this update: " + thisUpdate);
+		if (thisUpdate.after(validationDate)) {
+			LOG.warn("CRL too young");
+			return false;
+		}
+		Date nextUpdate = crl.getNextUpdate();
+		LOG.debug("CRL next update: " + nextUpdate);
+		if (null != nextUpdate && validationDate.after(nextUpdate)) {
+			LOG.debug("CRL too old");
+			return false;
+		}
+		boolean[] keyUsage = issuerCertificate.getKeyUsage();
+		if (null != keyUsage && !keyUsage[6]) {
+			LOG.debug("cRLSign bit not set on issuer certificate");
+			return false;
+		}
+		return true;
 	}
 }
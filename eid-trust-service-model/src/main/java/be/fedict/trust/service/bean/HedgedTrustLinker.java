@@ -0,0 +1,282 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.RevocationData;
+import be.fedict.trust.TrustLinker;
+import be.fedict.trust.TrustLinkerResult;
+import be.fedict.trust.service.SnmpConstants;
+import be.fedict.trust.service.snmp.SNMPInterceptor;
+
+/**
+ * Hedging variant of the {@link be.fedict.trust.FallbackTrustLinker}.
+ *
+ * The trust linkers are consulted in order, the first conclusive result
+ * wins. If a trust linker gives up, the next one is started right away, as
+ * the fallback trust linker does. If a trust linker did not answer within
+ * the hedge delay of the CA, the next one is started in parallel instead of
+ * waiting for the slow one to time out. See {@link RevocationHedgingBean}.
+ *
+ * Trust linkers that lost the race are not interrupted, so the responses
+ * they are still fetching end up in the shared OCSP and CRL caches. Once all
+ * trust linkers are started, the validating thread runs the ones the
+ * executor did not pick up yet itself, one at a time, and stops as soon as
+ * one of them is conclusive.
+ */
+public class HedgedTrustLinker implements TrustLinker {
+
+	private static final Log LOG = LogFactory.getLog(HedgedTrustLinker.class);
+
+	private final RevocationHedgingBean revocationHedging;
+
+	private final List<Source> sources = new LinkedList<Source>();
+
+	public HedgedTrustLinker(RevocationHedgingBean revocationHedging) {
+		this.revocationHedging = revocationHedging;
+	}
+
+	/**
+	 * Adds a trust linker. The first one added is the primary revocation
+	 * source.
+	 *
+	 * @param winsOid
+	 *            the OID of the SNMP counter incremented each time this trust
+	 *            linker wins a hedged race.
+	 */
+	public void addTrustLinker(TrustLinker trustLinker, String winsOid) {
+
+		this.sources.add(new Source(trustLinker, winsOid));
+	}
+
+	public TrustLinkerResult hasTrustLink(X509Certificate childCertificate,
+			X509Certificate certificate, Date validationDate,
+			RevocationData revocationData) {
+
+		String caName = childCertificate.getIssuerX500Principal().toString();
+		long delay = this.revocationHedging.getDelay(caName);
+
+		BlockingQueue<Attempt> completed = new LinkedBlockingQueue<Attempt>();
+		List<Attempt> attempts = new ArrayList<Attempt>();
+		Iterator<Source> sourceIterator = this.sources.iterator();
+		Attempt primaryAttempt = null;
+		boolean hedged = false;
+		int pending = 0;
+		int unstarted = 0;
+		try {
+			while (true) {
+				if (0 == pending) {
+					if (!sourceIterator.hasNext()) {
+						return null;
+					}
+					Attempt attempt = start(sourceIterator.next(),
+							childCertificate, certificate, validationDate,
+							null != revocationData, completed, attempts);
+					if (null == primaryAttempt) {
+						primaryAttempt = attempt;
+					}
+					pending++;
+				}
+
+				Attempt attempt;
+				if (sourceIterator.hasNext()) {
+					attempt = poll(completed, delay);
+					if (null == attempt) {
+						LOG.debug("hedging revocation check for CA: " + caName);
+						SNMPInterceptor.increment(
+								SnmpConstants.REVOCATION_HEDGES,
+								SnmpConstants.SNMP_SERVICE, 1L);
+						hedged = true;
+						start(sourceIterator.next(), childCertificate,
+								certificate, validationDate,
+								null != revocationData, completed, attempts);
+						pending++;
+						continue;
+					}
+				} else {
+					attempt = completed.poll();
+					if (null == attempt) {
+						if (unstarted < attempts.size()) {
+							// runs here if not yet picked up by the executor
+							attempts.get(unstarted++).run();
+							continue;
+						}
+						attempt = take(completed);
+					}
+				}
+				pending--;
+
+				if (attempt == primaryAttempt) {
+					this.revocationHedging.recordLatency(caName,
+							attempt.getLatency());
+				}
+				TrustLinkerResult result = attempt.getResult();
+				if (null != result) {
+					if (hedged) {
+						SNMPInterceptor.increment(attempt.source.winsOid,
+								SnmpConstants.SNMP_SERVICE, 1L);
+					}
+					if (null != revocationData) {
+						revocationData.getOcspRevocationData().addAll(
+								attempt.revocationData.getOcspRevocationData());
+						revocationData.getCrlRevocationData().addAll(
+								attempt.revocationData.getCrlRevocationData());
+					}
+					return result;
+				}
+			}
+		} finally {
+			if (null != primaryAttempt && !primaryAttempt.isDone()) {
+				// still running, so at least this slow
+				this.revocationHedging.recordLatency(caName,
+						primaryAttempt.getLatency());
+			}
+			for (Attempt attempt : attempts) {
+				attempt.cancel(false);
+			}
+		}
+	}
+
+	private Attempt start(Source source, X509Certificate childCertificate,
+			X509Certificate certificate, Date validationDate,
+			boolean collectRevocationData, BlockingQueue<Attempt> completed,
+			List<Attempt> attempts) {
+
+		Attempt attempt = new Attempt(source, childCertificate, certificate,
+				validationDate, collectRevocationData ? new RevocationData()
+						: null, completed);
+		attempts.add(attempt);
+		this.revocationHedging.getExecutor().execute(attempt);
+		return attempt;
+	}
+
+	private static Attempt poll(BlockingQueue<Attempt> completed, long delay) {
+
+		try {
+			return completed.poll(delay, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private static Attempt take(BlockingQueue<Attempt> completed) {
+
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return completed.take();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static final class Source {
+
+		private final TrustLinker trustLinker;
+
+		private final String winsOid;
+
+		Source(TrustLinker trustLinker, String winsOid) {
+			this.trustLinker = trustLinker;
+			this.winsOid = winsOid;
+		}
+	}
+
+	private static final class Attempt extends FutureTask<TrustLinkerResult> {
+
+		private final Source source;
+
+		private final RevocationData revocationData;
+
+		private final BlockingQueue<Attempt> completed;
+
+		private final long startTime = System.currentTimeMillis();
+
+		private volatile long endTime;
+
+		Attempt(final Source source, final X509Certificate childCertificate,
+				final X509Certificate certificate, final Date validationDate,
+				final RevocationData revocationData,
+				BlockingQueue<Attempt> completed) {
+			super(new Callable<TrustLinkerResult>() {
+
+				public TrustLinkerResult call() throws Exception {
+					return source.trustLinker.hasTrustLink(childCertificate,
+							certificate, validationDate, revocationData);
+				}
+			});
+			this.source = source;
+			this.revocationData = revocationData;
+			this.completed = completed;
+		}
+
+		@Override
+		protected void done() {
+			this.endTime = System.currentTimeMillis();
+			this.completed.offer(this);
+		}
+
+		long getLatency() {
+			long end = 0 != this.endTime ? this.endTime : System
+					.currentTimeMillis();
+			return end - this.startTime;
+		}
+
+		TrustLinkerResult getResult() {
+			try {
+				return get();
+			} catch (InterruptedException e) {
+				// the attempt is done, so get does not block
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+}
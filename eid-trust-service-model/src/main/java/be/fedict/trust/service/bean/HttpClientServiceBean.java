@@ -0,0 +1,348 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.NetworkConfig;
+import be.fedict.trust.service.dao.ConfigurationDAO;
+import be.fedict.trust.service.util.DnsCache;
+
+/**
+ * Singleton HTTP transport shared by all outbound fetches: CRL downloads,
+ * online OCSP and CRL requests and the TSP clock drift detection.
+ *
+ * All requests go through a single connection pool, so connections to the
+ * same few CA responders are kept alive and reused instead of paying a TCP
+ * (and TLS) handshake per request. The number of connections per host and in
+ * total, and the connection and socket timeouts are configured via the
+ * <code>ejb-jar.xml</code> environment entries of this bean.
+ *
+ * New connections resolve the host name through a {@link DnsCache}, with a
+ * time to live also configured in <code>ejb-jar.xml</code>. The HTTP and HTTPS
+ * protocols are only wrapped for the requests of this bean, not registered JVM
+ * wide. A connection tunnelled through a proxy resolves the proxy host via
+ * the default socket factory.
+ *
+ * The proxy of the {@link NetworkConfig} is loaded on first use and reloaded
+ * after every change of the network configuration.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class HttpClientServiceBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(HttpClientServiceBean.class);
+
+	@EJB
+	private ConfigurationDAO configurationDAO;
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	@Resource(name = "maxConnectionsPerHost")
+	private Integer maxConnectionsPerHost = 20;
+
+	@Resource(name = "maxTotalConnections")
+	private Integer maxTotalConnections = 100;
+
+	@Resource(name = "connectionTimeout")
+	private Integer connectionTimeout = 1000 * 10;
+
+	@Resource(name = "socketTimeout")
+	private Integer socketTimeout = 1000 * 20;
+
+	@Resource(name = "idleConnectionTimeout")
+	private Integer idleConnectionTimeout = 1000 * 60;
+
+	@Resource(name = "dnsCacheTtl")
+	private Integer dnsCacheTtl = 60;
+
+	private Map<String, Protocol> protocols;
+
+	private MultiThreadedHttpConnectionManager connectionManager;
+
+	private IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+
+	private HttpClient httpClient;
+
+	private volatile HostConfiguration hostConfiguration;
+
+	@PostConstruct
+	public void postConstruct() {
+
+		LOG.debug("HTTP connection pool: maxConnectionsPerHost="
+				+ this.maxConnectionsPerHost + ", maxTotalConnections="
+				+ this.maxTotalConnections);
+		this.connectionManager = new MultiThreadedHttpConnectionManager();
+		HttpConnectionManagerParams params = this.connectionManager
+				.getParams();
+		params.setDefaultMaxConnectionsPerHost(this.maxConnectionsPerHost);
+		params.setMaxTotalConnections(this.maxTotalConnections);
+		params.setConnectionTimeout(this.connectionTimeout);
+		params.setSoTimeout(this.socketTimeout);
+		params.setStaleCheckingEnabled(true);
+		params.setTcpNoDelay(true);
+
+		DnsCache dnsCache = new DnsCache(this.dnsCacheTtl * 1000L);
+		this.protocols = new HashMap<String, Protocol>();
+		for (String scheme : new String[] { "http", "https" }) {
+			Protocol protocol = Protocol.getProtocol(scheme);
+			ProtocolSocketFactory socketFactory = protocol.getSocketFactory();
+			if (socketFactory instanceof SecureProtocolSocketFactory) {
+				socketFactory = new SecureDnsCachingSocketFactory(dnsCache,
+						(SecureProtocolSocketFactory) socketFactory);
+			} else {
+				socketFactory = new DnsCachingSocketFactory(dnsCache);
+			}
+			this.protocols.put(scheme, new Protocol(scheme, socketFactory,
+					protocol.getDefaultPort()));
+		}
+
+		this.httpClient = new HttpClient(this.connectionManager);
+		this.httpClient.getParams().setConnectionManagerTimeout(
+				this.connectionTimeout);
+
+		this.idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+		this.idleConnectionTimeoutThread.setName("trust-service-http-idle");
+		this.idleConnectionTimeoutThread
+				.setConnectionTimeout(this.idleConnectionTimeout);
+		this.idleConnectionTimeoutThread
+				.setTimeoutInterval(this.idleConnectionTimeout / 2);
+		this.idleConnectionTimeoutThread
+				.addConnectionManager(this.connectionManager);
+		this.idleConnectionTimeoutThread.start();
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+
+		LOG.debug("shutdown HTTP connection pool");
+		this.idleConnectionTimeoutThread.shutdown();
+		this.connectionManager.shutdown();
+	}
+
+	/**
+	 * Executes the specified method over the shared connection pool, using
+	 * the configured proxy if any. The caller must invoke
+	 * {@link HttpMethod#releaseConnection()} when done, so the connection
+	 * returns to the pool.
+	 *
+	 * @return the HTTP status code.
+	 */
+	public int executeMethod(HttpMethod method) throws IOException {
+
+		return this.httpClient.executeMethod(getHostConfiguration(), method);
+	}
+
+	/**
+	 * Reloads the proxy settings. Should be invoked on each change of the
+	 * network configuration. If a transaction is active, the settings are
+	 * reloaded again after completion so the committed configuration is
+	 * picked up.
+	 */
+	public void resetNetworkConfig() {
+
+		LOG.debug("reset network config");
+		this.hostConfiguration = null;
+
+		if (null == this.transactionSynchronizationRegistry
+				.getTransactionKey()) {
+			return;
+		}
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new Synchronization() {
+
+					public void beforeCompletion() {
+						// empty
+					}
+
+					public void afterCompletion(int status) {
+						HttpClientServiceBean.this.hostConfiguration = null;
+					}
+				});
+	}
+
+	private HostConfiguration getHostConfiguration() {
+
+		HostConfiguration currentHostConfiguration = this.hostConfiguration;
+		if (null != currentHostConfiguration) {
+			return currentHostConfiguration;
+		}
+
+		currentHostConfiguration = new DnsCachingHostConfiguration(
+				this.protocols);
+		NetworkConfig networkConfig = this.configurationDAO.getNetworkConfig();
+		if (null != networkConfig) {
+			LOG.debug("proxy: " + networkConfig.getProxyHost() + ":"
+					+ networkConfig.getProxyPort());
+			currentHostConfiguration.setProxy(networkConfig.getProxyHost(),
+					networkConfig.getProxyPort());
+		}
+		this.hostConfiguration = currentHostConfiguration;
+		return currentHostConfiguration;
+	}
+
+	/**
+	 * Host configuration using the DNS caching protocols for the host of the
+	 * request URI. {@link HttpClient} clones it per request, which keeps the
+	 * subclass.
+	 */
+	private static class DnsCachingHostConfiguration extends
+			HostConfiguration {
+
+		private final Map<String, Protocol> protocols;
+
+		DnsCachingHostConfiguration(Map<String, Protocol> protocols) {
+			this.protocols = protocols;
+		}
+
+		@Override
+		public synchronized void setHost(URI uri) {
+			Protocol protocol = this.protocols.get(uri.getScheme());
+			if (null == protocol) {
+				super.setHost(uri);
+				return;
+			}
+			try {
+				setHost(uri.getHost(), uri.getPort(), protocol);
+			} catch (URIException e) {
+				throw new IllegalArgumentException(e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Opens plain sockets to the addresses of the {@link DnsCache}, trying
+	 * the next address if a connect fails.
+	 */
+	private static class DnsCachingSocketFactory implements
+			ProtocolSocketFactory {
+
+		private final DnsCache dnsCache;
+
+		DnsCachingSocketFactory(DnsCache dnsCache) {
+			this.dnsCache = dnsCache;
+		}
+
+		public Socket createSocket(String host, int port) throws IOException {
+			return createSocket(host, port, null, 0, null);
+		}
+
+		public Socket createSocket(String host, int port,
+				InetAddress localAddress, int localPort) throws IOException {
+			return createSocket(host, port, localAddress, localPort, null);
+		}
+
+		public Socket createSocket(String host, int port,
+				InetAddress localAddress, int localPort,
+				HttpConnectionParams params) throws IOException {
+			int timeout = null == params ? 0 : params.getConnectionTimeout();
+			IOException lastException = null;
+			for (InetAddress address : this.dnsCache.resolve(host)) {
+				Socket socket = new Socket();
+				try {
+					if (null != localAddress) {
+						socket.bind(new InetSocketAddress(localAddress,
+								localPort));
+					}
+					socket.connect(new InetSocketAddress(address, port),
+							timeout);
+					return socket;
+				} catch (SocketTimeoutException e) {
+					socket.close();
+					lastException = new ConnectTimeoutException(
+							"connect to " + address + " timed out", e);
+				} catch (IOException e) {
+					socket.close();
+					lastException = e;
+				}
+			}
+			throw lastException;
+		}
+	}
+
+	/**
+	 * Layers the TLS socket of the default HTTPS socket factory on top of the
+	 * plain socket, using the host name for the TLS handshake.
+	 */
+	private static class SecureDnsCachingSocketFactory extends
+			DnsCachingSocketFactory implements SecureProtocolSocketFactory {
+
+		private final SecureProtocolSocketFactory secureSocketFactory;
+
+		SecureDnsCachingSocketFactory(DnsCache dnsCache,
+				SecureProtocolSocketFactory secureSocketFactory) {
+			super(dnsCache);
+			this.secureSocketFactory = secureSocketFactory;
+		}
+
+		@Override
+		public Socket createSocket(String host, int port,
+				InetAddress localAddress, int localPort,
+				HttpConnectionParams params) throws IOException {
+			Socket socket = super.createSocket(host, port, localAddress,
+					localPort, params);
+			try {
+				return createSocket(socket, host, port, true);
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+
+		public Socket createSocket(Socket socket, String host, int port,
+				boolean autoClose) throws IOException {
+			return this.secureSocketFactory.createSocket(socket, host, port,
+					autoClose);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.crl.CrlRepository;
+
+/**
+ * Online {@link CrlRepository} fetching the CRLs over the shared connection
+ * pool of the {@link HttpClientServiceBean}.
+ *
+ * CRLs are not fetched from a CRL distribution point with an open circuit,
+ * see {@link CircuitBreakerServiceBean}.
+ */
+public class HttpCrlRepository implements CrlRepository {
+
+	private static final Log LOG = LogFactory.getLog(HttpCrlRepository.class);
+
+	private final HttpClientServiceBean httpClientService;
+
+	private final CircuitBreakerServiceBean circuitBreakerService;
+
+	public HttpCrlRepository(HttpClientServiceBean httpClientService,
+			CircuitBreakerServiceBean circuitBreakerService) {
+		this.httpClientService = httpClientService;
+		this.circuitBreakerService = circuitBreakerService;
+	}
+
+	public X509CRL findCrl(URI crlUri, X509Certificate issuerCertificate,
+			Date validationDate) {
+
+		String scheme = crlUri.getScheme();
+		if (!"http".equalsIgnoreCase(scheme)
+				&& !"https".equalsIgnoreCase(scheme)) {
+			LOG.debug("unsupported CRL URI scheme: " + crlUri);
+			return null;
+		}
+
+		String url = crlUri.toString();
+		if (!this.circuitBreakerService.allowRequest(url)) {
+			return null;
+		}
+
+		LOG.debug("downloading CRL: " + crlUri);
+		long startTime = System.currentTimeMillis();
+		boolean success = false;
+		GetMethod getMethod = new GetMethod(url);
+		getMethod.addRequestHeader("User-Agent", "eID Trust Service Client");
+		try {
+			int statusCode = this.httpClientService.executeMethod(getMethod);
+			if (HttpURLConnection.HTTP_OK != statusCode) {
+				LOG.debug("HTTP status code: " + statusCode);
+				return null;
+			}
+			CertificateFactory certificateFactory = CertificateFactory
+					.getInstance("X.509");
+			InputStream crlInputStream = getMethod.getResponseBodyAsStream();
+			X509CRL crl = (X509CRL) certificateFactory
+					.generateCRL(crlInputStream);
+			success = true;
+			return crl;
+		} catch (Exception e) {
+			LOG.error("error downloading CRL " + crlUri + ": "
+					+ e.getMessage());
+			return null;
+		} finally {
+			getMethod.releaseConnection();
+			this.circuitBreakerService.recordResult(url, success, System
+					.currentTimeMillis()
+					- startTime);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.OCSPReq;
+import org.bouncycastle.ocsp.OCSPReqGenerator;
+import org.bouncycastle.ocsp.OCSPResp;
+
+import be.fedict.trust.ocsp.OcspRepository;
+
+/**
+ * Online {@link OcspRepository} sending the OCSP requests over the shared
+ * connection pool of the {@link HttpClientServiceBean}.
+ *
+ * Requests to an OCSP responder with an open circuit are not sent, see
+ * {@link CircuitBreakerServiceBean}.
+ */
+public class HttpOcspRepository implements OcspRepository {
+
+	private static final Log LOG = LogFactory.getLog(HttpOcspRepository.class);
+
+	private static final String OCSP_REQUEST_CONTENT_TYPE = "application/ocsp-request";
+
+	private static final String OCSP_RESPONSE_CONTENT_TYPE = "application/ocsp-response";
+
+	private final HttpClientServiceBean httpClientService;
+
+	private final CircuitBreakerServiceBean circuitBreakerService;
+
+	public HttpOcspRepository(HttpClientServiceBean httpClientService,
+			CircuitBreakerServiceBean circuitBreakerService) {
+		this.httpClientService = httpClientService;
+		this.circuitBreakerService = circuitBreakerService;
+	}
+
+	public OCSPResp findOcspResponse(URI ocspUri, X509Certificate certificate,
+			X509Certificate issuerCertificate, Date validationDate) {
+
+		String url = ocspUri.toString();
+		if (!this.circuitBreakerService.allowRequest(url)) {
+			return null;
+		}
+
+		LOG.debug("OCSP request: " + ocspUri);
+		long startTime = System.currentTimeMillis();
+		boolean success = false;
+		PostMethod postMethod = new PostMethod(url);
+		postMethod.addRequestHeader("User-Agent", "eID Trust Service Client");
+		try {
+			OCSPReqGenerator ocspReqGenerator = new OCSPReqGenerator();
+			ocspReqGenerator.addRequest(new CertificateID(
+					CertificateID.HASH_SHA1, issuerCertificate, certificate
+							.getSerialNumber()));
+			OCSPReq ocspReq = ocspReqGenerator.generate();
+			postMethod.setRequestEntity(new ByteArrayRequestEntity(ocspReq
+					.getEncoded(), OCSP_REQUEST_CONTENT_TYPE));
+
+			int statusCode = this.httpClientService.executeMethod(postMethod);
+			if (HttpURLConnection.HTTP_OK != statusCode) {
+				LOG.debug("HTTP status code: " + statusCode);
+				return null;
+			}
+			Header contentTypeHeader = postMethod
+					.getResponseHeader("Content-Type");
+			if (null == contentTypeHeader
+					|| !contentTypeHeader.getValue().startsWith(
+							OCSP_RESPONSE_CONTENT_TYPE)) {
+				LOG.debug("no OCSP response content type: "
+						+ contentTypeHeader);
+				return null;
+			}
+			OCSPResp ocspResp = new OCSPResp(postMethod
+					.getResponseBodyAsStream());
+			success = true;
+			return ocspResp;
+		} catch (Exception e) {
+			LOG.error("OCSP error for " + ocspUri + ": " + e.getMessage());
+			return null;
+		} finally {
+			postMethod.releaseConnection();
+			this.circuitBreakerService.recordResult(url, success, System
+					.currentTimeMillis()
+					- startTime);
+		}
+	}
+}
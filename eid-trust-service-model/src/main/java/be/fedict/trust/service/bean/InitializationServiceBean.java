@@ -127,6 +127,50 @@ public class InitializationServiceBean implements InitializationService {
 				SnmpConstants.SNMP_SERVICE, 0L);
 		SNMPInterceptor.setValue(SnmpConstants.OCSP_FAILURES,
 				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.REVOCATION_FILTER_SIZE,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.REVOCATION_FILTER_FPP,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.HARVESTER_QUEUE_DEPTH,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.DOWNLOADER_QUEUE_DEPTH,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.HARVESTS_ACTIVE,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.HARVEST_DURATION,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.CRL_DOWNLOADS_NOT_MODIFIED,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.CRL_CACHE_HITS,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.CRL_CACHE_MISSES,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.CRL_CACHE_IN_FLIGHT,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.CRL_CACHE_MEMORY,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.CRL_CACHE_EVICTIONS,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.RESULT_CACHE_HITS,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.RESULT_CACHE_MISSES,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.RESULT_CACHE_HIT_PERCENTAGE,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.VALIDATIONS_COALESCED,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.REVOCATION_HEDGES,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.REVOCATION_HEDGE_WINS_OCSP,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.REVOCATION_HEDGE_WINS_CRL,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.CIRCUIT_BREAKERS_OPEN,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.CIRCUIT_BREAKER_TRIPS,
+				SnmpConstants.SNMP_SERVICE, 0L);
+		SNMPInterceptor.setValue(SnmpConstants.CIRCUIT_BREAKER_REJECTIONS,
+				SnmpConstants.SNMP_SERVICE, 0L);
 	}
 
 	private void initTexts() {
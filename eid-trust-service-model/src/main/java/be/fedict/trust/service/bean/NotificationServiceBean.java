@@ -22,12 +22,19 @@ import be.fedict.trust.service.NotificationService;
 		"org.hornetq:module=JMS,name=\"" + HarvesterMDB.HARVESTER_QUEUE_NAME
 				+ "\",type=Queue",
 		"org.hornetq:module=JMS,name=\"" + DownloaderMDB.DOWNLOADER_QUEUE_NAME
+				+ "\",type=Queue",
+		"org.hornetq:module=JMS,name=\"" + DiscoveryMDB.DISCOVERY_QUEUE_NAME
 				+ "\",type=Queue" })
 public class NotificationServiceBean implements NotificationService {
 
 	private static final Log LOG = LogFactory
 			.getLog(NotificationServiceBean.class);
 
+	/**
+	 * HornetQ message property holding the scheduled delivery time.
+	 */
+	private static final String SCHEDULED_DELIVERY_TIME_PROPERTY = "_HQ_SCHED_DELIVERY";
+
 	@Resource(mappedName = "java:JmsXA")
 	private QueueConnectionFactory queueConnectionFactory;
 
@@ -37,8 +44,16 @@ public class NotificationServiceBean implements NotificationService {
 	@Resource(mappedName = HarvesterMDB.HARVESTER_QUEUE_LOCATION)
 	private Queue harvesterQueue;
 
+	@Resource(mappedName = DiscoveryMDB.DISCOVERY_QUEUE_LOCATION)
+	private Queue discoveryQueue;
+
 	private void sendMessage(JMSMessage message, Queue queue)
 			throws JMSException {
+		sendMessage(message, queue, 0);
+	}
+
+	private void sendMessage(JMSMessage message, Queue queue,
+			long deliveryDelay) throws JMSException {
 		QueueConnection queueConnection = this.queueConnectionFactory
 				.createQueueConnection();
 		try {
@@ -49,6 +64,11 @@ public class NotificationServiceBean implements NotificationService {
 				Message jmsMessage = message.getJMSMessage(queueSession);
 				jmsMessage.setStringProperty(JMSMessage.MESSAGE_TYPE_PROPERTY,
 						messageType);
+				if (deliveryDelay > 0) {
+					jmsMessage.setLongProperty(
+							SCHEDULED_DELIVERY_TIME_PROPERTY,
+							System.currentTimeMillis() + deliveryDelay);
+				}
 				QueueSender queueSender = queueSession.createSender(queue);
 				try {
 					queueSender.send(jmsMessage);
@@ -71,11 +91,19 @@ public class NotificationServiceBean implements NotificationService {
 	}
 
 	public void notifyHarvester(String issuerName, String crlFile,
-			boolean update) throws JMSException {
+			boolean update, String crlETag, String crlLastModified,
+			String crlHash) throws JMSException {
+		notifyHarvester(issuerName, crlFile, update, crlETag,
+				crlLastModified, crlHash, 0);
+	}
+
+	public void notifyHarvester(String issuerName, String crlFile,
+			boolean update, String crlETag, String crlLastModified,
+			String crlHash, long deliveryDelay) throws JMSException {
 		LOG.debug("notifying harvester for CA: " + issuerName);
 		JMSMessage harvestMessage = new HarvestMessage(issuerName, crlFile,
-				update);
-		sendMessage(harvestMessage, this.harvesterQueue);
+				update, crlETag, crlLastModified, crlHash);
+		sendMessage(harvestMessage, this.harvesterQueue, deliveryDelay);
 	}
 
 	public void notifyColdStart(String crlUrl, String certUrl)
@@ -87,9 +115,22 @@ public class NotificationServiceBean implements NotificationService {
 	}
 
 	public void notifyRemoveCA(String issuerName) throws JMSException {
+		notifyRemoveCA(issuerName, 0);
+	}
+
+	public void notifyRemoveCA(String issuerName, long deliveryDelay)
+			throws JMSException {
 		LOG.debug("notifying harvester for removal of CRL cache for CA: "
 				+ issuerName);
 		RemoveCAMessage removeCAMessage = new RemoveCAMessage(issuerName);
-		sendMessage(removeCAMessage, this.harvesterQueue);
+		sendMessage(removeCAMessage, this.harvesterQueue, deliveryDelay);
+	}
+
+	public void notifyDiscovery(String caName, byte[] encodedCertificate,
+			String crlUrl, boolean activate) throws JMSException {
+		LOG.debug("notifying discovery of CA: " + caName);
+		DiscoverCAMessage discoverCAMessage = new DiscoverCAMessage(caName,
+				encodedCertificate, crlUrl, activate);
+		sendMessage(discoverCAMessage, this.discoveryQueue);
 	}
 }
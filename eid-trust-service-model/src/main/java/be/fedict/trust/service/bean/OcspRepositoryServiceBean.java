@@ -0,0 +1,83 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.ocsp.OcspRepository;
+
+/**
+ * Singleton OCSP response cache bean, shared by all trust domains and used for
+ * validations with and without returning the revocation data.
+ * 
+ * See {@link CachedOcspRepository}.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class OcspRepositoryServiceBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(OcspRepositoryServiceBean.class);
+
+	@EJB
+	private HttpClientServiceBean httpClientService;
+
+	@EJB
+	private CircuitBreakerServiceBean circuitBreakerService;
+
+	@Resource(name = "maxAge")
+	private Integer maxAge = 300;
+
+	@Resource(name = "maxEntries")
+	private Integer maxEntries = 10000;
+
+	private CachedOcspRepository ocspRepository;
+
+	@PostConstruct
+	public void postConstruct() {
+
+		this.ocspRepository = new CachedOcspRepository(new HttpOcspRepository(
+				this.httpClientService, this.circuitBreakerService), this.maxAge, this.maxEntries);
+	}
+
+	/**
+	 * Returns the shared caching {@link OcspRepository}.
+	 */
+	public OcspRepository getOcspRepository() {
+
+		return this.ocspRepository;
+	}
+
+	/**
+	 * Drops all cached OCSP responses, e.g. on a new network configuration.
+	 */
+	public void resetCachedOcspRepository() {
+
+		LOG.debug("reset cached OCSP repository");
+		this.ocspRepository.reset();
+	}
+}
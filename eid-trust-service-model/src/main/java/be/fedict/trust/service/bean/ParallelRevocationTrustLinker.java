@@ -0,0 +1,249 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.CertificateRepository;
+import be.fedict.trust.RevocationData;
+import be.fedict.trust.TrustLinker;
+import be.fedict.trust.TrustLinkerResult;
+
+/**
+ * Trust linker resolving the revocation status of all links of a certificate
+ * chain concurrently.
+ *
+ * Before the {@link be.fedict.trust.TrustValidator} walks the chain, the
+ * revocation checks of every link are submitted to the executor. The
+ * validator still walks the chain in order, doing the signature, validity
+ * and constraint checks itself, and only picks up the prefetched revocation
+ * result of each link. That way the revocation latency of a chain is the one
+ * of its slowest link instead of the sum of all links.
+ *
+ * Only chains of which every certificate names the next one as its issuer
+ * and whose top certificate is a trust point are prefetched. The revocation
+ * checks of any other chain run in order. The signatures are not verified
+ * before prefetching, as that would double the signature checks of every
+ * validation. A caller can thereby make the service contact the OCSP
+ * responders and CRL distribution points named in a forged certificate,
+ * which is why concurrent revocation checks are disabled by default.
+ *
+ * A link that has not been picked up by the executor yet is run by the
+ * validating thread itself, so a saturated executor never blocks a
+ * validation. Instances are per validation and not to be shared.
+ */
+public class ParallelRevocationTrustLinker implements TrustLinker {
+
+	private static final Log LOG = LogFactory
+			.getLog(ParallelRevocationTrustLinker.class);
+
+	private final TrustLinker trustLinker;
+
+	private final Executor executor;
+
+	private final List<Link> links = new LinkedList<Link>();
+
+	private Date validationDate;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param trustLinker
+	 *            the trust linker doing the actual revocation checks.
+	 * @param executor
+	 *            the executor on which the revocation checks are run.
+	 */
+	public ParallelRevocationTrustLinker(TrustLinker trustLinker,
+			Executor executor) {
+		this.trustLinker = trustLinker;
+		this.executor = executor;
+	}
+
+	/**
+	 * Submits the revocation checks of all links of the specified certificate
+	 * chain, if it chains up to a trust point. Must be invoked before the
+	 * chain is validated.
+	 *
+	 * @param certificateChain
+	 *            the certificate chain, leaf first.
+	 * @param certificateRepository
+	 *            the trust points the chain will be validated against.
+	 * @param validationDate
+	 *            the validation date the chain will be validated on.
+	 * @param collectRevocationData
+	 *            if <code>true</code> the revocation data of every link is
+	 *            collected and handed over to the validator.
+	 * @return <code>true</code> if the revocation checks were submitted.
+	 */
+	public boolean prefetch(List<X509Certificate> certificateChain,
+			CertificateRepository certificateRepository, Date validationDate,
+			boolean collectRevocationData) {
+
+		if (!isChained(certificateChain, certificateRepository)) {
+			LOG.debug("certificate chain not chained, no prefetching");
+			return false;
+		}
+		this.validationDate = validationDate;
+		for (int idx = 0; idx < certificateChain.size() - 1; idx++) {
+			Link link = new Link(certificateChain.get(idx),
+					certificateChain.get(idx + 1),
+					collectRevocationData ? new RevocationData() : null);
+			this.links.add(link);
+			this.executor.execute(link.task);
+		}
+		LOG.debug("prefetching revocation status of " + this.links.size()
+				+ " links");
+		return true;
+	}
+
+	/**
+	 * Returns <code>true</code> if every certificate of the specified chain
+	 * names the next one as its issuer, and the last one is a trust point.
+	 * Only does the cheap checks, the signatures are verified by the
+	 * validator.
+	 */
+	private static boolean isChained(List<X509Certificate> certificateChain,
+			CertificateRepository certificateRepository) {
+
+		for (int idx = 0; idx < certificateChain.size() - 1; idx++) {
+			X509Certificate childCertificate = certificateChain.get(idx);
+			X509Certificate certificate = certificateChain.get(idx + 1);
+			if (!childCertificate.getIssuerX500Principal().equals(
+					certificate.getSubjectX500Principal())) {
+				return false;
+			}
+		}
+		return certificateRepository.isTrustPoint(certificateChain
+				.get(certificateChain.size() - 1));
+	}
+
+	/**
+	 * Cancels the revocation checks that did not start yet, for example
+	 * because the validator already rejected the chain on an earlier link.
+	 * Running checks are not interrupted.
+	 */
+	public void cancel() {
+
+		for (Link link : this.links) {
+			link.task.cancel(false);
+		}
+	}
+
+	public TrustLinkerResult hasTrustLink(X509Certificate childCertificate,
+			X509Certificate certificate, Date validationDate,
+			RevocationData revocationData) {
+
+		Link link = findLink(childCertificate, certificate);
+		if (null == link || !validationDate.equals(this.validationDate)
+				|| (null == revocationData) != (null == link.revocationData)) {
+			return this.trustLinker.hasTrustLink(childCertificate,
+					certificate, validationDate, revocationData);
+		}
+
+		// runs the check on this thread if not yet picked up by the executor
+		link.task.run();
+		TrustLinkerResult result = getResult(link.task);
+		if (null != revocationData) {
+			revocationData.getOcspRevocationData().addAll(
+					link.revocationData.getOcspRevocationData());
+			revocationData.getCrlRevocationData().addAll(
+					link.revocationData.getCrlRevocationData());
+		}
+		return result;
+	}
+
+	private Link findLink(X509Certificate childCertificate,
+			X509Certificate certificate) {
+
+		for (Link link : this.links) {
+			if (link.childCertificate.equals(childCertificate)
+					&& link.certificate.equals(certificate)) {
+				return link;
+			}
+		}
+		return null;
+	}
+
+	private static TrustLinkerResult getResult(
+			FutureTask<TrustLinkerResult> task) {
+
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new RuntimeException(cause);
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private final class Link {
+
+		private final X509Certificate childCertificate;
+
+		private final X509Certificate certificate;
+
+		private final RevocationData revocationData;
+
+		private final FutureTask<TrustLinkerResult> task;
+
+		Link(X509Certificate childCertificate, X509Certificate certificate,
+				RevocationData revocationData) {
+			this.childCertificate = childCertificate;
+			this.certificate = certificate;
+			this.revocationData = revocationData;
+			this.task = new FutureTask<TrustLinkerResult>(
+					new Callable<TrustLinkerResult>() {
+
+						public TrustLinkerResult call() throws Exception {
+							return ParallelRevocationTrustLinker.this.trustLinker
+									.hasTrustLink(Link.this.childCertificate,
+											Link.this.certificate,
+											ParallelRevocationTrustLinker.this.validationDate,
+											Link.this.revocationData);
+						}
+					});
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Singleton holding the hedging configuration of the online revocation
+ * checks, see {@link HedgedTrustLinker}.
+ *
+ * For every CA the latencies of the primary revocation source are tracked
+ * over a sliding window. The hedge delay of a CA is the 95th percentile of
+ * its window, bounded by the configured minimum and maximum delay. Until
+ * enough latencies are known, the configured default delay is used.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RevocationHedgingBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(RevocationHedgingBean.class);
+
+	private static final int WINDOW_SIZE = 100;
+
+	private static final int MIN_SAMPLES = 10;
+
+	private static final int MAX_ENTRIES = 1000;
+
+	@EJB
+	private ValidationExecutorBean validationExecutor;
+
+	@Resource(name = "hedging")
+	private Boolean hedging = true;
+
+	@Resource(name = "defaultDelay")
+	private Integer defaultDelay = 500;
+
+	@Resource(name = "minDelay")
+	private Integer minDelay = 50;
+
+	@Resource(name = "maxDelay")
+	private Integer maxDelay = 2000;
+
+	private final ConcurrentMap<String, LatencyWindow> latencies = new ConcurrentHashMap<String, LatencyWindow>();
+
+	/**
+	 * Returns <code>true</code> if the online revocation sources are to be
+	 * hedged. If not, they are consulted one after the other.
+	 */
+	public boolean isHedging() {
+
+		return this.hedging;
+	}
+
+	/**
+	 * Returns the executor on which the revocation sources are consulted.
+	 */
+	public Executor getExecutor() {
+
+		return this.validationExecutor.getExecutor();
+	}
+
+	/**
+	 * Returns the time in milliseconds to wait for the primary revocation
+	 * source of the specified CA before hedging.
+	 */
+	public long getDelay(String caName) {
+
+		LatencyWindow latencyWindow = this.latencies.get(caName);
+		if (null == latencyWindow) {
+			return this.defaultDelay;
+		}
+		long percentile = latencyWindow.getPercentile(95);
+		if (-1 == percentile) {
+			return this.defaultDelay;
+		}
+		return Math.max(this.minDelay, Math.min(this.maxDelay, percentile));
+	}
+
+	/**
+	 * Records the latency of the primary revocation source of the specified
+	 * CA.
+	 *
+	 * @param latency
+	 *            the latency in milliseconds.
+	 */
+	public void recordLatency(String caName, long latency) {
+
+		LatencyWindow latencyWindow = this.latencies.get(caName);
+		if (null == latencyWindow) {
+			if (this.latencies.size() >= MAX_ENTRIES) {
+				LOG.debug("latency windows full, clearing");
+				this.latencies.clear();
+			}
+			LatencyWindow newLatencyWindow = new LatencyWindow();
+			latencyWindow = this.latencies.putIfAbsent(caName,
+					newLatencyWindow);
+			if (null == latencyWindow) {
+				latencyWindow = newLatencyWindow;
+			}
+		}
+		latencyWindow.add(latency);
+	}
+
+	private static final class LatencyWindow {
+
+		private final long[] samples = new long[WINDOW_SIZE];
+
+		private int count;
+
+		private int next;
+
+		synchronized void add(long latency) {
+			this.samples[this.next] = latency;
+			this.next = (this.next + 1) % this.samples.length;
+			if (this.count < this.samples.length) {
+				this.count++;
+			}
+		}
+
+		/**
+		 * Returns the specified percentile, or -1 if not enough samples are
+		 * known yet.
+		 */
+		synchronized long getPercentile(int percentile) {
+			if (this.count < MIN_SAMPLES) {
+				return -1;
+			}
+			long[] sortedSamples = Arrays.copyOf(this.samples, this.count);
+			Arrays.sort(sortedSamples);
+			int idx = (int) Math.ceil(percentile / 100.0 * this.count) - 1;
+			return sortedSamples[Math.max(0, idx)];
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.service.SnmpConstants;
+import be.fedict.trust.service.dao.CertificateAuthorityDAO;
+import be.fedict.trust.service.entity.CertificateAuthorityEntity;
+import be.fedict.trust.service.snmp.SNMPInterceptor;
+import be.fedict.trust.service.util.RevocationFilter;
+import be.fedict.trust.service.util.RevocationIndex;
+
+/**
+ * Singleton holding the in-memory {@link RevocationIndex} per CA.
+ *
+ * The harvester builds a fresh index while processing a CRL and activates it
+ * once the revoked certificates are committed. Nodes that did not harvest the
+ * CRL themselves load the index from the database on first use. The
+ * <code>ts_revoked_certs</code> table remains the persistent copy. An index
+ * is only used for the CRL of the committed CA row it was built from, see
+ * {@link #loadIndex(CertificateAuthorityEntity)}, so a node never answers
+ * from an index that another node superseded.
+ *
+ * Next to the index, the harvester also activates a compact
+ * {@link RevocationFilter} that allows to skip the revocation store lookups
+ * for certificates that are definitely not revoked whenever the index is not
+ * available.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RevocationIndexServiceBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(RevocationIndexServiceBean.class);
+
+	@EJB
+	private CertificateAuthorityDAO certificateAuthorityDAO;
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	private final ConcurrentMap<String, RevocationIndex> indexes = new ConcurrentHashMap<String, RevocationIndex>();
+
+	private final ConcurrentMap<String, RevocationFilter> filters = new ConcurrentHashMap<String, RevocationFilter>();
+
+	private final ConcurrentMap<String, FutureTask<RevocationIndex>> loadingIndexes = new ConcurrentHashMap<String, FutureTask<RevocationIndex>>();
+
+	/**
+	 * Returns the revocation filter of the specified CA, or <code>null</code>
+	 * if none available. Never accesses the database.
+	 */
+	public RevocationFilter findFilter(String caName) {
+
+		return this.filters.get(caName);
+	}
+
+	/**
+	 * Activates the specified revocation index and filter. If a transaction
+	 * is active, both are only swapped in after a successful commit.
+	 */
+	public void activate(final RevocationIndex revocationIndex,
+			final RevocationFilter revocationFilter) {
+
+		if (null == this.transactionSynchronizationRegistry
+				.getTransactionKey()) {
+			install(revocationIndex);
+			install(revocationFilter);
+			return;
+		}
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new Synchronization() {
+
+					public void beforeCompletion() {
+						// empty
+					}
+
+					public void afterCompletion(int status) {
+						if (Status.STATUS_COMMITTED == status) {
+							install(revocationIndex);
+							install(revocationFilter);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Removes the revocation index of the specified CA. Takes effect
+	 * immediately and, if a transaction is active, again after completion.
+	 */
+	public void remove(final String caName) {
+
+		LOG.debug("remove revocation index: " + caName);
+		this.indexes.remove(caName);
+		removeFilter(caName);
+
+		if (null == this.transactionSynchronizationRegistry
+				.getTransactionKey()) {
+			return;
+		}
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new Synchronization() {
+
+					public void beforeCompletion() {
+						// empty
+					}
+
+					public void afterCompletion(int status) {
+						RevocationIndexServiceBean.this.indexes.remove(caName);
+						removeFilter(caName);
+					}
+				});
+	}
+
+	/**
+	 * Returns the revocation index matching the current CRL of the specified
+	 * active CA, loading it from the database if required. The index matches
+	 * if both its thisUpdate and CRL number equal the ones of the CA. Concurrent
+	 * loads of the same CA are coalesced. Returns <code>null</code> if the
+	 * index could not be loaded or if a different CRL got loaded in the
+	 * meanwhile.
+	 */
+	public RevocationIndex loadIndex(
+			final CertificateAuthorityEntity certificateAuthority) {
+
+		String caName = certificateAuthority.getName();
+		Date thisUpdate = certificateAuthority.getThisUpdate();
+		if (null == thisUpdate) {
+			return null;
+		}
+		RevocationIndex revocationIndex = this.indexes.get(caName);
+		if (null != revocationIndex
+				&& isCurrent(revocationIndex, certificateAuthority)) {
+			return revocationIndex;
+		}
+
+		FutureTask<RevocationIndex> loadTask = new FutureTask<RevocationIndex>(
+				new Callable<RevocationIndex>() {
+
+					public RevocationIndex call() throws Exception {
+						return RevocationIndexServiceBean.this.certificateAuthorityDAO
+								.getRevocationIndex(certificateAuthority);
+					}
+				});
+		FutureTask<RevocationIndex> existingLoadTask = this.loadingIndexes
+				.putIfAbsent(caName, loadTask);
+		if (null == existingLoadTask) {
+			LOG.debug("loading revocation index: " + caName);
+			try {
+				loadTask.run();
+			} finally {
+				this.loadingIndexes.remove(caName, loadTask);
+			}
+		} else {
+			loadTask = existingLoadTask;
+		}
+
+		try {
+			revocationIndex = loadTask.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			LOG.error("error loading revocation index for " + caName + ": "
+					+ e.getCause().getMessage(), e.getCause());
+			return null;
+		}
+		if (null == existingLoadTask) {
+			installIfNewer(revocationIndex);
+		}
+		if (!isCurrent(revocationIndex, certificateAuthority)) {
+			return null;
+		}
+		return revocationIndex;
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified index was built from the
+	 * current CRL of the specified CA. The instants are compared, as the
+	 * thisUpdate of the CA might be a {@link java.sql.Timestamp}.
+	 */
+	private static boolean isCurrent(RevocationIndex revocationIndex,
+			CertificateAuthorityEntity certificateAuthority) {
+
+		if (null == revocationIndex.getThisUpdate()
+				|| certificateAuthority.getThisUpdate().getTime() != revocationIndex
+						.getThisUpdate().getTime()) {
+			return false;
+		}
+		BigInteger crlNumber = certificateAuthority.getCrlNumber();
+		return null == crlNumber
+				|| crlNumber.equals(revocationIndex.getCrlNumber());
+	}
+
+	private void install(RevocationIndex revocationIndex) {
+
+		LOG.debug("activate revocation index: " + revocationIndex.getCaName()
+				+ " (entries=" + revocationIndex.size() + ", size="
+				+ revocationIndex.getMemorySize() + ")");
+		this.indexes.put(revocationIndex.getCaName(), revocationIndex);
+	}
+
+	private void install(RevocationFilter revocationFilter) {
+
+		LOG.debug("activate revocation filter: "
+				+ revocationFilter.getCaName() + " (size="
+				+ revocationFilter.getSize() + ", fpp="
+				+ revocationFilter.getFalsePositiveProbability() + ")");
+		this.filters.put(revocationFilter.getCaName(), revocationFilter);
+		updateFilterCounters();
+	}
+
+	private void removeFilter(String caName) {
+
+		if (null != this.filters.remove(caName)) {
+			updateFilterCounters();
+		}
+	}
+
+	private void updateFilterCounters() {
+
+		long size = 0;
+		double falsePositiveProbability = 0;
+		for (RevocationFilter revocationFilter : this.filters.values()) {
+			size += revocationFilter.getSize();
+			falsePositiveProbability = Math.max(falsePositiveProbability,
+					revocationFilter.getFalsePositiveProbability());
+		}
+		SNMPInterceptor.setValue(SnmpConstants.REVOCATION_FILTER_SIZE,
+				SnmpConstants.SNMP_SERVICE, size);
+		SNMPInterceptor.setValue(SnmpConstants.REVOCATION_FILTER_FPP,
+				SnmpConstants.SNMP_SERVICE,
+				Math.round(falsePositiveProbability * 1000000));
+	}
+
+	/**
+	 * Installs a lazily loaded index unless the harvester activated a more
+	 * recent one while loading.
+	 */
+	private void installIfNewer(RevocationIndex revocationIndex) {
+
+		String caName = revocationIndex.getCaName();
+		while (true) {
+			RevocationIndex currentIndex = this.indexes.get(caName);
+			if (null == currentIndex) {
+				if (null == this.indexes.putIfAbsent(caName, revocationIndex)) {
+					return;
+				}
+				continue;
+			}
+			if (!currentIndex.getThisUpdate().before(
+					revocationIndex.getThisUpdate())) {
+				return;
+			}
+			if (this.indexes.replace(caName, currentIndex, revocationIndex)) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.service.entity.TrustDomainEntity;
+import be.fedict.trust.service.entity.VirtualTrustDomainEntity;
+import be.fedict.trust.service.exception.TrustDomainNotFoundException;
+
+/**
+ * Immutable snapshot of the complete trust domain configuration: the compiled
+ * {@link TrustValidatorTemplate} of every trust domain, the default trust
+ * domain and the members of every virtual trust domain.
+ *
+ * A snapshot is built once per configuration version and is never modified
+ * afterwards, so it can be read without any locking or database access.
+ *
+ * For every virtual trust domain the members are indexed by the fingerprints
+ * and the hashes of the DER encoded subjects of their trust points, so a chain is only validated against
+ * the members that could possibly accept it.
+ */
+public class TrustConfigurationSnapshot {
+
+	private static final Log LOG = LogFactory
+			.getLog(TrustConfigurationSnapshot.class);
+
+	private final long version;
+
+	private final Map<String, TrustValidatorTemplate> templates;
+
+	private final Map<String, List<TrustValidatorTemplate>> virtualTrustDomains;
+
+	private final Map<String, Map<String, Set<TrustValidatorTemplate>>> virtualTrustDomainFingerprints;
+
+	private final Map<String, Map<String, Set<TrustValidatorTemplate>>> virtualTrustDomainNameHashes;
+
+	private final TrustValidatorTemplate defaultTemplate;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param version
+	 *            the trust domain configuration version.
+	 * @param templates
+	 *            the compiled templates of all trust domains.
+	 * @param virtualTrustDomains
+	 *            all virtual trust domains.
+	 * @param defaultTrustDomain
+	 *            the default trust domain, can be <code>null</code>.
+	 */
+	public TrustConfigurationSnapshot(long version,
+			Map<String, TrustValidatorTemplate> templates,
+			List<VirtualTrustDomainEntity> virtualTrustDomains,
+			TrustDomainEntity defaultTrustDomain) {
+
+		this.version = version;
+		this.templates = Collections
+				.unmodifiableMap(new HashMap<String, TrustValidatorTemplate>(
+						templates));
+
+		Map<String, List<TrustValidatorTemplate>> members = new HashMap<String, List<TrustValidatorTemplate>>();
+		Map<String, Map<String, Set<TrustValidatorTemplate>>> fingerprints = new HashMap<String, Map<String, Set<TrustValidatorTemplate>>>();
+		Map<String, Map<String, Set<TrustValidatorTemplate>>> nameHashes = new HashMap<String, Map<String, Set<TrustValidatorTemplate>>>();
+		for (VirtualTrustDomainEntity virtualTrustDomain : virtualTrustDomains) {
+			List<TrustValidatorTemplate> memberTemplates = new LinkedList<TrustValidatorTemplate>();
+			Map<String, Set<TrustValidatorTemplate>> memberFingerprints = new HashMap<String, Set<TrustValidatorTemplate>>();
+			Map<String, Set<TrustValidatorTemplate>> memberNameHashes = new HashMap<String, Set<TrustValidatorTemplate>>();
+			for (TrustDomainEntity trustDomain : virtualTrustDomain
+					.getTrustDomains()) {
+				TrustValidatorTemplate template = templates.get(trustDomain
+						.getName());
+				memberTemplates.add(template);
+				TrustDomainCertificateRepository certificateRepository = template
+						.getCertificateRepository();
+				index(memberFingerprints,
+						certificateRepository.getTrustPointFingerprints(),
+						template);
+				index(memberNameHashes,
+						certificateRepository.getTrustPointNameHashes(),
+						template);
+			}
+			members.put(virtualTrustDomain.getName(),
+					Collections.unmodifiableList(memberTemplates));
+			fingerprints.put(virtualTrustDomain.getName(), memberFingerprints);
+			nameHashes.put(virtualTrustDomain.getName(), memberNameHashes);
+		}
+		this.virtualTrustDomains = Collections.unmodifiableMap(members);
+		this.virtualTrustDomainFingerprints = Collections
+				.unmodifiableMap(fingerprints);
+		this.virtualTrustDomainNameHashes = Collections
+				.unmodifiableMap(nameHashes);
+
+		if (null != defaultTrustDomain) {
+			this.defaultTemplate = templates.get(defaultTrustDomain.getName());
+		} else {
+			this.defaultTemplate = null;
+		}
+	}
+
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Returns the templates of the trust domains to validate against. Multiple
+	 * are possible if the specified name is a virtual trust domain.
+	 *
+	 * @param name
+	 *            the trust domain name, <code>null</code> for the default
+	 *            trust domain.
+	 */
+	public List<TrustValidatorTemplate> getTemplates(String name)
+			throws TrustDomainNotFoundException {
+
+		if (null == name) {
+			if (null == this.defaultTemplate) {
+				throw new TrustDomainNotFoundException();
+			}
+			return Collections.singletonList(this.defaultTemplate);
+		}
+		TrustValidatorTemplate template = this.templates.get(name);
+		if (null != template) {
+			return Collections.singletonList(template);
+		}
+		// maybe a virtual trust domain?
+		List<TrustValidatorTemplate> memberTemplates = this.virtualTrustDomains
+				.get(name);
+		if (null != memberTemplates) {
+			return memberTemplates;
+		}
+		throw new TrustDomainNotFoundException();
+	}
+
+	/**
+	 * Returns the templates of the trust domains that could accept the
+	 * specified certificate chain. For a virtual trust domain, only the
+	 * members having the top certificate of the chain, or the issuer of that
+	 * certificate, as trust point are returned, so the returned list can be
+	 * empty.
+	 *
+	 * @param name
+	 *            the trust domain name, <code>null</code> for the default
+	 *            trust domain.
+	 */
+	public List<TrustValidatorTemplate> getTemplates(String name,
+			List<X509Certificate> certificateChain)
+			throws TrustDomainNotFoundException {
+
+		List<TrustValidatorTemplate> templates = getTemplates(name);
+		if (null == name || this.templates.containsKey(name)
+				|| certificateChain.isEmpty()) {
+			// no virtual trust domain
+			return templates;
+		}
+		Map<String, Set<TrustValidatorTemplate>> fingerprints = this.virtualTrustDomainFingerprints
+				.get(name);
+
+		X509Certificate topCertificate = certificateChain.get(certificateChain
+				.size() - 1);
+		String fingerprint;
+		try {
+			fingerprint = DigestUtils.sha256Hex(topCertificate.getEncoded());
+		} catch (CertificateEncodingException e) {
+			LOG.error("certificate encoding error: " + e.getMessage(), e);
+			return templates;
+		}
+		Set<TrustValidatorTemplate> candidates = new HashSet<TrustValidatorTemplate>();
+		Set<TrustValidatorTemplate> fingerprintTemplates = fingerprints
+				.get(fingerprint);
+		if (null != fingerprintTemplates) {
+			candidates.addAll(fingerprintTemplates);
+		}
+		Set<TrustValidatorTemplate> nameHashTemplates = this.virtualTrustDomainNameHashes
+				.get(name).get(
+						DigestUtils.sha1Hex(topCertificate
+								.getIssuerX500Principal().getEncoded()));
+		if (null != nameHashTemplates) {
+			candidates.addAll(nameHashTemplates);
+		}
+
+		// keep the member order
+		List<TrustValidatorTemplate> routedTemplates = new LinkedList<TrustValidatorTemplate>();
+		for (TrustValidatorTemplate template : templates) {
+			if (candidates.contains(template)) {
+				routedTemplates.add(template);
+			}
+		}
+		LOG.debug("routed to " + routedTemplates.size() + " of "
+				+ templates.size() + " member trust domains");
+		return routedTemplates;
+	}
+
+	private static void index(Map<String, Set<TrustValidatorTemplate>> index,
+			Set<String> keys, TrustValidatorTemplate template) {
+
+		for (String key : keys) {
+			Set<TrustValidatorTemplate> templates = index.get(key);
+			if (null == templates) {
+				templates = new HashSet<TrustValidatorTemplate>();
+				index.put(key, templates);
+			}
+			templates.add(template);
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.service.dao.TrustDomainDAO;
+import be.fedict.trust.service.entity.TrustDomainEntity;
+
+/**
+ * Singleton holder of the current {@link TrustConfigurationSnapshot}.
+ *
+ * The snapshot is built on first use, compiling the
+ * {@link TrustValidatorTemplate} of every trust domain, and is kept until the
+ * trust domain configuration changes. Every invalidation bumps the
+ * configuration version, the next request builds a new snapshot for it.
+ * While that single request rebuilds, all other requests keep being served
+ * the previous snapshot. Only the very first build blocks the concurrent
+ * requests, as there is no snapshot to serve yet. Validations holding the
+ * previous snapshot finish against it undisturbed.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TrustDomainCacheBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(TrustDomainCacheBean.class);
+
+	@EJB
+	private TrustDomainDAO trustDomainDAO;
+
+	@EJB
+	private OcspRepositoryServiceBean ocspRepositoryService;
+
+	@EJB
+	private CrlRepositoryServiceBean crlRepositoryService;
+
+	@EJB
+	private RevocationHedgingBean revocationHedging;
+
+	@EJB
+	private ValidationResultCacheBean validationResultCache;
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	@Resource(name = "trustLinkTtl")
+	private Integer trustLinkTtl = 600;
+
+	private final AtomicLong version = new AtomicLong();
+
+	private final Lock buildLock = new ReentrantLock();
+
+	private volatile TrustConfigurationSnapshot snapshot;
+
+	/**
+	 * Returns the snapshot of the current trust domain configuration. Builds
+	 * a new one if the configuration changed since the last build, unless
+	 * another thread is already building, in which case the previous snapshot
+	 * is returned. Only the build itself accesses the database.
+	 */
+	public TrustConfigurationSnapshot getSnapshot() {
+
+		TrustConfigurationSnapshot currentSnapshot = this.snapshot;
+		if (null != currentSnapshot
+				&& currentSnapshot.getVersion() == this.version.get()) {
+			return currentSnapshot;
+		}
+
+		if (null == currentSnapshot) {
+			this.buildLock.lock();
+		} else if (!this.buildLock.tryLock()) {
+			LOG.debug("snapshot being rebuilt, serving previous one");
+			return currentSnapshot;
+		}
+		try {
+			currentSnapshot = this.snapshot;
+			long currentVersion = this.version.get();
+			if (null != currentSnapshot
+					&& currentSnapshot.getVersion() == currentVersion) {
+				return currentSnapshot;
+			}
+			/*
+			 * If an invalidation happens while building, the snapshot carries
+			 * an outdated version and the next request builds again.
+			 */
+			currentSnapshot = buildSnapshot(currentVersion);
+			this.snapshot = currentSnapshot;
+			return currentSnapshot;
+		} finally {
+			this.buildLock.unlock();
+		}
+	}
+
+	private TrustConfigurationSnapshot buildSnapshot(long snapshotVersion) {
+
+		LOG.debug("build trust configuration snapshot: " + snapshotVersion);
+		Map<String, TrustValidatorTemplate> templates = new HashMap<String, TrustValidatorTemplate>();
+		TrustDomainEntity defaultTrustDomain = null;
+		for (TrustDomainEntity trustDomain : this.trustDomainDAO
+				.listTrustDomains()) {
+			LOG.debug("compile trust validator template: "
+					+ trustDomain.getName());
+			templates.put(trustDomain.getName(), new TrustValidatorTemplate(
+					trustDomain, snapshotVersion, this.ocspRepositoryService
+							.getOcspRepository(), this.crlRepositoryService
+							.getCrlRepository(), this.trustLinkTtl,
+					this.revocationHedging, this.validationResultCache));
+			if (trustDomain.isDefaultDomain()) {
+				defaultTrustDomain = trustDomain;
+			}
+		}
+
+		return new TrustConfigurationSnapshot(snapshotVersion, templates,
+				this.trustDomainDAO.listVirtualTrustDomains(),
+				defaultTrustDomain);
+	}
+
+	/**
+	 * Returns the current trust domain configuration version.
+	 */
+	public long getVersion() {
+
+		return this.version.get();
+	}
+
+	/**
+	 * Invalidates the current snapshot. Should be invoked on each change of a
+	 * trust domain or the network configuration. If a transaction is active,
+	 * the snapshot is invalidated again after completion so no snapshot built
+	 * from not yet committed data survives.
+	 */
+	public void invalidate() {
+
+		LOG.debug("invalidate trust configuration snapshot");
+		clear();
+
+		if (null == this.transactionSynchronizationRegistry
+				.getTransactionKey()) {
+			return;
+		}
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new Synchronization() {
+
+					public void beforeCompletion() {
+						// empty
+					}
+
+					public void afterCompletion(int status) {
+						clear();
+					}
+				});
+	}
+
+	private void clear() {
+
+		this.version.incrementAndGet();
+	}
+}
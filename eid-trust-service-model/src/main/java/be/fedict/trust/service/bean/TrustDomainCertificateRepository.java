@@ -18,9 +18,18 @@
 
 package be.fedict.trust.service.bean;
 
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import be.fedict.trust.CertificateRepository;
+import be.fedict.trust.service.entity.CertificateAuthorityEntity;
 import be.fedict.trust.service.entity.TrustDomainEntity;
 import be.fedict.trust.service.entity.TrustPointEntity;
 
@@ -29,21 +38,60 @@ import be.fedict.trust.service.entity.TrustPointEntity;
  * {@link TrustDomainEntity} as input and fills it up with its
  * {@link TrustPointEntity}'s certificates.
  * 
+ * The trust point certificates are indexed by SHA-256 fingerprint of their DER
+ * encoding, so a lookup is a hash lookup without parsing any certificate. The
+ * SHA-1 hashes of their DER encoded subjects are kept for routing chains to
+ * trust domains.
+ * 
  * @author wvdhaute
  * 
  */
 public class TrustDomainCertificateRepository implements CertificateRepository {
 
-	private final TrustDomainEntity trustDomain;
+	private static final Log LOG = LogFactory
+			.getLog(TrustDomainCertificateRepository.class);
+
+	private final Set<String> trustPointNameHashes;
+
+	private final Set<String> trustPointFingerprints;
 
 	/**
-	 * Main Constructor
+	 * Main Constructor. The trust point certificates are read out at
+	 * construction time so this repository can safely outlive the
+	 * transaction in which the {@link TrustDomainEntity} was loaded.
 	 * 
 	 * @param trustDomain
 	 */
 	public TrustDomainCertificateRepository(TrustDomainEntity trustDomain) {
 
-		this.trustDomain = trustDomain;
+		this.trustPointNameHashes = new HashSet<String>();
+		this.trustPointFingerprints = new HashSet<String>();
+		for (TrustPointEntity trustPoint : trustDomain.getTrustPoints()) {
+			CertificateAuthorityEntity certificateAuthority = trustPoint
+					.getCertificateAuthority();
+			this.trustPointNameHashes.add(certificateAuthority
+					.getDecodedCertificate().getNameHash());
+			this.trustPointFingerprints.add(DigestUtils
+					.sha256Hex(certificateAuthority.getEncodedCertificate()));
+		}
+	}
+
+	/**
+	 * Returns the hex encoded SHA-1 hashes of the DER encoded subjects of the
+	 * trust point certificates.
+	 */
+	public Set<String> getTrustPointNameHashes() {
+
+		return Collections.unmodifiableSet(this.trustPointNameHashes);
+	}
+
+	/**
+	 * Returns the hex encoded SHA-256 fingerprints of the trust point
+	 * certificates.
+	 */
+	public Set<String> getTrustPointFingerprints() {
+
+		return Collections.unmodifiableSet(this.trustPointFingerprints);
 	}
 
 	/**
@@ -51,13 +99,13 @@ public class TrustDomainCertificateRepository implements CertificateRepository {
 	 */
 	public boolean isTrustPoint(X509Certificate certificate) {
 
-		for (TrustPointEntity trustPoint : this.trustDomain.getTrustPoints()) {
-			if (trustPoint.getCertificateAuthority().getCertificate()
-					.equals(certificate)) {
-				return true;
-			}
+		try {
+			return this.trustPointFingerprints.contains(DigestUtils
+					.sha256Hex(certificate.getEncoded()));
+		} catch (CertificateEncodingException e) {
+			LOG.error("certificate encoding error: " + e.getMessage(), e);
+			return false;
 		}
-		return false;
 	}
 
 }
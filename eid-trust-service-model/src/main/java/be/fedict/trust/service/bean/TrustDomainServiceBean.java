@@ -37,6 +37,7 @@ import javax.jms.JMSException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import be.fedict.trust.service.CircuitBreakerStatus;
 import be.fedict.trust.service.NotificationService;
 import be.fedict.trust.service.SchedulingService;
 import be.fedict.trust.service.TrustDomainService;
@@ -85,6 +86,15 @@ public class TrustDomainServiceBean implements TrustDomainService {
 	@EJB
 	private NotificationService notificationService;
 
+	@EJB
+	private TrustDomainCacheBean trustDomainCache;
+
+	@EJB
+	private RevocationIndexServiceBean revocationIndexService;
+
+	@EJB
+	private CircuitBreakerServiceBean circuitBreakerService;
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -125,6 +135,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 
 		LOG.debug("remove trust domain: " + trustDomain.getName());
 		this.trustDomainDAO.removeTrustDomain(trustDomain);
+		this.trustDomainCache.invalidate();
 	}
 
 	/**
@@ -136,6 +147,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 		LOG.debug("remove virtual trust domain: "
 				+ virtualTrustDomain.getName());
 		this.trustDomainDAO.removeVirtualTrustDomain(virtualTrustDomain);
+		this.trustDomainCache.invalidate();
 	}
 
 	/**
@@ -174,6 +186,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 		TrustDomainEntity attachedTrustDomain = this.trustDomainDAO
 				.findTrustDomain(trustDomain.getName());
 		attachedTrustDomain.setUseCaching(trustDomain.isUseCaching());
+		this.trustDomainCache.invalidate();
 	}
 
 	/**
@@ -206,6 +219,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 
 		LOG.debug("set default trust domain: " + trustDomain.getName());
 		this.trustDomainDAO.setDefaultTrustDomain(trustDomain);
+		this.trustDomainCache.invalidate();
 
 	}
 
@@ -225,6 +239,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 		// remove cache for each CA
 		for (String caName : this.trustDomainDAO.listCANames(trustPoint)) {
 			this.certificateAuthorityDAO.removeRevokedCertificates(caName);
+			this.revocationIndexService.remove(caName);
 		}
 
 		// remove CA's
@@ -242,6 +257,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 
 		// remove trust point
 		this.trustDomainDAO.removeTrustPoint(attachedTrustPoint);
+		this.trustDomainCache.invalidate();
 	}
 
 	/**
@@ -310,6 +326,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 			trustPoints.add(this.trustDomainDAO.findTrustPoint(trustPointName));
 		}
 		attachedTrustDomain.setTrustPoints(trustPoints);
+		this.trustDomainCache.invalidate();
 	}
 
 	/**
@@ -330,6 +347,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 					.findTrustDomain(trustDomainName));
 		}
 		attachedVirtualTrustDomain.setTrustDomains(trustDomains);
+		this.trustDomainCache.invalidate();
 		return attachedVirtualTrustDomain;
 	}
 
@@ -341,6 +359,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 
 		LOG.debug("add certificate policy \"" + policy + "\" to trust domain "
 				+ trustDomain.getName());
+		this.trustDomainCache.invalidate();
 		return this.trustDomainDAO.addCertificatePolicy(trustDomain, policy);
 	}
 
@@ -353,6 +372,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 
 		LOG.debug("add key usage constraint " + keyUsage + " allowed="
 				+ allowed);
+		this.trustDomainCache.invalidate();
 		return this.trustDomainDAO.addKeyUsageConstraint(trustDomain, keyUsage,
 				allowed);
 	}
@@ -370,6 +390,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 			attachedKeyUsageConstraint.setAllowed(keyUsageConstraint
 					.isAllowed());
 		}
+		this.trustDomainCache.invalidate();
 	}
 
 	/**
@@ -379,6 +400,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 			String dn) {
 
 		LOG.debug("Add DN constraint: " + dn);
+		this.trustDomainCache.invalidate();
 		return this.trustDomainDAO.addDNConstraint(trustDomain, dn);
 	}
 
@@ -391,6 +413,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 		DNConstraintEntity attachedDNConstraint = (DNConstraintEntity) this.trustDomainDAO
 				.findCertificateConstraint(dnConstraint);
 		attachedDNConstraint.setDn(dnConstraint.getDn());
+		this.trustDomainCache.invalidate();
 	}
 
 	/**
@@ -401,6 +424,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 			throws CertificateException {
 
 		LOG.debug("add end entity constraint");
+		this.trustDomainCache.invalidate();
 		return this.trustDomainDAO.addEndEntityConstraint(trustDomain,
 				getCertificate(certificateBytes));
 	}
@@ -412,6 +436,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 			TrustDomainEntity trustDomain, boolean qc) {
 
 		LOG.debug("Add QC constraint: " + qc);
+		this.trustDomainCache.invalidate();
 		return this.trustDomainDAO.addQCStatementsConstraint(trustDomain, qc);
 	}
 
@@ -425,6 +450,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 				.findCertificateConstraint(qcConstraint);
 		attachedQcStatementsConstraint.setQcComplianceFilter(qcConstraint
 				.getQcComplianceFilter());
+		this.trustDomainCache.invalidate();
 	}
 
 	/**
@@ -433,6 +459,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 	public TSAConstraintEntity addTSAConstraint(TrustDomainEntity trustDomain) {
 
 		LOG.debug("Add TSA constraint");
+		this.trustDomainCache.invalidate();
 		return this.trustDomainDAO.addTSAConstraint(trustDomain);
 	}
 
@@ -445,6 +472,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 		LOG.debug("Remove certificate constraint: "
 				+ certificateConstraint.getClass());
 		this.trustDomainDAO.removeCertificateConstraint(certificateConstraint);
+		this.trustDomainCache.invalidate();
 
 	}
 
@@ -490,6 +518,10 @@ public class TrustDomainServiceBean implements TrustDomainService {
 		return this.certificateAuthorityDAO.getTotalActiveCachedCAs();
 	}
 
+	public List<CircuitBreakerStatus> listCircuitBreakers() {
+		return this.circuitBreakerService.listCircuitBreakers();
+	}
+
 	public void coldStart(String crlUrl, String certUrl) {
 		LOG.debug("cold start: " + crlUrl + "; " + certUrl);
 		if (null == crlUrl) {
@@ -554,6 +586,7 @@ public class TrustDomainServiceBean implements TrustDomainService {
 			return;
 		}
 		caEntity.setStatus(Status.NONE);
+		this.revocationIndexService.remove(caName);
 		/*
 		 * Next we notify the scheduling service that the CRL cache for this CA
 		 * can be cleared.
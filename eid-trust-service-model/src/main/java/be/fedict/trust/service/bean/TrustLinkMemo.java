@@ -0,0 +1,309 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.net.URI;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.OCSPResp;
+import org.bouncycastle.ocsp.OCSPRespStatus;
+import org.bouncycastle.ocsp.SingleResp;
+
+import be.fedict.trust.RevocationData;
+import be.fedict.trust.TrustLinker;
+import be.fedict.trust.TrustLinkerResult;
+import be.fedict.trust.crl.CrlRepository;
+import be.fedict.trust.ocsp.OcspRepository;
+
+/**
+ * Memo of the trust link results between a CA certificate and its issuer.
+ *
+ * All chains of a trust domain typically share the same intermediate CA to
+ * root links, so only the leaf link needs to be evaluated per validation. A
+ * memo belongs to a single {@link TrustValidatorTemplate}, and is thereby
+ * bound to a trust domain configuration version. A memoized link result is
+ * also bound to the CRL epoch of the issuing CA, see
+ * {@link ValidationResultCacheBean#getCrlEpoch(String)}, so it is dropped as
+ * soon as the node sees that a newer CRL of that CA was activated.
+ *
+ * A memoized link result expires at the earliest of the nextUpdate of the
+ * used OCSP response or CRL, the notAfter of both certificates and the
+ * configured time to live. The nextUpdate values are recorded by the OCSP and
+ * CRL repositories returned by {@link #observe(OcspRepository)} and
+ * {@link #observe(CrlRepository)}, so no revocation data needs to be
+ * collected. Only links validated at the current time and without
+ * collecting the revocation data are memoized.
+ */
+public class TrustLinkMemo {
+
+	private static final Log LOG = LogFactory.getLog(TrustLinkMemo.class);
+
+	private static final int MAX_ENTRIES = 1000;
+
+	private static final long VALIDATION_DATE_SKEW = 1000 * 60;
+
+	private final long version;
+
+	private final long ttlMillis;
+
+	private final ValidationResultCacheBean validationResultCache;
+
+	private final ConcurrentMap<String, MemoEntry> entries = new ConcurrentHashMap<String, MemoEntry>();
+
+	private final ConcurrentMap<String, Long> nextUpdates = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param version
+	 *            the trust domain configuration version.
+	 * @param ttl
+	 *            the maximum time in seconds a link result is memoized.
+	 * @param validationResultCache
+	 *            the source of the CRL epochs of the CA's.
+	 */
+	public TrustLinkMemo(long version, int ttl,
+			ValidationResultCacheBean validationResultCache) {
+		this.version = version;
+		this.ttlMillis = ttl * 1000L;
+		this.validationResultCache = validationResultCache;
+	}
+
+	/**
+	 * Returns a {@link TrustLinker} memoizing the CA link results of the
+	 * specified trust linker.
+	 *
+	 * @param name
+	 *            unique name of the trust linker within this memo.
+	 */
+	public TrustLinker memoize(final String name, final TrustLinker trustLinker) {
+
+		return new TrustLinker() {
+
+			public TrustLinkerResult hasTrustLink(
+					X509Certificate childCertificate,
+					X509Certificate certificate, Date validationDate,
+					RevocationData revocationData) {
+
+				if (null != revocationData
+						|| !isMemoizable(childCertificate, validationDate)) {
+					return trustLinker.hasTrustLink(childCertificate,
+							certificate, validationDate, revocationData);
+				}
+
+				String key;
+				try {
+					key = getKey(name, childCertificate, certificate);
+				} catch (CertificateEncodingException e) {
+					LOG.error("certificate encoding error: " + e.getMessage(),
+							e);
+					return trustLinker.hasTrustLink(childCertificate,
+							certificate, validationDate, revocationData);
+				}
+				MemoEntry entry = TrustLinkMemo.this.entries.get(key);
+				if (null != entry
+						&& System.currentTimeMillis() < entry.expiry) {
+					return entry.result;
+				}
+
+				TrustLinkerResult result = trustLinker.hasTrustLink(
+						childCertificate, certificate, validationDate, null);
+				if (null != result) {
+					put(key, result, getExpiry(childCertificate, certificate));
+				}
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Returns an {@link OcspRepository} recording the nextUpdate of the OCSP
+	 * responses about CA certificates it hands out.
+	 */
+	public OcspRepository observe(final OcspRepository ocspRepository) {
+
+		return new OcspRepository() {
+
+			public OCSPResp findOcspResponse(URI ocspUri,
+					X509Certificate certificate,
+					X509Certificate issuerCertificate, Date validationDate) {
+
+				OCSPResp ocspResp = ocspRepository.findOcspResponse(ocspUri,
+						certificate, issuerCertificate, validationDate);
+				if (null != ocspResp && -1 != certificate.getBasicConstraints()) {
+					recordNextUpdate(getOcspKey(certificate),
+							getNextUpdate(ocspResp));
+				}
+				return ocspResp;
+			}
+		};
+	}
+
+	/**
+	 * Returns a {@link CrlRepository} recording the nextUpdate of the CRLs it
+	 * hands out.
+	 */
+	public CrlRepository observe(final CrlRepository crlRepository) {
+
+		return new CrlRepository() {
+
+			public X509CRL findCrl(URI crlUri,
+					X509Certificate issuerCertificate, Date validationDate) {
+
+				X509CRL crl = crlRepository.findCrl(crlUri, issuerCertificate,
+						validationDate);
+				if (null != crl) {
+					recordNextUpdate(getCrlKey(crl.getIssuerX500Principal()),
+							crl.getNextUpdate());
+				}
+				return crl;
+			}
+		};
+	}
+
+	private boolean isMemoizable(X509Certificate childCertificate,
+			Date validationDate) {
+
+		if (-1 == childCertificate.getBasicConstraints()) {
+			// leaf link
+			return false;
+		}
+		return Math.abs(System.currentTimeMillis() - validationDate.getTime()) < VALIDATION_DATE_SKEW;
+	}
+
+	private String getKey(String name, X509Certificate childCertificate,
+			X509Certificate certificate) throws CertificateEncodingException {
+
+		return name
+				+ ":"
+				+ DigestUtils.sha256Hex(childCertificate.getEncoded())
+				+ ":"
+				+ DigestUtils.sha256Hex(certificate.getEncoded())
+				+ ":"
+				+ this.version
+				+ ":"
+				+ this.validationResultCache.getCrlEpoch(childCertificate
+						.getIssuerX500Principal().toString());
+	}
+
+	private void put(String key, TrustLinkerResult result, long expiry) {
+
+		if (expiry <= System.currentTimeMillis()) {
+			return;
+		}
+		if (this.entries.size() >= MAX_ENTRIES) {
+			LOG.debug("trust link memo full, clearing");
+			this.entries.clear();
+		}
+		this.entries.put(key, new MemoEntry(result, expiry));
+	}
+
+	private long getExpiry(X509Certificate childCertificate,
+			X509Certificate certificate) {
+
+		long now = System.currentTimeMillis();
+		long expiry = now + this.ttlMillis;
+		expiry = Math.min(expiry, childCertificate.getNotAfter().getTime());
+		expiry = Math.min(expiry, certificate.getNotAfter().getTime());
+		/*
+		 * A nextUpdate in the past belongs to a response or CRL the trust
+		 * linkers rejected as expired, so it did not decide this result.
+		 */
+		for (String nextUpdateKey : new String[] {
+				getOcspKey(childCertificate),
+				getCrlKey(certificate.getSubjectX500Principal()) }) {
+			Long nextUpdate = this.nextUpdates.get(nextUpdateKey);
+			if (null != nextUpdate && nextUpdate > now) {
+				expiry = Math.min(expiry, nextUpdate);
+			}
+		}
+		return expiry;
+	}
+
+	private void recordNextUpdate(String key, Date nextUpdate) {
+
+		if (null == nextUpdate) {
+			this.nextUpdates.remove(key);
+			return;
+		}
+		if (this.nextUpdates.size() >= MAX_ENTRIES) {
+			this.nextUpdates.clear();
+		}
+		this.nextUpdates.put(key, nextUpdate.getTime());
+	}
+
+	private static Date getNextUpdate(OCSPResp ocspResp) {
+
+		if (OCSPRespStatus.SUCCESSFUL != ocspResp.getStatus()) {
+			return null;
+		}
+		Date nextUpdate = null;
+		try {
+			BasicOCSPResp basicOcspResp = (BasicOCSPResp) ocspResp
+					.getResponseObject();
+			for (SingleResp singleResp : basicOcspResp.getResponses()) {
+				Date singleNextUpdate = singleResp.getNextUpdate();
+				if (null != singleNextUpdate
+						&& (null == nextUpdate || singleNextUpdate
+								.before(nextUpdate))) {
+					nextUpdate = singleNextUpdate;
+				}
+			}
+		} catch (Exception e) {
+			LOG.error("OCSP response error: " + e.getMessage(), e);
+		}
+		return nextUpdate;
+	}
+
+	private static String getOcspKey(X509Certificate certificate) {
+
+		return "ocsp:"
+				+ certificate.getIssuerX500Principal().getName(
+						X500Principal.CANONICAL) + ":"
+				+ certificate.getSerialNumber().toString(16);
+	}
+
+	private static String getCrlKey(X500Principal issuer) {
+
+		return "crl:" + issuer.getName(X500Principal.CANONICAL);
+	}
+
+	private static final class MemoEntry {
+
+		private final TrustLinkerResult result;
+
+		private final long expiry;
+
+		MemoEntry(TrustLinkerResult result, long expiry) {
+			this.result = result;
+			this.expiry = expiry;
+		}
+	}
+}
@@ -26,6 +26,7 @@ import java.security.cert.CertPathValidatorException;
 import java.security.cert.CertStore;
 import java.security.cert.CertStoreException;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.Collection;
@@ -33,14 +34,15 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.interceptor.Interceptors;
-import javax.jms.JMSException;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
@@ -52,45 +54,23 @@ import org.bouncycastle.tsp.TSPException;
 import org.bouncycastle.tsp.TimeStampToken;
 
 import be.fedict.trust.FallbackTrustLinker;
-import be.fedict.trust.NetworkConfig;
-import be.fedict.trust.PublicKeyTrustLinker;
 import be.fedict.trust.RevocationData;
 import be.fedict.trust.TrustLinker;
 import be.fedict.trust.TrustLinkerResult;
+import be.fedict.trust.TrustLinkerResultReason;
 import be.fedict.trust.TrustValidator;
-import be.fedict.trust.constraints.CertificatePoliciesCertificateConstraint;
-import be.fedict.trust.constraints.DistinguishedNameCertificateConstraint;
-import be.fedict.trust.constraints.EndEntityCertificateConstraint;
-import be.fedict.trust.constraints.KeyUsageCertificateConstraint;
-import be.fedict.trust.constraints.QCStatementsCertificateConstraint;
-import be.fedict.trust.crl.CachedCrlRepository;
-import be.fedict.trust.crl.CrlTrustLinker;
 import be.fedict.trust.crl.OfflineCrlRepository;
-import be.fedict.trust.crl.OnlineCrlRepository;
-import be.fedict.trust.ocsp.OcspTrustLinker;
 import be.fedict.trust.ocsp.OfflineOcspRepository;
-import be.fedict.trust.ocsp.OnlineOcspRepository;
-import be.fedict.trust.service.NotificationService;
-import be.fedict.trust.service.SchedulingService;
 import be.fedict.trust.service.SnmpConstants;
 import be.fedict.trust.service.TrustService;
 import be.fedict.trust.service.ValidationResult;
 import be.fedict.trust.service.dao.AuditDAO;
 import be.fedict.trust.service.dao.CertificateAuthorityDAO;
 import be.fedict.trust.service.dao.ConfigurationDAO;
-import be.fedict.trust.service.dao.TrustDomainDAO;
 import be.fedict.trust.service.entity.CertificateAuthorityEntity;
 import be.fedict.trust.service.entity.Status;
-import be.fedict.trust.service.entity.TrustDomainEntity;
 import be.fedict.trust.service.entity.VirtualTrustDomainEntity;
 import be.fedict.trust.service.entity.WSSecurityConfigEntity;
-import be.fedict.trust.service.entity.constraints.CertificateConstraintEntity;
-import be.fedict.trust.service.entity.constraints.DNConstraintEntity;
-import be.fedict.trust.service.entity.constraints.EndEntityConstraintEntity;
-import be.fedict.trust.service.entity.constraints.KeyUsageConstraintEntity;
-import be.fedict.trust.service.entity.constraints.PolicyConstraintEntity;
-import be.fedict.trust.service.entity.constraints.QCStatementsConstraintEntity;
-import be.fedict.trust.service.exception.InvalidCronExpressionException;
 import be.fedict.trust.service.exception.TrustDomainNotFoundException;
 import be.fedict.trust.service.snmp.SNMP;
 import be.fedict.trust.service.snmp.SNMPCounter;
@@ -114,22 +94,31 @@ public class TrustServiceBean implements TrustService {
 	private EntityManager entityManager;
 
 	@EJB
-	private NotificationService notificationService;
+	private CertificateAuthorityDAO certificateAuthorityDAO;
 
 	@EJB
-	private TrustDomainDAO trustDomainDAO;
+	private AuditDAO auditDAO;
 
 	@EJB
-	private CertificateAuthorityDAO certificateAuthorityDAO;
+	private TrustDomainCacheBean trustDomainCache;
 
 	@EJB
-	private AuditDAO auditDAO;
+	private RevocationIndexServiceBean revocationIndexService;
+
+	@EJB
+	private ValidationResultCacheBean validationResultCache;
 
 	@EJB
-	private SchedulingService schedulingService;
+	private ValidationCoalescerBean validationCoalescer;
 
 	@EJB
-	private CrlRepositoryServiceBean crlRepositoryService;
+	private DiscoveryCoordinatorBean discoveryCoordinator;
+
+	@EJB
+	private ValidationExecutorBean validationExecutor;
+
+	@Resource(name = "coalescingTimeout")
+	private Integer coalescingTimeout = 10000;
 
 	@SNMP(oid = SnmpConstants.CACHE_HITS)
 	private Long cacheHits;
@@ -140,6 +129,18 @@ public class TrustServiceBean implements TrustService {
 	@SNMP(oid = SnmpConstants.CACHE_HIT_PERCENTAGE, derived = true)
 	private Long cacheHitPercentage;
 
+	@SNMP(oid = SnmpConstants.RESULT_CACHE_HITS)
+	private Long resultCacheHits;
+
+	@SNMP(oid = SnmpConstants.RESULT_CACHE_MISSES)
+	private Long resultCacheMisses;
+
+	@SNMP(oid = SnmpConstants.RESULT_CACHE_HIT_PERCENTAGE, derived = true)
+	private Long resultCacheHitPercentage;
+
+	@SNMP(oid = SnmpConstants.VALIDATIONS_COALESCED)
+	private Long validationsCoalesced;
+
 	@TransactionAttribute(TransactionAttributeType.REQUIRED)
 	@SNMP(oid = SnmpConstants.VALIDATE)
 	public ValidationResult validate(String trustDomainName,
@@ -159,23 +160,102 @@ public class TrustServiceBean implements TrustService {
 		LOG.debug("isValid: "
 				+ certificateChain.get(0).getSubjectX500Principal());
 
+		ValidationResultCacheBean.Lookup lookup = null;
+		String key;
+		if (returnRevocationData) {
+			key = getKey(trustDomainName, certificateChain);
+		} else {
+			/*
+			 * Tag with the version of the snapshot in use, which lags behind
+			 * the current version while a new snapshot is being built.
+			 */
+			lookup = this.validationResultCache.lookup(trustDomainName,
+					certificateChain, this.trustDomainCache.getSnapshot()
+							.getVersion());
+			if (null != lookup && null != lookup.getResult()) {
+				LOG.debug("cached validation result");
+				this.resultCacheHits++;
+				return lookup.getResult();
+			}
+			if (null != lookup) {
+				this.resultCacheMisses++;
+				key = lookup.getKey();
+			} else {
+				key = getKey(trustDomainName, certificateChain);
+			}
+		}
+		if (null == key) {
+			return validate(getTemplates(trustDomainName, certificateChain),
+					certificateChain, returnRevocationData);
+		}
+
+		ValidationCoalescerBean.Flight flight = this.validationCoalescer
+				.join(key + ":" + returnRevocationData);
+		if (!flight.isLeader()) {
+			ValidationResult validationResult = flight
+					.await(this.coalescingTimeout);
+			if (null != validationResult) {
+				LOG.debug("coalesced validation result");
+				this.validationsCoalesced++;
+				return validationResult;
+			}
+			// leader failed or too slow, validate ourselves
+			return validate(getTemplates(trustDomainName, certificateChain),
+					certificateChain, returnRevocationData);
+		}
+
+		ValidationResult validationResult = null;
+		try {
+			validationResult = validate(
+					getTemplates(trustDomainName, certificateChain),
+					certificateChain, returnRevocationData);
+			if (null != lookup) {
+				this.validationResultCache.put(lookup, validationResult);
+			}
+			return validationResult;
+		} finally {
+			this.validationCoalescer.leave(flight, validationResult);
+		}
+	}
+
+	private String getKey(String trustDomainName,
+			List<X509Certificate> certificateChain) {
+
+		try {
+			return ValidationResultCacheBean.getKey(trustDomainName,
+					certificateChain);
+		} catch (CertificateEncodingException e) {
+			LOG.error("certificate encoding error: " + e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private ValidationResult validate(List<TrustValidatorTemplate> templates,
+			List<X509Certificate> certificateChain, boolean returnRevocationData) {
+
+		if (templates.isEmpty()) {
+			LOG.debug("no trust domain with matching trust point");
+			return new ValidationResult(new TrustLinkerResult(false,
+					TrustLinkerResultReason.INVALID_TRUST,
+					"root certificate not trusted"),
+					returnRevocationData ? new RevocationData() : null);
+		}
+		if (templates.size() > 1) {
+			return validateConcurrently(templates, certificateChain,
+					returnRevocationData);
+		}
+
 		TrustLinkerResult lastResult = null;
 		RevocationData lastRevocationData = null;
-		for (TrustDomainEntity trustDomain : getTrustDomains(trustDomainName)) {
+		for (TrustValidatorTemplate template : templates) {
 
-			TrustValidator trustValidator = getTrustValidator(trustDomain,
-					returnRevocationData);
-			try {
-				trustValidator.isTrusted(certificateChain);
-			} catch (CertPathValidatorException ignored) {
-				LOG.debug(
-						"cert path validation error: " + ignored.getMessage(),
-						ignored);
-			}
+			TrustValidator trustValidator = validate(template,
+					certificateChain, returnRevocationData);
 
 			if (trustValidator.getResult().isValid()) {
-				LOG.debug("valid for trust domain: " + trustDomain.getName());
-				harvest(trustDomain, certificateChain);
+				LOG.debug("valid for trust domain: "
+						+ template.getTrustDomainName());
+				harvest(template, certificateChain);
 				return new ValidationResult(trustValidator.getResult(),
 						trustValidator.getRevocationData());
 			}
@@ -187,6 +267,115 @@ public class TrustServiceBean implements TrustService {
 		return new ValidationResult(lastResult, lastRevocationData);
 	}
 
+	/**
+	 * Validates against the member trust domains of a virtual trust domain
+	 * concurrently, as asynchronous invocations of the
+	 * {@link ValidationExecutorBean}, see {@link ConcurrentValidation}. The
+	 * first valid member wins and the remaining validations are cancelled
+	 * without being interrupted. If no member is valid, the result of the last
+	 * member is returned, as the sequential validation does. The member
+	 * validations do not touch this bean instance, their trust linkers are
+	 * set up on the calling thread.
+	 */
+	private ValidationResult validateConcurrently(
+			List<TrustValidatorTemplate> templates,
+			List<X509Certificate> certificateChain, boolean returnRevocationData) {
+
+		ConcurrentValidation<TrustValidatorTemplate, TrustValidator> concurrentValidation = new ConcurrentValidation<TrustValidatorTemplate, TrustValidator>(
+				this.validationExecutor.getExecutor()) {
+
+			@Override
+			protected boolean isValid(TrustValidator trustValidator) {
+				return trustValidator.getResult().isValid();
+			}
+		};
+		Executor revocationExecutor = getRevocationExecutor();
+		for (TrustValidatorTemplate template : templates) {
+			concurrentValidation.submit(template, new TemplateValidation(
+					template, getCachedTrustLinker(template,
+							returnRevocationData), revocationExecutor,
+					certificateChain, returnRevocationData));
+		}
+
+		TrustValidator trustValidator = concurrentValidation.validate();
+		TrustValidatorTemplate template = concurrentValidation.getValidKey();
+		if (null != template) {
+			LOG.debug("valid for trust domain: "
+					+ template.getTrustDomainName());
+			harvest(template, certificateChain);
+		}
+		return new ValidationResult(trustValidator.getResult(),
+				trustValidator.getRevocationData());
+	}
+
+	private TrustValidator validate(TrustValidatorTemplate template,
+			List<X509Certificate> certificateChain, boolean returnRevocationData) {
+
+		return validate(template,
+				getCachedTrustLinker(template, returnRevocationData),
+				getRevocationExecutor(), certificateChain,
+				returnRevocationData);
+	}
+
+	/**
+	 * Returns the executor the revocation checks of the links of a chain are
+	 * resolved on concurrently, or <code>null</code> if not enabled.
+	 */
+	private Executor getRevocationExecutor() {
+
+		if (!this.validationExecutor.isParallelRevocation()) {
+			return null;
+		}
+		return this.validationExecutor.getExecutor();
+	}
+
+	/**
+	 * Validates the certificate chain against the template. Only uses the
+	 * specified arguments, so it can run on another thread than the one
+	 * invoking this bean.
+	 */
+	private static TrustValidator validate(TrustValidatorTemplate template,
+			TrustLinker cachedTrustLinker, Executor revocationExecutor,
+			List<X509Certificate> certificateChain, boolean returnRevocationData) {
+
+		Date validationDate = new Date();
+		ParallelRevocationTrustLinker parallelRevocationTrustLinker = null;
+		TrustValidator trustValidator;
+		if (null != revocationExecutor && certificateChain.size() > 2) {
+			/*
+			 * Resolve the revocation status of all links at once, the
+			 * validator still walks the chain in order.
+			 */
+			parallelRevocationTrustLinker = new ParallelRevocationTrustLinker(
+					template.getRevocationTrustLinker(cachedTrustLinker),
+					revocationExecutor);
+			if (!parallelRevocationTrustLinker.prefetch(certificateChain,
+					template.getCertificateRepository(), validationDate,
+					returnRevocationData)) {
+				parallelRevocationTrustLinker = null;
+			}
+		}
+		if (null != parallelRevocationTrustLinker) {
+			trustValidator = template.createTrustValidator(
+					parallelRevocationTrustLinker,
+					returnRevocationData ? new RevocationData() : null);
+		} else {
+			trustValidator = template.createTrustValidator(cachedTrustLinker,
+					returnRevocationData);
+		}
+		try {
+			trustValidator.isTrusted(certificateChain, validationDate);
+		} catch (CertPathValidatorException ignored) {
+			LOG.debug("cert path validation error: " + ignored.getMessage(),
+					ignored);
+		} finally {
+			if (null != parallelRevocationTrustLinker) {
+				parallelRevocationTrustLinker.cancel();
+			}
+		}
+		return trustValidator;
+	}
+
 	@TransactionAttribute(TransactionAttributeType.REQUIRED)
 	@SNMP(oid = SnmpConstants.VALIDATE)
 	public ValidationResult validate(String trustDomainName,
@@ -200,9 +389,9 @@ public class TrustServiceBean implements TrustService {
 
 		TrustLinkerResult lastResult = null;
 		RevocationData lastRevocationData = null;
-		for (TrustDomainEntity trustDomain : getTrustDomains(trustDomainName)) {
+		for (TrustValidatorTemplate template : getTemplates(trustDomainName)) {
 
-			TrustValidator trustValidator = getTrustValidator(trustDomain,
+			TrustValidator trustValidator = getTrustValidator(template,
 					ocspResponses, crls);
 
 			try {
@@ -211,7 +400,8 @@ public class TrustServiceBean implements TrustService {
 			}
 
 			if (trustValidator.getResult().isValid()) {
-				LOG.debug("valid for trust domain: " + trustDomain.getName());
+				LOG.debug("valid for trust domain: "
+						+ template.getTrustDomainName());
 				return new ValidationResult(trustValidator.getResult(),
 						trustValidator.getRevocationData());
 			}
@@ -256,9 +446,9 @@ public class TrustServiceBean implements TrustService {
 		 */
 		TrustLinkerResult lastResult = null;
 		RevocationData lastRevocationData = null;
-		for (TrustDomainEntity trustDomain : getTrustDomains(trustDomainName)) {
+		for (TrustValidatorTemplate template : getTemplates(trustDomainName)) {
 
-			TrustValidator trustValidator = getTrustValidator(trustDomain,
+			TrustValidator trustValidator = getTrustValidator(template,
 					returnRevocationData);
 
 			try {
@@ -267,8 +457,9 @@ public class TrustServiceBean implements TrustService {
 			}
 
 			if (trustValidator.getResult().isValid()) {
-				LOG.debug("valid for trust domain: " + trustDomain.getName());
-				harvest(trustDomain, certificateChain);
+				LOG.debug("valid for trust domain: "
+						+ template.getTrustDomainName());
+				harvest(template, certificateChain);
 				return new ValidationResult(trustValidator.getResult(),
 						trustValidator.getRevocationData());
 			}
@@ -291,9 +482,9 @@ public class TrustServiceBean implements TrustService {
 
 		TrustLinkerResult lastResult = null;
 		RevocationData lastRevocationData = null;
-		for (TrustDomainEntity trustDomain : getTrustDomains(trustDomainName)) {
+		for (TrustValidatorTemplate template : getTemplates(trustDomainName)) {
 
-			TrustValidator trustValidator = getTrustValidator(trustDomain,
+			TrustValidator trustValidator = getTrustValidator(template,
 					returnRevocationData);
 			try {
 				trustValidator.isTrusted(encodedAttributeCertificates,
@@ -302,8 +493,9 @@ public class TrustServiceBean implements TrustService {
 			}
 
 			if (trustValidator.getResult().isValid()) {
-				LOG.debug("valid for trust domain: " + trustDomain.getName());
-				harvest(trustDomain, certificateChain);
+				LOG.debug("valid for trust domain: "
+						+ template.getTrustDomainName());
+				harvest(template, certificateChain);
 				return new ValidationResult(trustValidator.getResult(),
 						trustValidator.getRevocationData());
 			}
@@ -316,122 +508,72 @@ public class TrustServiceBean implements TrustService {
 	}
 
 	/**
-	 * Returns {@link Set} of {@link TrustDomainEntity}'s. Multiple are possible
-	 * if the specified trustDomainName is a {@link VirtualTrustDomainEntity}.
+	 * Returns the {@link TrustValidatorTemplate}'s of the trust domains to
+	 * validate against, taken from the current configuration snapshot.
+	 * Multiple are possible if the specified trustDomainName is a
+	 * {@link VirtualTrustDomainEntity}.
 	 */
-	private Set<TrustDomainEntity> getTrustDomains(String name)
+	private List<TrustValidatorTemplate> getTemplates(String name)
 			throws TrustDomainNotFoundException {
-		if (null == name) {
-			return Collections.singleton(this.trustDomainDAO
-					.getDefaultTrustDomain());
-		}
-		TrustDomainEntity trustDomain = this.trustDomainDAO
-				.findTrustDomain(name);
-		if (null != trustDomain) {
-			return Collections.singleton(trustDomain);
-		}
-		// maybe a virtual trust domain?
-		VirtualTrustDomainEntity virtualTrustDomain = this.trustDomainDAO
-				.findVirtualTrustDomain(name);
-		if (null != virtualTrustDomain) {
-			return virtualTrustDomain.getTrustDomains();
-		}
-		throw new TrustDomainNotFoundException();
+
+		return this.trustDomainCache.getSnapshot().getTemplates(name);
 	}
 
 	/**
-	 * Returns new {@link TrustValidator}.
-	 * 
-	 * @param returnRevocationData
-	 *            if <code>true</code> the used revocation data will be filled
-	 *            in the returned {@link TrustValidator}.
+	 * Returns the {@link TrustValidatorTemplate}'s of the trust domains that
+	 * could accept the specified certificate chain. For a
+	 * {@link VirtualTrustDomainEntity}, the member trust domains are routed on
+	 * the trust points, so the list is empty if none of them match.
 	 */
-	private TrustValidator getTrustValidator(TrustDomainEntity trustDomain,
-			boolean returnRevocationData) {
-
-		TrustLinker trustLinker = null;
-		if (!returnRevocationData && trustDomain.isUseCaching()) {
-			// if returnRevocationData set, don't use cached revocation data
-			trustLinker = new TrustServiceTrustLinker(this.entityManager);
-		}
+	private List<TrustValidatorTemplate> getTemplates(String name,
+			List<X509Certificate> certificateChain)
+			throws TrustDomainNotFoundException {
 
-		return getTrustValidator(trustDomain, trustLinker, returnRevocationData);
+		return this.trustDomainCache.getSnapshot().getTemplates(name,
+				certificateChain);
 	}
 
 	/**
-	 * Returns new {@link TrustValidator} configured according to the specified
-	 * {@link TrustDomainEntity}.
+	 * Returns new {@link TrustValidator}.
 	 * 
-	 * @param trustDomain
-	 * @param trustLinker
-	 *            optional customized {@link TrustLinker}. Can be
-	 *            <code>null</code>.
 	 * @param returnRevocationData
 	 *            if <code>true</code> the used revocation data will be filled
 	 *            in the returned {@link TrustValidator}.
 	 */
-	private TrustValidator getTrustValidator(TrustDomainEntity trustDomain,
-			TrustLinker trustLinker, boolean returnRevocationData) {
-
-		NetworkConfig networkConfig = this.configurationDAO.getNetworkConfig();
+	private TrustValidator getTrustValidator(TrustValidatorTemplate template,
+			boolean returnRevocationData) {
 
-		TrustDomainCertificateRepository certificateRepository = new TrustDomainCertificateRepository(
-				trustDomain);
+		return template.createTrustValidator(
+				getCachedTrustLinker(template, returnRevocationData),
+				returnRevocationData);
+	}
 
-		TrustValidator trustValidator;
-		if (returnRevocationData) {
-			trustValidator = new TrustValidator(certificateRepository,
-					new RevocationData());
-		} else {
-			trustValidator = new TrustValidator(certificateRepository);
-		}
-		trustValidator.addTrustLinker(new PublicKeyTrustLinker());
-
-		OnlineOcspRepository ocspRepository = new OnlineOcspRepository(
-				networkConfig);
-
-		CachedCrlRepository cachedCrlRepository = this.crlRepositoryService
-				.getCachedCrlRepository();
-		if (null == cachedCrlRepository) {
-			OnlineCrlRepository crlRepository = new OnlineCrlRepository(
-					networkConfig);
-			cachedCrlRepository = new CachedCrlRepository(crlRepository);
-			this.crlRepositoryService
-					.setCachedCrlRepository(cachedCrlRepository);
-		}
+	/**
+	 * Returns the trust linker using the cached revocation data, or
+	 * <code>null</code> if no cached revocation data is to be used.
+	 */
+	private TrustLinker getCachedTrustLinker(TrustValidatorTemplate template,
+			boolean returnRevocationData) {
 
-		FallbackTrustLinker fallbackTrustLinker = new FallbackTrustLinker();
-		if (null != trustLinker) {
-			fallbackTrustLinker.addTrustLinker(trustLinker);
+		if (!returnRevocationData && template.isUseCaching()) {
+			// if returnRevocationData set, don't use cached revocation data
+			return new TrustServiceTrustLinker(this.entityManager,
+					this.revocationIndexService, this.discoveryCoordinator);
 		}
-		fallbackTrustLinker.addTrustLinker(new OcspTrustLinker(ocspRepository));
-		fallbackTrustLinker.addTrustLinker(new CrlTrustLinker(
-				cachedCrlRepository));
-
-		trustValidator.addTrustLinker(fallbackTrustLinker);
-
-		addConstraints(trustValidator, trustDomain);
-		return trustValidator;
+		return null;
 	}
 
 	/**
 	 * Returns new {@link TrustValidator} configured according to the specified
-	 * {@link TrustDomainEntity} and using the specified revocation date. All
+	 * {@link TrustValidatorTemplate} and using the specified revocation date. All
 	 * validation will be done offline, not using any cache.
 	 */
-	private TrustValidator getTrustValidator(TrustDomainEntity trustDomain,
+	private TrustValidator getTrustValidator(TrustValidatorTemplate template,
 			List<byte[]> ocspResponses, List<byte[]> crls) throws IOException,
 			CertificateException, NoSuchProviderException, CRLException {
 
 		LOG.debug("get trust validator using specified ocsp responses and crls");
 
-		TrustDomainCertificateRepository certificateRepository = new TrustDomainCertificateRepository(
-				trustDomain);
-
-		TrustValidator trustValidator = new TrustValidator(
-				certificateRepository);
-		trustValidator.addTrustLinker(new PublicKeyTrustLinker());
-
 		OfflineOcspRepository ocspRepository = new OfflineOcspRepository(
 				ocspResponses);
 		OfflineCrlRepository crlRepository = new OfflineCrlRepository(crls);
@@ -443,128 +585,8 @@ public class TrustServiceBean implements TrustService {
 		fallbackTrustLinker.addTrustLinker(new TrustServiceCrlTrustLinker(
 				crlRepository));
 
-		trustValidator.addTrustLinker(fallbackTrustLinker);
-
-		addConstraints(trustValidator, trustDomain);
-		return trustValidator;
-	}
-
-	/**
-	 * Add certificate constraints to the specified {@link TrustValidator} using
-	 * the specified {@link TrustDomainEntity}'s configuration.
-	 */
-	private void addConstraints(TrustValidator trustValidator,
-			TrustDomainEntity trustDomain) {
-
-		// add certificate constraints
-		CertificatePoliciesCertificateConstraint certificatePoliciesCertificateConstraint = null;
-		KeyUsageCertificateConstraint keyUsageCertificateConstraint = null;
-		EndEntityCertificateConstraint endEntityCertificateConstraint = null;
-		for (CertificateConstraintEntity certificateConstraint : trustDomain
-				.getCertificateConstraints()) {
-
-			if (certificateConstraint instanceof PolicyConstraintEntity) {
-
-				PolicyConstraintEntity policyConstraint = (PolicyConstraintEntity) certificateConstraint;
-				if (null == certificatePoliciesCertificateConstraint) {
-					certificatePoliciesCertificateConstraint = new CertificatePoliciesCertificateConstraint();
-				}
-				certificatePoliciesCertificateConstraint
-						.addCertificatePolicy(policyConstraint.getPolicy());
-
-			} else if (certificateConstraint instanceof KeyUsageConstraintEntity) {
-
-				KeyUsageConstraintEntity keyUsageConstraint = (KeyUsageConstraintEntity) certificateConstraint;
-				if (null == keyUsageCertificateConstraint) {
-					keyUsageCertificateConstraint = new KeyUsageCertificateConstraint();
-				}
-				switch (keyUsageConstraint.getKeyUsage()) {
-				case DIGITAL_SIGNATURE: {
-					keyUsageCertificateConstraint
-							.setDigitalSignatureFilter(keyUsageConstraint
-									.isAllowed());
-					break;
-				}
-				case NON_REPUDIATION: {
-					keyUsageCertificateConstraint
-							.setNonRepudiationFilter(keyUsageConstraint
-									.isAllowed());
-					break;
-				}
-				case KEY_ENCIPHERMENT: {
-					keyUsageCertificateConstraint
-							.setKeyEnciphermentFilter(keyUsageConstraint
-									.isAllowed());
-				}
-				case DATA_ENCIPHERMENT: {
-					keyUsageCertificateConstraint
-							.setDataEnciphermentFilter(keyUsageConstraint
-									.isAllowed());
-				}
-				case KEY_AGREEMENT: {
-					keyUsageCertificateConstraint
-							.setKeyAgreementFilter(keyUsageConstraint
-									.isAllowed());
-				}
-				case KEY_CERT_SIGN: {
-					keyUsageCertificateConstraint
-							.setKeyCertificateSigningFilter(keyUsageConstraint
-									.isAllowed());
-				}
-				case CRL_SIGN: {
-					keyUsageCertificateConstraint
-							.setCRLSigningFilter(keyUsageConstraint.isAllowed());
-				}
-				case ENCIPHER_ONLY: {
-					keyUsageCertificateConstraint
-							.setEncipherOnlyFilter(keyUsageConstraint
-									.isAllowed());
-				}
-				case DECIPHER_ONLY: {
-					keyUsageCertificateConstraint
-							.setDecipherOnlyFilter(keyUsageConstraint
-									.isAllowed());
-				}
-				}
-
-			} else if (certificateConstraint instanceof QCStatementsConstraintEntity) {
-
-				QCStatementsConstraintEntity qcStatementsConstraint = (QCStatementsConstraintEntity) certificateConstraint;
-				trustValidator
-						.addCertificateConstrain(new QCStatementsCertificateConstraint(
-								qcStatementsConstraint.getQcComplianceFilter()));
-
-			} else if (certificateConstraint instanceof DNConstraintEntity) {
-
-				DNConstraintEntity dnConstraint = (DNConstraintEntity) certificateConstraint;
-				trustValidator
-						.addCertificateConstrain(new DistinguishedNameCertificateConstraint(
-								dnConstraint.getDn()));
-
-			} else if (certificateConstraint instanceof EndEntityConstraintEntity) {
-
-				EndEntityConstraintEntity endEntityConstraint = (EndEntityConstraintEntity) certificateConstraint;
-				if (null == endEntityCertificateConstraint) {
-					endEntityCertificateConstraint = new EndEntityCertificateConstraint();
-				}
-				endEntityCertificateConstraint.addEndEntity(
-						endEntityConstraint.getIssuerName(),
-						endEntityConstraint.getSerialNumber());
-			}
-		}
-
-		if (null != certificatePoliciesCertificateConstraint) {
-			trustValidator
-					.addCertificateConstrain(certificatePoliciesCertificateConstraint);
-		}
-		if (null != keyUsageCertificateConstraint) {
-			trustValidator
-					.addCertificateConstrain(keyUsageCertificateConstraint);
-		}
-		if (null != endEntityCertificateConstraint) {
-			trustValidator
-					.addCertificateConstrain(endEntityCertificateConstraint);
-		}
+		return template.createTrustValidator(fallbackTrustLinker,
+				(RevocationData) null);
 	}
 
 	@SNMPCounter
@@ -580,6 +602,19 @@ public class TrustServiceBean implements TrustService {
 		LOG.debug("cache hit % = " + this.cacheHitPercentage);
 	}
 
+	@SNMPCounter
+	public void updateResultCacheHitPercentage() {
+
+		LOG.debug("update result cache hit %");
+		if (0L == this.resultCacheHits && 0L == this.resultCacheMisses) {
+			return;
+		}
+
+		double v = ((double) this.resultCacheHits / (double) (this.resultCacheHits + this.resultCacheMisses));
+		this.resultCacheHitPercentage = Math.round(v * 100);
+		LOG.debug("result cache hit % = " + this.resultCacheHitPercentage);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -597,51 +632,74 @@ public class TrustServiceBean implements TrustService {
 	}
 
 	/**
-	 * Harvest the CRLs for specified certificate chain if caching is set for
-	 * the trust domain and no cache is yet active.
+	 * Signals the CA's of a valid certificate chain whose CRL harvesting has
+	 * not been started yet, including the ones not yet known. The status
+	 * transitions themselves are done in the
+	 * background by the {@link DiscoveryMDB}, so validating stays read-only.
 	 */
-	private void harvest(TrustDomainEntity trustDomain,
+	private void harvest(TrustValidatorTemplate template,
 			List<X509Certificate> certificateChain) {
 
-		if (trustDomain.isUseCaching()) {
-			for (X509Certificate certificate : certificateChain) {
+		if (template.isUseCaching()) {
+			for (int idx = 0; idx < certificateChain.size(); idx++) {
+				X509Certificate certificate = certificateChain.get(idx);
 				String issuerName = certificate.getIssuerX500Principal()
 						.toString();
 				CertificateAuthorityEntity certificateAuthority = this.certificateAuthorityDAO
 						.findCertificateAuthority(issuerName);
-				if (null != certificateAuthority
-						&& (certificateAuthority.getStatus().equals(
-								Status.INACTIVE) || certificateAuthority
-								.getStatus().equals(Status.NONE))) {
-					if (null != certificateAuthority.getCrlUrl()) {
-						certificateAuthority.setStatus(Status.PROCESSING);
-						try {
-							this.notificationService.notifyDownloader(
-									certificateAuthority.getName(), false);
-							if (null != certificateAuthority.getTrustPoint()
-									&& null == certificateAuthority
-											.getTrustPoint().getFireDate()) {
-								this.schedulingService
-										.startTimer(certificateAuthority
-												.getTrustPoint());
-							}
-						} catch (JMSException e) {
-							this.auditDAO
-									.logAudit("Failed to notify harvester: "
-											+ e.getMessage());
-							LOG.error(e.getMessage(), e);
-						} catch (InvalidCronExpressionException e) {
-							this.auditDAO
-									.logAudit("Failed to start timer for trust point: "
-											+ certificateAuthority
-													.getTrustPoint().getName());
-							LOG.error(e.getMessage(), e);
-						}
-					} else {
-						certificateAuthority.setStatus(Status.NONE);
+				if (null == certificateAuthority) {
+					if (idx + 1 < certificateChain.size()) {
+						// created and activated in one go
+						this.discoveryCoordinator.discover(issuerName,
+								certificateChain.get(idx + 1),
+								TrustServiceTrustLinker.getCrlUrl(certificate),
+								true);
 					}
+					continue;
+				}
+				if (Status.INACTIVE.equals(certificateAuthority.getStatus())
+						|| Status.NONE.equals(certificateAuthority
+								.getStatus())
+						&& null != certificateAuthority.getCrlUrl()) {
+					this.discoveryCoordinator.discover(issuerName, null, null,
+							true);
 				}
 			}
 		}
 	}
+
+	/**
+	 * Validation of a certificate chain against a single template, to be run
+	 * concurrently with the other members of a virtual trust domain.
+	 */
+	private static final class TemplateValidation implements
+			Callable<TrustValidator> {
+
+		private final TrustValidatorTemplate template;
+
+		private final TrustLinker cachedTrustLinker;
+
+		private final Executor revocationExecutor;
+
+		private final List<X509Certificate> certificateChain;
+
+		private final boolean returnRevocationData;
+
+		TemplateValidation(TrustValidatorTemplate template,
+				TrustLinker cachedTrustLinker, Executor revocationExecutor,
+				List<X509Certificate> certificateChain,
+				boolean returnRevocationData) {
+			this.template = template;
+			this.cachedTrustLinker = cachedTrustLinker;
+			this.revocationExecutor = revocationExecutor;
+			this.certificateChain = certificateChain;
+			this.returnRevocationData = returnRevocationData;
+		}
+
+		public TrustValidator call() {
+			return validate(this.template, this.cachedTrustLinker,
+					this.revocationExecutor, this.certificateChain,
+					this.returnRevocationData);
+		}
+	}
 }
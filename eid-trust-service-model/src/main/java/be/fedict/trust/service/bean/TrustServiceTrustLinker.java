@@ -21,12 +21,9 @@ package be.fedict.trust.service.bean;
 import java.math.BigInteger;
 import java.net.MalformedURLException;
 import java.net.URI;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.Date;
 
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
 import javax.persistence.EntityManager;
 
 import org.apache.commons.logging.Log;
@@ -38,12 +35,13 @@ import be.fedict.trust.TrustLinkerResult;
 import be.fedict.trust.TrustLinkerResultReason;
 import be.fedict.trust.crl.CrlTrustLinker;
 import be.fedict.trust.service.SnmpConstants;
-import be.fedict.trust.service.dao.AuditDAO;
 import be.fedict.trust.service.entity.CertificateAuthorityEntity;
 import be.fedict.trust.service.entity.RevokedCertificateEntity;
 import be.fedict.trust.service.entity.RevokedCertificatePK;
 import be.fedict.trust.service.entity.Status;
 import be.fedict.trust.service.snmp.SNMPInterceptor;
+import be.fedict.trust.service.util.RevocationFilter;
+import be.fedict.trust.service.util.RevocationIndex;
 
 /**
  * Implementation of a trust linker based on the trust service infrastructure.
@@ -57,8 +55,21 @@ public class TrustServiceTrustLinker implements TrustLinker {
 
 	private final EntityManager entityManager;
 
-	public TrustServiceTrustLinker(EntityManager entityManager) {
+	private final RevocationIndexServiceBean revocationIndexService;
+
+	private final DiscoveryCoordinatorBean discoveryCoordinator;
+
+	/**
+	 * Main constructor. The trust linker only reads from the database, CA's
+	 * that need to be created or updated are signaled to the
+	 * {@link DiscoveryCoordinatorBean}.
+	 */
+	public TrustServiceTrustLinker(EntityManager entityManager,
+			RevocationIndexServiceBean revocationIndexService,
+			DiscoveryCoordinatorBean discoveryCoordinator) {
 		this.entityManager = entityManager;
+		this.revocationIndexService = revocationIndexService;
+		this.discoveryCoordinator = discoveryCoordinator;
 	}
 
 	public TrustLinkerResult hasTrustLink(X509Certificate childCertificate,
@@ -69,6 +80,7 @@ public class TrustServiceTrustLinker implements TrustLinker {
 
 		String issuerName = childCertificate.getIssuerX500Principal()
 				.toString();
+
 		CertificateAuthorityEntity certificateAuthority = this.entityManager
 				.find(CertificateAuthorityEntity.class, issuerName);
 		if (null == certificateAuthority) {
@@ -80,29 +92,10 @@ public class TrustServiceTrustLinker implements TrustLinker {
 					SnmpConstants.SNMP_SERVICE, 1L);
 
 			/*
-			 * Lookup Root CA's trust point via parent certificates' CA entity.
+			 * The CA is created in the background, we stay read-only.
 			 */
-			String parentIssuerName = certificate.getIssuerX500Principal()
-					.toString();
-			CertificateAuthorityEntity parentCertificateAuthority = this.entityManager
-					.find(CertificateAuthorityEntity.class, parentIssuerName);
-			if (null == parentCertificateAuthority) {
-				logAudit("CA not found for " + parentIssuerName);
-				LOG.error("CA not found for " + parentIssuerName + " ?!");
-				return null;
-			}
-
-			// create new CA
-			try {
-				certificateAuthority = new CertificateAuthorityEntity(
-						getCrlUrl(childCertificate), certificate);
-				certificateAuthority.setTrustPoint(parentCertificateAuthority
-						.getTrustPoint());
-			} catch (CertificateEncodingException e) {
-				LOG.error("certificate encoding error: " + e.getMessage(), e);
-				return null;
-			}
-			this.entityManager.persist(certificateAuthority);
+			this.discoveryCoordinator.discover(issuerName, certificate,
+					getCrlUrl(childCertificate), false);
 			return null;
 		}
 		if (Status.ACTIVE != certificateAuthority.getStatus()) {
@@ -111,7 +104,11 @@ public class TrustServiceTrustLinker implements TrustLinker {
 			 * Harvester is still busy processing the first CRL.
 			 */
 			if (null == certificateAuthority.getCrlUrl()) {
-				certificateAuthority.setCrlUrl(getCrlUrl(childCertificate));
+				String crlUrl = getCrlUrl(childCertificate);
+				if (null != crlUrl) {
+					this.discoveryCoordinator.discover(issuerName, certificate,
+							crlUrl, false);
+				}
 			}
 
 			if (Status.NONE != certificateAuthority.getStatus()) {
@@ -163,14 +160,39 @@ public class TrustServiceTrustLinker implements TrustLinker {
 				SnmpConstants.SNMP_SERVICE, 1L);
 
 		BigInteger serialNumber = childCertificate.getSerialNumber();
-		RevokedCertificateEntity revokedCertificate = findRevokedCertificate(
-				issuerName, serialNumber);
-		if (null == revokedCertificate) {
+		Date revocationDate;
+		/*
+		 * The in-memory revocation index is only used if it was built from the
+		 * CRL of the committed CA row, other cluster nodes might have
+		 * harvested a newer CRL in the meanwhile.
+		 */
+		RevocationIndex revocationIndex = this.revocationIndexService
+				.loadIndex(certificateAuthority);
+		if (null != revocationIndex) {
+			revocationDate = revocationIndex.findRevocationDate(serialNumber);
+		} else if (!mightBeRevoked(certificateAuthority, serialNumber)) {
+			LOG.debug("not revoked according to revocation filter");
+			revocationDate = null;
+		} else {
+			RevokedCertificateEntity revokedCertificate = findRevokedCertificate(
+					issuerName, serialNumber);
+			revocationDate = null == revokedCertificate ? null
+					: revokedCertificate.getRevocationDate();
+		}
+		return getTrustLinkerResult(childCertificate, revocationDate,
+				validationDate);
+	}
+
+	private TrustLinkerResult getTrustLinkerResult(
+			X509Certificate childCertificate, Date revocationDate,
+			Date validationDate) {
+
+		if (null == revocationDate) {
 			LOG.debug("certificate valid: "
 					+ childCertificate.getSubjectX500Principal());
 			return new TrustLinkerResult(true);
 		}
-		if (revokedCertificate.getRevocationDate().after(validationDate)) {
+		if (revocationDate.after(validationDate)) {
 			LOG.debug("CRL OK for: "
 					+ childCertificate.getSubjectX500Principal() + " at "
 					+ validationDate);
@@ -183,7 +205,25 @@ public class TrustServiceTrustLinker implements TrustLinker {
 				"certificate revoked by cached CRL");
 	}
 
-	private String getCrlUrl(X509Certificate childCertificate) {
+	private boolean mightBeRevoked(
+			CertificateAuthorityEntity certificateAuthority,
+			BigInteger serialNumber) {
+
+		RevocationFilter revocationFilter = this.revocationIndexService
+				.findFilter(certificateAuthority.getName());
+		if (null == revocationFilter
+				|| !certificateAuthority.getThisUpdate().equals(
+						revocationFilter.getThisUpdate())) {
+			return true;
+		}
+		return revocationFilter.mightContain(serialNumber);
+	}
+
+	/**
+	 * Returns the CRL URL of the issuer of the specified certificate, or
+	 * <code>null</code> if not available.
+	 */
+	static String getCrlUrl(X509Certificate childCertificate) {
 
 		URI crlUri = CrlTrustLinker.getCrlUri(childCertificate);
 		if (null == crlUri) {
@@ -199,19 +239,6 @@ public class TrustServiceTrustLinker implements TrustLinker {
 		}
 	}
 
-	private void logAudit(String message) {
-
-		try {
-			InitialContext initialContext = new InitialContext();
-			AuditDAO auditDAO = (AuditDAO) initialContext
-					.lookup(AuditDAO.JNDI_BINDING);
-			auditDAO.logAudit(message);
-		} catch (NamingException e) {
-			LOG.error("Failed to log audit message: " + message, e);
-		}
-
-	}
-
 	private RevokedCertificateEntity findRevokedCertificate(String issuer,
 			BigInteger serialNumber) {
 
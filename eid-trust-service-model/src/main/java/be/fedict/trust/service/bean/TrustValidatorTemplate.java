@@ -0,0 +1,337 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import be.fedict.trust.CertificateConstraint;
+import be.fedict.trust.FallbackTrustLinker;
+import be.fedict.trust.PublicKeyTrustLinker;
+import be.fedict.trust.RevocationData;
+import be.fedict.trust.TrustLinker;
+import be.fedict.trust.TrustValidator;
+import be.fedict.trust.constraints.CertificatePoliciesCertificateConstraint;
+import be.fedict.trust.constraints.DistinguishedNameCertificateConstraint;
+import be.fedict.trust.constraints.EndEntityCertificateConstraint;
+import be.fedict.trust.constraints.KeyUsageCertificateConstraint;
+import be.fedict.trust.constraints.QCStatementsCertificateConstraint;
+import be.fedict.trust.crl.CrlRepository;
+import be.fedict.trust.crl.CrlTrustLinker;
+import be.fedict.trust.ocsp.OcspRepository;
+import be.fedict.trust.ocsp.OcspTrustLinker;
+import be.fedict.trust.service.SnmpConstants;
+import be.fedict.trust.service.entity.TrustDomainEntity;
+import be.fedict.trust.service.entity.constraints.CertificateConstraintEntity;
+import be.fedict.trust.service.entity.constraints.DNConstraintEntity;
+import be.fedict.trust.service.entity.constraints.EndEntityConstraintEntity;
+import be.fedict.trust.service.entity.constraints.KeyUsageConstraintEntity;
+import be.fedict.trust.service.entity.constraints.PolicyConstraintEntity;
+import be.fedict.trust.service.entity.constraints.QCStatementsConstraintEntity;
+
+/**
+ * Immutable, precompiled {@link TrustValidator} configuration for a single
+ * {@link TrustDomainEntity}.
+ *
+ * The trust point certificates, the certificate constraints and the stateless
+ * trust linkers are built once per trust domain version. Only the
+ * {@link TrustValidator} itself, which holds the per-request result, is
+ * created for every validation.
+ */
+public class TrustValidatorTemplate {
+
+	private final String trustDomainName;
+
+	private final boolean useCaching;
+
+	private final long version;
+
+	private final TrustDomainCertificateRepository certificateRepository;
+
+	private final List<CertificateConstraint> certificateConstraints;
+
+	private final TrustLinkMemo trustLinkMemo;
+
+	private final TrustLinker publicKeyTrustLinker;
+
+	private final TrustLinker onlineTrustLinker;
+
+	private final TrustLinker fallbackTrustLinker;
+
+	/**
+	 * Main constructor. Should be invoked within a transaction as the lazy
+	 * relationships of the {@link TrustDomainEntity} are read out.
+	 *
+	 * @param trustDomain
+	 *            the attached trust domain.
+	 * @param version
+	 *            the trust domain configuration version this template was
+	 *            compiled for.
+	 * @param ocspRepository
+	 *            the shared OCSP repository used for online OCSP checks.
+	 * @param crlRepository
+	 *            the shared CRL repository used for online CRL checks.
+	 * @param trustLinkTtl
+	 *            the maximum time in seconds an intermediate CA trust link
+	 *            result is memoized.
+	 * @param revocationHedging
+	 *            the hedging configuration of the online OCSP and CRL checks.
+	 * @param validationResultCache
+	 *            the source of the CRL epochs the memoized trust links are
+	 *            bound to.
+	 */
+	public TrustValidatorTemplate(TrustDomainEntity trustDomain, long version,
+			OcspRepository ocspRepository, CrlRepository crlRepository,
+			int trustLinkTtl, RevocationHedgingBean revocationHedging,
+			ValidationResultCacheBean validationResultCache) {
+
+		this.trustDomainName = trustDomain.getName();
+		this.useCaching = trustDomain.isUseCaching();
+		this.version = version;
+		this.certificateRepository = new TrustDomainCertificateRepository(
+				trustDomain);
+		this.certificateConstraints = Collections
+				.unmodifiableList(compileConstraints(trustDomain));
+
+		this.trustLinkMemo = new TrustLinkMemo(version, trustLinkTtl,
+				validationResultCache);
+		this.publicKeyTrustLinker = this.trustLinkMemo.memoize("public-key",
+				new PublicKeyTrustLinker());
+		OcspTrustLinker ocspTrustLinker = new OcspTrustLinker(
+				this.trustLinkMemo.observe(ocspRepository));
+		CrlTrustLinker crlTrustLinker = new CrlTrustLinker(
+				this.trustLinkMemo.observe(crlRepository));
+		if (revocationHedging.isHedging()) {
+			HedgedTrustLinker hedgedTrustLinker = new HedgedTrustLinker(
+					revocationHedging);
+			hedgedTrustLinker.addTrustLinker(ocspTrustLinker,
+					SnmpConstants.REVOCATION_HEDGE_WINS_OCSP);
+			hedgedTrustLinker.addTrustLinker(crlTrustLinker,
+					SnmpConstants.REVOCATION_HEDGE_WINS_CRL);
+			this.onlineTrustLinker = hedgedTrustLinker;
+		} else {
+			FallbackTrustLinker fallbackTrustLinker = new FallbackTrustLinker();
+			fallbackTrustLinker.addTrustLinker(ocspTrustLinker);
+			fallbackTrustLinker.addTrustLinker(crlTrustLinker);
+			this.onlineTrustLinker = fallbackTrustLinker;
+		}
+		this.fallbackTrustLinker = this.trustLinkMemo.memoize("online",
+				this.onlineTrustLinker);
+	}
+
+	public String getTrustDomainName() {
+		return this.trustDomainName;
+	}
+
+	public boolean isUseCaching() {
+		return this.useCaching;
+	}
+
+	public long getVersion() {
+		return this.version;
+	}
+
+	public TrustDomainCertificateRepository getCertificateRepository() {
+		return this.certificateRepository;
+	}
+
+	/**
+	 * Returns new {@link TrustValidator} using the precompiled online
+	 * revocation trust linkers. The intermediate CA trust links are
+	 * memoized, see {@link TrustLinkMemo}.
+	 *
+	 * @param trustLinker
+	 *            optional trust linker that is consulted before the online
+	 *            OCSP and CRL trust linkers. Can be <code>null</code>.
+	 * @param returnRevocationData
+	 *            if <code>true</code> the used revocation data will be filled
+	 *            in the returned {@link TrustValidator}.
+	 */
+	public TrustValidator createTrustValidator(TrustLinker trustLinker,
+			boolean returnRevocationData) {
+
+		return createTrustValidator(getRevocationTrustLinker(trustLinker),
+				returnRevocationData ? new RevocationData() : null);
+	}
+
+	/**
+	 * Returns the precompiled online revocation trust linker, memoizing the
+	 * intermediate CA trust links.
+	 *
+	 * @param trustLinker
+	 *            optional trust linker that is consulted before the online
+	 *            OCSP and CRL trust linkers. Can be <code>null</code>.
+	 */
+	public TrustLinker getRevocationTrustLinker(TrustLinker trustLinker) {
+
+		if (null == trustLinker) {
+			return this.fallbackTrustLinker;
+		}
+		FallbackTrustLinker fallbackTrustLinker = new FallbackTrustLinker();
+		fallbackTrustLinker.addTrustLinker(trustLinker);
+		fallbackTrustLinker.addTrustLinker(this.onlineTrustLinker);
+		return this.trustLinkMemo.memoize("cached", fallbackTrustLinker);
+	}
+
+	/**
+	 * Returns new {@link TrustValidator} using the specified revocation trust
+	 * linker instead of the precompiled online ones.
+	 *
+	 * @param revocationTrustLinker
+	 *            the trust linker responsible for the revocation checks.
+	 * @param revocationData
+	 *            optional revocation data container. Can be <code>null</code>.
+	 */
+	public TrustValidator createTrustValidator(
+			TrustLinker revocationTrustLinker, RevocationData revocationData) {
+
+		TrustValidator trustValidator;
+		if (null != revocationData) {
+			trustValidator = new TrustValidator(this.certificateRepository,
+					revocationData);
+		} else {
+			trustValidator = new TrustValidator(this.certificateRepository);
+		}
+		trustValidator.addTrustLinker(this.publicKeyTrustLinker);
+		trustValidator.addTrustLinker(revocationTrustLinker);
+		for (CertificateConstraint certificateConstraint : this.certificateConstraints) {
+			trustValidator.addCertificateConstrain(certificateConstraint);
+		}
+		return trustValidator;
+	}
+
+	/**
+	 * Compiles the certificate constraints according to the specified
+	 * {@link TrustDomainEntity}'s configuration.
+	 */
+	private static List<CertificateConstraint> compileConstraints(
+			TrustDomainEntity trustDomain) {
+
+		List<CertificateConstraint> certificateConstraints = new LinkedList<CertificateConstraint>();
+
+		CertificatePoliciesCertificateConstraint certificatePoliciesCertificateConstraint = null;
+		KeyUsageCertificateConstraint keyUsageCertificateConstraint = null;
+		EndEntityCertificateConstraint endEntityCertificateConstraint = null;
+		for (CertificateConstraintEntity certificateConstraint : trustDomain
+				.getCertificateConstraints()) {
+
+			if (certificateConstraint instanceof PolicyConstraintEntity) {
+
+				PolicyConstraintEntity policyConstraint = (PolicyConstraintEntity) certificateConstraint;
+				if (null == certificatePoliciesCertificateConstraint) {
+					certificatePoliciesCertificateConstraint = new CertificatePoliciesCertificateConstraint();
+				}
+				certificatePoliciesCertificateConstraint
+						.addCertificatePolicy(policyConstraint.getPolicy());
+
+			} else if (certificateConstraint instanceof KeyUsageConstraintEntity) {
+
+				KeyUsageConstraintEntity keyUsageConstraint = (KeyUsageConstraintEntity) certificateConstraint;
+				if (null == keyUsageCertificateConstraint) {
+					keyUsageCertificateConstraint = new KeyUsageCertificateConstraint();
+				}
+				switch (keyUsageConstraint.getKeyUsage()) {
+				case DIGITAL_SIGNATURE: {
+					keyUsageCertificateConstraint
+							.setDigitalSignatureFilter(keyUsageConstraint
+									.isAllowed());
+					break;
+				}
+				case NON_REPUDIATION: {
+					keyUsageCertificateConstraint
+							.setNonRepudiationFilter(keyUsageConstraint
+									.isAllowed());
+					break;
+				}
+				case KEY_ENCIPHERMENT: {
+					keyUsageCertificateConstraint
+							.setKeyEnciphermentFilter(keyUsageConstraint
+									.isAllowed());
+				}
+				case DATA_ENCIPHERMENT: {
+					keyUsageCertificateConstraint
+							.setDataEnciphermentFilter(keyUsageConstraint
+									.isAllowed());
+				}
+				case KEY_AGREEMENT: {
+					keyUsageCertificateConstraint
+							.setKeyAgreementFilter(keyUsageConstraint
+									.isAllowed());
+				}
+				case KEY_CERT_SIGN: {
+					keyUsageCertificateConstraint
+							.setKeyCertificateSigningFilter(keyUsageConstraint
+									.isAllowed());
+				}
+				case CRL_SIGN: {
+					keyUsageCertificateConstraint
+							.setCRLSigningFilter(keyUsageConstraint.isAllowed());
+				}
+				case ENCIPHER_ONLY: {
+					keyUsageCertificateConstraint
+							.setEncipherOnlyFilter(keyUsageConstraint
+									.isAllowed());
+				}
+				case DECIPHER_ONLY: {
+					keyUsageCertificateConstraint
+							.setDecipherOnlyFilter(keyUsageConstraint
+									.isAllowed());
+				}
+				}
+
+			} else if (certificateConstraint instanceof QCStatementsConstraintEntity) {
+
+				QCStatementsConstraintEntity qcStatementsConstraint = (QCStatementsConstraintEntity) certificateConstraint;
+				certificateConstraints
+						.add(new QCStatementsCertificateConstraint(
+								qcStatementsConstraint.getQcComplianceFilter()));
+
+			} else if (certificateConstraint instanceof DNConstraintEntity) {
+
+				DNConstraintEntity dnConstraint = (DNConstraintEntity) certificateConstraint;
+				certificateConstraints
+						.add(new DistinguishedNameCertificateConstraint(
+								dnConstraint.getDn()));
+
+			} else if (certificateConstraint instanceof EndEntityConstraintEntity) {
+
+				EndEntityConstraintEntity endEntityConstraint = (EndEntityConstraintEntity) certificateConstraint;
+				if (null == endEntityCertificateConstraint) {
+					endEntityCertificateConstraint = new EndEntityCertificateConstraint();
+				}
+				endEntityCertificateConstraint.addEndEntity(
+						endEntityConstraint.getIssuerName(),
+						endEntityConstraint.getSerialNumber());
+			}
+		}
+
+		if (null != certificatePoliciesCertificateConstraint) {
+			certificateConstraints
+					.add(certificatePoliciesCertificateConstraint);
+		}
+		if (null != keyUsageCertificateConstraint) {
+			certificateConstraints.add(keyUsageCertificateConstraint);
+		}
+		if (null != endEntityCertificateConstraint) {
+			certificateConstraints.add(endEntityCertificateConstraint);
+		}
+		return certificateConstraints;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.service.ValidationResult;
+
+/**
+ * Coalesces identical validation requests that are in flight at the same
+ * time.
+ *
+ * The first request for a key becomes the leader and validates. Requests for
+ * the same key arriving while the leader is busy become followers and wait
+ * for the leader's result, for a bounded time. If the leader fails or takes
+ * too long, the followers get no result and validate by themselves.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ValidationCoalescerBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(ValidationCoalescerBean.class);
+
+	private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+	/**
+	 * Joins the in-flight validation for the specified key, or starts a new
+	 * one of which the caller is the leader. The leader must invoke
+	 * {@link #leave(Flight, ValidationResult)} when done, also on failure.
+	 */
+	public Flight join(String key) {
+
+		Flight flight = new Flight(key);
+		Flight existingFlight = this.flights.putIfAbsent(key, flight);
+		if (null != existingFlight) {
+			LOG.debug("joining in-flight validation");
+			return new Flight(existingFlight);
+		}
+		return flight;
+	}
+
+	/**
+	 * Ends the flight, handing over the result to the followers.
+	 *
+	 * @param result
+	 *            the validation result, or <code>null</code> if the leader
+	 *            failed.
+	 */
+	public void leave(Flight flight, ValidationResult result) {
+
+		if (!flight.isLeader()) {
+			throw new IllegalArgumentException("not the leader of the flight");
+		}
+		this.flights.remove(flight.key, flight);
+		flight.result = result;
+		flight.done.countDown();
+	}
+
+	/**
+	 * A single in-flight validation, as joined by either its leader or a
+	 * follower.
+	 */
+	public static final class Flight {
+
+		private final String key;
+
+		private final Flight leaderFlight;
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile ValidationResult result;
+
+		Flight(String key) {
+			this.key = key;
+			this.leaderFlight = this;
+		}
+
+		Flight(Flight leaderFlight) {
+			this.key = leaderFlight.key;
+			this.leaderFlight = leaderFlight;
+		}
+
+		/**
+		 * Returns <code>true</code> if this flight was joined as the leader.
+		 */
+		public boolean isLeader() {
+			return this == this.leaderFlight;
+		}
+
+		/**
+		 * Waits for the leader's result.
+		 *
+		 * @param timeout
+		 *            the maximum time to wait in milliseconds.
+		 * @return the result, or <code>null</code> if the leader failed or did
+		 *         not finish in time.
+		 */
+		public ValidationResult await(long timeout) {
+			try {
+				if (!this.leaderFlight.done.await(timeout,
+						TimeUnit.MILLISECONDS)) {
+					LOG.debug("in-flight validation timed out");
+					return null;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			return this.leaderFlight.result;
+		}
+	}
+}
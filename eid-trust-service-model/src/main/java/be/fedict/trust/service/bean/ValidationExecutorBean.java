@@ -0,0 +1,89 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.util.concurrent.Executor;
+
+import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+
+/**
+ * Runs the concurrent parts of a validation as container managed
+ * asynchronous invocations: the validations of the member trust domains of
+ * a virtual trust domain, the revocation checks of the links of a
+ * certificate chain and the hedged online revocation checks.
+ *
+ * Every task thereby runs within its own transaction and with the EE context
+ * of the container, so the trust linkers can use the entity manager, the
+ * EJB's and the JMS notifications as on the requesting thread. The size of
+ * the pool is the one of the container's asynchronous invocation pool.
+ *
+ * Tasks are handed over as {@link java.util.concurrent.FutureTask}'s. A
+ * thread waiting for a task that the container did not pick up yet runs it
+ * itself, so a saturated pool never blocks a validation. Tasks are never
+ * interrupted, they are cancelled via <code>cancel(false)</code> so a task
+ * that is busy within JDBC or HTTP I/O simply runs to completion.
+ */
+@Stateless
+public class ValidationExecutorBean {
+
+	@Resource
+	private SessionContext sessionContext;
+
+	@Resource(name = "parallelRevocation")
+	private Boolean parallelRevocation = false;
+
+	/**
+	 * Runs the specified task on the container's asynchronous invocation
+	 * pool. Only to be invoked via the EJB proxy, see {@link #getExecutor()}.
+	 */
+	@Asynchronous
+	public void execute(Runnable task) {
+
+		task.run();
+	}
+
+	/**
+	 * Returns an {@link Executor} handing over its tasks to
+	 * {@link #execute(Runnable)}.
+	 */
+	public Executor getExecutor() {
+
+		final ValidationExecutorBean validationExecutor = this.sessionContext
+				.getBusinessObject(ValidationExecutorBean.class);
+		return new Executor() {
+
+			public void execute(Runnable task) {
+				validationExecutor.execute(task);
+			}
+		};
+	}
+
+	/**
+	 * Returns <code>true</code> if the revocation status of the links of a
+	 * certificate chain are to be resolved concurrently, see
+	 * {@link ParallelRevocationTrustLinker}.
+	 */
+	public boolean isParallelRevocation() {
+
+		return this.parallelRevocation;
+	}
+}
@@ -0,0 +1,368 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.bean;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.service.ValidationResult;
+import be.fedict.trust.service.dao.CertificateAuthorityDAO;
+
+/**
+ * Singleton cache of validation results, for validations that do not return
+ * the revocation data.
+ *
+ * Results are keyed by the SHA-256 fingerprint of the certificate chain and
+ * the trust domain name. Every result is tagged with the trust domain
+ * configuration version and the CRL epoch of every CA in the chain. The CRL
+ * epoch of a CA is the CRL number and hash of its active CRL as persisted by
+ * the harvester, so all nodes of a cluster agree on it. A cached result is
+ * not served after a newer CRL became active.
+ *
+ * The CRL epochs are read from the database at most once per refresh
+ * interval. The node running the harvest re-reads them as soon as the new
+ * CRL is committed, the other nodes within the refresh interval.
+ *
+ * Valid results are cached for a configurable time, invalid results for a
+ * shorter one. The number of cached results is bounded, the oldest results
+ * are evicted first. A maximum of 0 disables the cache.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ValidationResultCacheBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(ValidationResultCacheBean.class);
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	@Resource(name = "maxEntries")
+	private Integer maxEntries = 10000;
+
+	@Resource(name = "validTtl")
+	private Integer validTtl = 300;
+
+	@Resource(name = "invalidTtl")
+	private Integer invalidTtl = 30;
+
+	@Resource(name = "crlEpochRefresh")
+	private Integer crlEpochRefresh = 10;
+
+	@EJB
+	private CertificateAuthorityDAO certificateAuthorityDAO;
+
+	private final ConcurrentMap<String, CachedResult> results = new ConcurrentHashMap<String, CachedResult>();
+
+	private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<String>();
+
+	private final AtomicInteger insertionOrderSize = new AtomicInteger();
+
+	private volatile Map<String, String> crlEpochs = Collections.emptyMap();
+
+	private volatile long crlEpochsExpiry;
+
+	private final AtomicLong crlEpochsInvalidations = new AtomicLong();
+
+	private final Lock crlEpochsRefreshLock = new ReentrantLock();
+
+	/**
+	 * Looks up the cached validation result of the specified certificate
+	 * chain. The returned {@link Lookup} is to be passed to
+	 * {@link #put(Lookup, ValidationResult)} on a miss, as it holds the CRL
+	 * epochs taken before validating.
+	 *
+	 * @param version
+	 *            the version of the trust configuration snapshot the chain is
+	 *            validated against, see
+	 *            {@link TrustDomainCacheBean#getSnapshot()}.
+	 * @return the lookup, or <code>null</code> if the cache is disabled.
+	 */
+	public Lookup lookup(String trustDomainName,
+			List<X509Certificate> certificateChain, long version) {
+
+		if (0 == this.maxEntries) {
+			return null;
+		}
+
+		String key;
+		try {
+			key = getKey(trustDomainName, certificateChain);
+		} catch (CertificateEncodingException e) {
+			LOG.error("certificate encoding error: " + e.getMessage(), e);
+			return null;
+		}
+
+		Map<String, String> crlEpochs = getCrlEpochs();
+		String[] caNames = new String[certificateChain.size()];
+		String[] epochs = new String[certificateChain.size()];
+		for (int idx = 0; idx < caNames.length; idx++) {
+			caNames[idx] = certificateChain.get(idx).getIssuerX500Principal()
+					.toString();
+			epochs[idx] = getCrlEpoch(crlEpochs, caNames[idx]);
+		}
+		Lookup lookup = new Lookup(key, version, caNames, epochs);
+
+		CachedResult cachedResult = this.results.get(key);
+		if (null != cachedResult) {
+			if (cachedResult.isCurrent(lookup)) {
+				lookup.result = cachedResult.result;
+			} else {
+				this.results.remove(key, cachedResult);
+			}
+		}
+		return lookup;
+	}
+
+	/**
+	 * Caches the validation result of a missed lookup.
+	 */
+	public void put(Lookup lookup, ValidationResult result) {
+
+		long ttl = result.isValid() ? this.validTtl : this.invalidTtl;
+		if (0 == ttl) {
+			return;
+		}
+		if (null == this.results.put(lookup.key, new CachedResult(lookup,
+				result, System.currentTimeMillis() + ttl * 1000L))) {
+			this.insertionOrder.offer(lookup.key);
+			this.insertionOrderSize.incrementAndGet();
+		}
+		/*
+		 * Invalidated keys stay in the insertion order queue, so it is bounded
+		 * as well.
+		 */
+		while (this.results.size() > this.maxEntries
+				|| this.insertionOrderSize.get() > 2 * this.maxEntries) {
+			String evictKey = this.insertionOrder.poll();
+			if (null == evictKey) {
+				break;
+			}
+			this.insertionOrderSize.decrementAndGet();
+			this.results.remove(evictKey);
+		}
+	}
+
+	/**
+	 * Makes this node re-read the CRL epochs, so the cached results of the
+	 * certificates issued by the specified CA are invalidated. Should be
+	 * invoked when a new CRL of the CA is activated or when the CA is removed.
+	 * If a transaction is active, the CRL epochs are re-read again after
+	 * completion, as only then the new CRL epoch is visible. The other nodes
+	 * pick up the new CRL epoch within the refresh interval.
+	 */
+	public void crlActivated(final String caName) {
+
+		LOG.debug("CRL activated: " + caName);
+		invalidateCrlEpochs();
+
+		if (null == this.transactionSynchronizationRegistry
+				.getTransactionKey()) {
+			return;
+		}
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new Synchronization() {
+
+					public void beforeCompletion() {
+						// empty
+					}
+
+					public void afterCompletion(int status) {
+						invalidateCrlEpochs();
+					}
+				});
+	}
+
+	/**
+	 * Returns the CRL epoch of the specified CA, derived from the persisted
+	 * CRL number and hash of its active CRL.
+	 */
+	public String getCrlEpoch(String caName) {
+
+		return getCrlEpoch(getCrlEpochs(), caName);
+	}
+
+	private String getCrlEpoch(Map<String, String> crlEpochs, String caName) {
+
+		String crlEpoch = crlEpochs.get(caName);
+		if (null == crlEpoch) {
+			return "";
+		}
+		return crlEpoch;
+	}
+
+	private void invalidateCrlEpochs() {
+
+		this.crlEpochsInvalidations.incrementAndGet();
+		this.crlEpochsExpiry = 0;
+	}
+
+	/**
+	 * Returns the CRL epochs of all CA's, re-read from the database when the
+	 * refresh interval passed or when invalidated. Only one thread re-reads
+	 * them, the others keep using the previous CRL epochs meanwhile.
+	 */
+	private Map<String, String> getCrlEpochs() {
+
+		if (System.currentTimeMillis() < this.crlEpochsExpiry
+				|| !this.crlEpochsRefreshLock.tryLock()) {
+			return this.crlEpochs;
+		}
+		try {
+			long now = System.currentTimeMillis();
+			if (now < this.crlEpochsExpiry) {
+				return this.crlEpochs;
+			}
+			long invalidations = this.crlEpochsInvalidations.get();
+			Map<String, String> crlEpochs = this.certificateAuthorityDAO
+					.getCrlVersions();
+			this.crlEpochs = crlEpochs;
+			/*
+			 * Stays expired if invalidated while reading, as the read may
+			 * predate the commit of the new CRL.
+			 */
+			if (invalidations == this.crlEpochsInvalidations.get()) {
+				this.crlEpochsExpiry = now + this.crlEpochRefresh * 1000L;
+			}
+			return crlEpochs;
+		} finally {
+			this.crlEpochsRefreshLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the key of the specified certificate chain within the trust
+	 * domain.
+	 */
+	static String getKey(String trustDomainName,
+			List<X509Certificate> certificateChain)
+			throws CertificateEncodingException {
+
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 not supported", e);
+		}
+		for (X509Certificate certificate : certificateChain) {
+			messageDigest.update(certificate.getEncoded());
+		}
+		return Hex.encodeHexString(messageDigest.digest()) + ":"
+				+ (null == trustDomainName ? "" : trustDomainName);
+	}
+
+	/**
+	 * Result of a cache lookup, holding the tags the validation result will be
+	 * cached with.
+	 */
+	public static final class Lookup {
+
+		private final String key;
+
+		private final long version;
+
+		private final String[] caNames;
+
+		private final String[] epochs;
+
+		private ValidationResult result;
+
+		Lookup(String key, long version, String[] caNames, String[] epochs) {
+			this.key = key;
+			this.version = version;
+			this.caNames = caNames;
+			this.epochs = epochs;
+		}
+
+		String getKey() {
+			return this.key;
+		}
+
+		/**
+		 * Returns the cached validation result, or <code>null</code> on a
+		 * miss.
+		 */
+		public ValidationResult getResult() {
+			return this.result;
+		}
+	}
+
+	private static final class CachedResult {
+
+		private final long version;
+
+		private final String[] caNames;
+
+		private final String[] epochs;
+
+		private final ValidationResult result;
+
+		private final long expiry;
+
+		CachedResult(Lookup lookup, ValidationResult result, long expiry) {
+			this.version = lookup.version;
+			this.caNames = lookup.caNames;
+			this.epochs = lookup.epochs;
+			this.result = result;
+			this.expiry = expiry;
+		}
+
+		boolean isCurrent(Lookup lookup) {
+
+			if (System.currentTimeMillis() >= this.expiry) {
+				return false;
+			}
+			if (this.version != lookup.version) {
+				return false;
+			}
+			for (int idx = 0; idx < this.epochs.length; idx++) {
+				if (!this.caNames[idx].equals(lookup.caNames[idx])
+						|| !this.epochs[idx].equals(lookup.epochs[idx])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -35,6 +35,8 @@ import be.fedict.trust.service.entity.CertificateAuthorityEntity;
 import be.fedict.trust.service.entity.RevokedCertificateEntity;
 import be.fedict.trust.service.entity.RevokedCertificatePK;
 import be.fedict.trust.service.entity.Status;
+import be.fedict.trust.service.util.RevocationFilter;
+import be.fedict.trust.service.util.RevocationIndex;
 
 /**
  * Validation Service implementation.
@@ -56,21 +58,30 @@ public class ValidationServiceBean implements ValidationService {
 	@EJB
 	private ServiceIdentityManagerBean serviceIdentityManagerBean;
 
+	@EJB
+	private RevocationIndexServiceBean revocationIndexService;
+
 	public Date validate(BigInteger serialNumber, byte[] issuerNameHash,
 			byte[] issuerKeyHash) {
 		LOG.debug("validate");
 		Date unknownRevocationDate = new Date();
-		CertificateAuthorityEntity certificateAuthority = this.certificateAuthorityLookupBean
-				.lookup(issuerNameHash, issuerKeyHash);
-		if (null == certificateAuthority) {
+		String caName = this.certificateAuthorityLookupBean
+				.lookupName(issuerNameHash);
+		if (null == caName) {
 			LOG.error("no certificate authority found");
 			return unknownRevocationDate;
 		}
-		String caName = certificateAuthority.getName();
 		LOG.debug("CA: " + caName);
+		Date validationDate = new Date();
+
+		CertificateAuthorityEntity certificateAuthority = this.entityManager
+				.find(CertificateAuthorityEntity.class, caName);
+		if (null == certificateAuthority) {
+			LOG.error("no certificate authority found");
+			return unknownRevocationDate;
+		}
 		Date thisUpdate = certificateAuthority.getThisUpdate();
 		Date nextUpdate = certificateAuthority.getNextUpdate();
-		Date validationDate = new Date();
 		if (Status.ACTIVE != certificateAuthority.getStatus()) {
 			LOG.debug("CRL cache not active for CA: " + caName);
 			return unknownRevocationDate;
@@ -83,6 +94,18 @@ public class ValidationServiceBean implements ValidationService {
 			LOG.debug("validation date after next update: " + caName);
 			return unknownRevocationDate;
 		}
+		RevocationIndex revocationIndex = this.revocationIndexService
+				.loadIndex(certificateAuthority);
+		if (null != revocationIndex) {
+			return revocationIndex.findRevocationDate(serialNumber);
+		}
+		RevocationFilter revocationFilter = this.revocationIndexService
+				.findFilter(caName);
+		if (null != revocationFilter
+				&& thisUpdate.equals(revocationFilter.getThisUpdate())
+				&& !revocationFilter.mightContain(serialNumber)) {
+			return null;
+		}
 		RevokedCertificateEntity revokedCertificate = this.entityManager.find(
 				RevokedCertificateEntity.class, new RevokedCertificatePK(
 						caName, serialNumber.toString()));
@@ -32,6 +32,8 @@ import javax.security.auth.x500.X500Principal;
 import be.fedict.trust.service.entity.CertificateAuthorityEntity;
 import be.fedict.trust.service.entity.RevokedCertificateEntity;
 import be.fedict.trust.service.entity.TrustPointEntity;
+import be.fedict.trust.service.util.CrlEntryCursor;
+import be.fedict.trust.service.util.RevocationIndex;
 
 /**
  * Certificate Authority DAO.
@@ -75,38 +77,42 @@ public interface CertificateAuthorityDAO {
 			BigInteger serialNumber, Date revocationDate, BigInteger crlNumber);
 
 	/**
-	 * Remove {@link RevokedCertificateEntity}'s for the specified issuer that
-	 * are older then the specified crl number.
-	 * 
-	 * @return # of {@link RevokedCertificateEntity}'s removed.
-	 */
-	int removeOldRevokedCertificates(BigInteger crlNumber, String issuerName);
-
-	/**
-	 * Persist batch of {@link X509CRLEntry} to the database.
+	 * Persist batch of {@link X509CRLEntry} to the database, within the
+	 * caller's transaction.
 	 */
 	void updateRevokedCertificates(Set<X509CRLEntry> revokedCertificates,
 			BigInteger crlNumber, X500Principal crlIssuer);
 
 	/**
-	 * Persist a batch of CRL entries to the database given the map of already
-	 * loaded database entities.
+	 * Brings the cached {@link RevokedCertificateEntity}'s of the specified
+	 * issuer in line with the entries of a new CRL. Only inserts, updates and
+	 * deletes the differing entries. Clears the persistence context while
+	 * doing so, so previously loaded entities should be looked up again.
 	 * 
-	 * @param revokedCertificates
+	 * @param issuerName
+	 *            the CRL issuer.
+	 * @param crlEntries
+	 *            the issuer's CRL entries, sorted as specified by
+	 *            {@link CrlEntryCursor}.
 	 * @param crlNumber
-	 * @param crlIssuer
-	 * @param revokedCertificateEntities
+	 *            the CRL number, stored on inserted and updated entries.
+	 * @return # of inserted, updated and deleted
+	 *         {@link RevokedCertificateEntity}'s.
 	 */
-	void updateRevokedCertificates(Set<X509CRLEntry> revokedCertificates,
-			BigInteger crlNumber, X500Principal crlIssuer,
-			Map<String, RevokedCertificateEntity> revokedCertificatesMap);
+	int mergeRevokedCertificates(String issuerName, CrlEntryCursor crlEntries,
+			BigInteger crlNumber);
 
 	/**
 	 * Remove all {@link RevokedCertificateEntity}'s for specified issuer.
 	 */
 	int removeRevokedCertificates(String issuerName);
 
-	List<RevokedCertificateEntity> getRevokedCertificates(String issuerName);
+	/**
+	 * Builds the {@link RevocationIndex} of the specified CA from the cached
+	 * revoked certificates, without loading the entities themselves.
+	 */
+	RevocationIndex getRevocationIndex(
+			CertificateAuthorityEntity certificateAuthority);
 
 	/**
 	 * @param issuerName
@@ -118,6 +124,15 @@ public interface CertificateAuthorityDAO {
 
 	List<CertificateAuthorityEntity> listCertificateAuthorities();
 
+	/**
+	 * Gives back the version of the active CRL of every CA, made up of the
+	 * persisted CRL number and CRL hash, without loading the entities. All
+	 * cluster nodes see the same versions.
+	 * 
+	 * @return map of CA name to CRL version.
+	 */
+	Map<String, String> getCrlVersions();
+
 	long getTotalCachedCertificates();
 
 	long getTotalActiveCachedCAs();
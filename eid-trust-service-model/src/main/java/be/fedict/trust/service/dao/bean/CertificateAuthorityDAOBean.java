@@ -20,13 +20,18 @@ package be.fedict.trust.service.dao.bean;
 
 import java.math.BigInteger;
 import java.security.cert.CertificateEncodingException;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
@@ -35,15 +40,23 @@ import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.security.auth.x500.X500Principal;
+import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.SessionFactoryImplementor;
 
 import be.fedict.trust.service.dao.CertificateAuthorityDAO;
 import be.fedict.trust.service.entity.CertificateAuthorityEntity;
 import be.fedict.trust.service.entity.RevokedCertificateEntity;
 import be.fedict.trust.service.entity.RevokedCertificatePK;
 import be.fedict.trust.service.entity.TrustPointEntity;
+import be.fedict.trust.service.hibernate.dialect.UpsertDialect;
+import be.fedict.trust.service.util.CrlEntryCursor;
+import be.fedict.trust.service.util.RevocationDiff;
+import be.fedict.trust.service.util.RevocationIndex;
 
 /**
  * Certificate Authority DAO Bean implementation.
@@ -56,9 +69,23 @@ public class CertificateAuthorityDAOBean implements CertificateAuthorityDAO {
 	private static final Log LOG = LogFactory
 			.getLog(CertificateAuthorityDAOBean.class);
 
+	private static final int MERGE_PAGE_SIZE = 1000;
+
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+
 	@PersistenceContext
 	private EntityManager entityManager;
 
+	@Resource(mappedName = "java:/DefaultDS")
+	private DataSource dataSource;
+
+	/**
+	 * Number of revoked certificate changes sent per JDBC batch. Configured
+	 * via the <code>ejb-jar.xml</code> environment entry.
+	 */
+	@Resource(name = "revokedCertificateBatchSize")
+	private Integer revokedCertificateBatchSize = DEFAULT_BATCH_SIZE;
+
 	public CertificateAuthorityEntity findCertificateAuthority(String name) {
 		LOG.debug("find CA: " + name);
 		return this.entityManager.find(CertificateAuthorityEntity.class, name);
@@ -106,12 +133,18 @@ public class CertificateAuthorityDAOBean implements CertificateAuthorityDAO {
 		return revokedCertificate;
 	}
 
-	@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+	@TransactionAttribute(TransactionAttributeType.REQUIRED)
 	public void updateRevokedCertificates(
 			Set<X509CRLEntry> revokedCertificates, BigInteger crlNumber,
 			X500Principal crlIssuer) {
 		LOG.debug("Update " + revokedCertificates.size()
 				+ " revoked certificates (crlNumber=" + crlNumber + ")");
+		String upsertSql = getUpsertSql();
+		if (null != upsertSql) {
+			upsertRevokedCertificates(revokedCertificates, crlNumber,
+					crlIssuer, upsertSql);
+			return;
+		}
 		for (X509CRLEntry revokedCertificate : revokedCertificates) {
 			X500Principal certificateIssuer = revokedCertificate
 					.getCertificateIssuer();
@@ -142,13 +175,62 @@ public class CertificateAuthorityDAOBean implements CertificateAuthorityDAO {
 		}
 	}
 
-	// @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-	public void updateRevokedCertificates(
+	public int mergeRevokedCertificates(String issuerName,
+			CrlEntryCursor crlEntries, BigInteger crlNumber) {
+		LOG.debug("merge revoked certificates (issuer=" + issuerName
+				+ ", crlNumber=" + crlNumber + ", batchSize="
+				+ this.revokedCertificateBatchSize + ")");
+		/*
+		 * The batch writer shares the transaction's connection, so pending
+		 * changes of the persistence context should go first.
+		 */
+		this.entityManager.flush();
+		String upsertSql = getUpsertSql();
+		/*
+		 * The cached entries are read back page by page in the order of the
+		 * primary key. Serial numbers are stored as decimal digit strings,
+		 * which every database collation orders the same way as the CRL
+		 * entries. Should the order ever differ anyway, the diff fails and
+		 * the harvest transaction rolls back.
+		 */
+		CrlEntryCursor cachedEntries = new RevokedCertificateCursor(issuerName);
+		int differences;
+		try {
+			Connection connection = this.dataSource.getConnection();
+			try {
+				RevokedCertificateBatchWriter batchWriter = new RevokedCertificateBatchWriter(
+						connection, issuerName, crlNumber,
+						this.revokedCertificateBatchSize, upsertSql);
+				try {
+					differences = RevocationDiff.diff(crlEntries,
+							cachedEntries, batchWriter);
+					batchWriter.flush();
+				} finally {
+					batchWriter.close();
+				}
+			} finally {
+				connection.close();
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("SQL error: " + e.getMessage(), e);
+		} finally {
+			cachedEntries.close();
+		}
+		/*
+		 * Loaded entities might no longer match the database.
+		 */
+		this.entityManager.clear();
+		return differences;
+	}
+
+	/**
+	 * Writes the revoked certificates using the native upsert statement of the
+	 * database, so no lookup per revoked certificate is required.
+	 */
+	private void upsertRevokedCertificates(
 			Set<X509CRLEntry> revokedCertificates, BigInteger crlNumber,
-			X500Principal crlIssuer,
-			Map<String, RevokedCertificateEntity> revokedCertificatesMap) {
-		LOG.debug("Update " + revokedCertificates.size()
-				+ " revoked certificates (crlNumber=" + crlNumber + ")");
+			X500Principal crlIssuer, String upsertSql) {
+		Map<String, List<X509CRLEntry>> issuerRevokedCertificates = new HashMap<String, List<X509CRLEntry>>();
 		for (X509CRLEntry revokedCertificate : revokedCertificates) {
 			X500Principal certificateIssuer = revokedCertificate
 					.getCertificateIssuer();
@@ -158,38 +240,57 @@ public class CertificateAuthorityDAOBean implements CertificateAuthorityDAO {
 			} else {
 				issuerName = certificateIssuer.toString();
 			}
-			BigInteger serialNumber = revokedCertificate.getSerialNumber();
-			Date revocationDate = revokedCertificate.getRevocationDate();
-
-			// lookup
-			RevokedCertificateEntity revokedCertificateEntity = revokedCertificatesMap
-					.get(serialNumber.toString());
+			List<X509CRLEntry> issuerEntries = issuerRevokedCertificates
+					.get(issuerName);
+			if (null == issuerEntries) {
+				issuerEntries = new LinkedList<X509CRLEntry>();
+				issuerRevokedCertificates.put(issuerName, issuerEntries);
+			}
+			issuerEntries.add(revokedCertificate);
+		}
 
-			if (null != revokedCertificateEntity) {
-				// already exists, update revocationDate and crl number
-				revokedCertificateEntity.setRevocationDate(revocationDate);
-				revokedCertificateEntity.setCrlNumber(crlNumber);
-			} else {
-				// don't exist yet, add
-				this.entityManager.persist(new RevokedCertificateEntity(
-						issuerName, serialNumber, revocationDate, crlNumber));
+		this.entityManager.flush();
+		try {
+			Connection connection = this.dataSource.getConnection();
+			try {
+				for (Map.Entry<String, List<X509CRLEntry>> issuerEntries : issuerRevokedCertificates
+						.entrySet()) {
+					RevokedCertificateBatchWriter batchWriter = new RevokedCertificateBatchWriter(
+							connection, issuerEntries.getKey(), crlNumber,
+							this.revokedCertificateBatchSize, upsertSql);
+					try {
+						for (X509CRLEntry revokedCertificate : issuerEntries
+								.getValue()) {
+							batchWriter.upsert(revokedCertificate
+									.getSerialNumber().toString(),
+									revokedCertificate.getRevocationDate());
+						}
+						batchWriter.flush();
+					} finally {
+						batchWriter.close();
+					}
+				}
+			} finally {
+				connection.close();
 			}
+		} catch (SQLException e) {
+			throw new RuntimeException("SQL error: " + e.getMessage(), e);
 		}
 	}
 
-	// @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-	public int removeOldRevokedCertificates(BigInteger crlNumber,
-			String issuerName) {
-		LOG.debug("deleting revoked certificates (issuer=" + issuerName
-				+ " older than crl=" + crlNumber + ")");
-		Query query = this.entityManager
-				.createNamedQuery(RevokedCertificateEntity.DELETE_WHERE_ISSUER_OLDER_CRL_NUMBER);
-		query.setParameter("issuer", issuerName);
-		query.setParameter("crlNumber", crlNumber);
-		int deleteResult = query.executeUpdate();
-		LOG.debug("delete result: " + deleteResult);
-		this.entityManager.flush();
-		return deleteResult;
+	/**
+	 * Returns the native upsert statement of the configured Hibernate dialect,
+	 * or <code>null</code> if the dialect has none.
+	 */
+	private String getUpsertSql() {
+		Session session = (Session) this.entityManager.getDelegate();
+		Dialect dialect = ((SessionFactoryImplementor) session
+				.getSessionFactory()).getDialect();
+		if (dialect instanceof UpsertDialect) {
+			return ((UpsertDialect) dialect)
+					.getRevokedCertificateUpsertString();
+		}
+		return null;
 	}
 
 	public int removeRevokedCertificates(String issuerName) {
@@ -232,6 +333,18 @@ public class CertificateAuthorityDAOBean implements CertificateAuthorityDAO {
 		return (Long) query.getSingleResult();
 	}
 
+	@SuppressWarnings("unchecked")
+	public Map<String, String> getCrlVersions() {
+		Query query = this.entityManager
+				.createNamedQuery(CertificateAuthorityEntity.QUERY_CRL_VERSIONS);
+		Map<String, String> crlVersions = new HashMap<String, String>();
+		for (Object[] row : (List<Object[]>) query.getResultList()) {
+			crlVersions.put((String) row[0], (null == row[1] ? "" : row[1])
+					+ ":" + (null == row[2] ? "" : row[2]));
+		}
+		return crlVersions;
+	}
+
 	public long getTotalActiveCachedCAs() {
 		Query query = this.entityManager
 				.createNamedQuery(CertificateAuthorityEntity.QUERY_COUNT_ACTIVE);
@@ -253,14 +366,100 @@ public class CertificateAuthorityDAOBean implements CertificateAuthorityDAO {
 		this.entityManager.remove(caEntity);
 	}
 
-	@SuppressWarnings("unchecked")
-	public List<RevokedCertificateEntity> getRevokedCertificates(
-			String issuerName) {
-		LOG.debug("get revoked certificates from database for CA: "
-				+ issuerName);
-		Query query = this.entityManager
-				.createNamedQuery(RevokedCertificateEntity.QUERY_WHERE_ISSUER);
-		query.setParameter("issuer", issuerName);
-		return query.getResultList();
+	public RevocationIndex getRevocationIndex(
+			CertificateAuthorityEntity certificateAuthority) {
+		String issuerName = certificateAuthority.getName();
+		LOG.debug("get revocation index from database for CA: " + issuerName);
+		BigInteger crlNumber = certificateAuthority.getCrlNumber();
+		if (null == crlNumber) {
+			crlNumber = findCrlNumber(issuerName);
+		}
+		RevocationIndex.Builder builder = new RevocationIndex.Builder(
+				issuerName);
+		CrlEntryCursor revokedCertificates = new RevokedCertificateCursor(
+				issuerName);
+		try {
+			while (revokedCertificates.next()) {
+				builder.add(
+						new BigInteger(revokedCertificates.getSerialNumber()),
+						revokedCertificates.getRevocationDate());
+			}
+		} finally {
+			revokedCertificates.close();
+		}
+		return builder.build(crlNumber, certificateAuthority.getThisUpdate(),
+				certificateAuthority.getNextUpdate());
+	}
+
+	/**
+	 * Cursor over the cached revoked certificates of an issuer, in primary key
+	 * order. Uses keyset pagination on the primary key instead of a database
+	 * cursor, so no result set remains open while the merge writes to the
+	 * same table and only one page of {@link #MERGE_PAGE_SIZE} entries is held
+	 * in memory.
+	 */
+	private class RevokedCertificateCursor implements CrlEntryCursor {
+
+		private final String issuerName;
+
+		private List<Object[]> page;
+
+		private int position;
+
+		private boolean lastPage;
+
+		private String serialNumber;
+
+		private Date revocationDate;
+
+		RevokedCertificateCursor(String issuerName) {
+			this.issuerName = issuerName;
+		}
+
+		public boolean next() {
+			if (null == this.page || this.position == this.page.size()) {
+				if (this.lastPage) {
+					return false;
+				}
+				this.page = nextPage();
+				this.position = 0;
+				this.lastPage = this.page.size() < MERGE_PAGE_SIZE;
+				if (this.page.isEmpty()) {
+					return false;
+				}
+			}
+			Object[] row = this.page.get(this.position++);
+			this.serialNumber = (String) row[0];
+			this.revocationDate = (Date) row[1];
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<Object[]> nextPage() {
+			Query query;
+			if (null == this.serialNumber) {
+				query = CertificateAuthorityDAOBean.this.entityManager
+						.createNamedQuery(RevokedCertificateEntity.QUERY_REVOCATION_DATES_WHERE_ISSUER_ORDERED);
+			} else {
+				query = CertificateAuthorityDAOBean.this.entityManager
+						.createNamedQuery(RevokedCertificateEntity.QUERY_REVOCATION_DATES_WHERE_ISSUER_AFTER_SERIAL);
+				query.setParameter("serialNumber", this.serialNumber);
+			}
+			query.setParameter("issuer", this.issuerName);
+			query.setMaxResults(MERGE_PAGE_SIZE);
+			return query.getResultList();
+		}
+
+		public String getSerialNumber() {
+			return this.serialNumber;
+		}
+
+		public Date getRevocationDate() {
+			return this.revocationDate;
+		}
+
+		public void close() {
+			this.page = null;
+		}
 	}
 }
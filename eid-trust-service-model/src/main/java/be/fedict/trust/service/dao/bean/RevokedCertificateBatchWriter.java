@@ -0,0 +1,270 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.dao.bean;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.trust.service.util.RevocationDiff;
+
+/**
+ * Writes the differences of a revocation merge-diff to the
+ * <code>ts_revoked_certs</code> table using JDBC batching. Bypasses the
+ * persistence context, so no entities are created nor dirty checked.
+ *
+ * If the database dialect offers a native upsert statement, inserts and
+ * updates share that single statement and batch, so both kinds of differences
+ * travel to the database in the same round trips.
+ */
+class RevokedCertificateBatchWriter implements RevocationDiff.Handler {
+
+	private static final Log LOG = LogFactory
+			.getLog(RevokedCertificateBatchWriter.class);
+
+	private static final String INSERT_SQL = "INSERT INTO ts_revoked_certs "
+			+ "(issuer, serialNumber, revocationDate, crlNumber) VALUES (?, ?, ?, ?)";
+
+	private static final String UPDATE_SQL = "UPDATE ts_revoked_certs "
+			+ "SET revocationDate = ?, crlNumber = ? WHERE issuer = ? AND serialNumber = ?";
+
+	private static final String DELETE_SQL = "DELETE FROM ts_revoked_certs "
+			+ "WHERE issuer = ? AND serialNumber = ?";
+
+	private final String issuerName;
+
+	private final BigDecimal crlNumber;
+
+	private final int batchSize;
+
+	private final PreparedStatement insertStatement;
+
+	private final PreparedStatement updateStatement;
+
+	private final PreparedStatement upsertStatement;
+
+	private final PreparedStatement deleteStatement;
+
+	private int pendingInserts;
+
+	private int pendingUpdates;
+
+	private int pendingUpserts;
+
+	private int pendingDeletes;
+
+	private int inserts;
+
+	private int updates;
+
+	private int upserts;
+
+	private int deletes;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param connection
+	 *            the transaction's connection. Not closed by this writer.
+	 * @param issuerName
+	 *            the issuer of the written revoked certificates.
+	 * @param crlNumber
+	 *            optional CRL number stored on inserted and updated rows.
+	 * @param batchSize
+	 *            the number of statements per JDBC batch.
+	 * @param upsertSql
+	 *            optional native upsert statement of the database dialect.
+	 *            Parameters: issuer, serial number, revocation date, CRL
+	 *            number.
+	 */
+	RevokedCertificateBatchWriter(Connection connection, String issuerName,
+			BigInteger crlNumber, int batchSize, String upsertSql)
+			throws SQLException {
+		this.issuerName = issuerName;
+		this.crlNumber = null == crlNumber ? null : new BigDecimal(crlNumber);
+		this.batchSize = batchSize;
+		if (null == upsertSql) {
+			this.insertStatement = connection.prepareStatement(INSERT_SQL);
+			this.updateStatement = connection.prepareStatement(UPDATE_SQL);
+			this.upsertStatement = null;
+		} else {
+			this.insertStatement = null;
+			this.updateStatement = null;
+			this.upsertStatement = connection.prepareStatement(upsertSql);
+		}
+		this.deleteStatement = connection.prepareStatement(DELETE_SQL);
+	}
+
+	public void insert(String serialNumber, Date revocationDate) {
+		if (null != this.upsertStatement) {
+			upsert(serialNumber, revocationDate);
+			return;
+		}
+		try {
+			this.insertStatement.setString(1, this.issuerName);
+			this.insertStatement.setString(2, serialNumber);
+			this.insertStatement.setTimestamp(3,
+					new Timestamp(revocationDate.getTime()));
+			setCrlNumber(this.insertStatement, 4);
+			this.insertStatement.addBatch();
+			if (++this.pendingInserts == this.batchSize) {
+				this.inserts += executeBatch(this.insertStatement);
+				this.pendingInserts = 0;
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("SQL error: " + e.getMessage(), e);
+		}
+	}
+
+	public void update(String serialNumber, Date revocationDate) {
+		if (null != this.upsertStatement) {
+			upsert(serialNumber, revocationDate);
+			return;
+		}
+		try {
+			this.updateStatement.setTimestamp(1,
+					new Timestamp(revocationDate.getTime()));
+			setCrlNumber(this.updateStatement, 2);
+			this.updateStatement.setString(3, this.issuerName);
+			this.updateStatement.setString(4, serialNumber);
+			this.updateStatement.addBatch();
+			if (++this.pendingUpdates == this.batchSize) {
+				this.updates += executeBatch(this.updateStatement);
+				this.pendingUpdates = 0;
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("SQL error: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Inserts the revoked certificate or updates the existing one, using the
+	 * native upsert statement.
+	 */
+	public void upsert(String serialNumber, Date revocationDate) {
+		try {
+			this.upsertStatement.setString(1, this.issuerName);
+			this.upsertStatement.setString(2, serialNumber);
+			this.upsertStatement.setTimestamp(3,
+					new Timestamp(revocationDate.getTime()));
+			setCrlNumber(this.upsertStatement, 4);
+			this.upsertStatement.addBatch();
+			if (++this.pendingUpserts == this.batchSize) {
+				this.upserts += executeBatch(this.upsertStatement);
+				this.pendingUpserts = 0;
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("SQL error: " + e.getMessage(), e);
+		}
+	}
+
+	public void delete(String serialNumber) {
+		try {
+			this.deleteStatement.setString(1, this.issuerName);
+			this.deleteStatement.setString(2, serialNumber);
+			this.deleteStatement.addBatch();
+			if (++this.pendingDeletes == this.batchSize) {
+				this.deletes += executeBatch(this.deleteStatement);
+				this.pendingDeletes = 0;
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("SQL error: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Executes the pending batches.
+	 */
+	public void flush() throws SQLException {
+		if (0 != this.pendingInserts) {
+			this.inserts += executeBatch(this.insertStatement);
+			this.pendingInserts = 0;
+		}
+		if (0 != this.pendingUpdates) {
+			this.updates += executeBatch(this.updateStatement);
+			this.pendingUpdates = 0;
+		}
+		if (0 != this.pendingUpserts) {
+			this.upserts += executeBatch(this.upsertStatement);
+			this.pendingUpserts = 0;
+		}
+		if (0 != this.pendingDeletes) {
+			this.deletes += executeBatch(this.deleteStatement);
+			this.pendingDeletes = 0;
+		}
+		LOG.debug("batch result: inserted=" + this.inserts + ", updated="
+				+ this.updates + ", upserted=" + this.upserts + ", deleted="
+				+ this.deletes);
+	}
+
+	/**
+	 * Closes the prepared statements. Pending batches are discarded.
+	 */
+	public void close() {
+		close(this.insertStatement);
+		close(this.updateStatement);
+		close(this.upsertStatement);
+		close(this.deleteStatement);
+	}
+
+	private void setCrlNumber(PreparedStatement statement, int index)
+			throws SQLException {
+		if (null == this.crlNumber) {
+			statement.setNull(index, Types.NUMERIC);
+		} else {
+			statement.setBigDecimal(index, this.crlNumber);
+		}
+	}
+
+	/**
+	 * Returns the number of affected rows. Drivers that do not report per
+	 * statement counts are assumed to have affected a single row each.
+	 */
+	private static int executeBatch(PreparedStatement statement)
+			throws SQLException {
+		int affected = 0;
+		for (int result : statement.executeBatch()) {
+			if (result > 0) {
+				affected += result;
+			} else if (PreparedStatement.SUCCESS_NO_INFO == result) {
+				affected++;
+			}
+		}
+		return affected;
+	}
+
+	private static void close(PreparedStatement statement) {
+		if (null == statement) {
+			return;
+		}
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			LOG.warn("could not close statement: " + e.getMessage());
+		}
+	}
+}
@@ -23,7 +23,6 @@ import java.math.BigInteger;
 import java.net.InetAddress;
 import java.util.Date;
 
-import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
@@ -38,6 +37,7 @@ import org.bouncycastle.tsp.TimeStampRequestGenerator;
 import org.bouncycastle.tsp.TimeStampResponse;
 
 import be.fedict.trust.NetworkConfig;
+import be.fedict.trust.service.bean.HttpClientServiceBean;
 import be.fedict.trust.service.entity.ClockDriftConfigEntity;
 
 /**
@@ -67,7 +67,8 @@ public abstract class ClockDriftUtil {
 	}
 
 	public static Date executeTSP(ClockDriftConfigEntity clockDriftConfig,
-			NetworkConfig networkConfig) throws IOException, TSPException {
+			HttpClientServiceBean httpClientService) throws IOException,
+			TSPException {
 
 		LOG.debug("clock drift detection: " + clockDriftConfig.toString());
 
@@ -77,27 +78,24 @@ public abstract class ClockDriftUtil {
 				new byte[20], BigInteger.valueOf(100));
 		byte[] requestData = request.getEncoded();
 
-		HttpClient httpClient = new HttpClient();
-
-		if (null != networkConfig) {
-			httpClient.getHostConfiguration().setProxy(
-					networkConfig.getProxyHost(), networkConfig.getProxyPort());
-		}
-
 		PostMethod postMethod = new PostMethod(clockDriftConfig.getServer());
 		postMethod.setRequestEntity(new ByteArrayRequestEntity(requestData,
 				"application/timestamp-query"));
 
-		int statusCode = httpClient.executeMethod(postMethod);
-		if (statusCode != HttpStatus.SC_OK) {
-			throw new TSPException("Error contacting TSP server "
-					+ clockDriftConfig.getServer());
+		TimeStampResponse tspResponse;
+		try {
+			int statusCode = httpClientService.executeMethod(postMethod);
+			if (statusCode != HttpStatus.SC_OK) {
+				throw new TSPException("Error contacting TSP server "
+						+ clockDriftConfig.getServer());
+			}
+
+			tspResponse = new TimeStampResponse(
+					postMethod.getResponseBodyAsStream());
+		} finally {
+			postMethod.releaseConnection();
 		}
 
-		TimeStampResponse tspResponse = new TimeStampResponse(
-				postMethod.getResponseBodyAsStream());
-		postMethod.releaseConnection();
-
 		return tspResponse.getTimeStampToken().getTimeStampInfo().getGenTime();
 	}
 }
@@ -0,0 +1,46 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.util;
+
+import java.util.Date;
+
+/**
+ * Forward-only cursor over revoked certificate entries, ordered ascending on
+ * the serial number's decimal string representation as compared by
+ * {@link String#compareTo(String)}.
+ *
+ * @see RevocationDiff
+ */
+public interface CrlEntryCursor {
+
+	/**
+	 * Moves to the next entry. Returns <code>false</code> if no more entries
+	 * are available.
+	 */
+	boolean next();
+
+	String getSerialNumber();
+
+	Date getRevocationDate();
+
+	/**
+	 * Releases the resources held by this cursor.
+	 */
+	void close();
+}
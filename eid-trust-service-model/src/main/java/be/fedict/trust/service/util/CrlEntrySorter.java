@@ -0,0 +1,353 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * External merge sort of CRL entries on serial number.
+ *
+ * Entries are buffered up to the configured run size, after which the sorted
+ * run is spilled to a temporary file. The resulting {@link CrlEntryCursor}
+ * merges all runs, so memory use is bounded by the run size and the number of
+ * runs instead of by the number of CRL entries. Duplicate serial numbers are
+ * reported once, with the earliest revocation date.
+ *
+ * Not thread-safe. Should always be closed to remove the temporary files.
+ */
+public class CrlEntrySorter {
+
+	private static final Log LOG = LogFactory.getLog(CrlEntrySorter.class);
+
+	private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>() {
+
+		public int compare(Entry entry1, Entry entry2) {
+			return entry1.serialNumber.compareTo(entry2.serialNumber);
+		}
+	};
+
+	private final int runSize;
+
+	private final Entry[] buffer;
+
+	private int size;
+
+	private final List<File> runFiles;
+
+	private final List<CrlEntryCursor> openCursors;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param runSize
+	 *            the maximum number of entries kept in memory.
+	 */
+	public CrlEntrySorter(int runSize) {
+		this.runSize = runSize;
+		this.buffer = new Entry[runSize];
+		this.runFiles = new LinkedList<File>();
+		this.openCursors = new LinkedList<CrlEntryCursor>();
+	}
+
+	public void add(String serialNumber, Date revocationDate) {
+
+		if (this.size == this.runSize) {
+			spill();
+		}
+		this.buffer[this.size++] = new Entry(serialNumber,
+				revocationDate.getTime());
+	}
+
+	/**
+	 * Returns the sorted entries. No more entries can be added afterwards.
+	 */
+	public CrlEntryCursor sort() {
+
+		Arrays.sort(this.buffer, 0, this.size, ENTRY_COMPARATOR);
+		if (this.runFiles.isEmpty()) {
+			return register(new DistinctCursor(new BufferCursor(this.buffer,
+					this.size)));
+		}
+		if (0 != this.size) {
+			spill();
+		}
+		LOG.debug("merging " + this.runFiles.size() + " sorted runs");
+		List<RunCursor> runCursors = new LinkedList<RunCursor>();
+		for (File runFile : this.runFiles) {
+			runCursors.add(new RunCursor(runFile));
+		}
+		return register(new DistinctCursor(new MergeCursor(runCursors)));
+	}
+
+	/**
+	 * Closes all cursors and removes the temporary files.
+	 */
+	public void close() {
+
+		for (CrlEntryCursor cursor : this.openCursors) {
+			cursor.close();
+		}
+		this.openCursors.clear();
+		for (File runFile : this.runFiles) {
+			if (!runFile.delete()) {
+				LOG.warn("could not delete temp file: "
+						+ runFile.getAbsolutePath());
+			}
+		}
+		this.runFiles.clear();
+	}
+
+	private CrlEntryCursor register(CrlEntryCursor cursor) {
+
+		this.openCursors.add(cursor);
+		return cursor;
+	}
+
+	private void spill() {
+
+		Arrays.sort(this.buffer, 0, this.size, ENTRY_COMPARATOR);
+		try {
+			File runFile = File.createTempFile("crl-entries-", ".run");
+			this.runFiles.add(runFile);
+			DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(runFile)));
+			try {
+				for (int idx = 0; idx < this.size; idx++) {
+					output.writeUTF(this.buffer[idx].serialNumber);
+					output.writeLong(this.buffer[idx].revocationDate);
+				}
+			} finally {
+				output.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("IO error: " + e.getMessage(), e);
+		}
+		LOG.debug("spilled sorted run of " + this.size + " entries");
+		Arrays.fill(this.buffer, 0, this.size, null);
+		this.size = 0;
+	}
+
+	private static class Entry {
+
+		private final String serialNumber;
+
+		private final long revocationDate;
+
+		Entry(String serialNumber, long revocationDate) {
+			this.serialNumber = serialNumber;
+			this.revocationDate = revocationDate;
+		}
+	}
+
+	private static class BufferCursor implements CrlEntryCursor {
+
+		private final Entry[] entries;
+
+		private final int size;
+
+		private int position = -1;
+
+		BufferCursor(Entry[] entries, int size) {
+			this.entries = entries;
+			this.size = size;
+		}
+
+		public boolean next() {
+			return ++this.position < this.size;
+		}
+
+		public String getSerialNumber() {
+			return this.entries[this.position].serialNumber;
+		}
+
+		public Date getRevocationDate() {
+			return new Date(this.entries[this.position].revocationDate);
+		}
+
+		public void close() {
+			// empty
+		}
+	}
+
+	private static class RunCursor implements CrlEntryCursor {
+
+		private final DataInputStream input;
+
+		private String serialNumber;
+
+		private long revocationDate;
+
+		RunCursor(File runFile) {
+			try {
+				this.input = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(runFile)));
+			} catch (IOException e) {
+				throw new RuntimeException("IO error: " + e.getMessage(), e);
+			}
+		}
+
+		public boolean next() {
+			try {
+				this.serialNumber = this.input.readUTF();
+			} catch (EOFException e) {
+				this.serialNumber = null;
+				return false;
+			} catch (IOException e) {
+				throw new RuntimeException("IO error: " + e.getMessage(), e);
+			}
+			try {
+				this.revocationDate = this.input.readLong();
+			} catch (IOException e) {
+				throw new RuntimeException("IO error: " + e.getMessage(), e);
+			}
+			return true;
+		}
+
+		public String getSerialNumber() {
+			return this.serialNumber;
+		}
+
+		public Date getRevocationDate() {
+			return new Date(this.revocationDate);
+		}
+
+		public void close() {
+			try {
+				this.input.close();
+			} catch (IOException e) {
+				LOG.warn("could not close run file: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * k-way merge of the sorted runs.
+	 */
+	private static class MergeCursor implements CrlEntryCursor {
+
+		private final List<RunCursor> runCursors;
+
+		private final PriorityQueue<RunCursor> queue;
+
+		private RunCursor current;
+
+		MergeCursor(List<RunCursor> runCursors) {
+			this.runCursors = runCursors;
+			this.queue = new PriorityQueue<RunCursor>(Math.max(1,
+					runCursors.size()), new Comparator<RunCursor>() {
+
+				public int compare(RunCursor cursor1, RunCursor cursor2) {
+					return cursor1.getSerialNumber().compareTo(
+							cursor2.getSerialNumber());
+				}
+			});
+			for (RunCursor runCursor : runCursors) {
+				if (runCursor.next()) {
+					this.queue.add(runCursor);
+				}
+			}
+		}
+
+		public boolean next() {
+			if (null != this.current && this.current.next()) {
+				this.queue.add(this.current);
+			}
+			this.current = this.queue.poll();
+			return null != this.current;
+		}
+
+		public String getSerialNumber() {
+			return this.current.getSerialNumber();
+		}
+
+		public Date getRevocationDate() {
+			return this.current.getRevocationDate();
+		}
+
+		public void close() {
+			for (RunCursor runCursor : this.runCursors) {
+				runCursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Collapses duplicate serial numbers, keeping the earliest revocation
+	 * date.
+	 */
+	private static class DistinctCursor implements CrlEntryCursor {
+
+		private final CrlEntryCursor cursor;
+
+		private boolean hasNext;
+
+		private String serialNumber;
+
+		private Date revocationDate;
+
+		DistinctCursor(CrlEntryCursor cursor) {
+			this.cursor = cursor;
+			this.hasNext = cursor.next();
+		}
+
+		public boolean next() {
+			if (!this.hasNext) {
+				return false;
+			}
+			this.serialNumber = this.cursor.getSerialNumber();
+			this.revocationDate = this.cursor.getRevocationDate();
+			while ((this.hasNext = this.cursor.next())
+					&& this.serialNumber.equals(this.cursor.getSerialNumber())) {
+				if (this.cursor.getRevocationDate().before(this.revocationDate)) {
+					this.revocationDate = this.cursor.getRevocationDate();
+				}
+			}
+			return true;
+		}
+
+		public String getSerialNumber() {
+			return this.serialNumber;
+		}
+
+		public Date getRevocationDate() {
+			return this.revocationDate;
+		}
+
+		public void close() {
+			this.cursor.close();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-process cache of host name lookups, bounded by a time to live.
+ *
+ * The outbound HTTP connections mostly go to the same few CA responders, so
+ * their host names are resolved once per time to live instead of on every new
+ * connection. Failed lookups are not cached. The JVM wide DNS cache settings
+ * still apply to the lookups themselves.
+ *
+ * Thread-safe.
+ */
+public class DnsCache {
+
+	private static final int MAX_ENTRIES = 1000;
+
+	private final long ttl;
+
+	private final ConcurrentMap<String, Entry> entries;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param ttl
+	 *            the time to live of a resolved host name in milliseconds.
+	 */
+	public DnsCache(long ttl) {
+		this.ttl = ttl;
+		this.entries = new ConcurrentHashMap<String, Entry>();
+	}
+
+	/**
+	 * Returns all addresses of the given host name.
+	 *
+	 * @throws UnknownHostException
+	 *             in case the host name could not be resolved.
+	 */
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		long now = System.currentTimeMillis();
+		Entry entry = this.entries.get(host);
+		if (null != entry && now < entry.expiry) {
+			return entry.addresses;
+		}
+		InetAddress[] addresses = lookup(host);
+		if (this.entries.size() >= MAX_ENTRIES) {
+			evictExpired(now);
+		}
+		if (this.entries.size() < MAX_ENTRIES) {
+			this.entries.put(host, new Entry(addresses, now + this.ttl));
+		}
+		return addresses;
+	}
+
+	/**
+	 * Resolves the given host name, bypassing this cache.
+	 */
+	protected InetAddress[] lookup(String host) throws UnknownHostException {
+		return InetAddress.getAllByName(host);
+	}
+
+	private void evictExpired(long now) {
+		Iterator<Entry> iterator = this.entries.values().iterator();
+		while (iterator.hasNext()) {
+			if (now >= iterator.next().expiry) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class Entry {
+
+		private final InetAddress[] addresses;
+
+		private final long expiry;
+
+		Entry(InetAddress[] addresses, long expiry) {
+			this.addresses = addresses;
+			this.expiry = expiry;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.util;
+
+import java.util.Date;
+
+/**
+ * Merge-diff of the sorted entries of a new CRL against the sorted, already
+ * cached revoked certificates of the same CA. Only the differences are
+ * reported, and only the current entry of both cursors is looked at, so the
+ * diff itself does not hold any entries in memory.
+ */
+public abstract class RevocationDiff {
+
+	/**
+	 * Receives the differences found by
+	 * {@link RevocationDiff#diff(CrlEntryCursor, CrlEntryCursor, Handler)}.
+	 */
+	public interface Handler {
+
+		/**
+		 * Serial number revoked by the new CRL, not yet cached.
+		 */
+		void insert(String serialNumber, Date revocationDate);
+
+		/**
+		 * Serial number cached with a different revocation date.
+		 */
+		void update(String serialNumber, Date revocationDate);
+
+		/**
+		 * Cached serial number no longer on the new CRL.
+		 */
+		void delete(String serialNumber);
+	}
+
+	/**
+	 * Walks both cursors in lock step and reports the differences to the
+	 * handler. Both cursors should be ordered as specified by
+	 * {@link CrlEntryCursor}. The cursors are not closed.
+	 *
+	 * @param crlEntries
+	 *            the entries of the new CRL, without duplicates.
+	 * @param cachedEntries
+	 *            the currently cached entries.
+	 * @return the number of reported differences.
+	 * @throws IllegalStateException
+	 *             in case one of the cursors is not correctly ordered.
+	 */
+	public static int diff(CrlEntryCursor crlEntries,
+			CrlEntryCursor cachedEntries, Handler handler) {
+
+		int differences = 0;
+		String crlSerialNumber = next(crlEntries, null);
+		String cachedSerialNumber = next(cachedEntries, null);
+		while (null != crlSerialNumber || null != cachedSerialNumber) {
+			int compare;
+			if (null == crlSerialNumber) {
+				compare = 1;
+			} else if (null == cachedSerialNumber) {
+				compare = -1;
+			} else {
+				compare = crlSerialNumber.compareTo(cachedSerialNumber);
+			}
+
+			if (compare < 0) {
+				handler.insert(crlSerialNumber,
+						crlEntries.getRevocationDate());
+				differences++;
+				crlSerialNumber = next(crlEntries, crlSerialNumber);
+			} else if (compare > 0) {
+				handler.delete(cachedSerialNumber);
+				differences++;
+				cachedSerialNumber = next(cachedEntries, cachedSerialNumber);
+			} else {
+				Date revocationDate = crlEntries.getRevocationDate();
+				if (!isSameSecond(revocationDate,
+						cachedEntries.getRevocationDate())) {
+					handler.update(crlSerialNumber, revocationDate);
+					differences++;
+				}
+				crlSerialNumber = next(crlEntries, crlSerialNumber);
+				cachedSerialNumber = next(cachedEntries, cachedSerialNumber);
+			}
+		}
+		return differences;
+	}
+
+	private static String next(CrlEntryCursor cursor, String previousSerialNumber) {
+
+		if (!cursor.next()) {
+			return null;
+		}
+		String serialNumber = cursor.getSerialNumber();
+		if (null != previousSerialNumber
+				&& serialNumber.compareTo(previousSerialNumber) <= 0) {
+			throw new IllegalStateException("cursor not ordered: "
+					+ serialNumber + " after " + previousSerialNumber);
+		}
+		return serialNumber;
+	}
+
+	/**
+	 * Some databases do not store milliseconds, while CRL revocation dates
+	 * normally have a precision of a second.
+	 */
+	private static boolean isSameSecond(Date date1, Date date2) {
+
+		return date1.getTime() / 1000 == date2.getTime() / 1000;
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.util;
+
+import java.math.BigInteger;
+import java.util.Date;
+
+/**
+ * Immutable Bloom filter over the revoked serial numbers of a single CA's CRL.
+ *
+ * A negative answer of {@link #mightContain(BigInteger)} means the serial
+ * number is definitely not revoked by the CRL the filter was built from. A
+ * positive answer still requires a lookup in the revocation store.
+ */
+public class RevocationFilter {
+
+	private final String caName;
+
+	private final BigInteger crlNumber;
+
+	private final Date thisUpdate;
+
+	private final long[] bits;
+
+	private final long numBits;
+
+	private final int numHashes;
+
+	private final int entries;
+
+	private RevocationFilter(String caName, BigInteger crlNumber,
+			Date thisUpdate, long[] bits, long numBits, int numHashes,
+			int entries) {
+		this.caName = caName;
+		this.crlNumber = crlNumber;
+		this.thisUpdate = thisUpdate;
+		this.bits = bits;
+		this.numBits = numBits;
+		this.numHashes = numHashes;
+		this.entries = entries;
+	}
+
+	public String getCaName() {
+		return this.caName;
+	}
+
+	public BigInteger getCrlNumber() {
+		return this.crlNumber;
+	}
+
+	public Date getThisUpdate() {
+		return this.thisUpdate;
+	}
+
+	public int getEntries() {
+		return this.entries;
+	}
+
+	/**
+	 * Returns the size of the filter's bit set in bytes.
+	 */
+	public long getSize() {
+		return this.bits.length * 8L;
+	}
+
+	/**
+	 * Returns the expected false positive probability given the number of
+	 * entries in the filter.
+	 */
+	public double getFalsePositiveProbability() {
+		if (0 == this.entries) {
+			return 0;
+		}
+		return Math.pow(
+				1 - Math.exp(-(double) this.numHashes * this.entries
+						/ this.numBits), this.numHashes);
+	}
+
+	/**
+	 * Returns <code>false</code> if the specified serial number is definitely
+	 * not revoked.
+	 */
+	public boolean mightContain(BigInteger serialNumber) {
+		if (0 == this.entries) {
+			return false;
+		}
+		long hash = hash(serialNumber);
+		int hash1 = (int) hash;
+		int hash2 = (int) (hash >>> 32);
+		for (int idx = 1; idx <= this.numHashes; idx++) {
+			long bit = ((hash1 + (long) idx * hash2) & Long.MAX_VALUE)
+					% this.numBits;
+			if (0 == (this.bits[(int) (bit >>> 6)] & (1L << bit))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 64-bit FNV-1a over the serial number's magnitude, finalized with the
+	 * MurmurHash3 mixer to spread the bits for double hashing.
+	 */
+	private static long hash(BigInteger serialNumber) {
+		byte[] magnitude = RevocationIndex.toMagnitude(serialNumber);
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : magnitude) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Builder for {@link RevocationFilter}. As the number of CRL entries is
+	 * only known once the CRL is completely streamed, only the serial number
+	 * hashes are kept while adding. Not thread-safe.
+	 */
+	public static class Builder {
+
+		private final String caName;
+
+		private final double falsePositiveProbability;
+
+		private long[] hashes;
+
+		private int size;
+
+		public Builder(String caName, double falsePositiveProbability) {
+			this.caName = caName;
+			this.falsePositiveProbability = falsePositiveProbability;
+			this.hashes = new long[64];
+		}
+
+		public void add(BigInteger serialNumber) {
+			if (this.size == this.hashes.length) {
+				long[] newHashes = new long[this.size * 2];
+				System.arraycopy(this.hashes, 0, newHashes, 0, this.size);
+				this.hashes = newHashes;
+			}
+			this.hashes[this.size++] = hash(serialNumber);
+		}
+
+		public RevocationFilter build(BigInteger crlNumber, Date thisUpdate) {
+			long numBits = Math.max(64L, (long) Math.ceil(-this.size
+					* Math.log(this.falsePositiveProbability)
+					/ (Math.log(2) * Math.log(2))));
+			int numHashes = Math.max(1,
+					(int) Math.round((double) numBits / Math.max(1, this.size)
+							* Math.log(2)));
+			long[] bits = new long[(int) ((numBits + 63) >>> 6)];
+			for (int entry = 0; entry < this.size; entry++) {
+				long hash = this.hashes[entry];
+				int hash1 = (int) hash;
+				int hash2 = (int) (hash >>> 32);
+				for (int idx = 1; idx <= numHashes; idx++) {
+					long bit = ((hash1 + (long) idx * hash2) & Long.MAX_VALUE)
+							% numBits;
+					bits[(int) (bit >>> 6)] |= 1L << bit;
+				}
+			}
+			return new RevocationFilter(this.caName, crlNumber, thisUpdate,
+					bits, numBits, numHashes, this.size);
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.util;
+
+import java.math.BigInteger;
+import java.util.Date;
+
+/**
+ * Immutable in-memory revocation index of a single CA's CRL.
+ *
+ * The serial numbers are kept as unsigned big-endian magnitudes in one
+ * contiguous byte array, sorted numerically, with the revocation dates in a
+ * parallel <code>long</code> array. A lookup is a binary search without any
+ * object allocation besides the serial number's encoding.
+ */
+public class RevocationIndex {
+
+	private final String caName;
+
+	private final BigInteger crlNumber;
+
+	private final Date thisUpdate;
+
+	private final Date nextUpdate;
+
+	private final byte[] serials;
+
+	private final int[] offsets;
+
+	private final long[] revocationDates;
+
+	private RevocationIndex(String caName, BigInteger crlNumber,
+			Date thisUpdate, Date nextUpdate, byte[] serials, int[] offsets,
+			long[] revocationDates) {
+		this.caName = caName;
+		this.crlNumber = crlNumber;
+		this.thisUpdate = thisUpdate;
+		this.nextUpdate = nextUpdate;
+		this.serials = serials;
+		this.offsets = offsets;
+		this.revocationDates = revocationDates;
+	}
+
+	public String getCaName() {
+		return this.caName;
+	}
+
+	public BigInteger getCrlNumber() {
+		return this.crlNumber;
+	}
+
+	public Date getThisUpdate() {
+		return this.thisUpdate;
+	}
+
+	public Date getNextUpdate() {
+		return this.nextUpdate;
+	}
+
+	/**
+	 * Returns the number of revoked serial numbers in this index.
+	 */
+	public int size() {
+		return this.revocationDates.length;
+	}
+
+	/**
+	 * Returns the size of the index' serial numbers, offsets and revocation
+	 * dates in bytes.
+	 */
+	public long getMemorySize() {
+		return this.serials.length + this.offsets.length * 4L
+				+ this.revocationDates.length * 8L;
+	}
+
+	/**
+	 * Returns <code>true</code> if the CRL this index was built from is valid
+	 * at the specified validation date.
+	 */
+	public boolean isValid(Date validationDate) {
+		if (null == this.thisUpdate || null == this.nextUpdate) {
+			return false;
+		}
+		if (this.thisUpdate.after(validationDate)) {
+			return false;
+		}
+		if (validationDate.after(this.nextUpdate)) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the revocation date of the specified serial number, or
+	 * <code>null</code> if the serial number is not revoked.
+	 */
+	public Date findRevocationDate(BigInteger serialNumber) {
+		byte[] key = toMagnitude(serialNumber);
+		int low = 0;
+		int high = this.revocationDates.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = compare(this.serials, this.offsets[middle],
+					this.offsets[middle + 1], key, 0, key.length);
+			if (compare < 0) {
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return new Date(this.revocationDates[middle]);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the unsigned big-endian magnitude of the specified serial
+	 * number, without leading zero bytes.
+	 */
+	public static byte[] toMagnitude(BigInteger serialNumber) {
+		byte[] encoded = serialNumber.toByteArray();
+		int leadingZeros = 0;
+		while (leadingZeros < encoded.length - 1
+				&& 0 == encoded[leadingZeros]) {
+			leadingZeros++;
+		}
+		if (0 == leadingZeros) {
+			return encoded;
+		}
+		byte[] magnitude = new byte[encoded.length - leadingZeros];
+		System.arraycopy(encoded, leadingZeros, magnitude, 0,
+				magnitude.length);
+		return magnitude;
+	}
+
+	/**
+	 * Numerical comparison of two unsigned big-endian magnitudes without
+	 * leading zero bytes.
+	 */
+	private static int compare(byte[] a, int aFrom, int aTo, byte[] b,
+			int bFrom, int bTo) {
+		int aLength = aTo - aFrom;
+		int bLength = bTo - bFrom;
+		if (aLength != bLength) {
+			return aLength < bLength ? -1 : 1;
+		}
+		for (int idx = 0; idx < aLength; idx++) {
+			int aByte = a[aFrom + idx] & 0xff;
+			int bByte = b[bFrom + idx] & 0xff;
+			if (aByte != bByte) {
+				return aByte < bByte ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Builder for {@link RevocationIndex}. Entries can be added in any order.
+	 * Not thread-safe.
+	 */
+	public static class Builder {
+
+		private final String caName;
+
+		private byte[] serials;
+
+		private int serialsLength;
+
+		private int[] offsets;
+
+		private long[] revocationDates;
+
+		private int size;
+
+		public Builder(String caName) {
+			this.caName = caName;
+			this.serials = new byte[1024];
+			this.offsets = new int[65];
+			this.revocationDates = new long[64];
+		}
+
+		public void add(BigInteger serialNumber, Date revocationDate) {
+			byte[] magnitude = toMagnitude(serialNumber);
+			if (this.serialsLength + magnitude.length > this.serials.length) {
+				this.serials = grow(this.serials, this.serialsLength
+						+ magnitude.length);
+			}
+			if (this.size == this.revocationDates.length) {
+				long[] newRevocationDates = new long[this.size * 2];
+				System.arraycopy(this.revocationDates, 0, newRevocationDates,
+						0, this.size);
+				this.revocationDates = newRevocationDates;
+				int[] newOffsets = new int[this.size * 2 + 1];
+				System.arraycopy(this.offsets, 0, newOffsets, 0, this.size + 1);
+				this.offsets = newOffsets;
+			}
+			System.arraycopy(magnitude, 0, this.serials, this.serialsLength,
+					magnitude.length);
+			this.offsets[this.size] = this.serialsLength;
+			this.revocationDates[this.size] = revocationDate.getTime();
+			this.serialsLength += magnitude.length;
+			this.size++;
+			this.offsets[this.size] = this.serialsLength;
+		}
+
+		public int size() {
+			return this.size;
+		}
+
+		/**
+		 * Sorts the added entries and returns the compact index. For
+		 * duplicate serial numbers the earliest revocation date is retained.
+		 */
+		public RevocationIndex build(BigInteger crlNumber, Date thisUpdate,
+				Date nextUpdate) {
+			int[] order = new int[this.size];
+			for (int idx = 0; idx < this.size; idx++) {
+				order[idx] = idx;
+			}
+			sort(order, new int[this.size], 0, this.size);
+
+			byte[] sortedSerials = new byte[this.serialsLength];
+			int[] sortedOffsets = new int[this.size + 1];
+			long[] sortedRevocationDates = new long[this.size];
+			int sortedSize = 0;
+			int sortedLength = 0;
+			for (int idx = 0; idx < this.size; idx++) {
+				int entry = order[idx];
+				int from = this.offsets[entry];
+				int to = this.offsets[entry + 1];
+				if (sortedSize > 0
+						&& 0 == compare(sortedSerials,
+								sortedOffsets[sortedSize - 1], sortedLength,
+								this.serials, from, to)) {
+					sortedRevocationDates[sortedSize - 1] = Math.min(
+							sortedRevocationDates[sortedSize - 1],
+							this.revocationDates[entry]);
+					continue;
+				}
+				System.arraycopy(this.serials, from, sortedSerials,
+						sortedLength, to - from);
+				sortedOffsets[sortedSize] = sortedLength;
+				sortedRevocationDates[sortedSize] = this.revocationDates[entry];
+				sortedLength += to - from;
+				sortedSize++;
+				sortedOffsets[sortedSize] = sortedLength;
+			}
+
+			if (sortedSize != this.size) {
+				long[] trimmedRevocationDates = new long[sortedSize];
+				System.arraycopy(sortedRevocationDates, 0,
+						trimmedRevocationDates, 0, sortedSize);
+				sortedRevocationDates = trimmedRevocationDates;
+				int[] trimmedOffsets = new int[sortedSize + 1];
+				System.arraycopy(sortedOffsets, 0, trimmedOffsets, 0,
+						sortedSize + 1);
+				sortedOffsets = trimmedOffsets;
+			}
+			if (sortedLength != sortedSerials.length) {
+				byte[] trimmedSerials = new byte[sortedLength];
+				System.arraycopy(sortedSerials, 0, trimmedSerials, 0,
+						sortedLength);
+				sortedSerials = trimmedSerials;
+			}
+
+			return new RevocationIndex(this.caName, crlNumber, thisUpdate,
+					nextUpdate, sortedSerials, sortedOffsets,
+					sortedRevocationDates);
+		}
+
+		/**
+		 * Stable merge sort of the entry permutation on serial number.
+		 */
+		private void sort(int[] order, int[] buffer, int from, int to) {
+			if (to - from < 2) {
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			sort(order, buffer, from, middle);
+			sort(order, buffer, middle, to);
+			if (compareEntries(order[middle - 1], order[middle]) <= 0) {
+				return;
+			}
+			System.arraycopy(order, from, buffer, from, to - from);
+			int left = from;
+			int right = middle;
+			for (int idx = from; idx < to; idx++) {
+				if (right >= to
+						|| (left < middle && compareEntries(buffer[left],
+								buffer[right]) <= 0)) {
+					order[idx] = buffer[left++];
+				} else {
+					order[idx] = buffer[right++];
+				}
+			}
+		}
+
+		private int compareEntries(int a, int b) {
+			return compare(this.serials, this.offsets[a], this.offsets[a + 1],
+					this.serials, this.offsets[b], this.offsets[b + 1]);
+		}
+
+		private static byte[] grow(byte[] data, int minimumLength) {
+			int newLength = Math.max(data.length * 2, minimumLength);
+			byte[] newData = new byte[newLength];
+			System.arraycopy(data, 0, newData, 0, data.length);
+			return newData;
+		}
+	}
+}
@@ -0,0 +1,563 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.trust.service.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CRLException;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERInteger;
+import org.bouncycastle.asn1.DERObject;
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.RSASSAPSSparams;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
+import org.bouncycastle.asn1.x509.TBSCertList;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.util.encoders.Base64;
+
+/**
+ * Streaming reader of a DER or PEM encoded CRL file.
+ *
+ * The CRL file is memory mapped, so only the CRL header is decoded up front.
+ * The signature is verified by feeding the mapped TBSCertList to the
+ * {@link Signature} in small chunks, and the revoked certificates are decoded
+ * one at a time while enumerating. Reading the CRL therefore only takes a
+ * small constant buffer of heap, whatever the size of the CRL. What is kept of
+ * the enumerated entries is up to the caller. A PEM encoded CRL is first
+ * decoded into a temporary DER file, which is removed again on close.
+ *
+ * Not thread-safe. Should be closed after use.
+ */
+public class StreamingCrl {
+
+	private static final Log LOG = LogFactory.getLog(StreamingCrl.class);
+
+	private static final int SIGNATURE_CHUNK_SIZE = 8192;
+
+	private static final String PEM_BEGIN = "-----BEGIN X509 CRL-----";
+
+	private static final String PEM_END = "-----END X509 CRL-----";
+
+	private static final int PEM_CHUNK_SIZE = 4096;
+
+	private static final int TAG_INTEGER = 0x02;
+
+	private static final int TAG_BIT_STRING = 0x03;
+
+	private static final int TAG_SEQUENCE = 0x30;
+
+	private static final int TAG_UTC_TIME = 0x17;
+
+	private static final int TAG_GENERALIZED_TIME = 0x18;
+
+	private static final int TAG_EXTENSIONS = 0xa0;
+
+	private final RandomAccessFile file;
+
+	private final File tempFile;
+
+	private final MappedByteBuffer buffer;
+
+	private final int tbsStart;
+
+	private final int tbsEnd;
+
+	private final int entriesStart;
+
+	private final int entriesEnd;
+
+	private final X500Principal issuer;
+
+	private final Date thisUpdate;
+
+	private final Date nextUpdate;
+
+	private final BigInteger crlNumber;
+
+	private final boolean indirect;
+
+	private final AlgorithmIdentifier signatureAlgorithm;
+
+	private final byte[] signature;
+
+	private StreamingCrl(RandomAccessFile file, File tempFile)
+			throws IOException, CRLException {
+		this.file = file;
+		this.tempFile = tempFile;
+		FileChannel channel = file.getChannel();
+		if (channel.size() > Integer.MAX_VALUE) {
+			throw new CRLException("CRL file too large: " + channel.size());
+		}
+		this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				channel.size());
+
+		// CertificateList
+		ByteBuffer input = this.buffer.duplicate();
+		int crlEnd = readHeader(input, TAG_SEQUENCE);
+
+		// TBSCertList
+		this.tbsStart = input.position();
+		this.tbsEnd = readHeader(input, TAG_SEQUENCE);
+		if (TAG_INTEGER == peekTag(input, this.tbsEnd)) {
+			// version
+			skip(input);
+		}
+		byte[] tbsSignatureAlgorithm = readElement(input);
+		this.issuer = new X500Principal(readElement(input));
+		this.thisUpdate = readTime(input);
+		int tag = peekTag(input, this.tbsEnd);
+		if (TAG_UTC_TIME == tag || TAG_GENERALIZED_TIME == tag) {
+			this.nextUpdate = readTime(input);
+			tag = peekTag(input, this.tbsEnd);
+		} else {
+			this.nextUpdate = null;
+		}
+		if (TAG_SEQUENCE == tag) {
+			int entriesEnd = readHeader(input, TAG_SEQUENCE);
+			this.entriesStart = input.position();
+			this.entriesEnd = entriesEnd;
+			input.position(entriesEnd);
+			tag = peekTag(input, this.tbsEnd);
+		} else {
+			this.entriesStart = this.entriesEnd = input.position();
+		}
+		X509Extensions extensions = null;
+		if (TAG_EXTENSIONS == tag) {
+			extensions = X509Extensions.getInstance(
+					(ASN1TaggedObject) decode(readElement(input)), true);
+		}
+		this.crlNumber = getCrlNumber(extensions);
+		this.indirect = isIndirectCRL(extensions);
+		input.position(this.tbsEnd);
+
+		// signatureAlgorithm and signatureValue
+		byte[] signatureAlgorithm = readElement(input);
+		if (!Arrays.equals(tbsSignatureAlgorithm, signatureAlgorithm)) {
+			throw new CRLException(
+					"Signature algorithm on CertificateList does not match TBSCertList.");
+		}
+		this.signatureAlgorithm = AlgorithmIdentifier
+				.getInstance(decode(signatureAlgorithm));
+		if (TAG_BIT_STRING != peekTag(input, crlEnd)) {
+			throw new CRLException("missing CRL signature value");
+		}
+		this.signature = DERBitString.getInstance(decode(readElement(input)))
+				.getBytes();
+	}
+
+	/**
+	 * Opens the given DER or PEM encoded CRL file, decoding only the CRL
+	 * header.
+	 *
+	 * @throws CRLException
+	 *             in case the file is not a DER or PEM encoded CRL.
+	 */
+	public static StreamingCrl open(File crlFile) throws IOException,
+			CRLException {
+		File tempFile = null;
+		if (isPem(crlFile)) {
+			tempFile = decodePem(crlFile);
+		}
+		RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(null != tempFile ? tempFile
+					: crlFile, "r");
+		} catch (IOException e) {
+			deleteTempFile(tempFile);
+			throw e;
+		}
+		try {
+			return new StreamingCrl(file, tempFile);
+		} catch (CRLException e) {
+			close(file, tempFile);
+			throw e;
+		} catch (IOException e) {
+			close(file, tempFile);
+			throw e;
+		} catch (RuntimeException e) {
+			// thrown by the Bouncy Castle ASN.1 decoders
+			close(file, tempFile);
+			throw new CRLException("invalid CRL: " + e.getMessage(), e);
+		}
+	}
+
+	public X500Principal getIssuerX500Principal() {
+		return this.issuer;
+	}
+
+	public Date getThisUpdate() {
+		return this.thisUpdate;
+	}
+
+	/**
+	 * Returns the next update, or <code>null</code> if not present.
+	 */
+	public Date getNextUpdate() {
+		return this.nextUpdate;
+	}
+
+	/**
+	 * Returns the CRL number, or <code>null</code> if not present.
+	 */
+	public BigInteger getCrlNumber() {
+		return this.crlNumber;
+	}
+
+	public boolean isIndirectCRL() {
+		return this.indirect;
+	}
+
+	/**
+	 * Verifies the CRL signature, feeding the mapped TBSCertList to the
+	 * signature engine chunk by chunk.
+	 *
+	 * @throws GeneralSecurityException
+	 *             in case the signature could not be verified.
+	 */
+	public boolean verify(PublicKey publicKey) throws GeneralSecurityException {
+		Signature verifier;
+		DERObjectIdentifier algorithm = this.signatureAlgorithm.getObjectId();
+		if (PKCSObjectIdentifiers.id_RSASSA_PSS.equals(algorithm)) {
+			/*
+			 * The digests and salt length of RSASSA-PSS are only known from
+			 * the algorithm parameters.
+			 */
+			RSASSAPSSparams pssParams = RSASSAPSSparams
+					.getInstance(this.signatureAlgorithm.getParameters());
+			String digest = getDigestName(pssParams.getHashAlgorithm());
+			String mgfDigest = getDigestName(AlgorithmIdentifier
+					.getInstance(pssParams.getMaskGenAlgorithm()
+							.getParameters()));
+			verifier = Signature.getInstance(digest.replace("-", "")
+					+ "withRSAandMGF1", "BC");
+			verifier.setParameter(new PSSParameterSpec(digest, "MGF1",
+					new MGF1ParameterSpec(mgfDigest), pssParams
+							.getSaltLength().getValue().intValue(), pssParams
+							.getTrailerField().getValue().intValue()));
+		} else {
+			verifier = Signature.getInstance(algorithm.getId(), "BC");
+		}
+		verifier.initVerify(publicKey);
+		ByteBuffer tbsCertList = this.buffer.duplicate();
+		tbsCertList.limit(this.tbsEnd);
+		tbsCertList.position(this.tbsStart);
+		byte[] chunk = new byte[SIGNATURE_CHUNK_SIZE];
+		while (tbsCertList.hasRemaining()) {
+			int length = Math.min(chunk.length, tbsCertList.remaining());
+			tbsCertList.get(chunk, 0, length);
+			verifier.update(chunk, 0, length);
+		}
+		return verifier.verify(this.signature);
+	}
+
+	/**
+	 * Returns a lazy enumeration of the revoked certificates. Every call
+	 * returns a new enumeration starting at the first entry.
+	 */
+	public Enumeration<TBSCertList.CRLEntry> getRevokedCertificateEnumeration() {
+		final ByteBuffer entries = this.buffer.duplicate();
+		entries.limit(this.entriesEnd);
+		entries.position(this.entriesStart);
+		return new Enumeration<TBSCertList.CRLEntry>() {
+
+			public boolean hasMoreElements() {
+				return entries.hasRemaining();
+			}
+
+			public TBSCertList.CRLEntry nextElement() {
+				if (!entries.hasRemaining()) {
+					throw new NoSuchElementException();
+				}
+				try {
+					return new TBSCertList.CRLEntry(
+							ASN1Sequence.getInstance(decode(readElement(entries))));
+				} catch (CRLException e) {
+					throw new RuntimeException("CRL error: " + e.getMessage(),
+							e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Releases the CRL file, and removes the temporary DER file of a PEM
+	 * encoded CRL. The mapping itself is released once garbage collected.
+	 */
+	public void close() {
+		close(this.file, this.tempFile);
+	}
+
+	private static void close(RandomAccessFile file, File tempFile) {
+		try {
+			file.close();
+		} catch (IOException e) {
+			LOG.warn("could not close CRL file: " + e.getMessage());
+		}
+		deleteTempFile(tempFile);
+	}
+
+	private static void deleteTempFile(File tempFile) {
+		if (null != tempFile && !tempFile.delete()) {
+			LOG.warn("could not delete temp file: "
+					+ tempFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * A DER encoded CRL starts with a SEQUENCE tag, so anything else is
+	 * tried as PEM.
+	 */
+	private static boolean isPem(File crlFile) throws IOException {
+		FileInputStream input = new FileInputStream(crlFile);
+		try {
+			return TAG_SEQUENCE != input.read();
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Decodes the Base64 body of a PEM encoded CRL into a temporary DER file,
+	 * a chunk of lines at a time.
+	 */
+	private static File decodePem(File crlFile) throws IOException,
+			CRLException {
+		File tempFile = File.createTempFile("crl-", ".der");
+		boolean decoded = false;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(crlFile), "US-ASCII"));
+		try {
+			OutputStream output = new BufferedOutputStream(
+					new FileOutputStream(tempFile));
+			try {
+				String line;
+				while (null != (line = reader.readLine())
+						&& !PEM_BEGIN.equals(line.trim())) {
+					// skip explanatory text
+				}
+				if (null == line) {
+					throw new CRLException("not a DER or PEM encoded CRL");
+				}
+				StringBuilder base64 = new StringBuilder();
+				while (null != (line = reader.readLine())
+						&& !PEM_END.equals(line.trim())) {
+					base64.append(line.trim());
+					if (base64.length() >= PEM_CHUNK_SIZE) {
+						// decode whole groups of 4 characters only
+						int length = base64.length() - base64.length() % 4;
+						output.write(Base64.decode(base64.substring(0, length)));
+						base64.delete(0, length);
+					}
+				}
+				if (null == line) {
+					throw new CRLException("missing PEM end line");
+				}
+				output.write(Base64.decode(base64.toString()));
+			} finally {
+				output.close();
+			}
+			decoded = true;
+		} catch (RuntimeException e) {
+			// thrown by the Bouncy Castle Base64 decoder
+			throw new CRLException("invalid PEM CRL: " + e.getMessage(), e);
+		} finally {
+			reader.close();
+			if (!decoded) {
+				deleteTempFile(tempFile);
+			}
+		}
+		return tempFile;
+	}
+
+	private static String getDigestName(AlgorithmIdentifier digestAlgorithm)
+			throws NoSuchAlgorithmException {
+		DERObjectIdentifier digest = digestAlgorithm.getObjectId();
+		if (OIWObjectIdentifiers.idSHA1.equals(digest)) {
+			return "SHA-1";
+		}
+		if (NISTObjectIdentifiers.id_sha224.equals(digest)) {
+			return "SHA-224";
+		}
+		if (NISTObjectIdentifiers.id_sha256.equals(digest)) {
+			return "SHA-256";
+		}
+		if (NISTObjectIdentifiers.id_sha384.equals(digest)) {
+			return "SHA-384";
+		}
+		if (NISTObjectIdentifiers.id_sha512.equals(digest)) {
+			return "SHA-512";
+		}
+		throw new NoSuchAlgorithmException("unsupported PSS digest: "
+				+ digest.getId());
+	}
+
+	private static BigInteger getCrlNumber(X509Extensions extensions)
+			throws CRLException {
+		if (null == extensions) {
+			return null;
+		}
+		X509Extension extension = extensions
+				.getExtension(X509Extensions.CRLNumber);
+		if (null == extension) {
+			return null;
+		}
+		return DERInteger.getInstance(
+				decode(extension.getValue().getOctets())).getPositiveValue();
+	}
+
+	private static boolean isIndirectCRL(X509Extensions extensions)
+			throws CRLException {
+		if (null == extensions) {
+			return false;
+		}
+		X509Extension extension = extensions
+				.getExtension(X509Extensions.IssuingDistributionPoint);
+		if (null == extension) {
+			return false;
+		}
+		return IssuingDistributionPoint.getInstance(
+				decode(extension.getValue().getOctets())).isIndirectCRL();
+	}
+
+	private static Date readTime(ByteBuffer input) throws CRLException {
+		return Time.getInstance(decode(readElement(input))).getDate();
+	}
+
+	private static DERObject decode(byte[] encoded) throws CRLException {
+		try {
+			return new ASN1InputStream(encoded).readObject();
+		} catch (IOException e) {
+			throw new CRLException("DER decoding error: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Returns the tag of the next element, or <code>-1</code> if the given
+	 * end has been reached.
+	 */
+	private static int peekTag(ByteBuffer input, int end) {
+		if (input.position() >= end) {
+			return -1;
+		}
+		return input.get(input.position()) & 0xff;
+	}
+
+	/**
+	 * Reads the header of a constructed element and returns the end position
+	 * of its content. The input is positioned at the start of the content.
+	 */
+	private static int readHeader(ByteBuffer input, int expectedTag)
+			throws CRLException {
+		int tag = readByte(input);
+		if (expectedTag != tag) {
+			throw new CRLException("unexpected DER tag: " + tag);
+		}
+		int length = readLength(input);
+		return checkEnd(input, length);
+	}
+
+	/**
+	 * Copies the complete next element, header included.
+	 */
+	private static byte[] readElement(ByteBuffer input) throws CRLException {
+		int start = input.position();
+		readByte(input);
+		int length = readLength(input);
+		int end = checkEnd(input, length);
+		byte[] element = new byte[end - start];
+		input.position(start);
+		input.get(element);
+		return element;
+	}
+
+	private static void skip(ByteBuffer input) throws CRLException {
+		readByte(input);
+		int length = readLength(input);
+		input.position(checkEnd(input, length));
+	}
+
+	private static int readLength(ByteBuffer input) throws CRLException {
+		int length = readByte(input);
+		if (length < 0x80) {
+			return length;
+		}
+		int size = length & 0x7f;
+		if (0 == size || size > 4) {
+			throw new CRLException("unsupported DER length encoding");
+		}
+		length = 0;
+		for (int idx = 0; idx < size; idx++) {
+			length = (length << 8) | readByte(input);
+		}
+		if (length < 0) {
+			throw new CRLException("DER length out of range");
+		}
+		return length;
+	}
+
+	private static int readByte(ByteBuffer input) throws CRLException {
+		if (!input.hasRemaining()) {
+			throw new CRLException("truncated CRL");
+		}
+		return input.get() & 0xff;
+	}
+
+	private static int checkEnd(ByteBuffer input, int length)
+			throws CRLException {
+		if (length > input.remaining()) {
+			throw new CRLException("truncated CRL");
+		}
+		return input.position() + length;
+	}
+}
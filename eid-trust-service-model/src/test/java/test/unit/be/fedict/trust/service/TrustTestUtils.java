@@ -0,0 +1,204 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service;
+
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.Date;
+import java.util.Map;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.BasicOCSPRespGenerator;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.CertificateStatus;
+import org.bouncycastle.ocsp.OCSPResp;
+import org.bouncycastle.ocsp.OCSPRespGenerator;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+
+/**
+ * Generates the key pairs, certificates, CRLs and OCSP responses used by the
+ * unit tests.
+ */
+public class TrustTestUtils {
+
+	private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+
+	private TrustTestUtils() {
+
+		// empty
+	}
+
+	static {
+		if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+	}
+
+	public static KeyPair generateKeyPair() throws Exception {
+
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator
+				.getInstance("RSA");
+		keyPairGenerator.initialize(new RSAKeyGenParameterSpec(1024,
+				RSAKeyGenParameterSpec.F4), new SecureRandom());
+		return keyPairGenerator.generateKeyPair();
+	}
+
+	/**
+	 * Generates a certificate, self-signed if no issuer certificate is given.
+	 */
+	public static X509Certificate generateCertificate(
+			PublicKey subjectPublicKey, String subjectDn,
+			PrivateKey issuerPrivateKey, X509Certificate issuerCertificate,
+			Date notBefore, Date notAfter, boolean caCert) throws Exception {
+
+		X509V3CertificateGenerator certificateGenerator = new X509V3CertificateGenerator();
+		certificateGenerator.setPublicKey(subjectPublicKey);
+		certificateGenerator.setSignatureAlgorithm(SIGNATURE_ALGORITHM);
+		certificateGenerator.setNotBefore(notBefore);
+		certificateGenerator.setNotAfter(notAfter);
+		if (null != issuerCertificate) {
+			certificateGenerator.setIssuerDN(issuerCertificate
+					.getSubjectX500Principal());
+		} else {
+			certificateGenerator.setIssuerDN(new X500Principal(subjectDn));
+		}
+		certificateGenerator.setSubjectDN(new X500Principal(subjectDn));
+		certificateGenerator.setSerialNumber(new BigInteger(128,
+				new SecureRandom()));
+		certificateGenerator.addExtension(X509Extensions.BasicConstraints,
+				false, new BasicConstraints(caCert));
+		return certificateGenerator.generate(issuerPrivateKey);
+	}
+
+	/**
+	 * Generates a CRL revoking the specified serial numbers at the mapped
+	 * revocation dates.
+	 */
+	public static X509CRL generateCrl(PrivateKey issuerPrivateKey,
+			X509Certificate issuerCertificate, Date thisUpdate,
+			Date nextUpdate, BigInteger crlNumber,
+			Map<BigInteger, Date> revokedCertificates) throws Exception {
+
+		return generateCrl(issuerPrivateKey, issuerCertificate, thisUpdate,
+				nextUpdate, crlNumber, revokedCertificates,
+				SIGNATURE_ALGORITHM);
+	}
+
+	/**
+	 * Generates a CRL signed with the given signature algorithm.
+	 */
+	public static X509CRL generateCrl(PrivateKey issuerPrivateKey,
+			X509Certificate issuerCertificate, Date thisUpdate,
+			Date nextUpdate, BigInteger crlNumber,
+			Map<BigInteger, Date> revokedCertificates,
+			String signatureAlgorithm) throws Exception {
+
+		X509V2CRLGenerator crlGenerator = new X509V2CRLGenerator();
+		crlGenerator.setThisUpdate(thisUpdate);
+		crlGenerator.setNextUpdate(nextUpdate);
+		crlGenerator.setSignatureAlgorithm(signatureAlgorithm);
+		crlGenerator.setIssuerDN(issuerCertificate.getSubjectX500Principal());
+		for (Map.Entry<BigInteger, Date> revokedCertificate : revokedCertificates
+				.entrySet()) {
+			crlGenerator.addCRLEntry(revokedCertificate.getKey(),
+					revokedCertificate.getValue(), CRLReason.keyCompromise);
+		}
+		crlGenerator.addExtension(X509Extensions.CRLNumber, false,
+				new CRLNumber(crlNumber));
+		return crlGenerator.generate(issuerPrivateKey);
+	}
+
+	/**
+	 * Generates a successful OCSP response, signed by the issuer, stating that
+	 * the certificate is good.
+	 */
+	public static OCSPResp generateOcspResponse(X509Certificate certificate,
+			PrivateKey issuerPrivateKey, X509Certificate issuerCertificate,
+			Date thisUpdate, Date nextUpdate) throws Exception {
+
+		BasicOCSPRespGenerator basicOCSPRespGenerator = new BasicOCSPRespGenerator(
+				issuerCertificate.getPublicKey());
+		CertificateID certificateID = new CertificateID(
+				CertificateID.HASH_SHA1, issuerCertificate,
+				certificate.getSerialNumber());
+		basicOCSPRespGenerator.addResponse(certificateID,
+				CertificateStatus.GOOD, thisUpdate, nextUpdate, null);
+		BasicOCSPResp basicOCSPResp = basicOCSPRespGenerator.generate(
+				SIGNATURE_ALGORITHM, issuerPrivateKey, null, new Date(),
+				BouncyCastleProvider.PROVIDER_NAME);
+		OCSPRespGenerator ocspRespGenerator = new OCSPRespGenerator();
+		return ocspRespGenerator.generate(OCSPRespGenerator.SUCCESSFUL,
+				basicOCSPResp);
+	}
+
+	/**
+	 * Sets a private field, also one declared by a superclass, e.g. to inject
+	 * a container resource into a bean.
+	 */
+	public static void setField(Object object, String fieldName, Object value)
+			throws Exception {
+
+		getDeclaredField(object, fieldName).set(object, value);
+	}
+
+	/**
+	 * Reads a private field, also one declared by a superclass, e.g. to
+	 * inspect the internal state of a bean.
+	 */
+	public static Object getField(Object object, String fieldName)
+			throws Exception {
+
+		return getDeclaredField(object, fieldName).get(object);
+	}
+
+	private static Field getDeclaredField(Object object, String fieldName)
+			throws NoSuchFieldException {
+
+		Class<?> clazz = object.getClass();
+		while (true) {
+			try {
+				Field field = clazz.getDeclaredField(fieldName);
+				field.setAccessible(true);
+				return field;
+			} catch (NoSuchFieldException e) {
+				clazz = clazz.getSuperclass();
+				if (null == clazz) {
+					throw e;
+				}
+			}
+		}
+	}
+}
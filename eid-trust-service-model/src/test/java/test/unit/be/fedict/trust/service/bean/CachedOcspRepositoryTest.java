@@ -0,0 +1,334 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.ocsp.OCSPResp;
+import org.bouncycastle.ocsp.OCSPRespGenerator;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.ocsp.OcspRepository;
+import be.fedict.trust.service.bean.CachedOcspRepository;
+
+/**
+ * Unit test for the {@link CachedOcspRepository}.
+ */
+public class CachedOcspRepositoryTest {
+
+	private static final URI OCSP_URI = URI.create("http://ocsp.test");
+
+	private static final long HOUR = 1000 * 60 * 60;
+
+	private KeyPair caKeyPair;
+
+	private X509Certificate caCertificate;
+
+	private X509Certificate certificate;
+
+	private Date now;
+
+	private TestOcspRepository onlineOcspRepository;
+
+	@Before
+	public void setUp() throws Exception {
+		this.caKeyPair = TrustTestUtils.generateKeyPair();
+		// GeneralizedTime has a precision of seconds
+		this.now = new Date(System.currentTimeMillis() / 1000 * 1000);
+		Date notBefore = new Date(this.now.getTime() - HOUR);
+		Date notAfter = new Date(this.now.getTime() + 24 * HOUR);
+		this.caCertificate = TrustTestUtils.generateCertificate(
+				this.caKeyPair.getPublic(), "CN=Test CA",
+				this.caKeyPair.getPrivate(), null, notBefore, notAfter, true);
+		this.certificate = generateCertificate("CN=Test");
+		this.onlineOcspRepository = new TestOcspRepository();
+	}
+
+	@Test
+	public void testCachesUntilNextUpdate() throws Exception {
+		// setup
+		CachedOcspRepository ocspRepository = new CachedOcspRepository(
+				this.onlineOcspRepository, 24 * 60 * 60, 100);
+		OCSPResp ocspResp = addOcspResponse(this.certificate, this.now,
+				new Date(this.now.getTime() + HOUR));
+
+		// operate
+		OCSPResp result1 = findOcspResponse(ocspRepository, this.certificate);
+		OCSPResp result2 = findOcspResponse(ocspRepository, this.certificate);
+
+		// verify
+		assertSame(ocspResp, result1);
+		assertSame(ocspResp, result2);
+		assertEquals(1, this.onlineOcspRepository.fetches.get());
+	}
+
+	@Test
+	public void testExpiredResponseNotCached() throws Exception {
+		// setup
+		CachedOcspRepository ocspRepository = new CachedOcspRepository(
+				this.onlineOcspRepository, 24 * 60 * 60, 100);
+		OCSPResp ocspResp = addOcspResponse(this.certificate, new Date(
+				this.now.getTime() - 2 * HOUR), new Date(this.now.getTime()
+				- HOUR));
+
+		// operate
+		OCSPResp result1 = findOcspResponse(ocspRepository, this.certificate);
+		OCSPResp result2 = findOcspResponse(ocspRepository, this.certificate);
+
+		// verify: the caller still gets the response
+		assertSame(ocspResp, result1);
+		assertSame(ocspResp, result2);
+		assertEquals(2, this.onlineOcspRepository.fetches.get());
+	}
+
+	@Test
+	public void testMaxAgeCountedFromThisUpdate() throws Exception {
+		// setup: nextUpdate still ahead, but older than the maximum age
+		CachedOcspRepository ocspRepository = new CachedOcspRepository(
+				this.onlineOcspRepository, 60 * 60, 100);
+		addOcspResponse(this.certificate,
+				new Date(this.now.getTime() - 2 * HOUR), new Date(
+						this.now.getTime() + HOUR));
+
+		// operate
+		findOcspResponse(ocspRepository, this.certificate);
+		findOcspResponse(ocspRepository, this.certificate);
+
+		// verify
+		assertEquals(2, this.onlineOcspRepository.fetches.get());
+	}
+
+	@Test
+	public void testUnsuccessfulResponseNotCached() throws Exception {
+		// setup
+		CachedOcspRepository ocspRepository = new CachedOcspRepository(
+				this.onlineOcspRepository, 24 * 60 * 60, 100);
+		OCSPResp ocspResp = new OCSPRespGenerator().generate(
+				OCSPRespGenerator.TRY_LATER, null);
+		this.onlineOcspRepository.ocspResponses.put(
+				this.certificate.getSerialNumber(), ocspResp);
+
+		// operate
+		OCSPResp result1 = findOcspResponse(ocspRepository, this.certificate);
+		OCSPResp result2 = findOcspResponse(ocspRepository, this.certificate);
+
+		// verify
+		assertSame(ocspResp, result1);
+		assertSame(ocspResp, result2);
+		assertEquals(2, this.onlineOcspRepository.fetches.get());
+	}
+
+	@Test
+	public void testMissingResponseNotCached() throws Exception {
+		// setup
+		CachedOcspRepository ocspRepository = new CachedOcspRepository(
+				this.onlineOcspRepository, 24 * 60 * 60, 100);
+
+		// operate
+		assertNull(findOcspResponse(ocspRepository, this.certificate));
+		OCSPResp ocspResp = addOcspResponse(this.certificate, this.now,
+				new Date(this.now.getTime() + HOUR));
+		OCSPResp result = findOcspResponse(ocspRepository, this.certificate);
+
+		// verify
+		assertSame(ocspResp, result);
+		assertEquals(2, this.onlineOcspRepository.fetches.get());
+	}
+
+	@Test
+	public void testCachedPerCertificate() throws Exception {
+		// setup
+		CachedOcspRepository ocspRepository = new CachedOcspRepository(
+				this.onlineOcspRepository, 24 * 60 * 60, 100);
+		X509Certificate certificate2 = generateCertificate("CN=Test 2");
+		Date nextUpdate = new Date(this.now.getTime() + HOUR);
+		OCSPResp ocspResp1 = addOcspResponse(this.certificate, this.now,
+				nextUpdate);
+		OCSPResp ocspResp2 = addOcspResponse(certificate2, this.now,
+				nextUpdate);
+
+		// operate
+		OCSPResp result1 = findOcspResponse(ocspRepository, this.certificate);
+		OCSPResp result2 = findOcspResponse(ocspRepository, certificate2);
+
+		// verify
+		assertSame(ocspResp1, result1);
+		assertSame(ocspResp2, result2);
+		assertSame(ocspResp1,
+				findOcspResponse(ocspRepository, this.certificate));
+		assertSame(ocspResp2, findOcspResponse(ocspRepository, certificate2));
+		assertEquals(2, this.onlineOcspRepository.fetches.get());
+	}
+
+	@Test
+	public void testEvictsFirstExpiring() throws Exception {
+		// setup: room for a single response
+		CachedOcspRepository ocspRepository = new CachedOcspRepository(
+				this.onlineOcspRepository, 24 * 60 * 60, 1);
+		X509Certificate certificate2 = generateCertificate("CN=Test 2");
+		addOcspResponse(this.certificate, this.now, new Date(
+				this.now.getTime() + HOUR));
+		addOcspResponse(certificate2, this.now, new Date(this.now.getTime()
+				+ 2 * HOUR));
+		findOcspResponse(ocspRepository, this.certificate);
+
+		// operate
+		findOcspResponse(ocspRepository, certificate2);
+
+		// verify
+		assertEquals(2, this.onlineOcspRepository.fetches.get());
+		findOcspResponse(ocspRepository, certificate2);
+		assertEquals(2, this.onlineOcspRepository.fetches.get());
+		findOcspResponse(ocspRepository, this.certificate);
+		assertEquals(3, this.onlineOcspRepository.fetches.get());
+	}
+
+	@Test
+	public void testConcurrentRequestsShareSingleFetch() throws Exception {
+		// setup
+		final CachedOcspRepository ocspRepository = new CachedOcspRepository(
+				this.onlineOcspRepository, 24 * 60 * 60, 100);
+		OCSPResp ocspResp = addOcspResponse(this.certificate, this.now,
+				new Date(this.now.getTime() + HOUR));
+		this.onlineOcspRepository.release = new CountDownLatch(1);
+		final OCSPResp[] results = new OCSPResp[5];
+		Thread[] threads = new Thread[results.length];
+		for (int idx = 0; idx < threads.length; idx++) {
+			final int resultIdx = idx;
+			threads[idx] = new Thread() {
+
+				@Override
+				public void run() {
+					results[resultIdx] = findOcspResponse(ocspRepository,
+							CachedOcspRepositoryTest.this.certificate);
+				}
+			};
+		}
+
+		// operate: all threads block on the request of the first one
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		assertTrue(this.onlineOcspRepository.fetching.await(10,
+				TimeUnit.SECONDS));
+		for (Thread thread : threads) {
+			while (Thread.State.WAITING != thread.getState()) {
+				Thread.sleep(10);
+			}
+		}
+		this.onlineOcspRepository.release.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// verify
+		assertEquals(1, this.onlineOcspRepository.fetches.get());
+		for (OCSPResp result : results) {
+			assertSame(ocspResp, result);
+		}
+	}
+
+	@Test
+	public void testReset() throws Exception {
+		// setup
+		CachedOcspRepository ocspRepository = new CachedOcspRepository(
+				this.onlineOcspRepository, 24 * 60 * 60, 100);
+		addOcspResponse(this.certificate, this.now, new Date(
+				this.now.getTime() + HOUR));
+		findOcspResponse(ocspRepository, this.certificate);
+
+		// operate
+		ocspRepository.reset();
+		findOcspResponse(ocspRepository, this.certificate);
+
+		// verify
+		assertEquals(2, this.onlineOcspRepository.fetches.get());
+	}
+
+	private X509Certificate generateCertificate(String subjectDn)
+			throws Exception {
+
+		KeyPair keyPair = TrustTestUtils.generateKeyPair();
+		return TrustTestUtils.generateCertificate(keyPair.getPublic(),
+				subjectDn, this.caKeyPair.getPrivate(), this.caCertificate,
+				this.caCertificate.getNotBefore(),
+				this.caCertificate.getNotAfter(), false);
+	}
+
+	private OCSPResp addOcspResponse(X509Certificate certificate,
+			Date thisUpdate, Date nextUpdate) throws Exception {
+
+		OCSPResp ocspResp = TrustTestUtils.generateOcspResponse(certificate,
+				this.caKeyPair.getPrivate(), this.caCertificate, thisUpdate,
+				nextUpdate);
+		this.onlineOcspRepository.ocspResponses.put(
+				certificate.getSerialNumber(), ocspResp);
+		return ocspResp;
+	}
+
+	private OCSPResp findOcspResponse(CachedOcspRepository ocspRepository,
+			X509Certificate certificate) {
+
+		return ocspRepository.findOcspResponse(OCSP_URI, certificate,
+				this.caCertificate, this.now);
+	}
+
+	private static final class TestOcspRepository implements OcspRepository {
+
+		private final Map<BigInteger, OCSPResp> ocspResponses = new ConcurrentHashMap<BigInteger, OCSPResp>();
+
+		private final AtomicInteger fetches = new AtomicInteger();
+
+		private final CountDownLatch fetching = new CountDownLatch(1);
+
+		private volatile CountDownLatch release;
+
+		public OCSPResp findOcspResponse(URI ocspUri,
+				X509Certificate certificate,
+				X509Certificate issuerCertificate, Date validationDate) {
+			this.fetches.incrementAndGet();
+			this.fetching.countDown();
+			if (null != this.release) {
+				try {
+					this.release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return this.ocspResponses.get(certificate.getSerialNumber());
+		}
+	}
+}
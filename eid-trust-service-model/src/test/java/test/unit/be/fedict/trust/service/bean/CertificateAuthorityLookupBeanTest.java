@@ -0,0 +1,174 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.bouncycastle.ocsp.CertificateID;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.service.bean.CertificateAuthorityLookupBean;
+import be.fedict.trust.service.dao.CertificateAuthorityDAO;
+import be.fedict.trust.service.entity.CertificateAuthorityEntity;
+import be.fedict.trust.service.entity.DecodedCertificate;
+
+/**
+ * Unit test for the {@link CertificateAuthorityLookupBean} and the
+ * {@link DecodedCertificate} values it is built from.
+ */
+public class CertificateAuthorityLookupBeanTest {
+
+	private static final long HOUR = 1000 * 60 * 60;
+
+	private X509Certificate caCertificate;
+
+	private X509Certificate otherCaCertificate;
+
+	private List<CertificateAuthorityEntity> activeCertificateAuthorities;
+
+	private AtomicInteger listings;
+
+	private CertificateAuthorityLookupBean testedInstance;
+
+	@Before
+	public void setUp() throws Exception {
+		this.caCertificate = generateCaCertificate("CN=Test CA, O=Test",
+				new Date(System.currentTimeMillis() + HOUR));
+		this.otherCaCertificate = generateCaCertificate("CN=Other CA",
+				new Date(System.currentTimeMillis() + HOUR));
+		this.activeCertificateAuthorities = Arrays.asList(
+				new CertificateAuthorityEntity(null, this.caCertificate),
+				new CertificateAuthorityEntity(null, this.otherCaCertificate));
+		this.listings = new AtomicInteger();
+
+		this.testedInstance = new CertificateAuthorityLookupBean();
+		TrustTestUtils.setField(this.testedInstance, "certificateAuthorityDAO",
+				Proxy.newProxyInstance(getClass().getClassLoader(),
+						new Class<?>[] { CertificateAuthorityDAO.class },
+						new InvocationHandler() {
+
+							public Object invoke(Object proxy, Method method,
+									Object[] args) throws Throwable {
+								if ("listActiveCertificateAuthorities"
+										.equals(method.getName())) {
+									CertificateAuthorityLookupBeanTest.this.listings
+											.incrementAndGet();
+									return CertificateAuthorityLookupBeanTest.this.activeCertificateAuthorities;
+								}
+								return null;
+							}
+						}));
+	}
+
+	@Test
+	public void testLookupOcspIssuerNameHash() throws Exception {
+		// setup
+		CertificateID certificateID = new CertificateID(
+				CertificateID.HASH_SHA1, this.caCertificate, BigInteger.ONE);
+
+		// operate
+		String result = this.testedInstance.lookupName(certificateID
+				.getIssuerNameHash());
+		String result2 = this.testedInstance.lookupName(certificateID
+				.getIssuerNameHash());
+
+		// verify
+		assertEquals(this.caCertificate.getSubjectX500Principal().toString(),
+				result);
+		assertEquals(result, result2);
+		assertEquals(1, this.listings.get());
+	}
+
+	@Test
+	public void testLookupUnknownNameHash() throws Exception {
+		// operate
+		String result = this.testedInstance.lookupName(new byte[20]);
+
+		// verify
+		assertNull(result);
+	}
+
+	@Test
+	public void testDecodedCertificateShared() throws Exception {
+		// setup
+		CertificateAuthorityEntity certificateAuthority = new CertificateAuthorityEntity(
+				null, this.caCertificate);
+		CertificateAuthorityEntity certificateAuthority2 = new CertificateAuthorityEntity(
+				null, this.caCertificate);
+
+		// operate
+		DecodedCertificate result = certificateAuthority
+				.getDecodedCertificate();
+		DecodedCertificate result2 = certificateAuthority2
+				.getDecodedCertificate();
+
+		// verify
+		assertSame(result, result2);
+		assertSame(result.getCertificate(),
+				certificateAuthority2.getCertificate());
+		assertEquals(this.caCertificate, result.getCertificate());
+		assertEquals(this.caCertificate.getSubjectX500Principal().toString(),
+				result.getSubject());
+		assertEquals(this.caCertificate.getNotAfter(), result.getNotAfter());
+		assertEquals(DigestUtils.sha256Hex(this.caCertificate.getPublicKey()
+				.getEncoded()), result.getSpkiHash());
+		assertEquals(DigestUtils.shaHex(this.caCertificate
+				.getSubjectX500Principal().getEncoded()), result.getNameHash());
+	}
+
+	@Test
+	public void testExpired() throws Exception {
+		// setup
+		X509Certificate expiredCertificate = generateCaCertificate(
+				"CN=Expired CA", new Date(System.currentTimeMillis() - 1000));
+
+		// operate & verify
+		assertTrue(new CertificateAuthorityEntity(null, expiredCertificate)
+				.isExpired());
+		assertFalse(new CertificateAuthorityEntity(null, this.caCertificate)
+				.isExpired());
+	}
+
+	private static X509Certificate generateCaCertificate(String subjectDn,
+			Date notAfter) throws Exception {
+
+		KeyPair keyPair = TrustTestUtils.generateKeyPair();
+		return TrustTestUtils.generateCertificate(keyPair.getPublic(),
+				subjectDn, keyPair.getPrivate(), null,
+				new Date(notAfter.getTime() - 2 * HOUR), notAfter, true);
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import be.fedict.trust.service.CircuitBreakerStatus;
+import be.fedict.trust.service.bean.CircuitBreaker;
+import be.fedict.trust.service.bean.CircuitBreaker.State;
+
+/**
+ * Unit test for the state transitions of the {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest {
+
+	private static final String URL = "http://ocsp.test";
+
+	@Test
+	public void testStaysClosedBelowMinimumCalls() throws Exception {
+		// setup
+		CircuitBreaker circuitBreaker = new CircuitBreaker(URL, 10, 5, 50,
+				1000, 30);
+
+		// operate
+		for (int idx = 0; idx < 4; idx++) {
+			assertTrue(circuitBreaker.allowRequest());
+			assertNull(circuitBreaker.record(false, 10));
+		}
+
+		// verify
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		assertTrue(circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void testOpensAtFailureRateThreshold() throws Exception {
+		// setup
+		CircuitBreaker circuitBreaker = new CircuitBreaker(URL, 10, 4, 50,
+				1000, 30);
+		assertNull(circuitBreaker.record(true, 10));
+		assertNull(circuitBreaker.record(true, 10));
+		assertNull(circuitBreaker.record(false, 10));
+
+		// operate: 2 failures out of 4
+		State state = circuitBreaker.record(false, 10);
+
+		// verify
+		assertEquals(State.OPEN, state);
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		assertFalse(circuitBreaker.allowRequest());
+		CircuitBreakerStatus status = circuitBreaker.getStatus();
+		assertEquals(URL, status.getUrl());
+		assertEquals("OPEN", status.getState());
+		assertEquals(50, status.getFailureRate());
+		assertNotNull(status.getOpenedAt());
+	}
+
+	@Test
+	public void testSlowCallCountsAsFailure() throws Exception {
+		// setup
+		CircuitBreaker circuitBreaker = new CircuitBreaker(URL, 10, 2, 100,
+				1000, 30);
+		assertNull(circuitBreaker.record(true, 1000));
+
+		// operate
+		State state = circuitBreaker.record(true, 5000);
+
+		// verify
+		assertEquals(State.OPEN, state);
+		assertEquals(5000, circuitBreaker.getStatus().getLastLatency());
+	}
+
+	@Test
+	public void testSlidingWindowForgetsOldFailures() throws Exception {
+		// setup
+		CircuitBreaker circuitBreaker = new CircuitBreaker(URL, 4, 4, 75,
+				1000, 30);
+		assertNull(circuitBreaker.record(false, 10));
+		assertNull(circuitBreaker.record(false, 10));
+		assertNull(circuitBreaker.record(true, 10));
+		assertNull(circuitBreaker.record(true, 10));
+
+		// operate: pushes both failures out of the window
+		assertNull(circuitBreaker.record(true, 10));
+		assertNull(circuitBreaker.record(true, 10));
+		assertNull(circuitBreaker.record(false, 10));
+		assertNull(circuitBreaker.record(false, 10));
+
+		// verify
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		assertEquals(50, circuitBreaker.getStatus().getFailureRate());
+	}
+
+	@Test
+	public void testRejectsUntilOpenDurationPassed() throws Exception {
+		// setup
+		CircuitBreaker circuitBreaker = new CircuitBreaker(URL, 10, 1, 100,
+				1000, 3600);
+
+		// operate
+		assertEquals(State.OPEN, circuitBreaker.record(false, 10));
+
+		// verify
+		assertFalse(circuitBreaker.allowRequest());
+		assertFalse(circuitBreaker.allowRequest());
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	@Test
+	public void testSingleProbeClosesCircuit() throws Exception {
+		// setup: an open duration of 0 lets the probe through right away
+		CircuitBreaker circuitBreaker = new CircuitBreaker(URL, 10, 1, 100,
+				1000, 0);
+		assertEquals(State.OPEN, circuitBreaker.record(false, 10));
+
+		// operate
+		assertTrue(circuitBreaker.allowRequest());
+		assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+		assertFalse(circuitBreaker.allowRequest());
+		State state = circuitBreaker.record(true, 10);
+
+		// verify
+		assertEquals(State.CLOSED, state);
+		assertEquals(0, circuitBreaker.getStatus().getFailureRate());
+		assertTrue(circuitBreaker.allowRequest());
+		assertTrue(circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void testFailedProbeReopensCircuit() throws Exception {
+		// setup
+		CircuitBreaker circuitBreaker = new CircuitBreaker(URL, 10, 1, 100,
+				1000, 0);
+		assertEquals(State.OPEN, circuitBreaker.record(false, 10));
+		assertTrue(circuitBreaker.allowRequest());
+
+		// operate
+		State state = circuitBreaker.record(false, 10);
+
+		// verify
+		assertEquals(State.OPEN, state);
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	@Test
+	public void testLateResultWhileOpenIsIgnored() throws Exception {
+		// setup
+		CircuitBreaker circuitBreaker = new CircuitBreaker(URL, 10, 1, 100,
+				1000, 3600);
+		assertEquals(State.OPEN, circuitBreaker.record(false, 10));
+
+		// operate: request sent before the circuit opened
+		State state = circuitBreaker.record(true, 10);
+
+		// verify
+		assertNull(state);
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.crl.CrlRepository;
+import be.fedict.trust.service.bean.ConcurrentCrlRepository;
+
+/**
+ * Unit test for the {@link ConcurrentCrlRepository}.
+ */
+public class ConcurrentCrlRepositoryTest {
+
+	private static final URI CRL_URI = URI.create("http://crl.test/ca.crl");
+
+	private X509Certificate certificate;
+
+	private X509CRL crl;
+
+	private Date now;
+
+	private Date nextUpdate;
+
+	private TestCrlRepository onlineCrlRepository;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyPair keyPair = TrustTestUtils.generateKeyPair();
+		// UTCTime has a precision of seconds
+		this.now = new Date(System.currentTimeMillis() / 1000 * 1000);
+		this.nextUpdate = new Date(this.now.getTime() + 1000 * 60 * 60);
+		this.certificate = TrustTestUtils.generateCertificate(
+				keyPair.getPublic(), "CN=Test CA", keyPair.getPrivate(), null,
+				new Date(this.now.getTime() - 1000 * 60), this.nextUpdate,
+				true);
+		this.crl = TrustTestUtils.generateCrl(keyPair.getPrivate(),
+				this.certificate, this.now, this.nextUpdate, BigInteger.ONE,
+				new HashMap<BigInteger, Date>());
+		this.onlineCrlRepository = new TestCrlRepository(this.crl);
+	}
+
+	@Test
+	public void testCachesCrl() throws Exception {
+		// setup
+		ConcurrentCrlRepository crlRepository = new ConcurrentCrlRepository(
+				this.onlineCrlRepository, 24, Long.MAX_VALUE);
+
+		// operate
+		X509CRL result1 = crlRepository.findCrl(CRL_URI, this.certificate,
+				this.now);
+		X509CRL result2 = crlRepository.findCrl(CRL_URI, this.certificate,
+				this.now);
+
+		// verify
+		assertEquals(this.crl, result1);
+		assertEquals(this.crl, result2);
+		assertEquals(1, this.onlineCrlRepository.fetches.get());
+	}
+
+	@Test
+	public void testConcurrentRequestsShareSingleFetch() throws Exception {
+		// setup
+		final ConcurrentCrlRepository crlRepository = new ConcurrentCrlRepository(
+				this.onlineCrlRepository, 24, Long.MAX_VALUE);
+		this.onlineCrlRepository.release = new CountDownLatch(1);
+		final X509CRL[] results = new X509CRL[5];
+		Thread[] threads = new Thread[results.length];
+		for (int idx = 0; idx < threads.length; idx++) {
+			final int resultIdx = idx;
+			threads[idx] = new Thread() {
+
+				@Override
+				public void run() {
+					results[resultIdx] = crlRepository.findCrl(CRL_URI,
+							ConcurrentCrlRepositoryTest.this.certificate,
+							ConcurrentCrlRepositoryTest.this.now);
+				}
+			};
+		}
+
+		// operate: all threads block on the fetch of the first one
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		assertTrue(this.onlineCrlRepository.fetching.await(10,
+				TimeUnit.SECONDS));
+		for (Thread thread : threads) {
+			while (Thread.State.WAITING != thread.getState()) {
+				Thread.sleep(10);
+			}
+		}
+		this.onlineCrlRepository.release.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// verify
+		assertEquals(1, this.onlineCrlRepository.fetches.get());
+		for (X509CRL result : results) {
+			assertEquals(this.crl, result);
+		}
+	}
+
+	@Test
+	public void testFailedFetchNotCached() throws Exception {
+		// setup
+		ConcurrentCrlRepository crlRepository = new ConcurrentCrlRepository(
+				this.onlineCrlRepository, 24, Long.MAX_VALUE);
+		this.onlineCrlRepository.crl = null;
+		assertNull(crlRepository.findCrl(CRL_URI, this.certificate, this.now));
+
+		// operate
+		this.onlineCrlRepository.crl = this.crl;
+		X509CRL result = crlRepository.findCrl(CRL_URI, this.certificate,
+				this.now);
+
+		// verify
+		assertEquals(this.crl, result);
+		assertEquals(2, this.onlineCrlRepository.fetches.get());
+	}
+
+	@Test
+	public void testFetchExceptionNotCached() throws Exception {
+		// setup
+		ConcurrentCrlRepository crlRepository = new ConcurrentCrlRepository(
+				this.onlineCrlRepository, 24, Long.MAX_VALUE);
+		this.onlineCrlRepository.fail = true;
+		assertNull(crlRepository.findCrl(CRL_URI, this.certificate, this.now));
+
+		// operate
+		this.onlineCrlRepository.fail = false;
+		X509CRL result = crlRepository.findCrl(CRL_URI, this.certificate,
+				this.now);
+
+		// verify
+		assertEquals(this.crl, result);
+		assertEquals(2, this.onlineCrlRepository.fetches.get());
+	}
+
+	@Test
+	public void testExpiresAfterNextUpdate() throws Exception {
+		// setup
+		ConcurrentCrlRepository crlRepository = new ConcurrentCrlRepository(
+				this.onlineCrlRepository, 24, Long.MAX_VALUE);
+		crlRepository.findCrl(CRL_URI, this.certificate, this.now);
+		crlRepository.findCrl(CRL_URI, this.certificate, this.nextUpdate);
+		assertEquals(1, this.onlineCrlRepository.fetches.get());
+
+		// operate
+		X509CRL result = crlRepository.findCrl(CRL_URI, this.certificate,
+				new Date(this.nextUpdate.getTime() + 1000));
+
+		// verify
+		assertEquals(this.crl, result);
+		assertEquals(2, this.onlineCrlRepository.fetches.get());
+	}
+
+	@Test
+	public void testExpiresAfterCacheAging() throws Exception {
+		// setup: an aging time of 0 hours expires entries on the next lookup
+		ConcurrentCrlRepository crlRepository = new ConcurrentCrlRepository(
+				this.onlineCrlRepository, 0, Long.MAX_VALUE);
+		crlRepository.findCrl(CRL_URI, this.certificate, this.now);
+		Thread.sleep(10);
+
+		// operate
+		crlRepository.findCrl(CRL_URI, this.certificate, this.now);
+
+		// verify
+		assertEquals(2, this.onlineCrlRepository.fetches.get());
+	}
+
+	@Test
+	public void testReset() throws Exception {
+		// setup
+		ConcurrentCrlRepository crlRepository = new ConcurrentCrlRepository(
+				this.onlineCrlRepository, 24, Long.MAX_VALUE);
+		crlRepository.findCrl(CRL_URI, this.certificate, this.now);
+
+		// operate
+		crlRepository.reset();
+		X509CRL result = crlRepository.findCrl(CRL_URI, this.certificate,
+				this.now);
+
+		// verify
+		assertEquals(this.crl, result);
+		assertEquals(2, this.onlineCrlRepository.fetches.get());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		// setup: room for two CRLs
+		ConcurrentCrlRepository crlRepository = new ConcurrentCrlRepository(
+				this.onlineCrlRepository, 24, 2 * this.crl.getEncoded().length);
+		URI crlUri1 = URI.create("http://crl.test/1.crl");
+		URI crlUri2 = URI.create("http://crl.test/2.crl");
+		URI crlUri3 = URI.create("http://crl.test/3.crl");
+		crlRepository.findCrl(crlUri1, this.certificate, this.now);
+		crlRepository.findCrl(crlUri2, this.certificate, this.now);
+		crlRepository.findCrl(crlUri1, this.certificate, this.now);
+		assertEquals(2, this.onlineCrlRepository.fetches.get());
+
+		// operate
+		crlRepository.findCrl(crlUri3, this.certificate, this.now);
+
+		// verify: the second CRL was least recently used
+		assertEquals(3, this.onlineCrlRepository.fetches.get());
+		crlRepository.findCrl(crlUri1, this.certificate, this.now);
+		crlRepository.findCrl(crlUri3, this.certificate, this.now);
+		assertEquals(3, this.onlineCrlRepository.fetches.get());
+		X509CRL result = crlRepository.findCrl(crlUri2, this.certificate,
+				this.now);
+		assertEquals(this.crl, result);
+		assertEquals(4, this.onlineCrlRepository.fetches.get());
+	}
+
+	@Test
+	public void testCrlLargerThanCacheNotKept() throws Exception {
+		// setup
+		ConcurrentCrlRepository crlRepository = new ConcurrentCrlRepository(
+				this.onlineCrlRepository, 24, this.crl.getEncoded().length - 1);
+
+		// operate
+		X509CRL result1 = crlRepository.findCrl(CRL_URI, this.certificate,
+				this.now);
+		X509CRL result2 = crlRepository.findCrl(CRL_URI, this.certificate,
+				this.now);
+
+		// verify: the caller still gets the CRL
+		assertEquals(this.crl, result1);
+		assertEquals(this.crl, result2);
+		assertEquals(2, this.onlineCrlRepository.fetches.get());
+	}
+
+	private static final class TestCrlRepository implements CrlRepository {
+
+		private final AtomicInteger fetches = new AtomicInteger();
+
+		private final CountDownLatch fetching = new CountDownLatch(1);
+
+		private volatile X509CRL crl;
+
+		private volatile boolean fail;
+
+		private volatile CountDownLatch release;
+
+		TestCrlRepository(X509CRL crl) {
+			this.crl = crl;
+		}
+
+		public X509CRL findCrl(URI crlUri, X509Certificate issuerCertificate,
+				Date validationDate) {
+			this.fetches.incrementAndGet();
+			this.fetching.countDown();
+			if (null != this.release) {
+				try {
+					this.release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			if (this.fail) {
+				throw new RuntimeException("CRL download failed");
+			}
+			return this.crl;
+		}
+	}
+}
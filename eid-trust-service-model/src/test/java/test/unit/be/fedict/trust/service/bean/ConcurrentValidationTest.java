@@ -0,0 +1,226 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.trust.service.bean.ConcurrentValidation;
+
+/**
+ * Unit test for the {@link ConcurrentValidation}.
+ */
+public class ConcurrentValidationTest {
+
+	private List<Runnable> queuedTasks;
+
+	private Executor saturatedExecutor;
+
+	@Before
+	public void setUp() throws Exception {
+		this.queuedTasks = new LinkedList<Runnable>();
+		this.saturatedExecutor = new Executor() {
+
+			public void execute(Runnable task) {
+				// never picked up
+				ConcurrentValidationTest.this.queuedTasks.add(task);
+			}
+		};
+	}
+
+	@Test
+	public void testFirstValidResult() throws Exception {
+		// setup
+		ConcurrentValidation<String, Boolean> concurrentValidation = new TestConcurrentValidation(
+				this.saturatedExecutor);
+		TestValidation invalid = new TestValidation(false);
+		TestValidation valid = new TestValidation(true);
+		concurrentValidation.submit("invalid", invalid);
+		concurrentValidation.submit("valid", valid);
+
+		// operate
+		Boolean result = concurrentValidation.validate();
+
+		// verify
+		assertTrue(result);
+		assertEquals("valid", concurrentValidation.getValidKey());
+		assertEquals(1, invalid.calls.get());
+		assertEquals(1, valid.calls.get());
+	}
+
+	@Test
+	public void testSaturatedExecutorRunsOnCaller() throws Exception {
+		// setup
+		ConcurrentValidation<String, Boolean> concurrentValidation = new TestConcurrentValidation(
+				this.saturatedExecutor);
+		TestValidation valid = new TestValidation(true);
+		TestValidation unneeded = new TestValidation(false);
+		concurrentValidation.submit("valid", valid);
+		concurrentValidation.submit("unneeded", unneeded);
+
+		// operate
+		Boolean result = concurrentValidation.validate();
+
+		// verify
+		assertTrue(result);
+		assertSame(Thread.currentThread(), valid.thread);
+		assertEquals(0, unneeded.calls.get());
+		// the executor picking up the cancelled validation does not run it
+		for (Runnable task : this.queuedTasks) {
+			task.run();
+		}
+		assertEquals(1, valid.calls.get());
+		assertEquals(0, unneeded.calls.get());
+	}
+
+	@Test
+	public void testNoValidResult() throws Exception {
+		// setup
+		ConcurrentValidation<String, Boolean> concurrentValidation = new TestConcurrentValidation(
+				this.saturatedExecutor);
+		concurrentValidation.submit("first", new TestValidation(false));
+		concurrentValidation.submit("last", new TestValidation(false));
+
+		// operate
+		Boolean result = concurrentValidation.validate();
+
+		// verify
+		assertEquals(Boolean.FALSE, result);
+		assertNull(concurrentValidation.getValidKey());
+	}
+
+	@Test
+	public void testWaitsForValidationRunningOnExecutor() throws Exception {
+		// setup
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		try {
+			ConcurrentValidation<String, Boolean> concurrentValidation = new TestConcurrentValidation(
+					executorService);
+			concurrentValidation.submit("slow", new Callable<Boolean>() {
+
+				public Boolean call() throws Exception {
+					started.countDown();
+					assertTrue(release.await(10, TimeUnit.SECONDS));
+					return true;
+				}
+			});
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			TestValidation invalid = new TestValidation(false);
+			concurrentValidation.submit("invalid", invalid);
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						// empty
+					}
+					release.countDown();
+				}
+			}.start();
+
+			// operate
+			Boolean result = concurrentValidation.validate();
+
+			// verify
+			assertTrue(result);
+			assertEquals("slow", concurrentValidation.getValidKey());
+			assertSame(Thread.currentThread(), invalid.thread);
+		} finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testValidationFailure() throws Exception {
+		// setup
+		ConcurrentValidation<String, Boolean> concurrentValidation = new TestConcurrentValidation(
+				this.saturatedExecutor);
+		concurrentValidation.submit("failing", new Callable<Boolean>() {
+
+			public Boolean call() throws Exception {
+				throw new IllegalStateException("test");
+			}
+		});
+		TestValidation unneeded = new TestValidation(true);
+		concurrentValidation.submit("unneeded", unneeded);
+
+		// operate
+		try {
+			concurrentValidation.validate();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		// verify
+		assertEquals(0, unneeded.calls.get());
+	}
+
+	private static final class TestConcurrentValidation extends
+			ConcurrentValidation<String, Boolean> {
+
+		TestConcurrentValidation(Executor executor) {
+			super(executor);
+		}
+
+		@Override
+		protected boolean isValid(Boolean result) {
+			return result;
+		}
+	}
+
+	private static final class TestValidation implements Callable<Boolean> {
+
+		private final boolean valid;
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private volatile Thread thread;
+
+		TestValidation(boolean valid) {
+			this.valid = valid;
+		}
+
+		public Boolean call() throws Exception {
+			this.calls.incrementAndGet();
+			this.thread = Thread.currentThread();
+			return this.valid;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.transaction.Status;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.service.NotificationService;
+import be.fedict.trust.service.bean.DiscoveryCoordinatorBean;
+
+/**
+ * Unit test for the signal deduplication of the
+ * {@link DiscoveryCoordinatorBean}.
+ */
+public class DiscoveryCoordinatorBeanTest {
+
+	private static final String CA_NAME = "CN=Test CA";
+
+	private List<Object[]> discoveries;
+
+	private volatile boolean failing;
+
+	private TestTransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	private DiscoveryCoordinatorBean testedInstance;
+
+	@Before
+	public void setUp() throws Exception {
+		this.discoveries = new LinkedList<Object[]>();
+		this.transactionSynchronizationRegistry = new TestTransactionSynchronizationRegistry();
+
+		this.testedInstance = new DiscoveryCoordinatorBean();
+		TrustTestUtils.setField(this.testedInstance, "notificationService",
+				Proxy.newProxyInstance(getClass().getClassLoader(),
+						new Class<?>[] { NotificationService.class },
+						new InvocationHandler() {
+
+							public Object invoke(Object proxy, Method method,
+									Object[] args) throws Throwable {
+								if ("notifyDiscovery".equals(method.getName())) {
+									if (DiscoveryCoordinatorBeanTest.this.failing) {
+										throw new JMSException("test");
+									}
+									DiscoveryCoordinatorBeanTest.this.discoveries
+											.add(args);
+								}
+								return null;
+							}
+						}));
+		TrustTestUtils.setField(this.testedInstance,
+				"transactionSynchronizationRegistry",
+				this.transactionSynchronizationRegistry);
+	}
+
+	@Test
+	public void testDiscover() throws Exception {
+		// setup
+		KeyPair keyPair = TrustTestUtils.generateKeyPair();
+		Date now = new Date();
+		X509Certificate certificate = TrustTestUtils.generateCertificate(
+				keyPair.getPublic(), CA_NAME, keyPair.getPrivate(), null, now,
+				new Date(now.getTime() + 1000 * 60 * 60), true);
+
+		// operate
+		this.testedInstance.discover(CA_NAME, certificate,
+				"http://crl.test/ca.crl", true);
+
+		// verify
+		assertEquals(1, this.discoveries.size());
+		Object[] discovery = this.discoveries.get(0);
+		assertEquals(CA_NAME, discovery[0]);
+		assertArrayEquals(certificate.getEncoded(), (byte[]) discovery[1]);
+		assertEquals("http://crl.test/ca.crl", discovery[2]);
+		assertEquals(true, discovery[3]);
+	}
+
+	@Test
+	public void testPendingSignalDropsDuplicates() throws Exception {
+		// operate
+		this.testedInstance.discover(CA_NAME, null, null, false);
+		this.testedInstance.discover(CA_NAME, null, null, false);
+		this.testedInstance.discover("CN=Other CA", null, null, false);
+
+		// verify
+		assertEquals(2, this.discoveries.size());
+	}
+
+	@Test
+	public void testActivatingSignalReplacesPending() throws Exception {
+		// operate
+		this.testedInstance.discover(CA_NAME, null, null, false);
+		this.testedInstance.discover(CA_NAME, null, null, true);
+		this.testedInstance.discover(CA_NAME, null, null, true);
+		this.testedInstance.discover(CA_NAME, null, null, false);
+
+		// verify
+		assertEquals(2, this.discoveries.size());
+		assertEquals(false, this.discoveries.get(0)[3]);
+		assertEquals(true, this.discoveries.get(1)[3]);
+	}
+
+	@Test
+	public void testDiscoveredReleasesSignal() throws Exception {
+		// setup
+		this.testedInstance.discover(CA_NAME, null, null, true);
+
+		// operate
+		this.testedInstance.discovered(CA_NAME);
+		this.testedInstance.discover(CA_NAME, null, null, true);
+
+		// verify
+		assertEquals(2, this.discoveries.size());
+	}
+
+	@Test
+	public void testDiscoveredReleasesSignalAfterCompletion()
+			throws Exception {
+		// setup
+		this.testedInstance.discover(CA_NAME, null, null, true);
+		this.transactionSynchronizationRegistry.setTransactionKey("tx");
+
+		// operate
+		this.testedInstance.discovered(CA_NAME);
+		this.testedInstance.discover(CA_NAME, null, null, true);
+		this.transactionSynchronizationRegistry
+				.complete(Status.STATUS_ROLLEDBACK);
+		this.testedInstance.discover(CA_NAME, null, null, true);
+
+		// verify
+		assertEquals(2, this.discoveries.size());
+	}
+
+	@Test
+	public void testFailedSignalReleased() throws Exception {
+		// setup
+		this.failing = true;
+
+		// operate
+		this.testedInstance.discover(CA_NAME, null, null, true);
+		this.failing = false;
+		this.testedInstance.discover(CA_NAME, null, null, true);
+
+		// verify
+		assertEquals(1, this.discoveries.size());
+	}
+
+	@Test
+	public void testStalePendingSignalReplaced() throws Exception {
+		// setup
+		this.testedInstance.discover(CA_NAME, null, null, true);
+		Map<?, ?> pending = (Map<?, ?>) TrustTestUtils.getField(
+				this.testedInstance, "pending");
+		TrustTestUtils.setField(pending.get(CA_NAME), "since",
+				System.currentTimeMillis() - 1000 * 60 * 11);
+
+		// operate
+		this.testedInstance.discover(CA_NAME, null, null, true);
+		this.testedInstance.discover(CA_NAME, null, null, true);
+
+		// verify
+		assertEquals(2, this.discoveries.size());
+	}
+}
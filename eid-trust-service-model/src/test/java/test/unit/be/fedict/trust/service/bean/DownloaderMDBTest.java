@@ -0,0 +1,295 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.service.NotificationService;
+import be.fedict.trust.service.bean.DownloadMessage;
+import be.fedict.trust.service.bean.DownloaderMDB;
+import be.fedict.trust.service.bean.HarvestCoordinatorBean;
+import be.fedict.trust.service.bean.HttpClientServiceBean;
+import be.fedict.trust.service.bean.JMSMessage;
+import be.fedict.trust.service.dao.AuditDAO;
+import be.fedict.trust.service.dao.CertificateAuthorityDAO;
+import be.fedict.trust.service.dao.ConfigurationDAO;
+import be.fedict.trust.service.entity.CertificateAuthorityEntity;
+import be.fedict.trust.service.entity.Status;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit test for the conditional CRL download of the {@link DownloaderMDB},
+ * against a local HTTP server.
+ */
+public class DownloaderMDBTest {
+
+	private static final String CA_NAME = "CN=Test CA";
+
+	private static final byte[] CRL = "test CRL".getBytes();
+
+	private static final String ETAG = "\"2\"";
+
+	private HttpServer httpServer;
+
+	private List<String> ifNoneMatchHeaders;
+
+	private HttpClientServiceBean httpClientService;
+
+	private CertificateAuthorityEntity certificateAuthority;
+
+	private List<Object[]> harvesterNotifications;
+
+	private DownloaderMDB testedInstance;
+
+	@Before
+	public void setUp() throws Exception {
+		this.ifNoneMatchHeaders = new LinkedList<String>();
+		this.httpServer = HttpServer.create(new InetSocketAddress(
+				"localhost", 0), 0);
+		this.httpServer.createContext("/crl", new HttpHandler() {
+
+			public void handle(HttpExchange httpExchange) throws IOException {
+				String ifNoneMatch = httpExchange.getRequestHeaders()
+						.getFirst("If-None-Match");
+				DownloaderMDBTest.this.ifNoneMatchHeaders.add(ifNoneMatch);
+				httpExchange.getResponseHeaders().add("ETag", ETAG);
+				if (ETAG.equals(ifNoneMatch)) {
+					httpExchange.sendResponseHeaders(304, -1);
+				} else {
+					httpExchange.sendResponseHeaders(200, CRL.length);
+					OutputStream responseBody = httpExchange
+							.getResponseBody();
+					responseBody.write(CRL);
+					responseBody.close();
+				}
+				httpExchange.close();
+			}
+		});
+		this.httpServer.start();
+
+		this.certificateAuthority = new CertificateAuthorityEntity();
+		this.certificateAuthority.setName(CA_NAME);
+		this.certificateAuthority.setCrlUrl("http://localhost:"
+				+ this.httpServer.getAddress().getPort() + "/crl");
+		this.certificateAuthority.setStatus(Status.ACTIVE);
+
+		this.httpClientService = new HttpClientServiceBean();
+		TrustTestUtils.setField(this.httpClientService, "configurationDAO",
+				newProxy(ConfigurationDAO.class, null));
+		this.httpClientService.postConstruct();
+
+		this.harvesterNotifications = new LinkedList<Object[]>();
+		Map<String, Object> certificateAuthorityDAOResults = new HashMap<String, Object>();
+		certificateAuthorityDAOResults.put("findCertificateAuthority",
+				this.certificateAuthority);
+
+		this.testedInstance = new DownloaderMDB();
+		TrustTestUtils.setField(this.testedInstance, "certificateAuthorityDAO",
+				newProxy(CertificateAuthorityDAO.class,
+						certificateAuthorityDAOResults));
+		TrustTestUtils.setField(this.testedInstance, "httpClientService",
+				this.httpClientService);
+		TrustTestUtils.setField(this.testedInstance, "auditDAO",
+				newProxy(AuditDAO.class, null));
+		TrustTestUtils.setField(this.testedInstance, "notificationService",
+				newProxy(NotificationService.class, null));
+		TrustTestUtils.setField(this.testedInstance, "harvestCoordinator",
+				new HarvestCoordinatorBean());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (Object[] harvesterNotification : this.harvesterNotifications) {
+			new File((String) harvesterNotification[1]).delete();
+		}
+		this.httpClientService.preDestroy();
+		this.httpServer.stop(0);
+	}
+
+	@Test
+	public void testNotModified() throws Exception {
+		// setup
+		this.certificateAuthority.setCrlETag(ETAG);
+		this.certificateAuthority.setCrlHash("previous hash");
+
+		// operate
+		this.testedInstance.onMessage(getDownloadMessage(true));
+
+		// verify
+		assertEquals(ETAG, this.ifNoneMatchHeaders.get(0));
+		assertTrue(this.harvesterNotifications.isEmpty());
+		assertEquals(1L,
+				TrustTestUtils.getField(this.testedInstance, "notModified"));
+	}
+
+	@Test
+	public void testContentUnchanged() throws Exception {
+		// setup
+		this.certificateAuthority.setCrlETag("\"1\"");
+		this.certificateAuthority.setCrlHash(getHash(CRL));
+		int tempFiles = getTempFiles();
+
+		// operate
+		this.testedInstance.onMessage(getDownloadMessage(true));
+
+		// verify
+		assertEquals("\"1\"", this.ifNoneMatchHeaders.get(0));
+		assertTrue(this.harvesterNotifications.isEmpty());
+		assertEquals(1L,
+				TrustTestUtils.getField(this.testedInstance, "notModified"));
+		assertEquals(ETAG, this.certificateAuthority.getCrlETag());
+		assertEquals(tempFiles, getTempFiles());
+	}
+
+	@Test
+	public void testContentChanged() throws Exception {
+		// setup
+		this.certificateAuthority.setCrlETag("\"1\"");
+		this.certificateAuthority.setCrlHash("previous hash");
+
+		// operate
+		this.testedInstance.onMessage(getDownloadMessage(true));
+
+		// verify
+		assertEquals(1, this.harvesterNotifications.size());
+		Object[] harvesterNotification = this.harvesterNotifications.get(0);
+		assertEquals(CA_NAME, harvesterNotification[0]);
+		assertArrayEquals(CRL, FileUtils.readFileToByteArray(new File(
+				(String) harvesterNotification[1])));
+		assertEquals(true, harvesterNotification[2]);
+		assertEquals(ETAG, harvesterNotification[3]);
+		assertEquals(getHash(CRL), harvesterNotification[5]);
+		assertEquals(0L,
+				TrustTestUtils.getField(this.testedInstance, "notModified"));
+	}
+
+	/**
+	 * A CA whose CRL was never harvested successfully is downloaded
+	 * unconditionally, and harvested even if the content hash matches.
+	 */
+	@Test
+	public void testNotActiveDownloadsUnconditionally() throws Exception {
+		// setup
+		this.certificateAuthority.setStatus(Status.PROCESSING);
+		this.certificateAuthority.setCrlETag(ETAG);
+		this.certificateAuthority.setCrlHash(getHash(CRL));
+
+		// operate
+		this.testedInstance.onMessage(getDownloadMessage(false));
+
+		// verify
+		assertNull(this.ifNoneMatchHeaders.get(0));
+		assertEquals(1, this.harvesterNotifications.size());
+		assertEquals(false, this.harvesterNotifications.get(0)[2]);
+	}
+
+	private Message getDownloadMessage(boolean update) throws Exception {
+
+		final Message message = newProxy(Message.class, null);
+		Map<String, Object> sessionResults = new HashMap<String, Object>();
+		sessionResults.put("createMessage", message);
+		Message downloadMessage = new DownloadMessage(CA_NAME, update)
+				.getJMSMessage(newProxy(Session.class, sessionResults));
+		downloadMessage.setStringProperty(JMSMessage.MESSAGE_TYPE_PROPERTY,
+				DownloadMessage.class.getSimpleName());
+		return downloadMessage;
+	}
+
+	private static String getHash(byte[] data) throws Exception {
+
+		return Hex.encodeHexString(MessageDigest.getInstance("SHA-256")
+				.digest(data));
+	}
+
+	private static int getTempFiles() {
+
+		File tempDir = new File(System.getProperty("java.io.tmpdir"));
+		int tempFiles = 0;
+		for (String fileName : tempDir.list()) {
+			if (fileName.startsWith("trust-service-")) {
+				tempFiles++;
+			}
+		}
+		return tempFiles;
+	}
+
+	/**
+	 * Returns a proxy of the specified interface. A notified harvester is
+	 * recorded, a JMS message keeps its properties, and other methods return
+	 * the result mapped on the method name, if any.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T newProxy(Class<T> type, final Map<String, Object> results) {
+
+		final Map<String, Object> properties = new HashMap<String, Object>();
+		return (T) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { type }, new InvocationHandler() {
+
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						String methodName = method.getName();
+						if ("notifyHarvester".equals(methodName)) {
+							DownloaderMDBTest.this.harvesterNotifications
+									.add(args);
+							return null;
+						}
+						if (methodName.matches("set[A-Za-z]*Property")) {
+							properties.put((String) args[0], args[1]);
+							return null;
+						}
+						if (methodName.matches("get[A-Za-z]*Property")) {
+							return properties.get(args[0]);
+						}
+						if (null == results) {
+							return null;
+						}
+						return results.get(methodName);
+					}
+				});
+	}
+}
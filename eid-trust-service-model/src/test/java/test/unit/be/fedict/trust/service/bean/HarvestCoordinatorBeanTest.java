@@ -0,0 +1,97 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import javax.transaction.Status;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.service.bean.HarvestCoordinatorBean;
+
+/**
+ * Unit test for the {@link HarvestCoordinatorBean} permits.
+ */
+public class HarvestCoordinatorBeanTest {
+
+	private static final String CA_NAME = "CN=Test CA";
+
+	private HarvestCoordinatorBean harvestCoordinator;
+
+	private TestTransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	@Before
+	public void setUp() throws Exception {
+		this.harvestCoordinator = new HarvestCoordinatorBean();
+		this.transactionSynchronizationRegistry = new TestTransactionSynchronizationRegistry();
+		TrustTestUtils.setField(this.harvestCoordinator,
+				"transactionSynchronizationRegistry",
+				this.transactionSynchronizationRegistry);
+	}
+
+	@Test
+	public void testPermitIsExclusive() throws Exception {
+		// operate & verify
+		assertTrue(this.harvestCoordinator.tryAcquire(CA_NAME));
+		assertFalse(this.harvestCoordinator.tryAcquire(CA_NAME));
+		assertTrue(this.harvestCoordinator.tryAcquire("CN=Other CA"));
+
+		this.harvestCoordinator.release(CA_NAME);
+		assertTrue(this.harvestCoordinator.tryAcquire(CA_NAME));
+	}
+
+	@Test
+	public void testPermitReleasedAfterTransaction() throws Exception {
+		// setup
+		this.transactionSynchronizationRegistry.setTransactionKey(new Object());
+
+		// operate
+		assertTrue(this.harvestCoordinator.tryAcquire(CA_NAME));
+
+		// verify
+		assertFalse(this.harvestCoordinator.tryAcquire(CA_NAME));
+		this.transactionSynchronizationRegistry
+				.complete(Status.STATUS_ROLLEDBACK);
+		assertTrue(this.harvestCoordinator.tryAcquire(CA_NAME));
+	}
+
+	@Test
+	public void testReleasedPermitsArePruned() throws Exception {
+		// setup
+		for (int idx = 0; idx < 100; idx++) {
+			assertTrue(this.harvestCoordinator.tryAcquire("CN=CA " + idx));
+		}
+
+		// operate
+		for (int idx = 0; idx < 100; idx++) {
+			this.harvestCoordinator.release("CN=CA " + idx);
+		}
+
+		// verify
+		Set<?> permits = (Set<?>) TrustTestUtils.getField(
+				this.harvestCoordinator, "permits");
+		assertTrue(permits.isEmpty());
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.RevocationData;
+import be.fedict.trust.TrustLinker;
+import be.fedict.trust.TrustLinkerResult;
+import be.fedict.trust.service.bean.HedgedTrustLinker;
+import be.fedict.trust.service.bean.RevocationHedgingBean;
+
+/**
+ * Unit test for the races of the {@link HedgedTrustLinker}.
+ */
+public class HedgedTrustLinkerTest {
+
+	private static final long HOUR = 1000 * 60 * 60;
+
+	private X509Certificate caCertificate;
+
+	private X509Certificate certificate;
+
+	private String caName;
+
+	private RevocationHedgingBean revocationHedging;
+
+	private TestTrustLinker primaryTrustLinker;
+
+	private TestTrustLinker secondaryTrustLinker;
+
+	private HedgedTrustLinker hedgedTrustLinker;
+
+	@Before
+	public void setUp() throws Exception {
+		Date notBefore = new Date(System.currentTimeMillis() - HOUR);
+		Date notAfter = new Date(System.currentTimeMillis() + HOUR);
+		KeyPair caKeyPair = TrustTestUtils.generateKeyPair();
+		this.caCertificate = TrustTestUtils.generateCertificate(
+				caKeyPair.getPublic(), "CN=Test CA", caKeyPair.getPrivate(),
+				null, notBefore, notAfter, true);
+		KeyPair keyPair = TrustTestUtils.generateKeyPair();
+		this.certificate = TrustTestUtils.generateCertificate(
+				keyPair.getPublic(), "CN=Test", caKeyPair.getPrivate(),
+				this.caCertificate, notBefore, notAfter, false);
+		this.caName = this.certificate.getIssuerX500Principal().toString();
+
+		this.revocationHedging = new TestRevocationHedgingBean();
+		this.primaryTrustLinker = new TestTrustLinker();
+		this.secondaryTrustLinker = new TestTrustLinker();
+		this.hedgedTrustLinker = new HedgedTrustLinker(this.revocationHedging);
+		this.hedgedTrustLinker.addTrustLinker(this.primaryTrustLinker,
+				"1.2.3.1");
+		this.hedgedTrustLinker.addTrustLinker(this.secondaryTrustLinker,
+				"1.2.3.2");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.primaryTrustLinker.release.countDown();
+		this.secondaryTrustLinker.release.countDown();
+	}
+
+	@Test
+	public void testPrimaryAnswersWithinDelay() throws Exception {
+		// setup
+		setDelay(60 * 1000);
+
+		// operate
+		TrustLinkerResult result = hasTrustLink(null);
+
+		// verify
+		assertSame(this.primaryTrustLinker.result, result);
+		assertEquals(1, this.primaryTrustLinker.calls.get());
+		assertEquals(0, this.secondaryTrustLinker.calls.get());
+	}
+
+	@Test
+	public void testHedgesSlowPrimary() throws Exception {
+		// setup
+		setDelay(10);
+		this.primaryTrustLinker.blocking = true;
+
+		// operate
+		TrustLinkerResult result = hasTrustLink(null);
+
+		// verify: the primary is still running
+		assertSame(this.secondaryTrustLinker.result, result);
+		assertTrue(this.primaryTrustLinker.started.await(10, TimeUnit.SECONDS));
+		assertEquals(1, this.secondaryTrustLinker.calls.get());
+		assertEquals(1, this.primaryTrustLinker.release.getCount());
+	}
+
+	@Test
+	public void testSlowPrimaryCanStillWin() throws Exception {
+		// setup: the primary answers once the secondary started
+		setDelay(10);
+		this.primaryTrustLinker.awaiting = this.secondaryTrustLinker.started;
+		this.secondaryTrustLinker.blocking = true;
+
+		// operate
+		TrustLinkerResult result = hasTrustLink(null);
+
+		// verify
+		assertSame(this.primaryTrustLinker.result, result);
+		assertEquals(1, this.secondaryTrustLinker.calls.get());
+	}
+
+	@Test
+	public void testGivingUpStartsNextRightAway() throws Exception {
+		// setup: a delay the test would time out on
+		setDelay(60 * 1000);
+		this.primaryTrustLinker.result = null;
+
+		// operate
+		long startTime = System.currentTimeMillis();
+		TrustLinkerResult result = hasTrustLink(null);
+
+		// verify
+		assertSame(this.secondaryTrustLinker.result, result);
+		assertTrue(System.currentTimeMillis() - startTime < 30 * 1000);
+		assertEquals(1, this.primaryTrustLinker.calls.get());
+		assertEquals(1, this.secondaryTrustLinker.calls.get());
+	}
+
+	@Test
+	public void testAllGiveUp() throws Exception {
+		// setup
+		setDelay(10);
+		this.primaryTrustLinker.result = null;
+		this.secondaryTrustLinker.result = null;
+
+		// operate
+		TrustLinkerResult result = hasTrustLink(null);
+
+		// verify
+		assertNull(result);
+		assertEquals(1, this.primaryTrustLinker.calls.get());
+		assertEquals(1, this.secondaryTrustLinker.calls.get());
+	}
+
+	@Test
+	public void testRevocationDataOfWinnerOnly() throws Exception {
+		// setup
+		setDelay(10);
+		this.primaryTrustLinker.blocking = true;
+		RevocationData revocationData = new RevocationData();
+
+		// operate
+		TrustLinkerResult result = hasTrustLink(revocationData);
+
+		// verify: the primary added its OCSP response before blocking
+		assertSame(this.secondaryTrustLinker.result, result);
+		assertTrue(this.primaryTrustLinker.started.await(10, TimeUnit.SECONDS));
+		assertEquals(0, revocationData.getOcspRevocationData().size());
+		assertEquals(1, revocationData.getCrlRevocationData().size());
+	}
+
+	@Test
+	public void testPropagatesTrustLinkerError() throws Exception {
+		// setup
+		setDelay(60 * 1000);
+		this.primaryTrustLinker.error = new IllegalStateException("test");
+
+		// operate
+		try {
+			hasTrustLink(null);
+			fail();
+		} catch (IllegalStateException e) {
+			// verify
+			assertSame(this.primaryTrustLinker.error, e);
+		}
+	}
+
+	@Test
+	public void testDelayFollowsPrimaryLatency() throws Exception {
+		// setup
+		setDelay(60 * 1000);
+		TrustTestUtils.setField(this.revocationHedging, "minDelay", 5000);
+		TrustTestUtils.setField(this.revocationHedging, "maxDelay", 10000);
+		assertEquals(60 * 1000, this.revocationHedging.getDelay(this.caName));
+
+		// operate
+		for (int idx = 0; idx < 10; idx++) {
+			hasTrustLink(null);
+		}
+
+		// verify: fast answers, so bounded by the minimum delay
+		assertEquals(5000, this.revocationHedging.getDelay(this.caName));
+		assertEquals(60 * 1000,
+				this.revocationHedging.getDelay("CN=Other CA"));
+	}
+
+	@Test
+	public void testSaturatedExecutorRunsOneAttemptAtATime() throws Exception {
+		// setup
+		setDelay(10);
+		((TestRevocationHedgingBean) this.revocationHedging).saturated = true;
+
+		// operate
+		TrustLinkerResult result = hasTrustLink(null);
+
+		// verify: the secondary is not needed once the primary answered
+		assertSame(this.primaryTrustLinker.result, result);
+		assertSame(Thread.currentThread(), this.primaryTrustLinker.thread);
+		assertEquals(0, this.secondaryTrustLinker.calls.get());
+	}
+
+	@Test
+	public void testSaturatedExecutorRunsNextAttemptIfNeeded()
+			throws Exception {
+		// setup
+		setDelay(10);
+		((TestRevocationHedgingBean) this.revocationHedging).saturated = true;
+		this.primaryTrustLinker.result = null;
+
+		// operate
+		TrustLinkerResult result = hasTrustLink(null);
+
+		// verify
+		assertSame(this.secondaryTrustLinker.result, result);
+		assertSame(Thread.currentThread(), this.secondaryTrustLinker.thread);
+		assertEquals(1, this.primaryTrustLinker.calls.get());
+	}
+
+	private void setDelay(int delay) throws Exception {
+
+		TrustTestUtils.setField(this.revocationHedging, "defaultDelay", delay);
+	}
+
+	private TrustLinkerResult hasTrustLink(RevocationData revocationData) {
+
+		return this.hedgedTrustLinker.hasTrustLink(this.certificate,
+				this.caCertificate, new Date(), revocationData);
+	}
+
+	/**
+	 * Runs every revocation source on a thread of its own. Only returns once
+	 * the thread is blocked or done, so the hedged trust linker never runs a
+	 * blocking revocation source on the validating thread. A saturated
+	 * executor never runs the revocation sources.
+	 */
+	private static final class TestRevocationHedgingBean extends
+			RevocationHedgingBean {
+
+		private volatile boolean saturated;
+
+		@Override
+		public Executor getExecutor() {
+			return new Executor() {
+
+				public void execute(Runnable command) {
+					if (TestRevocationHedgingBean.this.saturated) {
+						return;
+					}
+					Thread thread = new Thread(command);
+					thread.start();
+					while (Thread.State.WAITING != thread.getState()
+							&& Thread.State.TERMINATED != thread.getState()) {
+						Thread.yield();
+					}
+				}
+			};
+		}
+	}
+
+	private static final class TestTrustLinker implements TrustLinker {
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		private volatile TrustLinkerResult result = new TrustLinkerResult(
+				true);
+
+		private volatile boolean blocking;
+
+		private volatile CountDownLatch awaiting;
+
+		private volatile RuntimeException error;
+
+		private volatile Thread thread;
+
+		public TrustLinkerResult hasTrustLink(X509Certificate childCertificate,
+				X509Certificate certificate, Date validationDate,
+				RevocationData revocationData) {
+			this.calls.incrementAndGet();
+			this.thread = Thread.currentThread();
+			if (null != revocationData) {
+				// placeholders, only the number of entries is checked
+				if (this.blocking) {
+					revocationData.getOcspRevocationData().add(null);
+				} else {
+					revocationData.getCrlRevocationData().add(null);
+				}
+			}
+			this.started.countDown();
+			try {
+				if (this.blocking) {
+					this.release.await();
+				}
+				if (null != this.awaiting) {
+					this.awaiting.await();
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			if (null != this.error) {
+				throw this.error;
+			}
+			return this.result;
+		}
+	}
+}
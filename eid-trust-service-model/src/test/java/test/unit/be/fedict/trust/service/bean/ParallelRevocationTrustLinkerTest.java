@@ -0,0 +1,332 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.CertificateRepository;
+import be.fedict.trust.RevocationData;
+import be.fedict.trust.TrustLinker;
+import be.fedict.trust.TrustLinkerResult;
+import be.fedict.trust.service.bean.ParallelRevocationTrustLinker;
+
+/**
+ * Unit test for the {@link ParallelRevocationTrustLinker}.
+ */
+public class ParallelRevocationTrustLinkerTest {
+
+	private static final long HOUR = 1000 * 60 * 60;
+
+	private KeyPair caKeyPair;
+
+	private X509Certificate rootCertificate;
+
+	private X509Certificate caCertificate;
+
+	private X509Certificate certificate;
+
+	private List<X509Certificate> certificateChain;
+
+	private CertificateRepository certificateRepository;
+
+	private Date validationDate;
+
+	private TestTrustLinker trustLinker;
+
+	private RecordingExecutor recordingExecutor;
+
+	@Before
+	public void setUp() throws Exception {
+		Date notBefore = new Date(System.currentTimeMillis() - HOUR);
+		Date notAfter = new Date(System.currentTimeMillis() + HOUR);
+		KeyPair rootKeyPair = TrustTestUtils.generateKeyPair();
+		this.rootCertificate = TrustTestUtils.generateCertificate(
+				rootKeyPair.getPublic(), "CN=Test Root",
+				rootKeyPair.getPrivate(), null, notBefore, notAfter, true);
+		this.caKeyPair = TrustTestUtils.generateKeyPair();
+		this.caCertificate = TrustTestUtils.generateCertificate(
+				this.caKeyPair.getPublic(), "CN=Test CA",
+				rootKeyPair.getPrivate(), this.rootCertificate, notBefore,
+				notAfter, true);
+		KeyPair keyPair = TrustTestUtils.generateKeyPair();
+		this.certificate = TrustTestUtils.generateCertificate(
+				keyPair.getPublic(), "CN=Test", this.caKeyPair.getPrivate(),
+				this.caCertificate, notBefore, notAfter, false);
+		this.certificateChain = Arrays.asList(this.certificate,
+				this.caCertificate, this.rootCertificate);
+
+		this.certificateRepository = new CertificateRepository() {
+
+			public boolean isTrustPoint(X509Certificate certificate) {
+				return ParallelRevocationTrustLinkerTest.this.rootCertificate
+						.equals(certificate);
+			}
+		};
+		this.validationDate = new Date();
+		this.trustLinker = new TestTrustLinker();
+		this.recordingExecutor = new RecordingExecutor();
+	}
+
+	@Test
+	public void testResolvesLinksConcurrently() throws Exception {
+		// setup: each check only completes while the other one is running
+		this.trustLinker.running = new CountDownLatch(2);
+		ParallelRevocationTrustLinker parallelTrustLinker = new ParallelRevocationTrustLinker(
+				this.trustLinker, new ThreadExecutor());
+
+		// operate
+		assertTrue(parallelTrustLinker.prefetch(this.certificateChain,
+				this.certificateRepository, this.validationDate, false));
+		TrustLinkerResult result1 = parallelTrustLinker.hasTrustLink(
+				this.certificate, this.caCertificate, this.validationDate,
+				null);
+		TrustLinkerResult result2 = parallelTrustLinker.hasTrustLink(
+				this.caCertificate, this.rootCertificate, this.validationDate,
+				null);
+
+		// verify
+		assertNotNull(result1);
+		assertTrue(result1.isValid());
+		assertNotNull(result2);
+		assertTrue(result2.isValid());
+		assertEquals(2, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testRunsPendingLinkOnValidatingThread() throws Exception {
+		// setup
+		ParallelRevocationTrustLinker parallelTrustLinker = new ParallelRevocationTrustLinker(
+				this.trustLinker, this.recordingExecutor);
+		assertTrue(parallelTrustLinker.prefetch(this.certificateChain,
+				this.certificateRepository, this.validationDate, false));
+		assertEquals(2, this.recordingExecutor.commands.size());
+
+		// operate
+		TrustLinkerResult result = parallelTrustLinker.hasTrustLink(
+				this.certificate, this.caCertificate, this.validationDate,
+				null);
+
+		// verify
+		assertSame(this.trustLinker.result, result);
+		assertSame(Thread.currentThread(), this.trustLinker.lastThread);
+
+		// a link runs only once
+		for (Runnable command : this.recordingExecutor.commands) {
+			command.run();
+		}
+		assertSame(this.trustLinker.result, parallelTrustLinker.hasTrustLink(
+				this.certificate, this.caCertificate, this.validationDate,
+				null));
+		assertEquals(2, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testUntrustedChainNotPrefetched() throws Exception {
+		// setup
+		ParallelRevocationTrustLinker parallelTrustLinker = new ParallelRevocationTrustLinker(
+				this.trustLinker, this.recordingExecutor);
+
+		// operate
+		boolean result = parallelTrustLinker.prefetch(
+				this.certificateChain.subList(0, 2),
+				this.certificateRepository, this.validationDate, false);
+
+		// verify
+		assertFalse(result);
+		assertTrue(this.recordingExecutor.commands.isEmpty());
+		parallelTrustLinker.hasTrustLink(this.certificate, this.caCertificate,
+				this.validationDate, null);
+		assertSame(Thread.currentThread(), this.trustLinker.lastThread);
+		assertEquals(1, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testUnchainedChainNotPrefetched() throws Exception {
+		// setup: the certificate is not issued by the root
+		ParallelRevocationTrustLinker parallelTrustLinker = new ParallelRevocationTrustLinker(
+				this.trustLinker, this.recordingExecutor);
+
+		// operate
+		boolean result = parallelTrustLinker.prefetch(
+				Arrays.asList(this.certificate, this.rootCertificate),
+				this.certificateRepository, this.validationDate, false);
+
+		// verify
+		assertFalse(result);
+		assertTrue(this.recordingExecutor.commands.isEmpty());
+	}
+
+	@Test
+	public void testHandsOverRevocationData() throws Exception {
+		// setup
+		ParallelRevocationTrustLinker parallelTrustLinker = new ParallelRevocationTrustLinker(
+				this.trustLinker, this.recordingExecutor);
+		assertTrue(parallelTrustLinker.prefetch(this.certificateChain,
+				this.certificateRepository, this.validationDate, true));
+		RevocationData revocationData = new RevocationData();
+
+		// operate
+		for (Runnable command : this.recordingExecutor.commands) {
+			command.run();
+		}
+		parallelTrustLinker.hasTrustLink(this.certificate, this.caCertificate,
+				this.validationDate, revocationData);
+		parallelTrustLinker.hasTrustLink(this.caCertificate,
+				this.rootCertificate, this.validationDate, revocationData);
+
+		// verify
+		assertEquals(2, this.trustLinker.calls.get());
+		assertEquals(2, revocationData.getOcspRevocationData().size());
+		assertEquals(2, revocationData.getCrlRevocationData().size());
+	}
+
+	@Test
+	public void testOtherRequestsNotPrefetched() throws Exception {
+		// setup
+		ParallelRevocationTrustLinker parallelTrustLinker = new ParallelRevocationTrustLinker(
+				this.trustLinker, this.recordingExecutor);
+		assertTrue(parallelTrustLinker.prefetch(this.certificateChain,
+				this.certificateRepository, this.validationDate, false));
+
+		// operate
+		parallelTrustLinker.hasTrustLink(this.certificate, this.caCertificate,
+				new Date(this.validationDate.getTime() - HOUR), null);
+		parallelTrustLinker.hasTrustLink(this.certificate, this.caCertificate,
+				this.validationDate, new RevocationData());
+		parallelTrustLinker.hasTrustLink(this.certificate,
+				this.rootCertificate, this.validationDate, null);
+
+		// verify: checked directly, the prefetched link is still pending
+		assertEquals(3, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testCancelSkipsPendingLinks() throws Exception {
+		// setup
+		ParallelRevocationTrustLinker parallelTrustLinker = new ParallelRevocationTrustLinker(
+				this.trustLinker, this.recordingExecutor);
+		assertTrue(parallelTrustLinker.prefetch(this.certificateChain,
+				this.certificateRepository, this.validationDate, false));
+
+		// operate
+		parallelTrustLinker.cancel();
+		for (Runnable command : this.recordingExecutor.commands) {
+			command.run();
+		}
+
+		// verify
+		assertEquals(0, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testPropagatesTrustLinkerError() throws Exception {
+		// setup
+		this.trustLinker.error = new IllegalStateException("test");
+		ParallelRevocationTrustLinker parallelTrustLinker = new ParallelRevocationTrustLinker(
+				this.trustLinker, new ThreadExecutor());
+		assertTrue(parallelTrustLinker.prefetch(this.certificateChain,
+				this.certificateRepository, this.validationDate, false));
+
+		// operate
+		try {
+			parallelTrustLinker.hasTrustLink(this.certificate,
+					this.caCertificate, this.validationDate, null);
+			fail();
+		} catch (IllegalStateException e) {
+			// verify
+			assertSame(this.trustLinker.error, e);
+		}
+	}
+
+	private static final class TestTrustLinker implements TrustLinker {
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private final TrustLinkerResult result = new TrustLinkerResult(true);
+
+		private volatile CountDownLatch running;
+
+		private volatile RuntimeException error;
+
+		private volatile Thread lastThread;
+
+		public TrustLinkerResult hasTrustLink(X509Certificate childCertificate,
+				X509Certificate certificate, Date validationDate,
+				RevocationData revocationData) {
+			this.calls.incrementAndGet();
+			this.lastThread = Thread.currentThread();
+			if (null != this.error) {
+				throw this.error;
+			}
+			if (null != this.running) {
+				this.running.countDown();
+				try {
+					if (!this.running.await(10, TimeUnit.SECONDS)) {
+						return null;
+					}
+				} catch (InterruptedException e) {
+					return null;
+				}
+			}
+			if (null != revocationData) {
+				// placeholders, only the number of entries is checked
+				revocationData.getOcspRevocationData().add(null);
+				revocationData.getCrlRevocationData().add(null);
+			}
+			return this.result;
+		}
+	}
+
+	private static final class ThreadExecutor implements Executor {
+
+		public void execute(Runnable command) {
+			new Thread(command).start();
+		}
+	}
+
+	private static final class RecordingExecutor implements Executor {
+
+		private final List<Runnable> commands = new LinkedList<Runnable>();
+
+		public void execute(Runnable command) {
+			this.commands.add(command);
+		}
+	}
+}
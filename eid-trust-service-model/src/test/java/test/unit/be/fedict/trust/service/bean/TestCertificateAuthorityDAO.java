@@ -0,0 +1,153 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.trust.service.bean;
+
+import java.math.BigInteger;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.x500.X500Principal;
+
+import be.fedict.trust.service.dao.CertificateAuthorityDAO;
+import be.fedict.trust.service.entity.CertificateAuthorityEntity;
+import be.fedict.trust.service.entity.RevokedCertificateEntity;
+import be.fedict.trust.service.entity.TrustPointEntity;
+import be.fedict.trust.service.util.CrlEntryCursor;
+import be.fedict.trust.service.util.RevocationIndex;
+
+/**
+ * {@link CertificateAuthorityDAO} for unit tests. Only gives back the CRL
+ * versions set by the test, as if persisted by the harvester of any cluster
+ * node.
+ */
+public class TestCertificateAuthorityDAO implements CertificateAuthorityDAO {
+
+	private final Map<String, String> crlVersions = new ConcurrentHashMap<String, String>();
+
+	private final AtomicInteger crlVersionQueries = new AtomicInteger();
+
+	public void setCrlVersion(String caName, String crlVersion) {
+
+		this.crlVersions.put(caName, crlVersion);
+	}
+
+	/**
+	 * Returns the number of times the CRL versions were queried.
+	 */
+	public int getCrlVersionQueries() {
+
+		return this.crlVersionQueries.get();
+	}
+
+	public Map<String, String> getCrlVersions() {
+
+		this.crlVersionQueries.incrementAndGet();
+		return new HashMap<String, String>(this.crlVersions);
+	}
+
+	public CertificateAuthorityEntity findCertificateAuthority(String name) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public CertificateAuthorityEntity addCertificateAuthority(
+			X509Certificate certificate, String crlUrl) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public CertificateAuthorityEntity findCertificateAuthority(
+			X509Certificate certificate) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public void removeCertificateAuthorities(TrustPointEntity trustPoint) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public void removeCertificateAuthority(CertificateAuthorityEntity ca) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public RevokedCertificateEntity addRevokedCertificate(String issuerName,
+			BigInteger serialNumber, Date revocationDate, BigInteger crlNumber) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public void updateRevokedCertificates(
+			Set<X509CRLEntry> revokedCertificates, BigInteger crlNumber,
+			X500Principal crlIssuer) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public int mergeRevokedCertificates(String issuerName,
+			CrlEntryCursor crlEntries, BigInteger crlNumber) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public int removeRevokedCertificates(String issuerName) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public RevocationIndex getRevocationIndex(
+			CertificateAuthorityEntity certificateAuthority) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public BigInteger findCrlNumber(String issuerName) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public List<CertificateAuthorityEntity> listCertificateAuthorities() {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public long getTotalCachedCertificates() {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public long getTotalActiveCachedCAs() {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public List<CertificateAuthorityEntity> listActiveCertificateAuthorities() {
+
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.trust.service.bean;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * {@link TransactionSynchronizationRegistry} for unit tests. Runs outside of
+ * a transaction unless a transaction key is set, and completes the registered
+ * synchronizations on request.
+ */
+public class TestTransactionSynchronizationRegistry implements
+		TransactionSynchronizationRegistry {
+
+	private final List<Synchronization> synchronizations = new LinkedList<Synchronization>();
+
+	private Object transactionKey;
+
+	public void setTransactionKey(Object transactionKey) {
+
+		this.transactionKey = transactionKey;
+	}
+
+	/**
+	 * Completes the transaction, invoking the registered synchronizations.
+	 */
+	public void complete(int status) {
+
+		for (Synchronization synchronization : this.synchronizations) {
+			synchronization.beforeCompletion();
+		}
+		for (Synchronization synchronization : this.synchronizations) {
+			synchronization.afterCompletion(status);
+		}
+		this.synchronizations.clear();
+		this.transactionKey = null;
+	}
+
+	public Object getTransactionKey() {
+
+		return this.transactionKey;
+	}
+
+	public void putResource(Object key, Object value) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public Object getResource(Object key) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public void registerInterposedSynchronization(Synchronization sync) {
+
+		if (null == this.transactionKey) {
+			throw new IllegalStateException("no transaction");
+		}
+		this.synchronizations.add(sync);
+	}
+
+	public int getTransactionStatus() {
+
+		return null == this.transactionKey ? Status.STATUS_NO_TRANSACTION
+				: Status.STATUS_ACTIVE;
+	}
+
+	public void setRollbackOnly() {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean getRollbackOnly() {
+
+		return false;
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.service.bean.RevocationHedgingBean;
+import be.fedict.trust.service.bean.TrustConfigurationSnapshot;
+import be.fedict.trust.service.bean.TrustValidatorTemplate;
+import be.fedict.trust.service.bean.ValidationResultCacheBean;
+import be.fedict.trust.service.entity.CertificateAuthorityEntity;
+import be.fedict.trust.service.entity.TrustDomainEntity;
+import be.fedict.trust.service.entity.TrustPointEntity;
+import be.fedict.trust.service.entity.VirtualTrustDomainEntity;
+import be.fedict.trust.service.exception.TrustDomainNotFoundException;
+
+/**
+ * Unit test for the trust domain lookup and the virtual trust domain routing
+ * of the {@link TrustConfigurationSnapshot}.
+ */
+public class TrustConfigurationSnapshotTest {
+
+	private static final long HOUR = 1000 * 60 * 60;
+
+	private KeyPair rootKeyPairA;
+
+	private X509Certificate rootCertificateA;
+
+	private KeyPair rootKeyPairB;
+
+	private X509Certificate rootCertificateB;
+
+	private Map<String, TrustValidatorTemplate> templates;
+
+	private TrustDomainEntity trustDomainA;
+
+	private VirtualTrustDomainEntity virtualTrustDomain;
+
+	@Before
+	public void setUp() throws Exception {
+		this.rootKeyPairA = TrustTestUtils.generateKeyPair();
+		this.rootCertificateA = generateRootCertificate(this.rootKeyPairA,
+				"CN=Test Root A");
+		this.rootKeyPairB = TrustTestUtils.generateKeyPair();
+		this.rootCertificateB = generateRootCertificate(this.rootKeyPairB,
+				"CN=Test Root B");
+
+		RevocationHedgingBean revocationHedging = new RevocationHedgingBean();
+		TrustTestUtils.setField(revocationHedging, "hedging", false);
+		ValidationResultCacheBean validationResultCache = new ValidationResultCacheBean();
+
+		this.trustDomainA = getTrustDomain("A", this.rootCertificateA);
+		TrustDomainEntity trustDomainB = getTrustDomain("B",
+				this.rootCertificateB);
+		TrustDomainEntity trustDomainAB = getTrustDomain("AB",
+				this.rootCertificateA, this.rootCertificateB);
+		this.templates = new HashMap<String, TrustValidatorTemplate>();
+		for (TrustDomainEntity trustDomain : Arrays.asList(this.trustDomainA,
+				trustDomainB, trustDomainAB)) {
+			this.templates.put(trustDomain.getName(),
+					new TrustValidatorTemplate(trustDomain, 1, null, null, 600,
+							revocationHedging, validationResultCache));
+		}
+
+		this.virtualTrustDomain = new VirtualTrustDomainEntity("V");
+		Set<TrustDomainEntity> members = new LinkedHashSet<TrustDomainEntity>();
+		members.add(this.trustDomainA);
+		members.add(trustDomainB);
+		members.add(trustDomainAB);
+		this.virtualTrustDomain.setTrustDomains(members);
+	}
+
+	@Test
+	public void testDefaultTrustDomain() throws Exception {
+		// setup
+		TrustConfigurationSnapshot snapshot = new TrustConfigurationSnapshot(
+				1, this.templates,
+				Collections.singletonList(this.virtualTrustDomain),
+				this.trustDomainA);
+
+		// operate
+		List<TrustValidatorTemplate> result = snapshot.getTemplates(null);
+
+		// verify
+		assertEquals(Collections.singletonList(this.templates.get("A")),
+				result);
+		assertEquals(1, snapshot.getVersion());
+	}
+
+	@Test
+	public void testNoDefaultTrustDomain() throws Exception {
+		// setup
+		TrustConfigurationSnapshot snapshot = new TrustConfigurationSnapshot(
+				1, this.templates,
+				new LinkedList<VirtualTrustDomainEntity>(), null);
+
+		// operate & verify
+		try {
+			snapshot.getTemplates(null);
+			fail();
+		} catch (TrustDomainNotFoundException e) {
+			// expected
+		}
+		try {
+			snapshot.getTemplates("V");
+			fail();
+		} catch (TrustDomainNotFoundException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testTrustDomainNotRouted() throws Exception {
+		// setup
+		TrustConfigurationSnapshot snapshot = getSnapshot();
+		List<X509Certificate> certificateChain = Collections
+				.singletonList(this.rootCertificateA);
+
+		// operate
+		List<TrustValidatorTemplate> result = snapshot.getTemplates("B",
+				certificateChain);
+
+		// verify
+		assertEquals(Collections.singletonList(this.templates.get("B")),
+				result);
+	}
+
+	@Test
+	public void testVirtualTrustDomainMembers() throws Exception {
+		// setup
+		TrustConfigurationSnapshot snapshot = getSnapshot();
+
+		// operate
+		List<TrustValidatorTemplate> result = snapshot.getTemplates("V");
+
+		// verify
+		assertEquals(getMembers("A", "B", "AB"), result);
+	}
+
+	@Test
+	public void testRouteOnTopCertificate() throws Exception {
+		// setup
+		TrustConfigurationSnapshot snapshot = getSnapshot();
+		List<X509Certificate> certificateChain = Arrays.asList(
+				generateCertificate(this.rootKeyPairA, this.rootCertificateA),
+				this.rootCertificateA);
+
+		// operate
+		List<TrustValidatorTemplate> result = snapshot.getTemplates("V",
+				certificateChain);
+
+		// verify
+		assertEquals(getMembers("A", "AB"), result);
+	}
+
+	@Test
+	public void testRouteOnIssuer() throws Exception {
+		// setup
+		TrustConfigurationSnapshot snapshot = getSnapshot();
+		List<X509Certificate> certificateChain = Collections
+				.singletonList(generateCertificate(this.rootKeyPairB,
+						this.rootCertificateB));
+
+		// operate
+		List<TrustValidatorTemplate> result = snapshot.getTemplates("V",
+				certificateChain);
+
+		// verify
+		assertEquals(getMembers("B", "AB"), result);
+	}
+
+	@Test
+	public void testNoMemberRouted() throws Exception {
+		// setup
+		TrustConfigurationSnapshot snapshot = getSnapshot();
+		KeyPair rootKeyPair = TrustTestUtils.generateKeyPair();
+		X509Certificate rootCertificate = generateRootCertificate(
+				rootKeyPair, "CN=Test Root C");
+		List<X509Certificate> certificateChain = Arrays.asList(
+				generateCertificate(rootKeyPair, rootCertificate),
+				rootCertificate);
+
+		// operate
+		List<TrustValidatorTemplate> result = snapshot.getTemplates("V",
+				certificateChain);
+
+		// verify
+		assertTrue(result.isEmpty());
+	}
+
+	private TrustConfigurationSnapshot getSnapshot() {
+
+		return new TrustConfigurationSnapshot(1, this.templates,
+				Collections.singletonList(this.virtualTrustDomain), null);
+	}
+
+	/**
+	 * Returns the templates of the specified trust domains, in the member
+	 * order of the virtual trust domain.
+	 */
+	private List<TrustValidatorTemplate> getMembers(String... names) {
+
+		List<String> memberNames = Arrays.asList(names);
+		List<TrustValidatorTemplate> members = new LinkedList<TrustValidatorTemplate>();
+		for (TrustDomainEntity trustDomain : this.virtualTrustDomain
+				.getTrustDomains()) {
+			if (memberNames.contains(trustDomain.getName())) {
+				members.add(this.templates.get(trustDomain.getName()));
+			}
+		}
+		return members;
+	}
+
+	private static TrustDomainEntity getTrustDomain(String name,
+			X509Certificate... trustPointCertificates) throws Exception {
+
+		TrustDomainEntity trustDomain = new TrustDomainEntity(name);
+		for (X509Certificate trustPointCertificate : trustPointCertificates) {
+			trustDomain.getTrustPoints().add(
+					new TrustPointEntity("0 0 3 * * ?",
+							new CertificateAuthorityEntity(null,
+									trustPointCertificate)));
+		}
+		return trustDomain;
+	}
+
+	private static X509Certificate generateRootCertificate(KeyPair keyPair,
+			String subjectDn) throws Exception {
+
+		Date now = new Date();
+		return TrustTestUtils.generateCertificate(keyPair.getPublic(),
+				subjectDn, keyPair.getPrivate(), null,
+				new Date(now.getTime() - HOUR),
+				new Date(now.getTime() + HOUR), true);
+	}
+
+	private static X509Certificate generateCertificate(KeyPair rootKeyPair,
+			X509Certificate rootCertificate) throws Exception {
+
+		Date now = new Date();
+		return TrustTestUtils.generateCertificate(TrustTestUtils
+				.generateKeyPair().getPublic(), "CN=Test", rootKeyPair
+				.getPrivate(), rootCertificate, new Date(now.getTime() - HOUR),
+				new Date(now.getTime() + HOUR), false);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.service.bean.TrustConfigurationSnapshot;
+import be.fedict.trust.service.bean.TrustDomainCacheBean;
+import be.fedict.trust.service.dao.TrustDomainDAO;
+
+/**
+ * Unit test for the {@link TrustDomainCacheBean}.
+ */
+public class TrustDomainCacheBeanTest {
+
+	private AtomicInteger builds;
+
+	private volatile CountDownLatch buildStarted;
+
+	private volatile CountDownLatch buildReleased;
+
+	private TestTransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	private ExecutorService executorService;
+
+	private TrustDomainCacheBean testedInstance;
+
+	@Before
+	public void setUp() throws Exception {
+		this.builds = new AtomicInteger();
+		this.transactionSynchronizationRegistry = new TestTransactionSynchronizationRegistry();
+		this.executorService = Executors.newSingleThreadExecutor();
+
+		this.testedInstance = new TrustDomainCacheBean();
+		TrustTestUtils.setField(this.testedInstance, "trustDomainDAO",
+				Proxy.newProxyInstance(getClass().getClassLoader(),
+						new Class<?>[] { TrustDomainDAO.class },
+						new InvocationHandler() {
+
+							public Object invoke(Object proxy, Method method,
+									Object[] args) throws Throwable {
+								if ("listTrustDomains".equals(method
+										.getName())) {
+									build();
+								}
+								return new LinkedList<Object>();
+							}
+						}));
+		TrustTestUtils.setField(this.testedInstance,
+				"transactionSynchronizationRegistry",
+				this.transactionSynchronizationRegistry);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.executorService.shutdownNow();
+	}
+
+	@Test
+	public void testSnapshotKeptUntilInvalidated() throws Exception {
+		// operate
+		TrustConfigurationSnapshot snapshot = this.testedInstance
+				.getSnapshot();
+		TrustConfigurationSnapshot snapshot2 = this.testedInstance
+				.getSnapshot();
+		this.testedInstance.invalidate();
+		TrustConfigurationSnapshot snapshot3 = this.testedInstance
+				.getSnapshot();
+
+		// verify
+		assertSame(snapshot, snapshot2);
+		assertNotSame(snapshot, snapshot3);
+		assertEquals(0, snapshot.getVersion());
+		assertEquals(1, snapshot3.getVersion());
+		assertEquals(2, this.builds.get());
+	}
+
+	@Test
+	public void testInvalidatedAgainAfterCompletion() throws Exception {
+		// setup
+		this.testedInstance.getSnapshot();
+		this.transactionSynchronizationRegistry.setTransactionKey("tx");
+
+		// operate
+		this.testedInstance.invalidate();
+		TrustConfigurationSnapshot snapshot = this.testedInstance
+				.getSnapshot();
+		this.transactionSynchronizationRegistry
+				.complete(Status.STATUS_COMMITTED);
+		TrustConfigurationSnapshot snapshot2 = this.testedInstance
+				.getSnapshot();
+
+		// verify
+		assertEquals(1, snapshot.getVersion());
+		assertEquals(2, snapshot2.getVersion());
+		assertEquals(3, this.builds.get());
+	}
+
+	@Test
+	public void testPreviousSnapshotServedWhileRebuilding() throws Exception {
+		// setup
+		final TrustConfigurationSnapshot snapshot = this.testedInstance
+				.getSnapshot();
+		this.testedInstance.invalidate();
+		this.buildStarted = new CountDownLatch(1);
+		this.buildReleased = new CountDownLatch(1);
+		Future<TrustConfigurationSnapshot> rebuild = this.executorService
+				.submit(new Callable<TrustConfigurationSnapshot>() {
+
+					public TrustConfigurationSnapshot call() throws Exception {
+						return TrustDomainCacheBeanTest.this.testedInstance
+								.getSnapshot();
+					}
+				});
+		this.buildStarted.await(10, TimeUnit.SECONDS);
+
+		// operate
+		TrustConfigurationSnapshot servedSnapshot = this.testedInstance
+				.getSnapshot();
+		this.buildReleased.countDown();
+		TrustConfigurationSnapshot rebuiltSnapshot = rebuild.get(10,
+				TimeUnit.SECONDS);
+
+		// verify
+		assertSame(snapshot, servedSnapshot);
+		assertEquals(1, rebuiltSnapshot.getVersion());
+		assertSame(rebuiltSnapshot, this.testedInstance.getSnapshot());
+		assertEquals(2, this.builds.get());
+	}
+
+	private void build() throws InterruptedException {
+
+		this.builds.incrementAndGet();
+		CountDownLatch buildStarted = this.buildStarted;
+		if (null == buildStarted) {
+			return;
+		}
+		buildStarted.countDown();
+		this.buildReleased.await(10, TimeUnit.SECONDS);
+	}
+}
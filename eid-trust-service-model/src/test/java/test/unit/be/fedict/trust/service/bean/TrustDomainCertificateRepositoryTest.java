@@ -0,0 +1,128 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.service.bean.TrustDomainCertificateRepository;
+import be.fedict.trust.service.entity.CertificateAuthorityEntity;
+import be.fedict.trust.service.entity.TrustDomainEntity;
+import be.fedict.trust.service.entity.TrustPointEntity;
+
+/**
+ * Unit test for the trust point lookup of the
+ * {@link TrustDomainCertificateRepository}.
+ */
+public class TrustDomainCertificateRepositoryTest {
+
+	private static final long HOUR = 1000 * 60 * 60;
+
+	private X509Certificate rootCertificate;
+
+	private CertificateAuthorityEntity certificateAuthority;
+
+	private TrustDomainEntity trustDomain;
+
+	@Before
+	public void setUp() throws Exception {
+		this.rootCertificate = generateRootCertificate("CN=Test Root");
+		this.certificateAuthority = new CertificateAuthorityEntity(null,
+				this.rootCertificate);
+		this.trustDomain = new TrustDomainEntity("test");
+		this.trustDomain.getTrustPoints().add(
+				new TrustPointEntity("0 0 3 * * ?", this.certificateAuthority));
+	}
+
+	@Test
+	public void testTrustPoint() throws Exception {
+		// setup
+		TrustDomainCertificateRepository testedInstance = new TrustDomainCertificateRepository(
+				this.trustDomain);
+
+		// operate & verify
+		assertTrue(testedInstance.isTrustPoint(this.rootCertificate));
+	}
+
+	@Test
+	public void testSameSubjectIsNoTrustPoint() throws Exception {
+		// setup
+		TrustDomainCertificateRepository testedInstance = new TrustDomainCertificateRepository(
+				this.trustDomain);
+		X509Certificate certificate = generateRootCertificate("CN=Test Root");
+
+		// operate & verify
+		assertFalse(testedInstance.isTrustPoint(certificate));
+	}
+
+	@Test
+	public void testOtherSubjectIsNoTrustPoint() throws Exception {
+		// setup
+		TrustDomainCertificateRepository testedInstance = new TrustDomainCertificateRepository(
+				this.trustDomain);
+		X509Certificate certificate = generateRootCertificate("CN=Other Root");
+
+		// operate & verify
+		assertFalse(testedInstance.isTrustPoint(certificate));
+	}
+
+	/**
+	 * The trust point is identified by its encoding, not by the string
+	 * rendering of its subject the CA was stored under.
+	 */
+	@Test
+	public void testTrustPointStoredUnderOtherName() throws Exception {
+		// setup
+		this.certificateAuthority.setName("cn=test root");
+		TrustDomainCertificateRepository testedInstance = new TrustDomainCertificateRepository(
+				this.trustDomain);
+
+		// operate & verify
+		assertTrue(testedInstance.isTrustPoint(this.rootCertificate));
+	}
+
+	@Test
+	public void testNoTrustPoints() throws Exception {
+		// setup
+		TrustDomainCertificateRepository testedInstance = new TrustDomainCertificateRepository(
+				new TrustDomainEntity("empty"));
+
+		// operate & verify
+		assertFalse(testedInstance.isTrustPoint(this.rootCertificate));
+	}
+
+	private static X509Certificate generateRootCertificate(String subjectDn)
+			throws Exception {
+
+		KeyPair keyPair = TrustTestUtils.generateKeyPair();
+		Date now = new Date();
+		return TrustTestUtils.generateCertificate(keyPair.getPublic(),
+				subjectDn, keyPair.getPrivate(), null,
+				new Date(now.getTime() - HOUR),
+				new Date(now.getTime() + HOUR), true);
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.RevocationData;
+import be.fedict.trust.TrustLinker;
+import be.fedict.trust.TrustLinkerResult;
+import be.fedict.trust.crl.CrlRepository;
+import be.fedict.trust.service.bean.TrustLinkMemo;
+import be.fedict.trust.service.bean.ValidationResultCacheBean;
+
+/**
+ * Unit test for the {@link TrustLinkMemo}.
+ */
+public class TrustLinkMemoTest {
+
+	private static final URI CRL_URI = URI.create("http://crl.test/root.crl");
+
+	private static final long HOUR = 1000 * 60 * 60;
+
+	private KeyPair rootKeyPair;
+
+	private X509Certificate rootCertificate;
+
+	private X509Certificate caCertificate;
+
+	private X509Certificate certificate;
+
+	private ValidationResultCacheBean validationResultCache;
+
+	private TestCertificateAuthorityDAO certificateAuthorityDAO;
+
+	private TestTrustLinker trustLinker;
+
+	@Before
+	public void setUp() throws Exception {
+		Date now = new Date();
+		Date notBefore = new Date(now.getTime() - HOUR);
+		Date notAfter = new Date(now.getTime() + 24 * HOUR);
+		this.rootKeyPair = TrustTestUtils.generateKeyPair();
+		this.rootCertificate = TrustTestUtils.generateCertificate(
+				this.rootKeyPair.getPublic(), "CN=Test Root",
+				this.rootKeyPair.getPrivate(), null, notBefore, notAfter, true);
+		KeyPair caKeyPair = TrustTestUtils.generateKeyPair();
+		this.caCertificate = TrustTestUtils.generateCertificate(
+				caKeyPair.getPublic(), "CN=Test CA",
+				this.rootKeyPair.getPrivate(), this.rootCertificate,
+				notBefore, notAfter, true);
+		KeyPair keyPair = TrustTestUtils.generateKeyPair();
+		this.certificate = TrustTestUtils.generateCertificate(
+				keyPair.getPublic(), "CN=Test", caKeyPair.getPrivate(),
+				this.caCertificate, notBefore, notAfter, false);
+
+		this.validationResultCache = new ValidationResultCacheBean();
+		TrustTestUtils.setField(this.validationResultCache,
+				"transactionSynchronizationRegistry",
+				new TestTransactionSynchronizationRegistry());
+		this.certificateAuthorityDAO = new TestCertificateAuthorityDAO();
+		TrustTestUtils.setField(this.validationResultCache,
+				"certificateAuthorityDAO", this.certificateAuthorityDAO);
+		this.trustLinker = new TestTrustLinker();
+	}
+
+	@Test
+	public void testMemoizesCaLink() throws Exception {
+		// setup
+		TrustLinker memoTrustLinker = new TrustLinkMemo(1, 3600,
+				this.validationResultCache).memoize("test", this.trustLinker);
+
+		// operate
+		TrustLinkerResult result1 = memoTrustLinker.hasTrustLink(
+				this.caCertificate, this.rootCertificate, new Date(), null);
+		TrustLinkerResult result2 = memoTrustLinker.hasTrustLink(
+				this.caCertificate, this.rootCertificate, new Date(), null);
+
+		// verify
+		assertSame(this.trustLinker.result, result1);
+		assertSame(this.trustLinker.result, result2);
+		assertEquals(1, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testLeafLinkNotMemoized() throws Exception {
+		// setup
+		TrustLinker memoTrustLinker = new TrustLinkMemo(1, 3600,
+				this.validationResultCache).memoize("test", this.trustLinker);
+
+		// operate
+		memoTrustLinker.hasTrustLink(this.certificate, this.caCertificate,
+				new Date(), null);
+		memoTrustLinker.hasTrustLink(this.certificate, this.caCertificate,
+				new Date(), null);
+
+		// verify
+		assertEquals(2, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testRevocationDataCollectionNotMemoized() throws Exception {
+		// setup
+		TrustLinker memoTrustLinker = new TrustLinkMemo(1, 3600,
+				this.validationResultCache).memoize("test", this.trustLinker);
+
+		// operate
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), new RevocationData());
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), new RevocationData());
+
+		// verify
+		assertEquals(2, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testHistoricValidationNotMemoized() throws Exception {
+		// setup
+		TrustLinker memoTrustLinker = new TrustLinkMemo(1, 3600,
+				this.validationResultCache).memoize("test", this.trustLinker);
+		Date validationDate = new Date(System.currentTimeMillis() - HOUR);
+
+		// operate
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				validationDate, null);
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				validationDate, null);
+
+		// verify
+		assertEquals(2, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testInconclusiveResultNotMemoized() throws Exception {
+		// setup
+		TrustLinker memoTrustLinker = new TrustLinkMemo(1, 3600,
+				this.validationResultCache).memoize("test", this.trustLinker);
+		this.trustLinker.result = null;
+
+		// operate
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+
+		// verify
+		assertEquals(2, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testCrlActivationInvalidatesLink() throws Exception {
+		// setup
+		TrustLinker memoTrustLinker = new TrustLinkMemo(1, 3600,
+				this.validationResultCache).memoize("test", this.trustLinker);
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+
+		// operate
+		String rootName = this.rootCertificate.getSubjectX500Principal()
+				.toString();
+		this.certificateAuthorityDAO.setCrlVersion(rootName, "2:hash2");
+		this.validationResultCache.crlActivated(rootName);
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+
+		// verify
+		assertEquals(2, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testCrlActivationOfOtherCaKeepsLink() throws Exception {
+		// setup
+		TrustLinker memoTrustLinker = new TrustLinkMemo(1, 3600,
+				this.validationResultCache).memoize("test", this.trustLinker);
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+
+		// operate
+		String caName = this.caCertificate.getSubjectX500Principal()
+				.toString();
+		this.certificateAuthorityDAO.setCrlVersion(caName, "2:hash2");
+		this.validationResultCache.crlActivated(caName);
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+
+		// verify
+		assertEquals(1, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testTrustLinkersMemoizedSeparately() throws Exception {
+		// setup
+		TrustLinkMemo trustLinkMemo = new TrustLinkMemo(1, 3600,
+				this.validationResultCache);
+		TestTrustLinker otherTrustLinker = new TestTrustLinker();
+		TrustLinker memoTrustLinker = trustLinkMemo.memoize("test",
+				this.trustLinker);
+		TrustLinker otherMemoTrustLinker = trustLinkMemo.memoize("other",
+				otherTrustLinker);
+
+		// operate
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+		TrustLinkerResult result = otherMemoTrustLinker.hasTrustLink(
+				this.caCertificate, this.rootCertificate, new Date(), null);
+
+		// verify
+		assertSame(otherTrustLinker.result, result);
+		assertEquals(1, this.trustLinker.calls.get());
+		assertEquals(1, otherTrustLinker.calls.get());
+	}
+
+	@Test
+	public void testExpiresAtCertificateNotAfter() throws Exception {
+		// setup
+		KeyPair caKeyPair = TrustTestUtils.generateKeyPair();
+		X509Certificate expiredCaCertificate = TrustTestUtils
+				.generateCertificate(caKeyPair.getPublic(), "CN=Test CA",
+						this.rootKeyPair.getPrivate(), this.rootCertificate,
+						new Date(System.currentTimeMillis() - 2 * HOUR),
+						new Date(System.currentTimeMillis() - HOUR), true);
+		TrustLinker memoTrustLinker = new TrustLinkMemo(1, 3600,
+				this.validationResultCache).memoize("test", this.trustLinker);
+
+		// operate
+		memoTrustLinker.hasTrustLink(expiredCaCertificate,
+				this.rootCertificate, new Date(), null);
+		memoTrustLinker.hasTrustLink(expiredCaCertificate,
+				this.rootCertificate, new Date(), null);
+
+		// verify
+		assertEquals(2, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testExpiresAtCrlNextUpdate() throws Exception {
+		// setup: UTCTime has a precision of seconds
+		long now = System.currentTimeMillis() / 1000 * 1000;
+		Date nextUpdate = new Date(now + 2000);
+		TrustLinkMemo trustLinkMemo = new TrustLinkMemo(1, 3600,
+				this.validationResultCache);
+		TrustLinker memoTrustLinker = trustLinkMemo.memoize("test",
+				this.trustLinker);
+		this.trustLinker.crlRepository = trustLinkMemo
+				.observe(new TestCrlRepository(generateCrl(new Date(now),
+						nextUpdate)));
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+		assertEquals(1, this.trustLinker.calls.get());
+
+		// operate
+		while (System.currentTimeMillis() <= nextUpdate.getTime()) {
+			Thread.sleep(100);
+		}
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+
+		// verify
+		assertEquals(2, this.trustLinker.calls.get());
+	}
+
+	@Test
+	public void testIgnoresExpiredCrlNextUpdate() throws Exception {
+		// setup: the trust linker rejected the expired CRL
+		long now = System.currentTimeMillis();
+		TrustLinkMemo trustLinkMemo = new TrustLinkMemo(1, 3600,
+				this.validationResultCache);
+		TrustLinker memoTrustLinker = trustLinkMemo.memoize("test",
+				this.trustLinker);
+		this.trustLinker.crlRepository = trustLinkMemo
+				.observe(new TestCrlRepository(generateCrl(new Date(now - 2
+						* HOUR), new Date(now - HOUR))));
+
+		// operate
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+		memoTrustLinker.hasTrustLink(this.caCertificate, this.rootCertificate,
+				new Date(), null);
+
+		// verify
+		assertEquals(1, this.trustLinker.calls.get());
+	}
+
+	private X509CRL generateCrl(Date thisUpdate, Date nextUpdate)
+			throws Exception {
+
+		return TrustTestUtils.generateCrl(this.rootKeyPair.getPrivate(),
+				this.rootCertificate, thisUpdate, nextUpdate, BigInteger.ONE,
+				new HashMap<BigInteger, Date>());
+	}
+
+	private static final class TestTrustLinker implements TrustLinker {
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private TrustLinkerResult result = new TrustLinkerResult(true);
+
+		private CrlRepository crlRepository;
+
+		public TrustLinkerResult hasTrustLink(X509Certificate childCertificate,
+				X509Certificate certificate, Date validationDate,
+				RevocationData revocationData) {
+			this.calls.incrementAndGet();
+			if (null != this.crlRepository) {
+				this.crlRepository.findCrl(CRL_URI, certificate,
+						validationDate);
+			}
+			return this.result;
+		}
+	}
+
+	private static final class TestCrlRepository implements CrlRepository {
+
+		private final X509CRL crl;
+
+		TestCrlRepository(X509CRL crl) {
+			this.crl = crl;
+		}
+
+		public X509CRL findCrl(URI crlUri, X509Certificate issuerCertificate,
+				Date validationDate) {
+			return this.crl;
+		}
+	}
+}
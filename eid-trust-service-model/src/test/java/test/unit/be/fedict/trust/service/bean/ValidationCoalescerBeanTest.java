@@ -0,0 +1,230 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.trust.TrustLinkerResult;
+import be.fedict.trust.service.ValidationResult;
+import be.fedict.trust.service.bean.ValidationCoalescerBean;
+import be.fedict.trust.service.bean.ValidationCoalescerBean.Flight;
+
+/**
+ * Unit test for the {@link ValidationCoalescerBean}.
+ */
+public class ValidationCoalescerBeanTest {
+
+	private static final String KEY = "test";
+
+	private ValidationCoalescerBean validationCoalescer;
+
+	@Before
+	public void setUp() throws Exception {
+		this.validationCoalescer = new ValidationCoalescerBean();
+	}
+
+	@Test
+	public void testFirstJoinLeads() throws Exception {
+		// operate
+		Flight flight = this.validationCoalescer.join(KEY);
+
+		// verify
+		assertTrue(flight.isLeader());
+	}
+
+	@Test
+	public void testFollowerGetsLeaderResult() throws Exception {
+		// setup
+		Flight flight = this.validationCoalescer.join(KEY);
+		Follower follower = new Follower();
+		follower.start();
+		assertTrue(follower.joined.await(10, TimeUnit.SECONDS));
+		ValidationResult result = new ValidationResult(new TrustLinkerResult(
+				true), null);
+
+		// operate
+		this.validationCoalescer.leave(flight, result);
+		follower.join();
+
+		// verify
+		assertNotSame(flight, follower.flight);
+		assertFalse(follower.leader);
+		assertSame(result, follower.result);
+	}
+
+	@Test
+	public void testFollowerGetsNoResultOnLeaderFailure() throws Exception {
+		// setup
+		Flight flight = this.validationCoalescer.join(KEY);
+		Follower follower = new Follower();
+		follower.start();
+		assertTrue(follower.joined.await(10, TimeUnit.SECONDS));
+
+		// operate
+		this.validationCoalescer.leave(flight, null);
+		follower.join();
+
+		// verify
+		assertNotSame(flight, follower.flight);
+		assertFalse(follower.leader);
+		assertNull(follower.result);
+	}
+
+	@Test
+	public void testNewFlightAfterLeave() throws Exception {
+		// setup
+		Flight flight = this.validationCoalescer.join(KEY);
+		this.validationCoalescer.leave(flight, null);
+
+		// operate
+		Follower follower = new Follower();
+		follower.start();
+		assertTrue(follower.joined.await(10, TimeUnit.SECONDS));
+		this.validationCoalescer.leave(follower.flight, null);
+		follower.join();
+
+		// verify
+		assertNotSame(flight, follower.flight);
+		assertTrue(follower.leader);
+	}
+
+	@Test
+	public void testDistinctKeysDoNotCoalesce() throws Exception {
+		// setup
+		Flight flight = this.validationCoalescer.join(KEY);
+
+		// operate
+		Flight otherFlight = this.validationCoalescer.join("other");
+
+		// verify
+		assertNotSame(flight, otherFlight);
+		assertTrue(otherFlight.isLeader());
+	}
+
+	@Test
+	public void testInterruptedFollowerGetsNoResult() throws Exception {
+		// setup
+		Flight flight = this.validationCoalescer.join(KEY);
+		Follower follower = new Follower();
+		follower.interruptBeforeAwait = true;
+
+		// operate
+		follower.start();
+		follower.join();
+
+		// verify
+		assertFalse(follower.leader);
+		assertNull(follower.result);
+		assertTrue(follower.interrupted);
+		this.validationCoalescer.leave(flight, null);
+	}
+
+	@Test
+	public void testFollowerTimesOut() throws Exception {
+		// setup
+		Flight flight = this.validationCoalescer.join(KEY);
+		Follower follower = new Follower();
+		follower.timeout = 100;
+
+		// operate
+		follower.start();
+		follower.join(10000);
+
+		// verify
+		assertFalse(follower.isAlive());
+		assertFalse(follower.leader);
+		assertNull(follower.result);
+		this.validationCoalescer.leave(flight, null);
+	}
+
+	@Test
+	public void testLeaderIsFlightNotThread() throws Exception {
+		// setup
+		final Flight flight = this.validationCoalescer.join(KEY);
+		final boolean[] leader = new boolean[1];
+
+		// operate
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				leader[0] = flight.isLeader();
+			}
+		};
+		thread.start();
+		thread.join();
+
+		// verify
+		assertTrue(leader[0]);
+		assertFalse(this.validationCoalescer.join(KEY).isLeader());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFollowerCannotLeave() throws Exception {
+		// setup
+		this.validationCoalescer.join(KEY);
+		Flight flight = this.validationCoalescer.join(KEY);
+
+		// operate
+		this.validationCoalescer.leave(flight, null);
+	}
+
+	private final class Follower extends Thread {
+
+		private final CountDownLatch joined = new CountDownLatch(1);
+
+		private boolean interruptBeforeAwait;
+
+		private long timeout = 10000;
+
+		private volatile Flight flight;
+
+		private volatile boolean leader;
+
+		private volatile ValidationResult result;
+
+		private volatile boolean interrupted;
+
+		@Override
+		public void run() {
+			this.flight = ValidationCoalescerBeanTest.this.validationCoalescer
+					.join(KEY);
+			this.leader = this.flight.isLeader();
+			this.joined.countDown();
+			if (this.leader) {
+				return;
+			}
+			if (this.interruptBeforeAwait) {
+				interrupt();
+			}
+			this.result = this.flight.await(this.timeout);
+			this.interrupted = isInterrupted();
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.trust.service.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.transaction.Status;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.TrustLinkerResult;
+import be.fedict.trust.TrustLinkerResultReason;
+import be.fedict.trust.service.ValidationResult;
+import be.fedict.trust.service.bean.ValidationResultCacheBean;
+import be.fedict.trust.service.bean.ValidationResultCacheBean.Lookup;
+
+/**
+ * Unit test for the {@link ValidationResultCacheBean} and its CRL epochs.
+ */
+public class ValidationResultCacheBeanTest {
+
+	private static final String TRUST_DOMAIN = "test";
+
+	private static final long HOUR = 1000 * 60 * 60;
+
+	private KeyPair caKeyPair;
+
+	private X509Certificate caCertificate;
+
+	private List<X509Certificate> certificateChain;
+
+	private String caName;
+
+	private ValidationResultCacheBean validationResultCache;
+
+	private TestTransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	private TestCertificateAuthorityDAO certificateAuthorityDAO;
+
+	private ValidationResult validResult;
+
+	@Before
+	public void setUp() throws Exception {
+		this.caKeyPair = TrustTestUtils.generateKeyPair();
+		this.caCertificate = TrustTestUtils.generateCertificate(
+				this.caKeyPair.getPublic(), "CN=Test CA",
+				this.caKeyPair.getPrivate(), null, new Date(
+						System.currentTimeMillis() - HOUR), new Date(
+						System.currentTimeMillis() + HOUR), true);
+		this.certificateChain = generateCertificateChain("CN=Test");
+		this.caName = this.caCertificate.getSubjectX500Principal().toString();
+
+		this.validationResultCache = new ValidationResultCacheBean();
+		this.transactionSynchronizationRegistry = new TestTransactionSynchronizationRegistry();
+		TrustTestUtils.setField(this.validationResultCache,
+				"transactionSynchronizationRegistry",
+				this.transactionSynchronizationRegistry);
+		this.certificateAuthorityDAO = new TestCertificateAuthorityDAO();
+		this.certificateAuthorityDAO.setCrlVersion(this.caName, "1:hash1");
+		TrustTestUtils.setField(this.validationResultCache,
+				"certificateAuthorityDAO", this.certificateAuthorityDAO);
+		this.validResult = new ValidationResult(new TrustLinkerResult(true),
+				null);
+	}
+
+	@Test
+	public void testCachesResult() throws Exception {
+		// setup
+		Lookup lookup = this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 1);
+		assertNull(lookup.getResult());
+
+		// operate
+		this.validationResultCache.put(lookup, this.validResult);
+
+		// verify
+		assertSame(this.validResult,
+				this.validationResultCache.lookup(TRUST_DOMAIN,
+						this.certificateChain, 1).getResult());
+		assertNull(this.validationResultCache.lookup("other",
+				this.certificateChain, 1).getResult());
+		assertNull(this.validationResultCache.lookup(TRUST_DOMAIN,
+				generateCertificateChain("CN=Test 2"), 1).getResult());
+	}
+
+	@Test
+	public void testVersionChangeMisses() throws Exception {
+		// setup
+		this.validationResultCache.put(this.validationResultCache.lookup(
+				TRUST_DOMAIN, this.certificateChain, 1), this.validResult);
+
+		// operate
+		Lookup lookup = this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 2);
+
+		// verify
+		assertNull(lookup.getResult());
+	}
+
+	@Test
+	public void testCrlActivationChangesEpoch() throws Exception {
+		// setup
+		this.validationResultCache.put(this.validationResultCache.lookup(
+				TRUST_DOMAIN, this.certificateChain, 1), this.validResult);
+		assertEquals("1:hash1",
+				this.validationResultCache.getCrlEpoch(this.caName));
+
+		// operate
+		this.certificateAuthorityDAO.setCrlVersion(this.caName, "2:hash2");
+		this.validationResultCache.crlActivated(this.caName);
+
+		// verify
+		assertEquals("2:hash2",
+				this.validationResultCache.getCrlEpoch(this.caName));
+		assertNull(this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 1).getResult());
+	}
+
+	@Test
+	public void testCrlActivationOfOtherCaKeepsResult() throws Exception {
+		// setup
+		this.validationResultCache.put(this.validationResultCache.lookup(
+				TRUST_DOMAIN, this.certificateChain, 1), this.validResult);
+
+		// operate
+		this.certificateAuthorityDAO.setCrlVersion("CN=Other CA", "1:hash");
+		this.validationResultCache.crlActivated("CN=Other CA");
+
+		// verify
+		assertEquals("1:hash1",
+				this.validationResultCache.getCrlEpoch(this.caName));
+		assertSame(this.validResult,
+				this.validationResultCache.lookup(TRUST_DOMAIN,
+						this.certificateChain, 1).getResult());
+	}
+
+	@Test
+	public void testCrlActivationRereadsEpochsAfterCompletion()
+			throws Exception {
+		// setup
+		this.transactionSynchronizationRegistry.setTransactionKey(new Object());
+		this.validationResultCache.crlActivated(this.caName);
+
+		// operate: validation against the CRL of before the commit
+		Lookup lookup = this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 1);
+		this.validationResultCache.put(lookup, this.validResult);
+		this.certificateAuthorityDAO.setCrlVersion(this.caName, "2:hash2");
+		this.transactionSynchronizationRegistry
+				.complete(Status.STATUS_COMMITTED);
+
+		// verify
+		assertEquals("2:hash2",
+				this.validationResultCache.getCrlEpoch(this.caName));
+		assertNull(this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 1).getResult());
+	}
+
+	@Test
+	public void testCrlHarvestedByOtherNode() throws Exception {
+		// setup
+		TrustTestUtils.setField(this.validationResultCache,
+				"crlEpochRefresh", 0);
+		this.validationResultCache.put(this.validationResultCache.lookup(
+				TRUST_DOMAIN, this.certificateChain, 1), this.validResult);
+
+		// operate: no CRL activation on this node
+		this.certificateAuthorityDAO.setCrlVersion(this.caName, "2:hash2");
+
+		// verify
+		assertNull(this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 1).getResult());
+	}
+
+	@Test
+	public void testCrlEpochsReadOncePerRefresh() throws Exception {
+		// setup
+		this.validationResultCache.put(this.validationResultCache.lookup(
+				TRUST_DOMAIN, this.certificateChain, 1), this.validResult);
+
+		// operate
+		for (int idx = 0; idx < 10; idx++) {
+			assertSame(this.validResult,
+					this.validationResultCache.lookup(TRUST_DOMAIN,
+							this.certificateChain, 1).getResult());
+		}
+
+		// verify
+		assertEquals(1, this.certificateAuthorityDAO.getCrlVersionQueries());
+	}
+
+	@Test
+	public void testInvalidResultTtl() throws Exception {
+		// setup
+		TrustTestUtils.setField(this.validationResultCache, "invalidTtl", 0);
+		ValidationResult invalidResult = new ValidationResult(
+				new TrustLinkerResult(false,
+						TrustLinkerResultReason.INVALID_TRUST, "test"), null);
+
+		// operate
+		this.validationResultCache.put(this.validationResultCache.lookup(
+				TRUST_DOMAIN, this.certificateChain, 1), invalidResult);
+
+		// verify
+		assertNull(this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 1).getResult());
+	}
+
+	@Test
+	public void testResultExpires() throws Exception {
+		// setup
+		TrustTestUtils.setField(this.validationResultCache, "validTtl", 1);
+		this.validationResultCache.put(this.validationResultCache.lookup(
+				TRUST_DOMAIN, this.certificateChain, 1), this.validResult);
+		assertNotNull(this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 1).getResult());
+
+		// operate
+		Thread.sleep(1100);
+
+		// verify
+		assertNull(this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 1).getResult());
+	}
+
+	@Test
+	public void testEvictsOldestResult() throws Exception {
+		// setup
+		TrustTestUtils.setField(this.validationResultCache, "maxEntries", 1);
+		List<X509Certificate> certificateChain2 = generateCertificateChain("CN=Test 2");
+		this.validationResultCache.put(this.validationResultCache.lookup(
+				TRUST_DOMAIN, this.certificateChain, 1), this.validResult);
+
+		// operate
+		this.validationResultCache.put(this.validationResultCache.lookup(
+				TRUST_DOMAIN, certificateChain2, 1), this.validResult);
+
+		// verify
+		assertNull(this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 1).getResult());
+		assertSame(this.validResult,
+				this.validationResultCache.lookup(TRUST_DOMAIN,
+						certificateChain2, 1).getResult());
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		// setup
+		TrustTestUtils.setField(this.validationResultCache, "maxEntries", 0);
+
+		// operate
+		Lookup lookup = this.validationResultCache.lookup(TRUST_DOMAIN,
+				this.certificateChain, 1);
+
+		// verify
+		assertNull(lookup);
+	}
+
+	private List<X509Certificate> generateCertificateChain(String subjectDn)
+			throws Exception {
+
+		KeyPair keyPair = TrustTestUtils.generateKeyPair();
+		X509Certificate certificate = TrustTestUtils.generateCertificate(
+				keyPair.getPublic(), subjectDn, this.caKeyPair.getPrivate(),
+				this.caCertificate, this.caCertificate.getNotBefore(),
+				this.caCertificate.getNotAfter(), false);
+		return Arrays.asList(certificate, this.caCertificate);
+	}
+}
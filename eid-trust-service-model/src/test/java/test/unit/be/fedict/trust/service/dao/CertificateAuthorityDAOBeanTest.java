@@ -0,0 +1,283 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
+import javax.sql.DataSource;
+
+import org.hibernate.Session;
+import org.hibernate.ejb.Ejb3Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.service.dao.bean.CertificateAuthorityDAOBean;
+import be.fedict.trust.service.entity.RevokedCertificateEntity;
+import be.fedict.trust.service.entity.RevokedCertificatePK;
+import be.fedict.trust.service.util.CrlEntrySorter;
+
+/**
+ * Integration test for the JDBC batched revocation merge of the
+ * {@link CertificateAuthorityDAOBean}, against an in-memory HSQLDB database.
+ * HSQLDB has no native upsert statement, so the separate insert and update
+ * batches are used.
+ */
+public class CertificateAuthorityDAOBeanTest {
+
+	private static final String ISSUER_NAME = "CN=Test CA";
+
+	private static final String OTHER_ISSUER_NAME = "CN=Other CA";
+
+	private EntityManagerFactory entityManagerFactory;
+
+	private EntityManager entityManager;
+
+	private CertificateAuthorityDAOBean testedInstance;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		Ejb3Configuration configuration = new Ejb3Configuration();
+		configuration.setProperty("hibernate.dialect",
+				"org.hibernate.dialect.HSQLDialect");
+		configuration.setProperty("hibernate.connection.driver_class",
+				"org.hsqldb.jdbcDriver");
+		configuration.setProperty("hibernate.connection.url",
+				"jdbc:hsqldb:mem:merge");
+		configuration.setProperty("hibernate.hbm2ddl.auto", "create");
+		configuration.addAnnotatedClass(RevokedCertificateEntity.class);
+		this.entityManagerFactory = configuration.buildEntityManagerFactory();
+
+		this.entityManager = this.entityManagerFactory.createEntityManager();
+		this.entityManager.getTransaction().begin();
+
+		this.testedInstance = new CertificateAuthorityDAOBean();
+		TrustTestUtils.setField(this.testedInstance, "entityManager",
+				this.entityManager);
+		TrustTestUtils.setField(this.testedInstance, "dataSource",
+				getDataSource(this.entityManager));
+		TrustTestUtils.setField(this.testedInstance,
+				"revokedCertificateBatchSize", 7);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		EntityTransaction entityTransaction = this.entityManager
+				.getTransaction();
+		if (entityTransaction.isActive()) {
+			entityTransaction.rollback();
+		}
+		this.entityManager.close();
+		this.entityManagerFactory.close();
+	}
+
+	private void refresh() {
+		EntityTransaction entityTransaction = this.entityManager
+				.getTransaction();
+		entityTransaction.commit();
+		this.entityManager.clear();
+		entityTransaction.begin();
+	}
+
+	@Test
+	public void testMergeIntoEmptyCache() throws Exception {
+		// setup
+		Map<String, Date> crlEntries = new HashMap<String, Date>();
+		for (int idx = 0; idx < 25; idx++) {
+			crlEntries.put(Integer.toString(idx), new Date(idx * 1000L));
+		}
+
+		// operate
+		int result = merge(crlEntries, BigInteger.ONE);
+		refresh();
+
+		// verify
+		assertEquals(25, result);
+		assertEquals(crlEntries, getRevokedCertificates(ISSUER_NAME));
+		RevokedCertificateEntity revokedCertificate = this.entityManager.find(
+				RevokedCertificateEntity.class, new RevokedCertificatePK(
+						ISSUER_NAME, "12"));
+		assertEquals(BigInteger.ONE, revokedCertificate.getCrlNumber());
+	}
+
+	@Test
+	public void testMergeRoundTrip() throws Exception {
+		// setup
+		Map<String, Date> cachedEntries = new HashMap<String, Date>();
+		for (int idx = 0; idx < 2500; idx++) {
+			String serialNumber = Integer.toString(idx);
+			Date revocationDate = new Date(idx * 1000L);
+			cachedEntries.put(serialNumber, revocationDate);
+			this.entityManager.persist(new RevokedCertificateEntity(
+					ISSUER_NAME, new BigInteger(serialNumber), revocationDate,
+					BigInteger.ONE));
+		}
+		this.entityManager.persist(new RevokedCertificateEntity(
+				OTHER_ISSUER_NAME, BigInteger.TEN, new Date(1000),
+				BigInteger.ONE));
+		refresh();
+
+		Map<String, Date> crlEntries = new HashMap<String, Date>(cachedEntries);
+		for (int idx = 0; idx < 2500; idx += 10) {
+			// delete
+			crlEntries.remove(Integer.toString(idx));
+			// update
+			crlEntries.put(Integer.toString(idx + 1), new Date(5000000000L));
+			// insert
+			crlEntries.put(Integer.toString(idx + 100000), new Date(2000));
+		}
+
+		// operate
+		int result = merge(crlEntries, BigInteger.valueOf(2));
+		refresh();
+
+		// verify
+		assertEquals(3 * 250, result);
+		assertEquals(crlEntries, getRevokedCertificates(ISSUER_NAME));
+		assertEquals(
+				BigInteger.valueOf(2),
+				this.entityManager.find(RevokedCertificateEntity.class,
+						new RevokedCertificatePK(ISSUER_NAME, "1"))
+						.getCrlNumber());
+		assertEquals(
+				BigInteger.valueOf(2),
+				this.entityManager.find(RevokedCertificateEntity.class,
+						new RevokedCertificatePK(ISSUER_NAME, "100000"))
+						.getCrlNumber());
+		assertEquals(1, getRevokedCertificates(OTHER_ISSUER_NAME).size());
+
+		// operate: merging the same CRL again changes nothing
+		result = merge(crlEntries, BigInteger.valueOf(2));
+		refresh();
+
+		// verify
+		assertEquals(0, result);
+		assertEquals(crlEntries, getRevokedCertificates(ISSUER_NAME));
+	}
+
+	@Test
+	public void testMergeEmptyCrl() throws Exception {
+		// setup
+		this.entityManager.persist(new RevokedCertificateEntity(ISSUER_NAME,
+				BigInteger.ONE, new Date(1000), BigInteger.ONE));
+		this.entityManager.persist(new RevokedCertificateEntity(
+				OTHER_ISSUER_NAME, BigInteger.ONE, new Date(1000),
+				BigInteger.ONE));
+		refresh();
+
+		// operate
+		int result = merge(new HashMap<String, Date>(), BigInteger.TEN);
+		refresh();
+
+		// verify
+		assertEquals(1, result);
+		assertNull(this.entityManager.find(RevokedCertificateEntity.class,
+				new RevokedCertificatePK(ISSUER_NAME, "1")));
+		assertEquals(1, getRevokedCertificates(OTHER_ISSUER_NAME).size());
+	}
+
+	private int merge(Map<String, Date> crlEntries, BigInteger crlNumber) {
+
+		CrlEntrySorter crlEntrySorter = new CrlEntrySorter(100);
+		try {
+			for (Map.Entry<String, Date> crlEntry : crlEntries.entrySet()) {
+				crlEntrySorter.add(crlEntry.getKey(), crlEntry.getValue());
+			}
+			return this.testedInstance.mergeRevokedCertificates(ISSUER_NAME,
+					crlEntrySorter.sort(), crlNumber);
+		} finally {
+			crlEntrySorter.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Date> getRevokedCertificates(String issuerName) {
+
+		Query query = this.entityManager
+				.createNamedQuery(RevokedCertificateEntity.QUERY_WHERE_ISSUER);
+		query.setParameter("issuer", issuerName);
+		Map<String, Date> revokedCertificates = new HashMap<String, Date>();
+		for (RevokedCertificateEntity revokedCertificate : (List<RevokedCertificateEntity>) query
+				.getResultList()) {
+			revokedCertificates.put(revokedCertificate.getPk()
+					.getSerialNumber(), new Date(revokedCertificate
+					.getRevocationDate().getTime()));
+		}
+		return revokedCertificates;
+	}
+
+	/**
+	 * Returns a data source handing out the connection of the entity
+	 * manager's transaction, as the container does for the managed data
+	 * source. Closing the handed out connection leaves it open.
+	 */
+	private static DataSource getDataSource(EntityManager entityManager) {
+
+		final Session session = (Session) entityManager.getDelegate();
+		final InvocationHandler connectionHandler = new InvocationHandler() {
+
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				if ("close".equals(method.getName())) {
+					return null;
+				}
+				try {
+					return method.invoke(session.connection(), args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		};
+		return (DataSource) Proxy.newProxyInstance(
+				CertificateAuthorityDAOBeanTest.class.getClassLoader(),
+				new Class<?>[] { DataSource.class }, new InvocationHandler() {
+
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if ("getConnection".equals(method.getName())) {
+							return Proxy.newProxyInstance(
+									CertificateAuthorityDAOBeanTest.class
+											.getClassLoader(),
+									new Class<?>[] { Connection.class },
+									connectionHandler);
+						}
+						throw new UnsupportedOperationException(method
+								.getName());
+					}
+				});
+	}
+}
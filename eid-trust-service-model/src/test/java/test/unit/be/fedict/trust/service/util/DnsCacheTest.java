@@ -0,0 +1,110 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+import be.fedict.trust.service.util.DnsCache;
+
+/**
+ * Unit test for the {@link DnsCache}.
+ */
+public class DnsCacheTest {
+
+	@Test
+	public void testCachesLookup() throws Exception {
+		// setup
+		TestDnsCache dnsCache = new TestDnsCache(1000 * 60);
+
+		// operate
+		InetAddress[] addresses = dnsCache.resolve("ocsp.test");
+		InetAddress[] cachedAddresses = dnsCache.resolve("ocsp.test");
+
+		// verify
+		assertSame(addresses, cachedAddresses);
+		assertEquals("ocsp.test", addresses[0].getHostName());
+		assertEquals(1, dnsCache.lookups);
+
+		dnsCache.resolve("crl.test");
+		assertEquals(2, dnsCache.lookups);
+	}
+
+	@Test
+	public void testLookupAfterTtl() throws Exception {
+		// setup
+		TestDnsCache dnsCache = new TestDnsCache(50);
+		dnsCache.resolve("ocsp.test");
+
+		// operate
+		Thread.sleep(100);
+		dnsCache.resolve("ocsp.test");
+
+		// verify
+		assertEquals(2, dnsCache.lookups);
+	}
+
+	@Test
+	public void testFailedLookupNotCached() throws Exception {
+		// setup
+		TestDnsCache dnsCache = new TestDnsCache(1000 * 60);
+		dnsCache.unknownHost = true;
+
+		// operate
+		try {
+			dnsCache.resolve("ocsp.test");
+			fail();
+		} catch (UnknownHostException e) {
+			// expected
+		}
+		dnsCache.unknownHost = false;
+		dnsCache.resolve("ocsp.test");
+
+		// verify
+		assertEquals(2, dnsCache.lookups);
+	}
+
+	private static class TestDnsCache extends DnsCache {
+
+		private int lookups;
+
+		private boolean unknownHost;
+
+		TestDnsCache(long ttl) {
+			super(ttl);
+		}
+
+		@Override
+		protected InetAddress[] lookup(String host)
+				throws UnknownHostException {
+			this.lookups++;
+			if (this.unknownHost) {
+				throw new UnknownHostException(host);
+			}
+			return new InetAddress[] { InetAddress.getByAddress(host,
+					new byte[] { 127, 0, 0, 1 }) };
+		}
+	}
+}
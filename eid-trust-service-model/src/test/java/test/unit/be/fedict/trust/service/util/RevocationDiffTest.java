@@ -0,0 +1,313 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import be.fedict.trust.service.util.CrlEntryCursor;
+import be.fedict.trust.service.util.CrlEntrySorter;
+import be.fedict.trust.service.util.RevocationDiff;
+
+/**
+ * Unit test for the {@link RevocationDiff} and the {@link CrlEntrySorter}.
+ */
+public class RevocationDiffTest {
+
+	@Test
+	public void testDiff() throws Exception {
+		// setup
+		Map<String, Date> crlEntries = new HashMap<String, Date>();
+		crlEntries.put("1", new Date(1000));
+		crlEntries.put("2", new Date(2000));
+		crlEntries.put("4", new Date(4000));
+		Map<String, Date> cachedEntries = new HashMap<String, Date>();
+		cachedEntries.put("2", new Date(2000));
+		cachedEntries.put("3", new Date(3000));
+		cachedEntries.put("4", new Date(5000));
+		TestHandler handler = new TestHandler();
+
+		// operate
+		int differences = diff(crlEntries, cachedEntries, 10, handler);
+
+		// verify
+		assertEquals(3, differences);
+		assertEquals(1, handler.inserts.size());
+		assertEquals(new Date(1000), handler.inserts.get("1"));
+		assertEquals(1, handler.updates.size());
+		assertEquals(new Date(4000), handler.updates.get("4"));
+		assertEquals(1, handler.deletes.size());
+		assertEquals("3", handler.deletes.get(0));
+	}
+
+	@Test
+	public void testSameSecondIsNoUpdate() throws Exception {
+		// setup
+		Map<String, Date> crlEntries = new HashMap<String, Date>();
+		crlEntries.put("1", new Date(1999));
+		Map<String, Date> cachedEntries = new HashMap<String, Date>();
+		cachedEntries.put("1", new Date(1000));
+		TestHandler handler = new TestHandler();
+
+		// operate
+		int differences = diff(crlEntries, cachedEntries, 10, handler);
+
+		// verify
+		assertEquals(0, differences);
+	}
+
+	@Test
+	public void testEmptyCache() throws Exception {
+		// setup
+		Map<String, Date> crlEntries = new HashMap<String, Date>();
+		crlEntries.put("1", new Date(1000));
+		crlEntries.put("2", new Date(2000));
+		TestHandler handler = new TestHandler();
+
+		// operate
+		int differences = diff(crlEntries, new HashMap<String, Date>(), 10,
+				handler);
+
+		// verify
+		assertEquals(2, differences);
+		assertEquals(crlEntries, handler.inserts);
+	}
+
+	@Test
+	public void testEmptyCrl() throws Exception {
+		// setup
+		Map<String, Date> cachedEntries = new HashMap<String, Date>();
+		cachedEntries.put("1", new Date(1000));
+		cachedEntries.put("2", new Date(2000));
+		TestHandler handler = new TestHandler();
+
+		// operate
+		int differences = diff(new HashMap<String, Date>(), cachedEntries, 10,
+				handler);
+
+		// verify
+		assertEquals(2, differences);
+		assertEquals(2, handler.deletes.size());
+	}
+
+	/**
+	 * Serial numbers are ordered on their decimal string, as a database
+	 * orders a character column, not on their numeric value.
+	 */
+	@Test
+	public void testStringOrder() throws Exception {
+		// setup
+		Map<String, Date> crlEntries = new HashMap<String, Date>();
+		crlEntries.put("10", new Date(1000));
+		crlEntries.put("9", new Date(1000));
+		Map<String, Date> cachedEntries = new HashMap<String, Date>();
+		cachedEntries.put("100", new Date(1000));
+		cachedEntries.put("9", new Date(1000));
+		TestHandler handler = new TestHandler();
+
+		// operate
+		int differences = diff(crlEntries, cachedEntries, 10, handler);
+
+		// verify
+		assertEquals(2, differences);
+		assertTrue(handler.inserts.containsKey("10"));
+		assertEquals("100", handler.deletes.get(0));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testUnorderedCursor() throws Exception {
+		// setup
+		List<String> serialNumbers = new LinkedList<String>();
+		serialNumbers.add("2");
+		serialNumbers.add("1");
+		CrlEntryCursor cachedEntries = new ListCursor(serialNumbers);
+		CrlEntrySorter crlEntrySorter = new CrlEntrySorter(10);
+
+		// operate
+		try {
+			RevocationDiff.diff(crlEntrySorter.sort(), cachedEntries,
+					new TestHandler());
+		} finally {
+			crlEntrySorter.close();
+		}
+	}
+
+	@Test
+	public void testSorterDuplicates() throws Exception {
+		// setup
+		CrlEntrySorter crlEntrySorter = new CrlEntrySorter(2);
+		crlEntrySorter.add("2", new Date(2000));
+		crlEntrySorter.add("1", new Date(3000));
+		crlEntrySorter.add("1", new Date(1000));
+		crlEntrySorter.add("3", new Date(3000));
+		crlEntrySorter.add("2", new Date(1000));
+
+		// operate
+		CrlEntryCursor cursor = crlEntrySorter.sort();
+
+		// verify
+		try {
+			assertTrue(cursor.next());
+			assertEquals("1", cursor.getSerialNumber());
+			assertEquals(new Date(1000), cursor.getRevocationDate());
+			assertTrue(cursor.next());
+			assertEquals("2", cursor.getSerialNumber());
+			assertEquals(new Date(1000), cursor.getRevocationDate());
+			assertTrue(cursor.next());
+			assertEquals("3", cursor.getSerialNumber());
+			assertFalse(cursor.next());
+		} finally {
+			crlEntrySorter.close();
+		}
+	}
+
+	/**
+	 * Applying the reported differences to the cached entries should yield
+	 * the CRL entries, also when the sorter spills runs to disk.
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		// setup
+		Random random = new Random(1234);
+		Map<String, Date> crlEntries = new HashMap<String, Date>();
+		Map<String, Date> cachedEntries = new HashMap<String, Date>();
+		for (int idx = 0; idx < 5000; idx++) {
+			String serialNumber = new BigInteger(64, random).toString();
+			Date revocationDate = new Date(random.nextInt(4) * 1000L);
+			switch (random.nextInt(4)) {
+			case 0:
+				crlEntries.put(serialNumber, revocationDate);
+				break;
+			case 1:
+				cachedEntries.put(serialNumber, revocationDate);
+				break;
+			case 2:
+				crlEntries.put(serialNumber, revocationDate);
+				cachedEntries.put(serialNumber, revocationDate);
+				break;
+			default:
+				crlEntries.put(serialNumber, revocationDate);
+				cachedEntries.put(serialNumber, new Date(
+						revocationDate.getTime() + 1000));
+			}
+		}
+		TestHandler handler = new TestHandler();
+
+		// operate
+		int differences = diff(crlEntries, cachedEntries, 100, handler);
+
+		// verify
+		assertEquals(handler.inserts.size() + handler.updates.size()
+				+ handler.deletes.size(), differences);
+		Map<String, Date> result = new HashMap<String, Date>(cachedEntries);
+		for (String serialNumber : handler.inserts.keySet()) {
+			assertEquals(null, result.put(serialNumber,
+					handler.inserts.get(serialNumber)));
+		}
+		for (String serialNumber : handler.updates.keySet()) {
+			assertTrue(null != result.put(serialNumber,
+					handler.updates.get(serialNumber)));
+		}
+		for (String serialNumber : handler.deletes) {
+			assertTrue(null != result.remove(serialNumber));
+		}
+		assertEquals(crlEntries, result);
+	}
+
+	private int diff(Map<String, Date> crlEntries,
+			Map<String, Date> cachedEntries, int runSize, TestHandler handler) {
+
+		CrlEntrySorter crlEntrySorter = new CrlEntrySorter(runSize);
+		CrlEntrySorter cachedEntrySorter = new CrlEntrySorter(runSize);
+		try {
+			for (Map.Entry<String, Date> crlEntry : crlEntries.entrySet()) {
+				crlEntrySorter.add(crlEntry.getKey(), crlEntry.getValue());
+			}
+			for (Map.Entry<String, Date> cachedEntry : cachedEntries
+					.entrySet()) {
+				cachedEntrySorter.add(cachedEntry.getKey(),
+						cachedEntry.getValue());
+			}
+			return RevocationDiff.diff(crlEntrySorter.sort(),
+					cachedEntrySorter.sort(), handler);
+		} finally {
+			crlEntrySorter.close();
+			cachedEntrySorter.close();
+		}
+	}
+
+	private static class TestHandler implements RevocationDiff.Handler {
+
+		private final Map<String, Date> inserts = new HashMap<String, Date>();
+
+		private final Map<String, Date> updates = new HashMap<String, Date>();
+
+		private final List<String> deletes = new LinkedList<String>();
+
+		public void insert(String serialNumber, Date revocationDate) {
+			this.inserts.put(serialNumber, revocationDate);
+		}
+
+		public void update(String serialNumber, Date revocationDate) {
+			this.updates.put(serialNumber, revocationDate);
+		}
+
+		public void delete(String serialNumber) {
+			this.deletes.add(serialNumber);
+		}
+	}
+
+	private static class ListCursor implements CrlEntryCursor {
+
+		private final List<String> serialNumbers;
+
+		private int position = -1;
+
+		ListCursor(List<String> serialNumbers) {
+			this.serialNumbers = serialNumbers;
+		}
+
+		public boolean next() {
+			return ++this.position < this.serialNumbers.size();
+		}
+
+		public String getSerialNumber() {
+			return this.serialNumbers.get(this.position);
+		}
+
+		public Date getRevocationDate() {
+			return new Date(0);
+		}
+
+		public void close() {
+			// empty
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import be.fedict.trust.service.util.RevocationFilter;
+
+/**
+ * Unit test for the {@link RevocationFilter}.
+ */
+public class RevocationFilterTest {
+
+	private static final Log LOG = LogFactory
+			.getLog(RevocationFilterTest.class);
+
+	private static final String CA_NAME = "CN=Test CA";
+
+	@Test
+	public void testNoFalseNegatives() throws Exception {
+		// setup
+		Random random = new Random(1234);
+		Set<BigInteger> serialNumbers = new HashSet<BigInteger>();
+		RevocationFilter.Builder builder = new RevocationFilter.Builder(
+				CA_NAME, 0.01);
+		for (int idx = 0; idx < 10000; idx++) {
+			BigInteger serialNumber = new BigInteger(128, random);
+			serialNumbers.add(serialNumber);
+			builder.add(serialNumber);
+		}
+
+		// operate
+		RevocationFilter revocationFilter = builder.build(BigInteger.ONE,
+				new Date(1000));
+
+		// verify
+		assertEquals(CA_NAME, revocationFilter.getCaName());
+		assertEquals(BigInteger.ONE, revocationFilter.getCrlNumber());
+		assertEquals(new Date(1000), revocationFilter.getThisUpdate());
+		assertEquals(10000, revocationFilter.getEntries());
+		for (BigInteger serialNumber : serialNumbers) {
+			assertTrue(revocationFilter.mightContain(serialNumber));
+		}
+	}
+
+	@Test
+	public void testFalsePositiveRate() throws Exception {
+		// setup
+		Random random = new Random(1234);
+		Set<BigInteger> serialNumbers = new HashSet<BigInteger>();
+		RevocationFilter.Builder builder = new RevocationFilter.Builder(
+				CA_NAME, 0.01);
+		for (int idx = 0; idx < 10000; idx++) {
+			BigInteger serialNumber = new BigInteger(128, random);
+			serialNumbers.add(serialNumber);
+			builder.add(serialNumber);
+		}
+		RevocationFilter revocationFilter = builder.build(BigInteger.ONE,
+				new Date());
+
+		// operate
+		int falsePositives = 0;
+		int lookups = 0;
+		while (lookups < 100000) {
+			BigInteger serialNumber = new BigInteger(128, random);
+			if (serialNumbers.contains(serialNumber)) {
+				continue;
+			}
+			lookups++;
+			if (revocationFilter.mightContain(serialNumber)) {
+				falsePositives++;
+			}
+		}
+
+		// verify
+		LOG.debug("false positives: " + falsePositives + " of " + lookups);
+		assertTrue(falsePositives < lookups * 0.02);
+		assertEquals(0.01, revocationFilter.getFalsePositiveProbability(),
+				0.005);
+		// about 10 bits per entry at 1% false positives
+		assertTrue(revocationFilter.getSize() <= 2 * 10000);
+	}
+
+	@Test
+	public void testEmptyFilter() throws Exception {
+		// operate
+		RevocationFilter revocationFilter = new RevocationFilter.Builder(
+				CA_NAME, 0.01).build(BigInteger.ONE, new Date());
+
+		// verify
+		assertEquals(0, revocationFilter.getEntries());
+		assertFalse(revocationFilter.mightContain(BigInteger.ONE));
+		assertEquals(0.0, revocationFilter.getFalsePositiveProbability(), 0);
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import be.fedict.trust.service.util.RevocationIndex;
+
+/**
+ * Unit test for the {@link RevocationIndex}.
+ */
+public class RevocationIndexTest {
+
+	private static final String CA_NAME = "CN=Test CA";
+
+	@Test
+	public void testFindRevocationDate() throws Exception {
+		// setup
+		Map<BigInteger, Date> revokedCertificates = new HashMap<BigInteger, Date>();
+		Random random = new Random(1234);
+		RevocationIndex.Builder builder = new RevocationIndex.Builder(CA_NAME);
+		for (int idx = 0; idx < 10000; idx++) {
+			// serial numbers of varying length
+			BigInteger serialNumber = new BigInteger(1 + random.nextInt(160),
+					random);
+			Date revocationDate = new Date(random.nextInt() * 1000L);
+			if (revokedCertificates.containsKey(serialNumber)) {
+				continue;
+			}
+			revokedCertificates.put(serialNumber, revocationDate);
+			builder.add(serialNumber, revocationDate);
+		}
+
+		// operate
+		RevocationIndex revocationIndex = builder.build(BigInteger.TEN,
+				new Date(), null);
+
+		// verify
+		assertEquals(revokedCertificates.size(), revocationIndex.size());
+		assertEquals(CA_NAME, revocationIndex.getCaName());
+		assertEquals(BigInteger.TEN, revocationIndex.getCrlNumber());
+		for (Map.Entry<BigInteger, Date> revokedCertificate : revokedCertificates
+				.entrySet()) {
+			assertEquals(revokedCertificate.getValue(),
+					revocationIndex.findRevocationDate(revokedCertificate
+							.getKey()));
+		}
+		for (int idx = 0; idx < 10000; idx++) {
+			BigInteger serialNumber = new BigInteger(1 + random.nextInt(160),
+					random);
+			if (!revokedCertificates.containsKey(serialNumber)) {
+				assertNull(revocationIndex.findRevocationDate(serialNumber));
+			}
+		}
+	}
+
+	@Test
+	public void testNumericalOrder() throws Exception {
+		// setup: 255 < 256 although 0xff > 0x01 0x00 bytewise
+		RevocationIndex.Builder builder = new RevocationIndex.Builder(CA_NAME);
+		builder.add(BigInteger.valueOf(256), new Date(2000));
+		builder.add(BigInteger.valueOf(255), new Date(1000));
+		builder.add(BigInteger.valueOf(128), new Date(3000));
+		builder.add(BigInteger.ZERO, new Date(4000));
+
+		// operate
+		RevocationIndex revocationIndex = builder.build(BigInteger.ONE,
+				new Date(), null);
+
+		// verify
+		assertEquals(4, revocationIndex.size());
+		assertEquals(new Date(2000),
+				revocationIndex.findRevocationDate(BigInteger.valueOf(256)));
+		assertEquals(new Date(1000),
+				revocationIndex.findRevocationDate(BigInteger.valueOf(255)));
+		assertEquals(new Date(3000),
+				revocationIndex.findRevocationDate(BigInteger.valueOf(128)));
+		assertEquals(new Date(4000),
+				revocationIndex.findRevocationDate(BigInteger.ZERO));
+		assertNull(revocationIndex.findRevocationDate(BigInteger.ONE));
+		assertNull(revocationIndex.findRevocationDate(BigInteger.valueOf(257)));
+	}
+
+	@Test
+	public void testDuplicateKeepsEarliestRevocationDate() throws Exception {
+		// setup
+		RevocationIndex.Builder builder = new RevocationIndex.Builder(CA_NAME);
+		builder.add(BigInteger.valueOf(5), new Date(3000));
+		builder.add(BigInteger.valueOf(7), new Date(1000));
+		builder.add(BigInteger.valueOf(5), new Date(2000));
+
+		// operate
+		RevocationIndex revocationIndex = builder.build(BigInteger.ONE,
+				new Date(), null);
+
+		// verify
+		assertEquals(3, builder.size());
+		assertEquals(2, revocationIndex.size());
+		assertEquals(new Date(2000),
+				revocationIndex.findRevocationDate(BigInteger.valueOf(5)));
+		// 2 serial bytes, 3 offsets, 2 dates
+		assertEquals(2 + 3 * 4 + 2 * 8, revocationIndex.getMemorySize());
+	}
+
+	@Test
+	public void testEmptyIndex() throws Exception {
+		// operate
+		RevocationIndex revocationIndex = new RevocationIndex.Builder(CA_NAME)
+				.build(BigInteger.ONE, new Date(), null);
+
+		// verify
+		assertEquals(0, revocationIndex.size());
+		assertNull(revocationIndex.findRevocationDate(BigInteger.ONE));
+	}
+
+	@Test
+	public void testIsValid() throws Exception {
+		// setup
+		Date thisUpdate = new Date(10000);
+		Date nextUpdate = new Date(20000);
+		RevocationIndex revocationIndex = new RevocationIndex.Builder(CA_NAME)
+				.build(BigInteger.ONE, thisUpdate, nextUpdate);
+
+		// operate & verify
+		assertFalse(revocationIndex.isValid(new Date(9999)));
+		assertTrue(revocationIndex.isValid(thisUpdate));
+		assertTrue(revocationIndex.isValid(new Date(15000)));
+		assertTrue(revocationIndex.isValid(nextUpdate));
+		assertFalse(revocationIndex.isValid(new Date(20001)));
+		assertFalse(new RevocationIndex.Builder(CA_NAME).build(BigInteger.ONE,
+				thisUpdate, null).isValid(new Date(15000)));
+	}
+
+	@Test
+	public void testToMagnitude() throws Exception {
+		assertArrayEquals(new byte[] { 0 },
+				RevocationIndex.toMagnitude(BigInteger.ZERO));
+		assertArrayEquals(new byte[] { (byte) 0x80 },
+				RevocationIndex.toMagnitude(BigInteger.valueOf(128)));
+		assertArrayEquals(new byte[] { 1, 0 },
+				RevocationIndex.toMagnitude(BigInteger.valueOf(256)));
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.trust.service.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bouncycastle.asn1.x509.TBSCertList;
+import org.bouncycastle.util.encoders.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.unit.be.fedict.trust.service.TrustTestUtils;
+import be.fedict.trust.service.util.StreamingCrl;
+
+/**
+ * Unit test for the {@link StreamingCrl} parser, checked against CRLs
+ * generated with Bouncy Castle.
+ */
+public class StreamingCrlTest {
+
+	private KeyPair keyPair;
+
+	private X509Certificate certificate;
+
+	private Date thisUpdate;
+
+	private Date nextUpdate;
+
+	private File crlFile;
+
+	@Before
+	public void setUp() throws Exception {
+		this.keyPair = TrustTestUtils.generateKeyPair();
+		// UTCTime has a precision of seconds
+		long now = System.currentTimeMillis() / 1000 * 1000;
+		this.thisUpdate = new Date(now);
+		this.nextUpdate = new Date(now + 1000 * 60 * 60);
+		this.certificate = TrustTestUtils.generateCertificate(
+				this.keyPair.getPublic(), "CN=Test CA",
+				this.keyPair.getPrivate(), null, new Date(now - 1000 * 60),
+				this.nextUpdate, true);
+		this.crlFile = File.createTempFile("crl-", ".der");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.crlFile.delete();
+	}
+
+	@Test
+	public void testParseCrl() throws Exception {
+		// setup
+		Map<BigInteger, Date> revokedCertificates = new HashMap<BigInteger, Date>();
+		for (int idx = 1; idx <= 1000; idx++) {
+			revokedCertificates.put(BigInteger.valueOf(idx * 1000003L),
+					new Date(this.thisUpdate.getTime() - idx * 1000L));
+		}
+		writeCrl(TrustTestUtils.generateCrl(this.keyPair.getPrivate(),
+				this.certificate, this.thisUpdate, this.nextUpdate,
+				BigInteger.valueOf(42), revokedCertificates));
+
+		// operate
+		StreamingCrl crl = StreamingCrl.open(this.crlFile);
+		try {
+			// verify
+			assertEquals(this.certificate.getSubjectX500Principal(),
+					crl.getIssuerX500Principal());
+			assertEquals(this.thisUpdate, crl.getThisUpdate());
+			assertEquals(this.nextUpdate, crl.getNextUpdate());
+			assertEquals(BigInteger.valueOf(42), crl.getCrlNumber());
+			assertFalse(crl.isIndirectCRL());
+			assertTrue(crl.verify(this.keyPair.getPublic()));
+
+			Map<BigInteger, Date> entries = new HashMap<BigInteger, Date>();
+			Enumeration<TBSCertList.CRLEntry> revokedCertificatesEnum = crl
+					.getRevokedCertificateEnumeration();
+			while (revokedCertificatesEnum.hasMoreElements()) {
+				TBSCertList.CRLEntry entry = revokedCertificatesEnum
+						.nextElement();
+				entries.put(entry.getUserCertificate().getPositiveValue(),
+						entry.getRevocationDate().getDate());
+			}
+			assertEquals(revokedCertificates, entries);
+
+			// every enumeration starts over
+			assertTrue(crl.getRevokedCertificateEnumeration()
+					.hasMoreElements());
+		} finally {
+			crl.close();
+		}
+	}
+
+	@Test
+	public void testEmptyCrl() throws Exception {
+		// setup
+		writeCrl(TrustTestUtils.generateCrl(this.keyPair.getPrivate(),
+				this.certificate, this.thisUpdate, this.nextUpdate,
+				BigInteger.ONE, new HashMap<BigInteger, Date>()));
+
+		// operate
+		StreamingCrl crl = StreamingCrl.open(this.crlFile);
+		try {
+			// verify
+			assertEquals(BigInteger.ONE, crl.getCrlNumber());
+			assertFalse(crl.getRevokedCertificateEnumeration()
+					.hasMoreElements());
+			assertTrue(crl.verify(this.keyPair.getPublic()));
+		} finally {
+			crl.close();
+		}
+	}
+
+	@Test
+	public void testVerifyWithOtherKeyFails() throws Exception {
+		// setup
+		writeCrl(TrustTestUtils.generateCrl(this.keyPair.getPrivate(),
+				this.certificate, this.thisUpdate, this.nextUpdate,
+				BigInteger.ONE, new HashMap<BigInteger, Date>()));
+		KeyPair otherKeyPair = TrustTestUtils.generateKeyPair();
+
+		// operate
+		StreamingCrl crl = StreamingCrl.open(this.crlFile);
+		try {
+			// verify
+			assertFalse(crl.verify(otherKeyPair.getPublic()));
+		} finally {
+			crl.close();
+		}
+	}
+
+	@Test
+	public void testPemCrl() throws Exception {
+		// setup
+		Map<BigInteger, Date> revokedCertificates = new HashMap<BigInteger, Date>();
+		for (int idx = 1; idx <= 1000; idx++) {
+			revokedCertificates.put(BigInteger.valueOf(idx), this.thisUpdate);
+		}
+		X509CRL x509Crl = TrustTestUtils.generateCrl(this.keyPair.getPrivate(),
+				this.certificate, this.thisUpdate, this.nextUpdate,
+				BigInteger.TEN, revokedCertificates);
+		String base64 = new String(Base64.encode(x509Crl.getEncoded()),
+				"US-ASCII");
+		PrintWriter writer = new PrintWriter(this.crlFile, "US-ASCII");
+		try {
+			writer.println("Test CA CRL");
+			writer.println("-----BEGIN X509 CRL-----");
+			for (int idx = 0; idx < base64.length(); idx += 64) {
+				writer.println(base64.substring(idx,
+						Math.min(idx + 64, base64.length())));
+			}
+			writer.println("-----END X509 CRL-----");
+		} finally {
+			writer.close();
+		}
+
+		// operate
+		StreamingCrl crl = StreamingCrl.open(this.crlFile);
+		try {
+			// verify
+			assertEquals(BigInteger.TEN, crl.getCrlNumber());
+			assertTrue(crl.verify(this.keyPair.getPublic()));
+			int entries = 0;
+			Enumeration<TBSCertList.CRLEntry> revokedCertificatesEnum = crl
+					.getRevokedCertificateEnumeration();
+			while (revokedCertificatesEnum.hasMoreElements()) {
+				revokedCertificatesEnum.nextElement();
+				entries++;
+			}
+			assertEquals(revokedCertificates.size(), entries);
+		} finally {
+			crl.close();
+		}
+	}
+
+	@Test
+	public void testRsaPssCrl() throws Exception {
+		// setup
+		writeCrl(TrustTestUtils.generateCrl(this.keyPair.getPrivate(),
+				this.certificate, this.thisUpdate, this.nextUpdate,
+				BigInteger.ONE, new HashMap<BigInteger, Date>(),
+				"SHA256withRSAandMGF1"));
+		KeyPair otherKeyPair = TrustTestUtils.generateKeyPair();
+
+		// operate
+		StreamingCrl crl = StreamingCrl.open(this.crlFile);
+		try {
+			// verify
+			assertTrue(crl.verify(this.keyPair.getPublic()));
+			assertFalse(crl.verify(otherKeyPair.getPublic()));
+		} finally {
+			crl.close();
+		}
+	}
+
+	@Test
+	public void testInvalidCrl() throws Exception {
+		// setup
+		FileOutputStream output = new FileOutputStream(this.crlFile);
+		try {
+			output.write("not a CRL".getBytes());
+		} finally {
+			output.close();
+		}
+
+		// operate
+		try {
+			StreamingCrl.open(this.crlFile).close();
+			fail();
+		} catch (CRLException e) {
+			// expected
+		}
+	}
+
+	private void writeCrl(X509CRL crl) throws Exception {
+		FileOutputStream output = new FileOutputStream(this.crlFile);
+		try {
+			output.write(crl.getEncoded());
+		} finally {
+			output.close();
+		}
+	}
+}
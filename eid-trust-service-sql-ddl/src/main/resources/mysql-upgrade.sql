@@ -0,0 +1,9 @@
+-- MySQL script to upgrade an existing Trust Service database
+-- Adds the CRL number, harvest duration, HTTP validators and hash of the last
+-- harvested CRL per certification authority.
+-- <![CDATA[Usage: mysql -u trust -p trust < mysql-upgrade.sql ]]>
+ALTER TABLE ts_cert_authorities ADD COLUMN crlNumber DECIMAL(38,0);
+ALTER TABLE ts_cert_authorities ADD COLUMN harvestDuration BIGINT;
+ALTER TABLE ts_cert_authorities ADD COLUMN crlETag VARCHAR(255);
+ALTER TABLE ts_cert_authorities ADD COLUMN crlLastModified VARCHAR(255);
+ALTER TABLE ts_cert_authorities ADD COLUMN crlHash VARCHAR(255);
@@ -0,0 +1,9 @@
+-- Oracle script to upgrade an existing Trust Service database
+-- Adds the CRL number, harvest duration, HTTP validators and hash of the last
+-- harvested CRL per certification authority.
+-- <![CDATA[Usage: sqlplus trust/trust @oracle-upgrade.sql ]]>
+ALTER TABLE ts_cert_authorities ADD (crlNumber NUMBER(38,0));
+ALTER TABLE ts_cert_authorities ADD (harvestDuration NUMBER(19,0));
+ALTER TABLE ts_cert_authorities ADD (crlETag VARCHAR2(255 CHAR));
+ALTER TABLE ts_cert_authorities ADD (crlLastModified VARCHAR2(255 CHAR));
+ALTER TABLE ts_cert_authorities ADD (crlHash VARCHAR2(255 CHAR));
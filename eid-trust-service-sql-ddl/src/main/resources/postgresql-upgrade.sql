@@ -0,0 +1,11 @@
+-- PostgreSQL script to upgrade an existing Trust Service database
+-- Adds the CRL number, harvest duration, HTTP validators and hash of the last
+-- harvested CRL per certification authority.
+-- Runs on any supported PostgreSQL version. Only distributions built with
+-- -Denv=prod-postgresql95 use INSERT ... ON CONFLICT and require PostgreSQL 9.5.
+-- <![CDATA[Usage: psql -U trust trust < postgresql-upgrade.sql ]]>
+ALTER TABLE ts_cert_authorities ADD COLUMN crlNumber NUMERIC(38,0);
+ALTER TABLE ts_cert_authorities ADD COLUMN harvestDuration INT8;
+ALTER TABLE ts_cert_authorities ADD COLUMN crlETag VARCHAR(255);
+ALTER TABLE ts_cert_authorities ADD COLUMN crlLastModified VARCHAR(255);
+ALTER TABLE ts_cert_authorities ADD COLUMN crlHash VARCHAR(255);
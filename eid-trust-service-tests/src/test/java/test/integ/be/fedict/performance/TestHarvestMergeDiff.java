@@ -0,0 +1,284 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.integ.be.fedict.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import be.fedict.trust.service.entity.RevokedCertificateEntity;
+import be.fedict.trust.service.util.CrlEntrySorter;
+import be.fedict.trust.service.util.RevocationDiff;
+import be.fedict.trust.service.util.RevocationFilter;
+import be.fedict.trust.service.util.RevocationIndex;
+
+/**
+ * Benchmark comparing the heap use of the harvester's merge-diff against
+ * preloading all cached revoked certificates in a map, for a CRL of 1M
+ * entries. Also bounds the size of the revocation index and filter the
+ * harvester keeps of such a CRL.
+ */
+public class TestHarvestMergeDiff {
+
+	private static final Log LOG = LogFactory
+			.getLog(TestHarvestMergeDiff.class);
+
+	private static final String ISSUER = "CN=Test CA";
+
+	private static final int CRL_ENTRIES = 1000000;
+
+	private static final int SORT_RUN_SIZE = 50000;
+
+	private static final long SEED = 1234;
+
+	@Test
+	public void testPreloadMap() throws Exception {
+
+		// Setup
+		System.gc();
+		resetPeakUsage();
+		long before = getUsedHeap();
+
+		// Operate: what the harvester used to keep in memory
+		Map<String, RevokedCertificateEntity> revokedCertificatesMap = new HashMap<String, RevokedCertificateEntity>();
+		Random random = new Random(SEED);
+		for (int idx = 0; idx < CRL_ENTRIES; idx++) {
+			BigInteger serialNumber = new BigInteger(128, random);
+			revokedCertificatesMap.put(serialNumber.toString(),
+					new RevokedCertificateEntity(ISSUER, serialNumber,
+							new Date(random.nextInt()), BigInteger.ONE));
+		}
+
+		// Verify
+		LOG.debug("preload map: entries=" + revokedCertificatesMap.size()
+				+ ", peak heap increase=" + toMegaBytes(getPeakHeap() - before)
+				+ " MB");
+		assertEquals(CRL_ENTRIES, revokedCertificatesMap.size());
+	}
+
+	@Test
+	public void testMergeDiff() throws Exception {
+
+		// Setup
+		System.gc();
+		resetPeakUsage();
+		long before = getUsedHeap();
+
+		/*
+		 * The cache holds the previous CRL: every 100th entry was not yet
+		 * revoked, every 50th entry got revoked on another date and 1% of the
+		 * cached entries got removed from the CRL since.
+		 */
+		CrlEntrySorter crlEntries = new CrlEntrySorter(SORT_RUN_SIZE);
+		CrlEntrySorter cachedEntries = new CrlEntrySorter(SORT_RUN_SIZE);
+		Random random = new Random(SEED);
+		int expectedInserts = 0;
+		int expectedUpdates = 0;
+		for (int idx = 0; idx < CRL_ENTRIES; idx++) {
+			String serialNumber = new BigInteger(128, random).toString();
+			Date revocationDate = new Date(random.nextInt() * 1000L);
+			crlEntries.add(serialNumber, revocationDate);
+			if (0 == idx % 100) {
+				expectedInserts++;
+			} else if (0 == idx % 50) {
+				cachedEntries.add(serialNumber, new Date(
+						revocationDate.getTime() + 1000));
+				expectedUpdates++;
+			} else {
+				cachedEntries.add(serialNumber, revocationDate);
+			}
+		}
+		int expectedDeletes = CRL_ENTRIES / 100;
+		for (int idx = 0; idx < expectedDeletes; idx++) {
+			cachedEntries.add(new BigInteger(128, random).toString(), new Date(
+					random.nextInt() * 1000L));
+		}
+
+		// Operate
+		final int[] counts = new int[3];
+		int differences;
+		try {
+			differences = RevocationDiff.diff(crlEntries.sort(),
+					cachedEntries.sort(), new RevocationDiff.Handler() {
+
+						public void insert(String serialNumber,
+								Date revocationDate) {
+							counts[0]++;
+						}
+
+						public void update(String serialNumber,
+								Date revocationDate) {
+							counts[1]++;
+						}
+
+						public void delete(String serialNumber) {
+							counts[2]++;
+						}
+					});
+		} finally {
+			crlEntries.close();
+			cachedEntries.close();
+		}
+
+		// Verify
+		LOG.debug("merge diff: inserts=" + counts[0] + ", updates="
+				+ counts[1] + ", deletes=" + counts[2]
+				+ ", peak heap increase="
+				+ toMegaBytes(getPeakHeap() - before) + " MB");
+		assertEquals(expectedInserts, counts[0]);
+		assertEquals(expectedUpdates, counts[1]);
+		assertEquals(expectedDeletes, counts[2]);
+		assertEquals(expectedInserts + expectedUpdates + expectedDeletes,
+				differences);
+	}
+
+	@Test
+	public void testMergeDiffCachedInDatabaseOrder() throws Exception {
+
+		/*
+		 * A database collation can order the cached serial numbers
+		 * differently than the CRL entries, e.g. numerically. Sorting them
+		 * again keeps the diff working.
+		 */
+		CrlEntrySorter crlEntries = new CrlEntrySorter(SORT_RUN_SIZE);
+		CrlEntrySorter cachedEntries = new CrlEntrySorter(SORT_RUN_SIZE);
+		Date revocationDate = new Date(1000L);
+		for (int idx = 1; idx <= 1000; idx++) {
+			crlEntries.add(Integer.toString(idx), revocationDate);
+			cachedEntries.add(Integer.toString(idx), revocationDate);
+		}
+
+		// Operate
+		int differences;
+		try {
+			differences = RevocationDiff.diff(crlEntries.sort(),
+					cachedEntries.sort(), new RevocationDiff.Handler() {
+
+						public void insert(String serialNumber,
+								Date revocationDate) {
+							fail("insert " + serialNumber);
+						}
+
+						public void update(String serialNumber,
+								Date revocationDate) {
+							fail("update " + serialNumber);
+						}
+
+						public void delete(String serialNumber) {
+							fail("delete " + serialNumber);
+						}
+					});
+		} finally {
+			crlEntries.close();
+			cachedEntries.close();
+		}
+
+		// Verify
+		assertEquals(0, differences);
+	}
+
+	@Test
+	public void testRevocationIndexSize() throws Exception {
+
+		// Setup
+		RevocationIndex.Builder revocationIndexBuilder = new RevocationIndex.Builder(
+				ISSUER);
+		RevocationFilter.Builder revocationFilterBuilder = new RevocationFilter.Builder(
+				ISSUER, 0.01);
+		Random random = new Random(SEED);
+		BigInteger[] serialNumbers = new BigInteger[1000];
+		for (int idx = 0; idx < CRL_ENTRIES; idx++) {
+			BigInteger serialNumber = new BigInteger(128, random);
+			Date revocationDate = new Date(random.nextInt() * 1000L);
+			revocationIndexBuilder.add(serialNumber, revocationDate);
+			revocationFilterBuilder.add(serialNumber);
+			if (idx < serialNumbers.length) {
+				serialNumbers[idx] = serialNumber;
+			}
+		}
+
+		// Operate
+		RevocationIndex revocationIndex = revocationIndexBuilder.build(
+				BigInteger.ONE, new Date(), null);
+		RevocationFilter revocationFilter = revocationFilterBuilder.build(
+				BigInteger.ONE, new Date());
+
+		// Verify
+		LOG.debug("revocation index: entries=" + revocationIndex.size()
+				+ ", size=" + toMegaBytes(revocationIndex.getMemorySize())
+				+ " MB, filter size="
+				+ toMegaBytes(revocationFilter.getSize()) + " MB");
+		assertEquals(CRL_ENTRIES, revocationIndex.size());
+		// 16 bytes of serial number, 4 bytes of offset, 8 bytes of date
+		assertTrue(revocationIndex.getMemorySize() <= 28L * CRL_ENTRIES + 4);
+		// about 10 bits per entry at 1% false positives
+		assertTrue(revocationFilter.getSize() <= 2L * CRL_ENTRIES);
+		for (BigInteger serialNumber : serialNumbers) {
+			assertNotNull(revocationIndex.findRevocationDate(serialNumber));
+			assertTrue(revocationFilter.mightContain(serialNumber));
+		}
+	}
+
+	private void resetPeakUsage() {
+
+		for (MemoryPoolMXBean memoryPool : ManagementFactory
+				.getMemoryPoolMXBeans()) {
+			if (MemoryType.HEAP == memoryPool.getType()) {
+				memoryPool.resetPeakUsage();
+			}
+		}
+	}
+
+	private long getPeakHeap() {
+
+		long peak = 0;
+		for (MemoryPoolMXBean memoryPool : ManagementFactory
+				.getMemoryPoolMXBeans()) {
+			if (MemoryType.HEAP == memoryPool.getType()) {
+				peak += memoryPool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private long getUsedHeap() {
+
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+				.getUsed();
+	}
+
+	private long toMegaBytes(long bytes) {
+
+		return bytes / (1024 * 1024);
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * eID Trust Service Project.
+ * Copyright (C) 2009-2012 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.integ.be.fedict.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.x509.TBSCertList;
+import org.joda.time.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import test.integ.be.fedict.trust.util.TestUtils;
+import be.fedict.trust.service.util.StreamingCrl;
+
+/**
+ * Benchmark comparing the heap use of parsing a large CRL into an
+ * {@link X509CRL} against streaming it via {@link StreamingCrl}.
+ */
+public class TestStreamingCrl {
+
+	private static final Log LOG = LogFactory.getLog(TestStreamingCrl.class);
+
+	private static final int CRL_ENTRIES = 200000;
+
+	private static final int CRL_NUMBER = 42;
+
+	private static X509Certificate caCertificate;
+
+	private static X509Certificate otherCertificate;
+
+	private static File crlFile;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		caCertificate = TestUtils.generateSelfSignedCertificate(keyPair,
+				"CN=Test CA");
+		otherCertificate = TestUtils.generateSelfSignedCertificate(
+				TestUtils.generateKeyPair(), "CN=Test CA");
+		List<BigInteger> serialNumbers = new ArrayList<BigInteger>(
+				CRL_ENTRIES);
+		Random random = new Random(1234);
+		for (int idx = 0; idx < CRL_ENTRIES; idx++) {
+			serialNumbers.add(new BigInteger(128, random));
+		}
+		DateTime now = new DateTime();
+		X509CRL crl = TestUtils.generateCrl(CRL_NUMBER, keyPair.getPrivate(),
+				caCertificate, now, now.plusDays(1), serialNumbers);
+		crlFile = File.createTempFile("test-crl-", ".der");
+		FileOutputStream crlOutputStream = new FileOutputStream(crlFile);
+		crlOutputStream.write(crl.getEncoded());
+		crlOutputStream.close();
+		LOG.debug("CRL size: " + crlFile.length() / 1024 + " KB");
+	}
+
+	@AfterClass
+	public static void tearDown() {
+
+		crlFile.delete();
+	}
+
+	@Test
+	public void testX509Crl() throws Exception {
+
+		// Setup
+		System.gc();
+		resetPeakUsage();
+		long before = getUsedHeap();
+
+		// Operate: what the harvester used to do
+		CertificateFactory certificateFactory = CertificateFactory
+				.getInstance("X.509", "BC");
+		FileInputStream crlInputStream = new FileInputStream(crlFile);
+		X509CRL crl = (X509CRL) certificateFactory
+				.generateCRL(crlInputStream);
+		crlInputStream.close();
+		crl.verify(caCertificate.getPublicKey());
+		ASN1InputStream asn1InputStream = new ASN1InputStream(
+				new ByteArrayInputStream(crl.getTBSCertList()),
+				Integer.MAX_VALUE, true);
+		TBSCertList tbsCertList = TBSCertList
+				.getInstance((ASN1Sequence) asn1InputStream.readObject());
+		int entries = count(tbsCertList.getRevokedCertificateEnumeration());
+
+		// Verify
+		LOG.debug("X509CRL: entries=" + entries + ", peak heap increase="
+				+ toMegaBytes(getPeakHeap() - before) + " MB");
+		assertEquals(CRL_ENTRIES, entries);
+	}
+
+	@Test
+	public void testStreamingCrl() throws Exception {
+
+		// Setup
+		System.gc();
+		resetPeakUsage();
+		long before = getUsedHeap();
+
+		// Operate
+		StreamingCrl crl = StreamingCrl.open(crlFile);
+		int entries;
+		try {
+			assertTrue(crl.verify(caCertificate.getPublicKey()));
+			assertFalse(crl.verify(otherCertificate.getPublicKey()));
+			entries = count(crl.getRevokedCertificateEnumeration());
+
+			// Verify
+			LOG.debug("streaming CRL: entries=" + entries
+					+ ", peak heap increase="
+					+ toMegaBytes(getPeakHeap() - before) + " MB");
+			assertEquals(CRL_ENTRIES, entries);
+			assertEquals(BigInteger.valueOf(CRL_NUMBER), crl.getCrlNumber());
+			assertEquals(caCertificate.getSubjectX500Principal(),
+					crl.getIssuerX500Principal());
+			assertFalse(crl.isIndirectCRL());
+			assertTrue(crl.getThisUpdate().before(crl.getNextUpdate()));
+		} finally {
+			crl.close();
+		}
+	}
+
+	private int count(Enumeration<?> crlEntries) {
+
+		int count = 0;
+		while (crlEntries.hasMoreElements()) {
+			TBSCertList.CRLEntry crlEntry = (TBSCertList.CRLEntry) crlEntries
+					.nextElement();
+			if (null != crlEntry.getUserCertificate()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void resetPeakUsage() {
+
+		for (MemoryPoolMXBean memoryPool : ManagementFactory
+				.getMemoryPoolMXBeans()) {
+			if (MemoryType.HEAP == memoryPool.getType()) {
+				memoryPool.resetPeakUsage();
+			}
+		}
+	}
+
+	private long getPeakHeap() {
+
+		long peak = 0;
+		for (MemoryPoolMXBean memoryPool : ManagementFactory
+				.getMemoryPoolMXBeans()) {
+			if (MemoryType.HEAP == memoryPool.getType()) {
+				peak += memoryPool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private long getUsedHeap() {
+
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+				.getUsed();
+	}
+
+	private long toMegaBytes(long bytes) {
+
+		return bytes / (1024 * 1024);
+	}
+}